@@ -0,0 +1,230 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.RpcAddr;
+import cn.wjybxx.bigcat.rpc.RpcProtocol;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 故障注入路由 -- 装饰真实的路由，用于测试超时、重试和故障转移
+ * <p>
+ * 1. 只作用于本Node发出的消息，按第一个匹配的{@link FaultRule}丢弃、延迟、重复或乱序；未匹配的消息直接交给被装饰的路由。
+ * 2. 所有随机决策使用同一个带种子的随机数，且只在Node线程访问，相同的消息序列下故障可重现。
+ * 3. 延迟的消息通过Node的定时任务发送，不会在当前调用栈内派发。
+ * 4. 规则可以在运行时增删，比如在测试中制造网络分区后再恢复。
+ * <p>
+ * 使用时将该路由绑定为{@link NodeRpcRouter}，被装饰的路由不需要再添加为Node的模块，由该路由转发生命周期。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class FaultInjectionRouter implements NodeRpcRouter {
+
+    private final NodeRpcRouter delegate;
+    private final SplittableRandom random;
+    private final List<FaultRule> rules = new CopyOnWriteArrayList<>();
+    private volatile boolean enabled = true;
+    private Node node;
+
+    public FaultInjectionRouter(NodeRpcRouter delegate, long seed) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.random = new SplittableRandom(seed);
+    }
+
+    public NodeRpcRouter getDelegate() {
+        return delegate;
+    }
+
+    // region 规则
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** 禁用后所有消息直接交给被装饰的路由 */
+    public FaultInjectionRouter setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    /** 添加规则 -- 先添加的规则优先匹配 */
+    public FaultInjectionRouter addRule(FaultRule rule) {
+        rules.add(Objects.requireNonNull(rule));
+        return this;
+    }
+
+    public boolean removeRule(FaultRule rule) {
+        return rules.remove(rule);
+    }
+
+    public void clearRules() {
+        rules.clear();
+    }
+
+    public List<FaultRule> getRules() {
+        return List.copyOf(rules);
+    }
+
+    /**
+     * 制造网络分区 -- 丢弃发往指定地址的所有消息
+     * 1. {@link WorkerAddr}按Node匹配，发往该Node任意Worker的消息都被丢弃；按类型广播的地址不匹配。
+     * 2. 只影响本Node发出的消息，对方发来的消息仍会到达；双向分区需要在对方Node的路由上同样调用。
+     *
+     * @return 分区规则，调用{@link #removeRule(FaultRule)}恢复
+     */
+    public FaultRule partition(RpcAddr addr) {
+        Objects.requireNonNull(addr);
+        Predicate<RpcAddr> addrMatcher = addr instanceof WorkerAddr workerAddr
+                ? target -> target instanceof WorkerAddr that && workerAddr.equalsIgnoreWorker(that)
+                : addr::equals;
+        FaultRule rule = FaultRule.partition("partition-" + addr, addrMatcher);
+        rules.add(0, rule);
+        return rule;
+    }
+
+    // endregion
+
+    // region 生命周期
+
+    @Override
+    public void inject(Worker worker) {
+        this.node = (Node) Objects.requireNonNull(worker);
+        delegate.inject(worker);
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void update() throws Exception {
+        delegate.update();
+    }
+
+    @Override
+    public void stop() {
+        delegate.stop();
+    }
+
+    // endregion
+
+    @Override
+    public boolean send(RpcProtocol protocol) {
+        FaultRule rule = enabled ? findRule(protocol) : null;
+        if (rule == null) {
+            return delegate.send(protocol);
+        }
+        rule.matchedCount.incrementAndGet();
+        if (rule.getDropRate() > 0 && random.nextDouble() < rule.getDropRate()) {
+            rule.droppedCount.incrementAndGet();
+            return true; // 与网络丢包一致，发送方无感知
+        }
+        long delayMs = rule.getDelay() == null ? 0 : rule.getDelay().nextDelay(random);
+        if (rule.getReorderRate() > 0 && random.nextDouble() < rule.getReorderRate()) {
+            rule.reorderedCount.incrementAndGet();
+            delayMs += 1 + random.nextLong(rule.getReorderWindowMs());
+        }
+        if (delayMs > 0) {
+            rule.delayedCount.incrementAndGet();
+        }
+        boolean duplicate = rule.getDuplicateRate() > 0 && random.nextDouble() < rule.getDuplicateRate();
+        if (duplicate) {
+            rule.duplicatedCount.incrementAndGet();
+            sendLater(protocol, delayMs);
+        }
+        return sendLater(protocol, delayMs);
+    }
+
+    private FaultRule findRule(RpcProtocol protocol) {
+        for (FaultRule rule : rules) {
+            if (rule.matches(protocol)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private boolean sendLater(RpcProtocol protocol, long delayMs) {
+        if (delayMs <= 0) {
+            return delegate.send(protocol);
+        }
+        node.schedule(() -> delegate.send(protocol), delayMs, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // region 转发
+
+    @Override
+    public boolean isCrossLanguageAddr(RpcAddr addr) {
+        return delegate.isCrossLanguageAddr(addr);
+    }
+
+    @Override
+    public boolean isLocalAddr(WorkerAddr addr) {
+        return delegate.isLocalAddr(addr);
+    }
+
+    @Override
+    public boolean isLocalAddr(RpcAddr addr) {
+        return delegate.isLocalAddr(addr);
+    }
+
+    @Override
+    public boolean isWritable(RpcAddr addr) {
+        return delegate.isWritable(addr);
+    }
+
+    @Override
+    public boolean isUnicastAddr(WorkerAddr addr) {
+        return delegate.isUnicastAddr(addr);
+    }
+
+    @Override
+    public boolean isUnicastWorkerAddr(WorkerAddr addr) {
+        return delegate.isUnicastWorkerAddr(addr);
+    }
+
+    @Override
+    public boolean isBroadcastWorkerAddr(WorkerAddr addr) {
+        return delegate.isBroadcastWorkerAddr(addr);
+    }
+
+    @Override
+    public boolean isUnicastAddr(RpcAddr addr) {
+        return delegate.isUnicastAddr(addr);
+    }
+
+    @Override
+    public boolean isUnicastWorkerAddr(RpcAddr addr) {
+        return delegate.isUnicastWorkerAddr(addr);
+    }
+
+    @Override
+    public boolean isBroadcastWorkerAddr(RpcAddr addr) {
+        return delegate.isBroadcastWorkerAddr(addr);
+    }
+
+    // endregion
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.RpcAddr;
+import cn.wjybxx.bigcat.rpc.RpcProtocol;
+import cn.wjybxx.bigcat.rpc.RpcRequest;
+import cn.wjybxx.bigcat.rpc.RpcResponse;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.random.RandomGenerator;
+
+/**
+ * 故障注入规则，配合{@link FaultInjectionRouter}使用
+ * <p>
+ * 1. 按目标地址、服务id和协议类型匹配消息；未指定的条件匹配所有消息。
+ * 2. 匹配的消息按概率丢弃、延迟、重复或乱序；乱序通过给部分消息额外的随机延迟实现，使后发的消息先到达。
+ * 3. 规则的配置不可变，延迟模型可能有状态(突发延迟)，只在Node线程访问。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public final class FaultRule {
+
+    private final String name;
+    private final Predicate<? super RpcAddr> addrMatcher;
+    private final IntSet serviceIds;
+    private final boolean matchRequest;
+    private final boolean matchResponse;
+    private final double dropRate;
+    private final double duplicateRate;
+    private final double reorderRate;
+    private final long reorderWindowMs;
+    private final Delay delay;
+
+    // 统计
+    final AtomicLong matchedCount = new AtomicLong();
+    final AtomicLong droppedCount = new AtomicLong();
+    final AtomicLong delayedCount = new AtomicLong();
+    final AtomicLong duplicatedCount = new AtomicLong();
+    final AtomicLong reorderedCount = new AtomicLong();
+
+    private FaultRule(Builder builder) {
+        this.name = builder.name;
+        this.addrMatcher = builder.addrMatcher;
+        this.serviceIds = IntSets.unmodifiable(new IntOpenHashSet(builder.serviceIds));
+        this.matchRequest = builder.matchRequest;
+        this.matchResponse = builder.matchResponse;
+        this.dropRate = builder.dropRate;
+        this.duplicateRate = builder.duplicateRate;
+        this.reorderRate = builder.reorderRate;
+        this.reorderWindowMs = builder.reorderWindowMs;
+        this.delay = builder.delay;
+    }
+
+    public static Builder newBuilder(String name) {
+        return new Builder(name);
+    }
+
+    /** 创建一个网络分区规则 -- 丢弃发往匹配地址的所有消息 */
+    public static FaultRule partition(String name, Predicate<? super RpcAddr> addrMatcher) {
+        return newBuilder(name).setAddrMatcher(addrMatcher).setDropRate(1).build();
+    }
+
+    /** 测试协议是否匹配该规则 */
+    public boolean matches(RpcProtocol protocol) {
+        if (protocol instanceof RpcRequest request) {
+            if (!matchRequest || !matchService(request.getServiceId())) {
+                return false;
+            }
+        } else if (protocol instanceof RpcResponse response) {
+            if (!matchResponse || !matchService(response.getServiceId())) {
+                return false;
+            }
+        } else {
+            return false;
+        }
+        return addrMatcher == null || addrMatcher.test(protocol.getDestAddr());
+    }
+
+    private boolean matchService(int serviceId) {
+        return serviceIds.isEmpty() || serviceIds.contains(serviceId);
+    }
+
+    // region getter
+
+    public String getName() {
+        return name;
+    }
+
+    public double getDropRate() {
+        return dropRate;
+    }
+
+    public double getDuplicateRate() {
+        return duplicateRate;
+    }
+
+    public double getReorderRate() {
+        return reorderRate;
+    }
+
+    public long getReorderWindowMs() {
+        return reorderWindowMs;
+    }
+
+    public Delay getDelay() {
+        return delay;
+    }
+
+    /** 匹配的消息数 */
+    public long getMatchedCount() {
+        return matchedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    public long getDuplicatedCount() {
+        return duplicatedCount.get();
+    }
+
+    public long getReorderedCount() {
+        return reorderedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "FaultRule{" +
+                "name='" + name + '\'' +
+                ", matched=" + matchedCount.get() +
+                ", dropped=" + droppedCount.get() +
+                ", delayed=" + delayedCount.get() +
+                ", duplicated=" + duplicatedCount.get() +
+                ", reordered=" + reorderedCount.get() +
+                '}';
+    }
+
+    // endregion
+
+    /** 延迟模型 */
+    @FunctionalInterface
+    public interface Delay {
+
+        /** @return 延迟毫秒数 */
+        long nextDelay(RandomGenerator random);
+
+        /** 固定延迟 */
+        static Delay fixed(long delayMs) {
+            if (delayMs < 0) throw new IllegalArgumentException("delayMs: " + delayMs);
+            return random -> delayMs;
+        }
+
+        /** 在[baseMs - jitterMs, baseMs + jitterMs]之间均匀分布 */
+        static Delay jitter(long baseMs, long jitterMs) {
+            if (baseMs < 0 || jitterMs < 0) {
+                throw new IllegalArgumentException("baseMs: %d, jitterMs: %d".formatted(baseMs, jitterMs));
+            }
+            return random -> jitterMs == 0 ? baseMs : Math.max(0, baseMs + random.nextLong(-jitterMs, jitterMs + 1));
+        }
+
+        /**
+         * 突发延迟 -- 大部分时间为正常延迟，偶尔连续多个消息出现高延迟，模拟网络拥塞
+         *
+         * @param normal      正常情况下的延迟
+         * @param burstMs     突发时的延迟
+         * @param burstRate   每个消息触发突发的概率
+         * @param burstLength 每次突发影响的消息数
+         */
+        static Delay bursty(Delay normal, long burstMs, double burstRate, int burstLength) {
+            return new BurstyDelay(normal, burstMs, burstRate, burstLength);
+        }
+    }
+
+    private static class BurstyDelay implements Delay {
+
+        final Delay normal;
+        final long burstMs;
+        final double burstRate;
+        final int burstLength;
+        int remaining;
+
+        BurstyDelay(Delay normal, long burstMs, double burstRate, int burstLength) {
+            checkRate(burstRate);
+            if (burstMs < 0 || burstLength <= 0) {
+                throw new IllegalArgumentException("burstMs: %d, burstLength: %d".formatted(burstMs, burstLength));
+            }
+            this.normal = Objects.requireNonNull(normal);
+            this.burstMs = burstMs;
+            this.burstRate = burstRate;
+            this.burstLength = burstLength;
+        }
+
+        @Override
+        public long nextDelay(RandomGenerator random) {
+            if (remaining > 0) {
+                remaining--;
+                return burstMs;
+            }
+            if (random.nextDouble() < burstRate) {
+                remaining = burstLength - 1;
+                return burstMs;
+            }
+            return normal.nextDelay(random);
+        }
+    }
+
+    private static void checkRate(double rate) {
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("rate: " + rate);
+        }
+    }
+
+    public static class Builder {
+
+        private final String name;
+        private Predicate<? super RpcAddr> addrMatcher;
+        private final IntSet serviceIds = new IntOpenHashSet();
+        private boolean matchRequest = true;
+        private boolean matchResponse = true;
+        private double dropRate;
+        private double duplicateRate;
+        private double reorderRate;
+        private long reorderWindowMs = 50;
+        private Delay delay;
+
+        private Builder(String name) {
+            this.name = Objects.requireNonNull(name, "name");
+        }
+
+        /** 目标地址的匹配器，null表示匹配所有地址 */
+        public Builder setAddrMatcher(Predicate<? super RpcAddr> addrMatcher) {
+            this.addrMatcher = addrMatcher;
+            return this;
+        }
+
+        /** 只匹配发往给定地址的消息 */
+        public Builder setDestAddr(RpcAddr destAddr) {
+            Objects.requireNonNull(destAddr);
+            this.addrMatcher = destAddr::equals;
+            return this;
+        }
+
+        /** 添加要匹配的服务，未添加时匹配所有服务 */
+        public Builder addServiceId(int serviceId) {
+            this.serviceIds.add(serviceId);
+            return this;
+        }
+
+        public Builder setMatchRequest(boolean matchRequest) {
+            this.matchRequest = matchRequest;
+            return this;
+        }
+
+        public Builder setMatchResponse(boolean matchResponse) {
+            this.matchResponse = matchResponse;
+            return this;
+        }
+
+        public Builder setDropRate(double dropRate) {
+            checkRate(dropRate);
+            this.dropRate = dropRate;
+            return this;
+        }
+
+        public Builder setDuplicateRate(double duplicateRate) {
+            checkRate(duplicateRate);
+            this.duplicateRate = duplicateRate;
+            return this;
+        }
+
+        /**
+         * @param reorderRate     乱序的概率
+         * @param reorderWindowMs 乱序的消息额外延迟[1, reorderWindowMs]毫秒
+         */
+        public Builder setReorder(double reorderRate, long reorderWindowMs) {
+            checkRate(reorderRate);
+            if (reorderWindowMs <= 0) throw new IllegalArgumentException("reorderWindowMs: " + reorderWindowMs);
+            this.reorderRate = reorderRate;
+            this.reorderWindowMs = reorderWindowMs;
+            return this;
+        }
+
+        public Builder setDelay(Delay delay) {
+            this.delay = delay;
+            return this;
+        }
+
+        public FaultRule build() {
+            return new FaultRule(this);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的Node注册表
+ * 同一个进程内的多个Node共享一个注册表，{@link LocalRpcRouter}通过注册表找到目标Node。
+ *
+ * @author wjybxx
+ * date - 2024/1/20
+ */
+@ThreadSafe
+public class LocalNodeRegistry {
+
+    private final ConcurrentHashMap<Long, LocalRpcRouter> routerMap = new ConcurrentHashMap<>();
+
+    void register(WorkerAddr nodeAddr, LocalRpcRouter router) {
+        LocalRpcRouter exist = routerMap.putIfAbsent(nodeKey(nodeAddr.serverType, nodeAddr.serverId), router);
+        if (exist != null && exist != router) {
+            throw new IllegalStateException("node is duplicate, addr " + nodeAddr);
+        }
+    }
+
+    void unregister(WorkerAddr nodeAddr, LocalRpcRouter router) {
+        routerMap.remove(nodeKey(nodeAddr.serverType, nodeAddr.serverId), router);
+    }
+
+    @Nullable
+    LocalRpcRouter getRouter(int serverType, int serverId) {
+        return routerMap.get(nodeKey(serverType, serverId));
+    }
+
+    /** 查询同类型的所有Node */
+    List<LocalRpcRouter> listRouters(int serverType) {
+        List<LocalRpcRouter> result = new ArrayList<>(4);
+        for (LocalRpcRouter router : routerMap.values()) {
+            if (router.nodeAddr().serverType == serverType) {
+                result.add(router);
+            }
+        }
+        return result;
+    }
+
+    /** 查询指定Node是否在当前进程 */
+    public boolean contains(int serverType, int serverId) {
+        return routerMap.containsKey(nodeKey(serverType, serverId));
+    }
+
+    /** 当前进程的Node数 */
+    public int size() {
+        return routerMap.size();
+    }
+
+    private static long nodeKey(int serverType, int serverId) {
+        return ((long) serverType << 32) | (serverId & 0xFFFFFFFFL);
+    }
+}
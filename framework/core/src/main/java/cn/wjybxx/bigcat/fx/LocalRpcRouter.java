@@ -0,0 +1,149 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.*;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 进程内的Rpc路由，用于连接同一个进程内的多个Node
+ * <p>
+ * 1. 按{@link WorkerAddr}的serverType和serverId寻址，serverId小于等于0时发送给同类型的所有Node。
+ * 2. 可共享的协议直接传递对象引用；不可共享的协议已在发送方序列化，接收方在自己的线程反序列化。
+ * 3. 协议对象本身是可变的，因此发给其它Node时会浅拷贝协议，参数或结果对象不拷贝。
+ * 4. 所有协议都投递到目标Node的事件队列，不在当前线程派发 -- 调用方需要在发送后注册存根。
+ * <p>
+ * 同一个进程内的Node应当共享同一个{@link LocalNodeRegistry}，通常用于开发环境、小规模部署和多Node集成测试。
+ *
+ * @author wjybxx
+ * date - 2024/1/20
+ */
+public class LocalRpcRouter extends AbstractRpcRouter {
+
+    private final LocalNodeRegistry registry;
+
+    public LocalRpcRouter(LocalNodeRegistry registry) {
+        this.registry = Objects.requireNonNull(registry);
+    }
+
+    public LocalNodeRegistry getRegistry() {
+        return registry;
+    }
+
+    WorkerAddr nodeAddr() {
+        return node.nodeAddr();
+    }
+
+    @Override
+    public void start() {
+        registry.register(node.nodeAddr(), this);
+    }
+
+    @Override
+    public void stop() {
+        registry.unregister(node.nodeAddr(), this);
+    }
+
+    @Override
+    public boolean isLocalAddr(WorkerAddr addr) {
+        return registry.contains(addr.serverType, addr.serverId);
+    }
+
+    @Override
+    public boolean send(RpcProtocol protocol) {
+        Objects.requireNonNull(protocol);
+        RpcAddr destAddr = protocol.getDestAddr();
+        if (destAddr instanceof StaticRpcAddr) {
+            prepare(protocol);
+            deliver(this, protocol);
+            return true;
+        }
+        if (!(destAddr instanceof WorkerAddr workerAddr)) {
+            return false;
+        }
+        if (workerAddr.serverId > 0) {
+            LocalRpcRouter target = registry.getRouter(workerAddr.serverType, workerAddr.serverId);
+            if (target == null) {
+                return false;
+            }
+            prepare(protocol);
+            deliver(target, target == this ? protocol : shallowCopy(protocol));
+            return true;
+        }
+        List<LocalRpcRouter> targets = registry.listRouters(workerAddr.serverType);
+        if (targets.isEmpty()) {
+            return false;
+        }
+        prepare(protocol);
+        for (LocalRpcRouter target : targets) {
+            deliver(target, target == this ? protocol : shallowCopy(protocol));
+        }
+        return true;
+    }
+
+    /** 未序列化的协议是可共享的，禁用共享时序列化，由接收方反序列化 */
+    private void prepare(RpcProtocol protocol) {
+        if (protocol.isSerialized() || protocol.isDeserialized()) {
+            return;
+        }
+        if (enableLocalShare) {
+            protocol.setDeserialized();
+            return;
+        }
+        if (protocol instanceof RpcRequest request) {
+            request.setParameters(serializer.write(request.getParameters()));
+        } else {
+            RpcResponse response = (RpcResponse) protocol;
+            response.setResults(serializer.write(response.getResults()));
+        }
+        protocol.setSerialized();
+    }
+
+    private static void deliver(LocalRpcRouter target, RpcProtocol protocol) {
+        if (protocol instanceof RpcRequest request) {
+            target.node.execute(() -> target.rpcSupport.onRcvRequest(request));
+        } else if (protocol instanceof RpcResponse response) {
+            // 响应由rpcSupport直接投递给发起调用的worker
+            target.rpcSupport.onRcvResponse(response);
+        }
+    }
+
+    /** 参数和结果要么是可共享的，要么是不可变的字节数组，因此只拷贝协议 */
+    private static RpcProtocol shallowCopy(RpcProtocol protocol) {
+        if (protocol instanceof RpcRequest src) {
+            RpcRequest request = new RpcRequest(src.getConId(), src.getSrcAddr(), src.getDestAddr())
+                    .setRequestId(src.getRequestId())
+                    .setInvokeType(src.getInvokeType())
+                    .setServiceId(src.getServiceId())
+                    .setMethodId(src.getMethodId())
+                    .setParameters(src.getParameters());
+            request.setCtl(src.getCtl());
+            return request;
+        }
+        RpcResponse src = (RpcResponse) protocol;
+        RpcResponse response = new RpcResponse(src.getConId(), src.getSrcAddr(), src.getDestAddr())
+                .setRequestId(src.getRequestId())
+                .setServiceId(src.getServiceId())
+                .setMethodId(src.getMethodId())
+                .setErrorCode(src.getErrorCode())
+                .setResults(src.getResults());
+        response.setCtl(src.getCtl());
+        return response;
+    }
+}
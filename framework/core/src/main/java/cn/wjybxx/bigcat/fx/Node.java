@@ -75,6 +75,13 @@ public interface Node extends Worker {
     /** 服务id -> 存在对应服务的Worker -- 限本地使用 */
     Int2ObjectMap<ServiceInfo> serviceInfoMap();
 
+    /**
+     * 刷新服务信息
+     * 1. 当Node或Worker在运行时注册或删除服务后调用，Node将在自己的线程中重建{@link #serviceInfoMap()}。
+     * 2. 可在任意线程调用。
+     */
+    void refreshServices();
+
     // region worker管理
 
     /** Node挂载的所有Worker */
@@ -90,6 +97,14 @@ public interface Node extends Worker {
     /** 根据Worker的名字查找Worker，不存在则返回null */
     Worker findWorker(String workerId);
 
+    /**
+     * 根据Worker的索引查找Worker
+     *
+     * @param workerIndex {@link Worker#workerIndex()}
+     * @return 如果索引无效，则返回null
+     */
+    Worker getWorker(int workerIndex);
+
     // endregion
 
     // region 接口适配
@@ -16,6 +16,7 @@
 
 package cn.wjybxx.bigcat.fx;
 
+import cn.wjybxx.bigcat.rpc.CopyOnWriteRpcRegistry;
 import cn.wjybxx.bigcat.rpc.RpcRegistry;
 import cn.wjybxx.concurrent.*;
 import com.google.inject.Injector;
@@ -24,8 +25,10 @@ import it.unimi.dsi.fastutil.ints.*;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
@@ -42,6 +45,7 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
     private final WorkerAddr nodeAddr;
 
     private final Worker[] children;
+    private final Map<String, Worker> workerIdMap;
     private final List<Worker> readonlyChildren;
     private final EventLoopChooser chooser;
     private final WorkerCtx workerCtx = new WorkerCtx();
@@ -83,12 +87,19 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
         children = new Worker[numberChildren];
         for (int i = 0; i < numberChildren; i++) {
             WorkerCtx workerCtx = new WorkerCtx();
+            workerCtx.workerIndex = i;
             Worker eventLoop = Objects.requireNonNull(workerFactory.newChild(this, i, workerCtx));
             if (eventLoop.parent() != this) throw new IllegalStateException("the parent of worker is illegal");
             if (eventLoop.workerCtx() != workerCtx) throw new IllegalStateException("the ctx of worker is illegal");
             children[i] = eventLoop;
         }
         readonlyChildren = List.of(children);
+        workerIdMap = new HashMap<>((int) (numberChildren / 0.75f) + 1);
+        for (Worker child : children) {
+            if (workerIdMap.put(child.workerId(), child) != null) {
+                throw new IllegalArgumentException("workerId is duplicate: " + child.workerId());
+            }
+        }
         chooser = chooserFactory.newChooser(children);
     }
 
@@ -114,6 +125,11 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
         return workerId;
     }
 
+    @Override
+    public int workerIndex() {
+        return WorkerAddr.INDEX_NONE;
+    }
+
     @Override
     public Injector injector() {
         return injector;
@@ -144,6 +160,42 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
         return serviceInfoMap;
     }
 
+    @Override
+    public void refreshServices() {
+        if (!inEventLoop()) {
+            if (!isShuttingDown()) {
+                execute(this::refreshServices);
+            }
+            return;
+        }
+        // 启动期间由Agent导出服务
+        if (isRunning()) {
+            exportServices(readonlyChildren);
+        }
+    }
+
+    /** 导出服务并重建{@link #serviceInfoMap} -- node线程调用 */
+    private void exportServices(List<Worker> workers) {
+        IntSet nodeServiceIdSet = injector.getInstance(RpcRegistry.class).export();
+        Int2ObjectMap<ServiceInfo> serviceInfoMap = new Int2ObjectOpenHashMap<>();
+        // Node自身的服务
+        nodeServiceIdSet.forEach((int serviceId) -> {
+            serviceInfoMap.put(serviceId, new ServiceInfo(serviceId, List.of(this)));
+        });
+        // 添加Worker上的服务 -- Worker不可包含Node同名服务
+        for (Worker worker : workers) {
+            worker.services().forEach((int serviceId) -> {
+                if (nodeServiceIdSet.contains(serviceId)) {
+                    throw new IllegalArgumentException("The service in the worker conflicts with the service in the node, id " + serviceId);
+                }
+                serviceInfoMap.computeIfAbsent(serviceId, k -> new ServiceInfo(k, new ArrayList<>(2)))
+                        .addWorker(worker);
+            });
+        }
+        setServiceIdSet(nodeServiceIdSet);
+        setServiceInfoMap(serviceInfoMap);
+    }
+
     @Override
     public Iterator<Worker> workers() {
         return readonlyChildren.iterator();
@@ -166,13 +218,15 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
 
     @Override
     public Worker findWorker(String workerId) {
-        // 该接口不常用，运行时Worker数量不多，暂不优化
-        for (Worker child : children) {
-            if (child.workerId().equals(workerId)) {
-                return child;
-            }
+        return workerIdMap.get(workerId);
+    }
+
+    @Override
+    public Worker getWorker(int workerIndex) {
+        if (workerIndex < 0 || workerIndex >= children.length) {
+            return null;
         }
-        return null;
+        return children[workerIndex];
     }
 
     //
@@ -212,6 +266,7 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
         MainModule mainModule; // 缓存
         List<WorkerModule> updatableModuleList = new ArrayList<>();
         List<WorkerModule> startedModuleList = new ArrayList<>();
+        CopyOnWriteRpcRegistry.Listener registryListener;
         long loopFrame;
 
         public Agent() {
@@ -226,6 +281,7 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
         public void onStart() throws Exception {
             Worker.CURRENT_WORKER.set(node);
             Node.CURRENT_NODES.add(node);
+            node.workerCtx.heartbeat.onStart();
             mainModule = node.mainModule;
             updatableModuleList.addAll(FxUtils.filterUpdatableModules(node.moduleList));
 
@@ -235,9 +291,10 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
             // 需要先启动Node的模块和服务，Worker可能会在启动时使用
             mainModule.beforeWorkerStart();
             startModules();
-            exportServices(List.of()); // 此时先导出自己的服务，Worker可能需要使用
+            node.exportServices(List.of()); // 此时先导出自己的服务，Worker可能需要使用
             startWorkers();
-            exportServices(node.readonlyChildren);
+            node.exportServices(node.readonlyChildren);
+            listenRegistry();
             mainModule.afterWorkerStart();
         }
 
@@ -248,6 +305,14 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
             }
         }
 
+        /** 支持运行时注册服务 */
+        private void listenRegistry() {
+            if (node.injector.getInstance(RpcRegistry.class) instanceof CopyOnWriteRpcRegistry registry) {
+                registryListener = r -> node.refreshServices();
+                registry.addListener(registryListener);
+            }
+        }
+
         private void resolveDependence() {
             for (WorkerModule workerModule : node.moduleList) {
                 workerModule.inject(node);
@@ -255,28 +320,6 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
             mainModule.resolveDependence();
         }
 
-        private void exportServices(List<Worker> workers) {
-            IntSet nodeServiceIdSet = node.injector.getInstance(RpcRegistry.class).export();
-            node.setServiceIdSet(nodeServiceIdSet);
-
-            Int2ObjectMap<ServiceInfo> serviceInfoMap = new Int2ObjectOpenHashMap<>();
-            // Node自身的服务
-            nodeServiceIdSet.forEach((int serviceId) -> {
-                serviceInfoMap.put(serviceId, new ServiceInfo(serviceId, List.of(node)));
-            });
-            // 添加Worker上的服务 -- Worker不可包含Node同名服务
-            for (Worker worker : workers) {
-                worker.services().forEach((int serviceId) -> {
-                    if (nodeServiceIdSet.contains(serviceId)) {
-                        throw new IllegalArgumentException("The service in the worker conflicts with the service in the node, id " + serviceId);
-                    }
-                    serviceInfoMap.computeIfAbsent(serviceId, k -> new ServiceInfo(k, new ArrayList<>(2)))
-                            .addWorker(worker);
-                });
-            }
-            node.setServiceInfoMap(serviceInfoMap);
-        }
-
         private void startModules() {
             // 顺序启动
             for (WorkerModule workerModule : node.moduleList) {
@@ -337,6 +380,7 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
 
         @Override
         public void update() throws Exception {
+            node.workerCtx.heartbeat.onLoop();
             // 允许控制补帧
             while (mainModule.checkMainLoop(loopFrame)) {
                 mainModule.beforeMainLoop();
@@ -366,8 +410,13 @@ public class NodeImpl extends DisruptorEventLoop<RingBufferEvent> implements Nod
                 stopModules();
                 mainModule.afterWorkerShutdown();
             } finally {
+                if (registryListener != null) {
+                    ((CopyOnWriteRpcRegistry) node.injector.getInstance(RpcRegistry.class)).removeListener(registryListener);
+                    registryListener = null;
+                }
                 Worker.CURRENT_WORKER.remove();
                 Node.CURRENT_NODES.remove(node);
+                node.workerCtx.heartbeat.onStop();
                 mainModule = null;
                 updatableModuleList.clear();
                 startedModuleList.clear();
@@ -18,6 +18,8 @@ package cn.wjybxx.bigcat.fx;
 
 import cn.wjybxx.bigcat.rpc.*;
 
+import java.util.List;
+
 /**
  * Node线程发送Rpc协议的实现
  * 1.该接口主要用于支持自定义地址解析；查询地址特性的方法可能多线程访问，需要保证【线程安全】。
@@ -38,6 +40,21 @@ public interface NodeRpcRouter extends RpcRouter, WorkerModule {
     @Override
     boolean send(RpcProtocol protocol);
 
+    /**
+     * 发送发往同一目标的多条协议
+     * 1.该方法在Node线程调用，协议的目标地址都是{@code target}。
+     * 2.支持打包的Router可将其合并为一个数据包，以减少包头和系统调用；默认逐条发送。
+     *
+     * @return 如果有协议发送失败，则返回false
+     */
+    default boolean sendBundle(RpcAddr target, List<? extends RpcProtocol> protocols) {
+        boolean success = true;
+        for (RpcProtocol protocol : protocols) {
+            success &= send(protocol);
+        }
+        return success;
+    }
+
     /**
      * 测试给定的地址是否是跨语言的rpc节点
      * 1.如果是跨语言的节点通信，方法参数和结果必须是protobuf的消息
@@ -53,21 +70,30 @@ public interface NodeRpcRouter extends RpcRouter, WorkerModule {
      */
     boolean isLocalAddr(WorkerAddr addr);
 
+    /**
+     * 测试给定地址当前是否可写
+     * 1.该方法在Node线程调用。
+     * 2.出站缓冲区超过高水位时应返回false，降到低水位以下时恢复；{@link NodeRpcSupport}据此快速失败，以免请求堆积。
+     */
+    default boolean isWritable(RpcAddr addr) {
+        return true;
+    }
+
     /** 测试给定的地址是否是单播地址，只有每一级都是单播的情况下才可以返回true */
     default boolean isUnicastAddr(WorkerAddr addr) {
         return addr.serverType > 0
                 && addr.serverId > 0
-                && !("*".equals(addr.workerId));
+                && addr.workerIndex != WorkerAddr.INDEX_ALL;
     }
 
     /** 测试给定的地址在worker层是否是单播地址 */
     default boolean isUnicastWorkerAddr(WorkerAddr addr) {
-        return !("*".equals(addr.workerId));
+        return addr.workerIndex != WorkerAddr.INDEX_ALL;
     }
 
     /** 测试给定的地址在worker层是否是广播地址 */
     default boolean isBroadcastWorkerAddr(WorkerAddr addr) {
-        return "*".equals(addr.workerId);
+        return addr.workerIndex == WorkerAddr.INDEX_ALL;
     }
 
     //region util
@@ -83,7 +109,7 @@ public interface NodeRpcRouter extends RpcRouter, WorkerModule {
     /** 测试给定的地址在worker层是否是单播地址 */
     default boolean isUnicastWorkerAddr(RpcAddr addr) {
         if (addr instanceof WorkerAddr workerAddr) {
-            return isUnicastWorkerAddr(addr);
+            return isUnicastWorkerAddr(workerAddr);
         }
         return addr == StaticRpcAddr.LOCAL;
     }
@@ -20,6 +20,7 @@ import cn.wjybxx.base.BitFlags;
 import cn.wjybxx.base.ThreadUtils;
 import cn.wjybxx.base.ex.NoLogRequiredException;
 import cn.wjybxx.base.time.TimeProvider;
+import cn.wjybxx.bigcat.pb.PBLazyParameters;
 import cn.wjybxx.bigcat.pb.PBMethodInfo;
 import cn.wjybxx.bigcat.pb.PBMethodInfoRegistry;
 import cn.wjybxx.bigcat.rpc.*;
@@ -29,21 +30,33 @@ import cn.wjybxx.concurrent.IFuture;
 import cn.wjybxx.concurrent.IPromise;
 import cn.wjybxx.concurrent.Promise;
 import cn.wjybxx.concurrent.WatcherMgr;
+import com.google.inject.ConfigurationException;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * 1.设置属性应该启动Node之前，运行时不可修改对象的属性
@@ -56,6 +69,11 @@ import java.util.function.Consumer;
 public class NodeRpcSupport implements WorkerModule {
 
     private static final Logger logger = LoggerFactory.getLogger(NodeRpcSupport.class);
+    /** 表示不限制并发的占位符 */
+    private static final ConcurrencyLimiter NO_LIMIT = new FixedConcurrencyLimiter(Integer.MAX_VALUE);
+    /** 请求id中worker槽位的偏移 -- 低48位为序号 */
+    private static final int REQUEST_ID_SLOT_SHIFT = 48;
+    private static final long REQUEST_ID_SEQ_MASK = (1L << REQUEST_ID_SLOT_SHIFT) - 1;
 
     /** 连接id -- 每次启动时应当分配新的id */
     private long conId;
@@ -65,19 +83,29 @@ public class NodeRpcSupport implements WorkerModule {
     private RpcLogConfig logConfig = RpcLogConfig.NONE;
     /** 是否检查pb模式下null参数和结果 */
     private boolean enableNullCheck;
+    /** 并发限制器工厂 */
+    private ConcurrencyLimiterFactory limiterFactory;
+    /** 过载时允许的排队延迟，0表示不丢弃请求 */
+    private long shedTargetMs;
+    /** 过载检测周期 */
+    private long shedIntervalMs = 100;
+    /** 网关的转发规则，null表示不转发 */
+    private RpcForwardTable forwardTable;
+    /** 自适应超时工厂，null表示所有方法使用固定超时 */
+    private AdaptiveTimeoutFactory timeoutFactory;
     /** 当前是否可修改配置数据 -- 也可看做是否已启动标记 */
     private volatile boolean mutable = true;
 
     /**
-     * 为request分配id
+     * 为node自身发起的请求分配id
      * 1.非线程安全，只在node线程访问。
-     * 2.这样可保证node发送出去的请求id是有序的。
+     * 2.worker发起的call由worker自己分配id，见{@link #nextRequestId(Worker)}
      */
     private long sequencer = 0;
-    /** 保持插入序很重要 */
-    private final Long2ObjectLinkedOpenHashMap<RpcRequestStubImpl> requestStubMap = new Long2ObjectLinkedOpenHashMap<>(100);
     /** 用于支持同步调用 */
     private final Map<Long, WatcherMgr.Watcher<RpcResponse>> watcherMap = new ConcurrentHashMap<>(8);
+    /** 目标地址的自适应超时表 -- 所有worker共享 */
+    private final Map<RpcAddr, TimeoutTable> timeoutTableMap = new ConcurrentHashMap<>();
 
     private Node node;
     private WorkerAddr selfAddr;
@@ -85,6 +113,7 @@ public class NodeRpcSupport implements WorkerModule {
     private RpcSerializer serializer;
     private NodeRpcRouter router;
     private TimeProvider timeProvider;
+    private RpcExecutorMgr executorMgr;
 
     // region 设置
 
@@ -128,6 +157,77 @@ public class NodeRpcSupport implements WorkerModule {
         return this;
     }
 
+    public ConcurrencyLimiterFactory getLimiterFactory() {
+        return limiterFactory;
+    }
+
+    /**
+     * 设置并发限制器工厂
+     * 1. 限制器在worker首次收到对应的请求时创建，每个worker独立限制。
+     * 2. 许可在返回结果时释放，因此手动返回结果的方法必须返回结果。
+     */
+    public NodeRpcSupport setLimiterFactory(ConcurrencyLimiterFactory limiterFactory) {
+        ensureMutable();
+        this.limiterFactory = limiterFactory;
+        return this;
+    }
+
+    public long getShedTargetMs() {
+        return shedTargetMs;
+    }
+
+    public long getShedIntervalMs() {
+        return shedIntervalMs;
+    }
+
+    /**
+     * 设置基于排队延迟的请求丢弃策略
+     * 请求从进入Node到被Worker处理的延迟超过限制时将被丢弃，Call类型的请求将返回{@link RpcErrorCodes#SERVER_OVERLOADED}
+     *
+     * @param targetMs   过载时允许的排队延迟，0表示不丢弃请求
+     * @param intervalMs 过载检测周期，也是非过载时允许的排队延迟
+     * @see CoDelShedder
+     */
+    public NodeRpcSupport setShedding(long targetMs, long intervalMs) {
+        ensureMutable();
+        if (targetMs > 0 && intervalMs < targetMs) {
+            throw new IllegalArgumentException("targetMs: %d, intervalMs: %d".formatted(targetMs, intervalMs));
+        }
+        this.shedTargetMs = Math.max(0, targetMs);
+        this.shedIntervalMs = intervalMs;
+        return this;
+    }
+
+    public RpcForwardTable getForwardTable() {
+        return forwardTable;
+    }
+
+    /**
+     * 设置网关的转发规则
+     * 1. 命中规则的玩家请求将原样转发，不解码参数，只修改目标地址。
+     * 2. 发往玩家的请求和响应也将原样转发 -- 网关不是它们的最终接收方。
+     */
+    public NodeRpcSupport setForwardTable(RpcForwardTable forwardTable) {
+        ensureMutable();
+        this.forwardTable = forwardTable;
+        return this;
+    }
+
+    public AdaptiveTimeoutFactory getTimeoutFactory() {
+        return timeoutFactory;
+    }
+
+    /**
+     * 设置自适应超时工厂
+     * 1. 超时在首次调用对应的方法时创建，按目标地址和方法统计延迟，所有worker共享。
+     * 2. 样本不足时使用{@link #getTimeoutMs()}；同步调用和批量调用不使用自适应超时。
+     */
+    public NodeRpcSupport setTimeoutFactory(AdaptiveTimeoutFactory timeoutFactory) {
+        ensureMutable();
+        this.timeoutFactory = timeoutFactory;
+        return this;
+    }
+
     private void makeImmutable() {
         mutable = false;
     }
@@ -152,6 +252,11 @@ public class NodeRpcSupport implements WorkerModule {
         this.serializer = node.injector().getInstance(RpcSerializer.class);
         this.methodInfoRegistry = node.injector().getInstance(PBMethodInfoRegistry.class);
         this.router = node.injector().getInstance(NodeRpcRouter.class);
+        try {
+            this.executorMgr = node.injector().getInstance(RpcExecutorMgr.class);
+        } catch (ConfigurationException ignore) {
+
+        }
     }
 
     @Override
@@ -164,24 +269,84 @@ public class NodeRpcSupport implements WorkerModule {
 
     @Override
     public void update() {
+        checkTimeout(node);
+    }
+
+    @Override
+    public void stop() {
+        final WorkerCtx workerCtx = node.workerCtx();
+        workerCtx.requestStubMap.clear();
+        workerCtx.adaptiveStubMap.clear();
+        workerCtx.adaptiveDeadlineQueue.clear();
+        watcherMap.clear();
+    }
+
+    /**
+     * 检查worker发起的调用是否超时
+     * 1.存根保存在worker的上下文中，因此需要在worker线程检查，由Worker的事件循环每次迭代调用。
+     * 2.node自身的存根在{@link #update()}中检查。
+     * 3.固定超时的存根插入序即超时序；自适应超时的存根按截止时间出堆。
+     */
+    void checkTimeout(Worker worker) {
+        final WorkerCtx workerCtx = worker.workerCtx();
+        final Long2ObjectLinkedOpenHashMap<RpcRequestStubImpl> requestStubMap = workerCtx.requestStubMap;
+        final PriorityQueue<RpcRequestStubImpl> deadlineQueue = workerCtx.adaptiveDeadlineQueue;
+        if (requestStubMap.isEmpty() && deadlineQueue.isEmpty()) {
+            return;
+        }
         final long curTime = timeProvider.getTime();
         while (requestStubMap.size() > 0) {
             final long requestId = requestStubMap.firstLongKey();
             final RpcRequestStubImpl requestStub = requestStubMap.get(requestId);
             if (curTime < requestStub.deadline) {
-                return;
+                break;
             }
-
-            logger.info("rpc timeout, requestId {}, target {}", requestId, requestStub.getDestAddr());
             requestStubMap.removeFirst();
-            requestStub.future.trySetException(RpcClientException.timeout());
+            onCallTimeout(requestStub, curTime);
+        }
+        RpcRequestStubImpl requestStub;
+        while ((requestStub = deadlineQueue.peek()) != null && curTime >= requestStub.deadline) {
+            deadlineQueue.poll();
+            // 已完成的存根不在map中，直接丢弃
+            if (workerCtx.adaptiveStubMap.remove(requestStub.request.getRequestId(), requestStub)) {
+                onCallTimeout(requestStub, curTime);
+            }
         }
     }
 
-    @Override
-    public void stop() {
-        requestStubMap.clear();
-        watcherMap.clear();
+    private void onCallTimeout(RpcRequestStubImpl requestStub, long curTime) {
+        logger.info("rpc timeout, requestId {}, target {}", requestStub.request.getRequestId(), requestStub.getDestAddr());
+        if (requestStub.adaptiveTimeout != null) {
+            requestStub.adaptiveTimeout.recordTimeout(curTime);
+        }
+        requestStub.setException(RpcClientException.timeout());
+    }
+
+    /** worker线程调用 -- 保留存根 */
+    private static void putStub(WorkerCtx workerCtx, RpcRequestStubImpl requestStub) {
+        final long requestId = requestStub.request.getRequestId();
+        if (requestStub.adaptiveTimeout == null) {
+            workerCtx.requestStubMap.put(requestId, requestStub);
+            return;
+        }
+        workerCtx.adaptiveStubMap.put(requestId, requestStub);
+        final PriorityQueue<RpcRequestStubImpl> deadlineQueue = workerCtx.adaptiveDeadlineQueue;
+        if (deadlineQueue.size() >= 64 && deadlineQueue.size() > workerCtx.adaptiveStubMap.size() * 2) {
+            // 已完成的存根过多，重建堆
+            deadlineQueue.clear();
+            deadlineQueue.addAll(workerCtx.adaptiveStubMap.values());
+        } else {
+            deadlineQueue.add(requestStub);
+        }
+    }
+
+    /** worker线程调用 -- 删除存根，存根可能已超时删除 */
+    private static RpcRequestStubImpl removeStub(WorkerCtx workerCtx, long requestId) {
+        final RpcRequestStubImpl requestStub = workerCtx.requestStubMap.remove(requestId);
+        if (requestStub != null) {
+            return requestStub;
+        }
+        return workerCtx.adaptiveStubMap.remove(requestId);
     }
 
     // endregion
@@ -206,48 +371,294 @@ public class NodeRpcSupport implements WorkerModule {
         if (logConfig.getSndRequestLogLevel() > DebugLogLevel.NONE) {
             logSndRequest(request);
         }
+        if (!router.isWritable(request.getDestAddr())) {
+            logger.info("rpc router busy, target " + request.getDestAddr());
+            return;
+        }
         if (!router.send(request)) {
             logger.info("rpc send failure, target " + request.getDestAddr());
         }
     }
+
+    /**
+     * 将发往同一目标的多条单向消息打包发送
+     * 1.消息在Worker线程序列化，在Node线程统一分配请求id，保证顺序。
+     * 2.由{@link NodeRpcRouter#sendBundle(RpcAddr, List)}决定是否合并为一个数据包。
+     */
+    public void w2n_sendBundle(Worker worker, RpcAddr target, List<? extends RpcMethodSpec<?>> methodSpecs) {
+        Objects.requireNonNull(worker, "worker");
+        Objects.requireNonNull(target, "target");
+        if (methodSpecs.isEmpty()) {
+            return;
+        }
+        final List<RpcRequest> requests = new ArrayList<>(methodSpecs.size());
+        for (RpcMethodSpec<?> methodSpec : methodSpecs) {
+            requests.add(newRequest(target, methodSpec, RpcInvokeType.ONEWAY));
+        }
+        if (!node.inEventLoop()) {
+            node.execute(() -> sendBundleImpl(target, requests));
+        } else {
+            sendBundleImpl(target, requests);
+        }
+    }
+
+    private void sendBundleImpl(RpcAddr target, List<RpcRequest> requests) {
+        for (RpcRequest request : requests) {
+            fillRequest(request);
+            if (logConfig.getSndRequestLogLevel() > DebugLogLevel.NONE) {
+                logSndRequest(request);
+            }
+        }
+        if (!router.isWritable(target)) {
+            logger.info("rpc router busy, target " + target);
+            return;
+        }
+        if (!router.sendBundle(target, requests)) {
+            logger.info("rpc send failure, target " + target);
+        }
+    }
     // endregion
 
     // region call
 
-    @SuppressWarnings("unchecked")
+    /**
+     * 发起调用
+     * 1.存根保存在worker的上下文中，响应由IO线程直接投递给worker，不经过node线程。
+     * 2.Future在worker线程完成，不需要再切换线程。
+     */
     public <V> IFuture<V> w2n_call(Worker worker, RpcAddr target, RpcMethodSpec<V> methodSpec) {
         Objects.requireNonNull(worker, "worker");
         Objects.requireNonNull(target, "target");
         Objects.requireNonNull(methodSpec, "methodSpec");
 
         final RpcRequest request = newRequest(target, methodSpec, RpcInvokeType.CALL);
+        final IPromise<V> promise = worker.newPromise(); // 不可在worker上阻塞
+        registerCall(new RpcRequestStubImpl(this, worker, request, promise));
+        return promise;
+    }
+
+    /**
+     * 发起调用，并在调用完成时执行回调
+     * 存根直接保存回调和上下文，不创建Future；回调在worker线程执行。
+     */
+    public <V> void w2n_call(Worker worker, RpcAddr target, RpcMethodSpec<V> methodSpec,
+                             RpcCallback<? super V> callback, Object ctx) {
+        Objects.requireNonNull(worker, "worker");
+        Objects.requireNonNull(target, "target");
+        Objects.requireNonNull(methodSpec, "methodSpec");
+        Objects.requireNonNull(callback, "callback");
+
+        final RpcRequest request = newRequest(target, methodSpec, RpcInvokeType.CALL);
+        registerCall(new CallbackStub<>(this, worker, request, callback, ctx));
+    }
+
+    /**
+     * worker线程调用 -- 分配请求id并保留存根，然后在node线程发送请求
+     * 先保留存根再发送，可保证响应到达worker时存根一定存在。
+     */
+    private void registerCall(RpcRequestStubImpl requestStub) {
+        final Worker worker = requestStub.worker;
+        if (!worker.inEventLoop()) {
+            worker.execute(() -> registerCall(requestStub));
+            return;
+        }
+        final RpcRequest request = requestStub.request;
+        request.setRequestId(nextRequestId(worker));
+        final AdaptiveTimeout adaptiveTimeout = getAdaptiveTimeout(request);
+        final long curTime = timeProvider.getTime();
+        requestStub.adaptiveTimeout = adaptiveTimeout;
+        requestStub.startTime = curTime;
+        requestStub.deadline = curTime + (adaptiveTimeout == null ? timeoutMs : adaptiveTimeout.getTimeoutMs(timeoutMs));
+        putStub(worker.workerCtx(), requestStub);
         if (!node.inEventLoop()) {
-            return (IFuture<V>) node.submit(() -> w2n_call(worker, request))
-                    .composeApply((ctx, e) -> e) // 这里不能调用composeAsync，如果返回的future尚未完成，则会在触发其完成的线程触发业务回调
-                    .whenCompleteAsync(worker, (ctx, v, t) -> {}); // 需要回到worker线程
+            node.execute(requestStub);
         } else {
-            return w2n_call(worker, request);
+            sendCall(requestStub);
         }
     }
 
-    private <V> IFuture<V> w2n_call(Worker worker, RpcRequest request) {
-        fillRequest(request);
+    /** node线程调用 -- 发送请求 */
+    private void sendCall(RpcRequestStubImpl requestStub) {
+        final RpcRequest request = requestStub.request;
         if (logConfig.getSndRequestLogLevel() > DebugLogLevel.NONE) {
             logSndRequest(request);
         }
         if (!router.isUnicastAddr(request.getDestAddr())) {
             logger.info("rpc multicast call, target " + request.getDestAddr());
         }
+        // 背压 -- 快速失败，在worker线程删除存根
+        if (!router.isWritable(request.getDestAddr())) {
+            logger.info("rpc router busy, target " + request.getDestAddr());
+            final Worker worker = requestStub.worker;
+            final RpcClientException cause = RpcClientException.routerBusy(request.getDestAddr());
+            if (!worker.inEventLoop()) {
+                worker.execute(() -> cancelCall(worker, requestStub, cause));
+            } else {
+                cancelCall(worker, requestStub, cause);
+            }
+            return;
+        }
         if (!router.send(request)) {
             logger.info("rpc send failure, target " + request.getDestAddr());
         }
+    }
 
-        // 保留存根
-        final long deadline = timeProvider.getTime() + timeoutMs;
-        final IPromise<V> promise = node.newPromise(); // 不可在node上阻塞
-        final RpcRequestStubImpl requestStub = new RpcRequestStubImpl(request, deadline, promise);
-        requestStubMap.put(request.getRequestId(), requestStub);
-        return promise;
+    /** worker线程调用 -- 存根可能已超时删除 */
+    private static void cancelCall(Worker worker, RpcRequestStubImpl requestStub, Throwable cause) {
+        if (removeStub(worker.workerCtx(), requestStub.request.getRequestId()) != null) {
+            requestStub.setException(cause);
+        }
+    }
+
+    // endregion
+
+    // region 自适应超时
+
+    /** worker线程调用 */
+    private AdaptiveTimeout getAdaptiveTimeout(RpcRequest request) {
+        if (timeoutFactory == null || request.getInvokeType() != RpcInvokeType.CALL) {
+            return null;
+        }
+        final RpcAddr target = request.getDestAddr();
+        TimeoutTable timeoutTable = timeoutTableMap.get(target);
+        if (timeoutTable == null) {
+            timeoutTable = timeoutTableMap.computeIfAbsent(target, TimeoutTable::new);
+        }
+        final int methodKey = RpcMethodKey.methodKey(request.getServiceId(), request.getMethodId());
+        final Int2ObjectMap<AdaptiveTimeout> timeoutMap = timeoutTable.timeoutMap;
+        final AdaptiveTimeout adaptiveTimeout = timeoutMap.get(methodKey);
+        if (adaptiveTimeout != null || timeoutMap.containsKey(methodKey)) {
+            return adaptiveTimeout;
+        }
+        return timeoutTable.newTimeout(timeoutFactory, methodKey);
+    }
+
+    /** worker线程调用 -- 只记录收到响应的调用，超时的调用见{@link AdaptiveTimeout#recordTimeout(long)} */
+    private static void recordLatency(RpcRequestStubImpl requestStub, long curTime) {
+        if (requestStub.adaptiveTimeout != null) {
+            requestStub.adaptiveTimeout.record(curTime - requestStub.startTime, curTime);
+        }
+    }
+
+    /**
+     * 查询当前所有的自适应超时 -- 用于监控
+     * 可在任意线程调用。
+     */
+    public List<AdaptiveTimeoutStats> listAdaptiveTimeouts() {
+        List<AdaptiveTimeoutStats> result = new ArrayList<>();
+        for (TimeoutTable timeoutTable : timeoutTableMap.values()) {
+            timeoutTable.timeoutMap.forEach((methodKey, adaptiveTimeout) -> {
+                if (adaptiveTimeout != null) {
+                    result.add(new AdaptiveTimeoutStats(timeoutTable.target,
+                            RpcMethodKey.serviceIdOfKey(methodKey), RpcMethodKey.methodIdOfKey(methodKey),
+                            adaptiveTimeout.getTimeoutMs(timeoutMs), adaptiveTimeout.getQuantileMs(),
+                            adaptiveTimeout.getSampleCount(), adaptiveTimeout.getTimeoutCount()));
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * 自适应超时的统计信息
+     *
+     * @param target      目标地址
+     * @param serviceId   服务id
+     * @param methodId    方法id
+     * @param timeoutMs   当前的超时时间
+     * @param quantileMs  当前的延迟分位数
+     * @param sampleCount  衰减后的样本数
+     * @param timeoutCount 衰减后的超时次数
+     */
+    public record AdaptiveTimeoutStats(RpcAddr target, int serviceId, int methodId,
+                                       long timeoutMs, long quantileMs, double sampleCount, double timeoutCount) {
+
+    }
+
+    /**
+     * 目标地址的自适应超时表
+     * 写时复制：调用时无锁查询，只在方法首次调用时加锁创建。
+     */
+    private static final class TimeoutTable {
+
+        final RpcAddr target;
+        /** methodKey -> timeout；值为null表示该方法使用固定超时 */
+        volatile Int2ObjectMap<AdaptiveTimeout> timeoutMap = Int2ObjectMaps.emptyMap();
+
+        TimeoutTable(RpcAddr target) {
+            this.target = target;
+        }
+
+        synchronized AdaptiveTimeout newTimeout(AdaptiveTimeoutFactory timeoutFactory, int methodKey) {
+            if (timeoutMap.containsKey(methodKey)) {
+                return timeoutMap.get(methodKey);
+            }
+            AdaptiveTimeout adaptiveTimeout = timeoutFactory.newTimeout(target,
+                    RpcMethodKey.serviceIdOfKey(methodKey), RpcMethodKey.methodIdOfKey(methodKey));
+            Int2ObjectOpenHashMap<AdaptiveTimeout> newMap = new Int2ObjectOpenHashMap<>(timeoutMap);
+            newMap.put(methodKey, adaptiveTimeout);
+            timeoutMap = Int2ObjectMaps.unmodifiable(newMap);
+            return adaptiveTimeout;
+        }
+    }
+
+    // endregion
+
+    // region batchCall
+
+    /**
+     * 批量调用 -- 多个调用打包为一个请求，共用一个存根和超时
+     * 1.目标节点为每个调用选择其服务所在的worker，同一个worker上的调用按序执行，不同worker上的调用之间不保证顺序。
+     * 2.所有调用的结果合并为一个响应返回，再分别完成每个调用的future。
+     * 3.不支持跨语言的目标地址。
+     */
+    public List<IFuture<?>> w2n_batchCall(Worker worker, RpcAddr target, List<? extends RpcMethodSpec<?>> methodSpecs) {
+        Objects.requireNonNull(worker, "worker");
+        Objects.requireNonNull(target, "target");
+        if (methodSpecs.isEmpty()) {
+            return List.of();
+        }
+        if (router.isCrossLanguageAddr(target)) {
+            throw new IllegalArgumentException("batchCall does not support cross language target: " + target);
+        }
+        final RpcRequest request = newBatchRequest(target, methodSpecs);
+        final IPromise<List<Object>> future = worker.newPromise();
+        registerCall(new RpcRequestStubImpl(this, worker, request, future));
+        // 拆分结果 -- 在worker线程执行
+        final List<IPromise<Object>> promises = new ArrayList<>(methodSpecs.size());
+        for (int i = 0; i < methodSpecs.size(); i++) {
+            promises.add(worker.newPromise());
+        }
+        future.onCompleted(f -> completeBatchCall(f, promises), 0);
+        return List.copyOf(promises);
+    }
+
+    /** 拆分批量调用的结果 -- 结果为{@code [errorCode, resultCount, results...]...} */
+    private static void completeBatchCall(IFuture<List<Object>> future, List<IPromise<Object>> promises) {
+        if (!future.isSucceeded()) {
+            Throwable ex = future.exceptionNow(false);
+            for (IPromise<Object> promise : promises) {
+                promise.trySetException(ex);
+            }
+            return;
+        }
+        final List<Object> results = future.resultNow();
+        int offset = 0;
+        for (IPromise<Object> promise : promises) {
+            if (offset + 2 > results.size()) {
+                promise.trySetException(new RpcClientException(RpcErrorCodes.LOCAL_DESERIALIZE_FAILED, "batch result is absent"));
+                continue;
+            }
+            int errorCode = ((Number) results.get(offset)).intValue();
+            int resultCount = ((Number) results.get(offset + 1)).intValue();
+            Object value = resultCount > 0 ? results.get(offset + 2) : null;
+            if (errorCode == 0) {
+                promise.trySetResult(value);
+            } else {
+                promise.trySetException(RpcServerException.newServerException(errorCode, (String) value));
+            }
+            offset += 2 + resultCount;
+        }
     }
 
     // endregion
@@ -322,6 +733,14 @@ public class NodeRpcSupport implements WorkerModule {
         if (!router.isUnicastAddr(request.getDestAddr())) {
             logger.info("rpc multicast syncCall, target " + request.getDestAddr());
         }
+        if (!router.isWritable(request.getDestAddr())) {
+            logger.info("rpc router busy, target " + request.getDestAddr());
+            watcherMap.remove(request.getRequestId());
+
+            RpcResponse response = newFailedResponse(request, RpcErrorCodes.LOCAL_ROUTER_BUSY, "router busy");
+            watcher.future.trySetResult(response);
+            return watcher.future;
+        }
         if (!router.send(request)) {
             logger.info("rpc send failure, target " + request.getDestAddr());
 
@@ -338,27 +757,51 @@ public class NodeRpcSupport implements WorkerModule {
     /**
      * 通知Support模块收到一个Rpc请求
      * 1.该方法由IO线程调用 -- 即RpcRouter类调用。
-     * 2.如果外部未反序列化请求参数，则在Node线程自动反序列化。
-     * 3.如果request可能发给多个Node，应在外部拷贝
+     * 2.路由和解码是线程安全的，在调用线程完成，请求直接提交给目标worker，不经过node线程。
+     * 3.如果外部未反序列化请求参数，则在调用线程自动反序列化。
+     * 4.配置了转发规则时在node线程处理 -- 转发规则和Router的发送只在node线程访问；node自身的服务也在node线程执行。
+     * 5.如果request可能发给多个Node，应在外部拷贝
      */
     public void onRcvRequest(final RpcRequest request) {
         Objects.requireNonNull(request);
-        if (!node.inEventLoop()) {
-            node.execute(() -> onRcvRequest(request));
-            return;
+        if (request.getRcvNanos() == 0) {
+            request.setRcvNanos(System.nanoTime());
         }
-        // 在使用之前需要先反序列化
-        if (!request.isDeserialized() && !decodeParameters(request)) {
-            deserializeFailed(request);
-            return;
+        // 网关转发 -- 不解码参数
+        if (forwardTable != null) {
+            if (!node.inEventLoop()) {
+                node.execute(() -> onRcvRequest(request));
+                return;
+            }
+            if (forwardRequest(request)) {
+                return;
+            }
+        }
+        // 在使用之前需要先反序列化 -- 标记已反序列化，以免转交node线程时重复解码
+        if (!request.isDeserialized()) {
+            if (!decodeParameters(request)) {
+                deserializeFailed(request);
+                return;
+            }
+            request.setDeserialized();
         }
         if (logConfig.getRcvRequestLogLevel() > DebugLogLevel.NONE) {
             logRcvRequest(request);
         }
 
+        if (request.getInvokeType() == RpcInvokeType.BATCH_CALL) {
+            onRcvBatchRequest(request);
+            return;
+        }
+
         ServiceInfo serviceInfo = node.serviceInfoMap().get(request.getServiceId());
         if (serviceInfo == null || serviceInfo.workerList.isEmpty()) {
-            unsupportedInterface(request);
+            // 启动期间服务可能尚未导出，在node线程再次确认
+            if (!node.inEventLoop()) {
+                node.execute(() -> onRcvRequest(request));
+            } else {
+                unsupportedInterface(request);
+            }
             return;
         }
         List<Worker> workerList = serviceInfo.workerList;
@@ -368,31 +811,50 @@ public class NodeRpcSupport implements WorkerModule {
             for (int i = workerList.size() - 1; i >= 0; i--) {
                 Worker worker = workerList.get(i);
                 RpcRequest clonedRequest = i == 0 ? request : deepCopy(request, bytesParameters);
-                if (worker != node) {
-                    worker.execute(() -> onRcvRequestImpl(worker, clonedRequest));
-                } else {
-                    onRcvRequestImpl(worker, clonedRequest);
-                }
+                submitRequest(worker, clonedRequest);
             }
         } else {
-            // 单播 - 选择一个worker，多worker时hash保证路由的一致性
-            Worker worker;
-            if (workerList.size() == 1) {
-                worker = workerList.get(0);
-            } else {
-                int idx = request.getSrcAddr().hashCode() % workerList.size();
-                worker = workerList.get(idx);
+            // 单播 - 选择一个worker
+            Worker worker = selectWorker(serviceInfo, request);
+            if (worker != node && request.getInvokeType() == RpcInvokeType.ONEWAY && conflate(worker, request)) {
+                return;
             }
-            if (worker != node) {
-                worker.execute(() -> onRcvRequestImpl(worker, request));
-            } else {
-                onRcvRequestImpl(worker, request);
+            submitRequest(worker, request);
+        }
+    }
+
+    /** 提交请求到worker -- 调用线程就是worker时（node自身的服务）直接执行 */
+    private void submitRequest(Worker worker, RpcRequest request) {
+        if (worker.inEventLoop()) {
+            onRcvRequestImpl(worker, request);
+        } else {
+            worker.execute(() -> onRcvRequestImpl(worker, request));
+        }
+    }
+
+    /** 优先使用地址指定的worker；否则多worker时hash保证路由的一致性 */
+    private static Worker selectWorker(ServiceInfo serviceInfo, RpcRequest request) {
+        if (request.getDestAddr() instanceof WorkerAddr destAddr && destAddr.workerIndex >= 0) {
+            Worker worker = serviceInfo.getWorker(destAddr.workerIndex);
+            if (worker != null) {
+                return worker;
             }
         }
+        List<Worker> workerList = serviceInfo.workerList;
+        if (workerList.size() == 1) {
+            return workerList.get(0);
+        }
+        int idx = Math.floorMod(request.getSrcAddr().hashCode(), workerList.size());
+        return workerList.get(idx);
     }
 
     private <T> void onRcvRequestImpl(final Worker worker, RpcRequest request) {
         WorkerCtx workerCtx = worker.workerCtx();
+        // 排队过久的请求，对方可能已超时，执行已无意义
+        if (shedTargetMs > 0 && shouldShed(workerCtx, request)) {
+            overloaded(request);
+            return;
+        }
         RpcMethodProxy proxy = workerCtx.rpcRegistry.getProxy(request.getServiceId(), request.getMethodId());
         if (proxy == null) {
             unsupportedInterface(request);
@@ -406,41 +868,394 @@ public class NodeRpcSupport implements WorkerModule {
             }
             return;
         }
-        // 执行调用
+        // 延迟解析的参数在执行之前解析 -- 被丢弃或拦截的请求不解析
+        if (request.getParameters() instanceof PBLazyParameters lazyParameters && !lazyParameters.parse()) {
+            logger.info("decode parameter caught exception, serviceId: {}, methodId {}",
+                    request.getServiceId(), request.getMethodId(), lazyParameters.getCause());
+            deserializeFailed(request);
+            return;
+        }
+        dispatchRequest(worker, workerCtx, proxy, new RpcContextImpl<>(request, this));
+    }
+
+    /**
+     * 批量调用 -- 按每个调用的服务选择worker，全部完成后按调用的顺序合并结果返回
+     * 1.同一个worker上的调用在一个任务中按序执行；不同worker上的调用并发执行。
+     * 2.单个调用的失败只影响自身的结果，不影响其它调用。
+     * 3.批量调用只有一个结果，不广播。
+     */
+    private void onRcvBatchRequest(RpcRequest request) {
+        final List<RpcRequest> callRequests;
+        try {
+            callRequests = splitBatchRequest(request);
+        } catch (Exception e) {
+            logger.info("decode batch request caught exception, src {}", request.getSrcAddr(), e);
+            deserializeFailed(request);
+            return;
+        }
+        final Worker[] workers = new Worker[callRequests.size()];
+        for (int index = 0; index < callRequests.size(); index++) {
+            RpcRequest callRequest = callRequests.get(index);
+            ServiceInfo serviceInfo = node.serviceInfoMap().get(callRequest.getServiceId());
+            if (serviceInfo == null || serviceInfo.workerList.isEmpty()) {
+                // 启动期间服务可能尚未导出，在node线程再次确认
+                if (!node.inEventLoop()) {
+                    node.execute(() -> onRcvRequest(request));
+                    return;
+                }
+                continue;
+            }
+            workers[index] = selectWorker(serviceInfo, callRequest);
+        }
+        // 结果在第一个调用的worker上合并，常见的单worker批量调用不需要额外切换线程
+        Worker owner = Arrays.stream(workers).filter(Objects::nonNull).findFirst().orElse(node);
+        final BatchCall batchCall = new BatchCall(this, owner, request, callRequests.size());
+        final Map<Worker, List<RpcContextImpl<?>>> groupMap = new LinkedHashMap<>(4);
+        for (int index = 0; index < callRequests.size(); index++) {
+            RpcRequest callRequest = callRequests.get(index);
+            RpcContextImpl<?> context = new RpcContextImpl<>(callRequest, this);
+            context.batchCall = batchCall;
+            context.batchIndex = index;
+            if (workers[index] == null) {
+                logger.warn("unsupported interface, src {}, serviceId={}, methodId={}",
+                        callRequest.getSrcAddr(), callRequest.getServiceId(), callRequest.getMethodId());
+                context.sendResponse(newFailedResponse(callRequest, RpcErrorCodes.SERVER_UNSUPPORTED_INTERFACE, ""));
+                continue;
+            }
+            groupMap.computeIfAbsent(workers[index], k -> new ArrayList<>(callRequests.size())).add(context);
+        }
+        groupMap.forEach((worker, contexts) -> {
+            if (worker.inEventLoop()) {
+                onRcvBatchCalls(worker, contexts);
+            } else {
+                worker.execute(() -> onRcvBatchCalls(worker, contexts));
+            }
+        });
+    }
+
+    /** 在worker上按序执行批量调用中属于该worker的调用 */
+    private void onRcvBatchCalls(Worker worker, List<RpcContextImpl<?>> contexts) {
+        WorkerCtx workerCtx = worker.workerCtx();
+        // 同一批次的请求接收时间相同，一起丢弃
+        if (shedTargetMs > 0 && shouldShed(workerCtx, contexts.get(0).request)) {
+            for (RpcContextImpl<?> context : contexts) {
+                context.sendResponse(newFailedResponse(context.request, RpcErrorCodes.SERVER_OVERLOADED, ""));
+            }
+            return;
+        }
+        for (RpcContextImpl<?> context : contexts) {
+            RpcRequest callRequest = context.request;
+            RpcMethodProxy proxy = workerCtx.rpcRegistry.getProxy(callRequest.getServiceId(), callRequest.getMethodId());
+            if (proxy == null) {
+                logger.warn("unsupported interface, src {}, serviceId={}, methodId={}",
+                        callRequest.getSrcAddr(), callRequest.getServiceId(), callRequest.getMethodId());
+                context.sendResponse(newFailedResponse(callRequest, RpcErrorCodes.SERVER_UNSUPPORTED_INTERFACE, ""));
+                continue;
+            }
+            int code = workerCtx.rpcInterceptor == null ? 0 : workerCtx.rpcInterceptor.test(callRequest);
+            if (code != 0) {
+                context.sendResponse(newFailedResponse(callRequest, code, ""));
+                continue;
+            }
+            dispatchRequest(worker, workerCtx, proxy, context);
+        }
+    }
+
+    /** 拆分批量请求 -- 参数为{@code [serviceId, methodId, parameterCount, parameters...]...} */
+    private static List<RpcRequest> splitBatchRequest(RpcRequest request) {
+        final List<Object> parameters = request.listParameters();
+        final List<RpcRequest> callRequests = new ArrayList<>();
+        int offset = 0;
+        while (offset < parameters.size()) {
+            int parameterCount = ((Number) parameters.get(offset + 2)).intValue();
+            if (parameterCount < 0 || offset + 3 + parameterCount > parameters.size()) {
+                throw new IllegalArgumentException("invalid parameterCount: " + parameterCount);
+            }
+            RpcRequest callRequest = new RpcRequest(request.getConId(), request.getSrcAddr(), request.getDestAddr())
+                    .setRequestId(request.getRequestId())
+                    .setInvokeType(RpcInvokeType.CALL)
+                    .setServiceId(((Number) parameters.get(offset)).intValue())
+                    .setMethodId(((Number) parameters.get(offset + 1)).intValue())
+                    .setParameters(new ArrayList<>(parameters.subList(offset + 3, offset + 3 + parameterCount)));
+            callRequest.setRcvNanos(request.getRcvNanos());
+            callRequest.setDeserialized();
+            callRequests.add(callRequest);
+            offset += 3 + parameterCount;
+        }
+        if (callRequests.isEmpty()) {
+            throw new IllegalArgumentException("empty batch");
+        }
+        return callRequests;
+    }
+
+    /** 分派请求 -- 同一个串行Key的前一个请求完成前，后续请求排队 */
+    private void dispatchRequest(Worker worker, WorkerCtx workerCtx, RpcMethodProxy proxy, RpcContextImpl<?> context) {
+        final RpcRequest request = context.request;
+        SerialQueue serialQueue = null;
+        int serialKeyIndex = workerCtx.rpcRegistry.getProxySerialKey(request.getServiceId(), request.getMethodId());
+        if (serialKeyIndex >= 0) {
+            Object key = getSerialKey(request, serialKeyIndex);
+            if (key != null) {
+                Map<Object, SerialQueue> queueMap = workerCtx.serialQueueMap.get(request.getServiceId());
+                if (queueMap == null) {
+                    queueMap = new HashMap<>();
+                    workerCtx.serialQueueMap.put(request.getServiceId(), queueMap);
+                }
+                serialQueue = queueMap.get(key);
+                if (serialQueue != null) { // 前一个请求未完成
+                    final SerialQueue finalSerialQueue = serialQueue;
+                    serialQueue.addWaiter(() -> invokeRequest(worker, workerCtx, proxy, context, finalSerialQueue));
+                    return;
+                }
+                serialQueue = workerCtx.newSerialQueue(worker, queueMap, key);
+                queueMap.put(key, serialQueue);
+            }
+        }
+        invokeRequest(worker, workerCtx, proxy, context, serialQueue);
+    }
+
+    private static Object getSerialKey(RpcRequest request, int serialKeyIndex) {
+        List<Object> parameters = request.listParameters();
+        if (serialKeyIndex >= parameters.size()) {
+            logger.warn("serial key is absent, serviceId: {}, methodId {}, index {}",
+                    request.getServiceId(), request.getMethodId(), serialKeyIndex);
+            return null;
+        }
+        return parameters.get(serialKeyIndex);
+    }
+
+    /** 执行请求 -- 串行队列非null时，请求完成后释放队列 */
+    private <T> void invokeRequest(Worker worker, WorkerCtx workerCtx, RpcMethodProxy proxy,
+                                   RpcContextImpl<T> context, SerialQueue serialQueue) {
+        final RpcRequest request = context.request;
         RpcMethodSpec<T> methodSpec = new RpcMethodSpec<>(request.getServiceId(), request.getMethodId(), request.listParameters());
-        RpcContextImpl<T> context = new RpcContextImpl<>(request, this);
+        context.serialQueue = serialQueue;
+        // 并发限制 -- 只限制需要结果的请求，结果返回时释放
+        if (limiterFactory != null && RpcInvokeType.isCall(request.getInvokeType())
+                && !acquireLimiter(workerCtx, context)) {
+            context.releaseSerial();
+            concurrencyLimited(context);
+            return;
+        }
+        String executorName = workerCtx.rpcRegistry.getProxyExecutor(request.getServiceId(), request.getMethodId());
+        if (executorName != null) {
+            invokeOnExecutor(worker, executorName, proxy, context, methodSpec);
+            return;
+        }
+        // 记录正在执行的方法，以便看门狗诊断
+        workerCtx.heartbeat.onDispatch(request.getServiceId(), request.getMethodId());
         if (!RpcInvokeType.isCall(request.getInvokeType())) {
             // Oneway - 不需要结果
+            final Object result;
             try {
-                proxy.invoke(context, methodSpec);
+                result = proxy.invoke(context, methodSpec);
             } catch (Throwable e) {
                 logInvokeException(request, e);
+                context.releaseSerial();
+                return;
+            } finally {
+                workerCtx.heartbeat.onDispatchEnd();
             }
+            onOnewayCompleted(context, result);
         } else {
             // Call -- 监听future完成事件
+            final Object result;
             try {
-                final Object result = proxy.invoke(context, methodSpec);
-                if (context.isManualReturn()) {
-                    return; // 用户自行管理结果
-                }
-                if (result instanceof IFuture<?>) { // 异步获取结果
-                    @SuppressWarnings("unchecked") IFuture<T> future = (IFuture<T>) result;
-                    future.onCompleted(context, 0);
-                } else if (result instanceof CompletableFuture<?>) {
-                    @SuppressWarnings("unchecked") CompletableFuture<T> future = (CompletableFuture<T>) result;
-                    future.whenComplete(context);
-                } else {
-                    // 立即得到了结果
-                    @SuppressWarnings("unchecked") T castReult = (T) result;
-                    context.sendResult(castReult);
-                }
+                result = proxy.invoke(context, methodSpec);
             } catch (Throwable e) {
                 logInvokeException(request, e);
                 context.sendError(e);
+                return;
+            } finally {
+                workerCtx.heartbeat.onDispatchEnd();
             }
+            onInvokeCompleted(context, result);
         }
     }
 
+    /** 在执行器中执行方法，结果回到worker线程返回 */
+    private <T> void invokeOnExecutor(Worker worker, String executorName, RpcMethodProxy proxy,
+                                      RpcContextImpl<T> context, RpcMethodSpec<T> methodSpec) {
+        final RpcRequest request = context.request;
+        if (executorMgr == null || !executorMgr.hasExecutor(executorName)) {
+            logger.warn("rpc executor is absent, name {}, serviceId={}, methodId={}",
+                    executorName, request.getServiceId(), request.getMethodId());
+            executorRejected(context);
+            return;
+        }
+        final boolean isCall = RpcInvokeType.isCall(request.getInvokeType());
+        boolean accepted = executorMgr.execute(executorName, () -> {
+            final Object result;
+            try {
+                result = proxy.invoke(context, methodSpec);
+            } catch (Throwable e) {
+                logInvokeException(request, e);
+                if (isCall) {
+                    worker.execute(() -> context.sendError(e));
+                } else {
+                    context.releaseSerial();
+                }
+                return;
+            }
+            if (isCall) {
+                worker.execute(() -> onInvokeCompleted(context, result));
+            } else {
+                onOnewayCompleted(context, result);
+            }
+        });
+        if (!accepted) {
+            executorRejected(context);
+        }
+    }
+
+    /** 处理方法的返回值 -- worker线程调用 */
+    private <T> void onInvokeCompleted(RpcContextImpl<T> context, Object result) {
+        if (context.isManualReturn()) {
+            return; // 用户自行管理结果
+        }
+        try {
+            if (result instanceof IFuture<?>) { // 异步获取结果
+                @SuppressWarnings("unchecked") IFuture<T> future = (IFuture<T>) result;
+                future.onCompleted(context, 0);
+            } else if (result instanceof CompletableFuture<?>) {
+                @SuppressWarnings("unchecked") CompletableFuture<T> future = (CompletableFuture<T>) result;
+                future.whenComplete(context);
+            } else {
+                // 立即得到了结果
+                @SuppressWarnings("unchecked") T castReult = (T) result;
+                context.sendResult(castReult);
+            }
+        } catch (Throwable e) {
+            logInvokeException(context.request, e);
+            context.sendError(e);
+        }
+    }
+
+    /** 单向请求执行完毕 -- 如果返回了Future，则在Future完成时释放串行队列 */
+    private static void onOnewayCompleted(RpcContextImpl<?> context, Object result) {
+        if (context.serialQueue == null) {
+            return;
+        }
+        if (result instanceof IFuture<?> future) {
+            future.onCompleted(f -> context.releaseSerial(), 0);
+        } else if (result instanceof CompletableFuture<?> future) {
+            future.whenComplete((v, e) -> context.releaseSerial());
+        } else {
+            context.releaseSerial();
+        }
+    }
+
+    /** 执行器拒绝执行 */
+    private void executorRejected(RpcContextImpl<?> context) {
+        context.releaseLimiter(false);
+        context.releaseSerial();
+        RpcRequest request = context.request;
+        logger.info("rpc executor rejected, src {}, serviceId={}, methodId={}",
+                request.getSrcAddr(), request.getServiceId(), request.getMethodId());
+        if (RpcInvokeType.isCall(request.getInvokeType())) {
+            context.sendResponse(newFailedResponse(request, RpcErrorCodes.SERVER_EXECUTOR_REJECTED, ""));
+        }
+    }
+
+    private boolean shouldShed(WorkerCtx workerCtx, RpcRequest request) {
+        if (workerCtx.shedder == null) {
+            workerCtx.shedder = new CoDelShedder(shedTargetMs, shedIntervalMs);
+        }
+        return workerCtx.shedder.shouldShed(request.getRcvNanos(), System.nanoTime());
+    }
+
+    /** 过载丢弃请求 */
+    private void overloaded(RpcRequest request) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("rpc request shed, src {}, serviceId={}, methodId={}",
+                    request.getSrcAddr(), request.getServiceId(), request.getMethodId());
+        }
+        if (RpcInvokeType.isCall(request.getInvokeType())) {
+            sendResponse(newFailedResponse(request, RpcErrorCodes.SERVER_OVERLOADED, ""));
+        }
+    }
+
+    /**
+     * 查询丢弃的请求数 -- 只可在worker线程调用
+     *
+     * @return 如果未启用丢弃策略，则返回0
+     */
+    public long getShedCount(Worker worker) {
+        CoDelShedder shedder = worker.workerCtx().shedder;
+        return shedder == null ? 0 : shedder.getShedCount();
+    }
+
+    /** 获取服务和方法的许可 */
+    private boolean acquireLimiter(WorkerCtx workerCtx, RpcContextImpl<?> context) {
+        final int serviceId = context.request.getServiceId();
+        final int methodId = context.request.getMethodId();
+        ConcurrencyLimiter serviceLimiter = getServiceLimiter(workerCtx, serviceId);
+        if (serviceLimiter != null && !serviceLimiter.tryAcquire()) {
+            return false;
+        }
+        ConcurrencyLimiter methodLimiter = getMethodLimiter(workerCtx, serviceId, methodId);
+        if (methodLimiter != null && !methodLimiter.tryAcquire()) {
+            if (serviceLimiter != null) {
+                serviceLimiter.release(0);
+            }
+            return false;
+        }
+        context.serviceLimiter = serviceLimiter;
+        context.methodLimiter = methodLimiter;
+        context.acquireNanos = System.nanoTime();
+        return true;
+    }
+
+    private ConcurrencyLimiter getServiceLimiter(WorkerCtx workerCtx, int serviceId) {
+        ConcurrencyLimiter limiter = workerCtx.serviceLimiterMap.get(serviceId);
+        if (limiter == null) {
+            limiter = Objects.requireNonNullElse(limiterFactory.newServiceLimiter(serviceId), NO_LIMIT);
+            workerCtx.serviceLimiterMap.put(serviceId, limiter);
+        }
+        return limiter == NO_LIMIT ? null : limiter;
+    }
+
+    private ConcurrencyLimiter getMethodLimiter(WorkerCtx workerCtx, int serviceId, int methodId) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        ConcurrencyLimiter limiter = workerCtx.methodLimiterMap.get(methodKey);
+        if (limiter == null) {
+            limiter = Objects.requireNonNullElse(limiterFactory.newMethodLimiter(serviceId, methodId), NO_LIMIT);
+            workerCtx.methodLimiterMap.put(methodKey, limiter);
+        }
+        return limiter == NO_LIMIT ? null : limiter;
+    }
+
+    /**
+     * 查询服务的在途请求数 -- 只可在worker线程调用
+     *
+     * @return 如果服务未限制并发，则返回-1
+     */
+    public int getInFlight(Worker worker, int serviceId) {
+        ConcurrencyLimiter limiter = worker.workerCtx().serviceLimiterMap.get(serviceId);
+        return (limiter == null || limiter == NO_LIMIT) ? -1 : limiter.getInFlight();
+    }
+
+    /**
+     * 查询方法的在途请求数 -- 只可在worker线程调用
+     *
+     * @return 如果方法未限制并发，则返回-1
+     */
+    public int getInFlight(Worker worker, int serviceId, int methodId) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        ConcurrencyLimiter limiter = worker.workerCtx().methodLimiterMap.get(methodKey);
+        return (limiter == null || limiter == NO_LIMIT) ? -1 : limiter.getInFlight();
+    }
+
+    /** 超过并发限制 */
+    private void concurrencyLimited(RpcContextImpl<?> context) {
+        RpcRequest request = context.request;
+        if (logger.isDebugEnabled()) {
+            logger.debug("rpc concurrency limited, src {}, serviceId={}, methodId={}",
+                    request.getSrcAddr(), request.getServiceId(), request.getMethodId());
+        }
+        context.sendResponse(newFailedResponse(request, RpcErrorCodes.SERVER_CONCURRENCY_LIMITED, ""));
+    }
+
     /** 反序列化失败 */
     private void deserializeFailed(RpcRequest request) {
         if (logger.isInfoEnabled()) {
@@ -471,15 +1286,152 @@ public class NodeRpcSupport implements WorkerModule {
 
     // endregion
 
+    // region 合并消息
+
+    /**
+     * 合并单向消息 -- IO线程或node线程调用
+     * 1.Worker尚未处理的同Key消息直接替换为新消息，不再提交新的任务，因此队列长度受限于活跃的Key数。
+     * 2.合并Key读取Worker导出服务时发布的快照，不访问Worker的注册表，因此适用于任意注册表。
+     * 3.需要Key参数时，延迟解析的参数在接收线程解析，Worker复用解析结果；解析失败的请求由worker处理。
+     * 4.条目由接收线程创建和替换，由worker线程在执行前删除；二者都在Map的锁内完成，因此worker总能看见最新的消息。
+     *
+     * @return 如果消息已被合并或已提交，则返回true
+     */
+    private boolean conflate(Worker worker, RpcRequest request) {
+        final WorkerCtx workerCtx = worker.workerCtx();
+        final int[] keyIndexes = workerCtx.conflateKeyMap.get(RpcMethodKey.methodKey(request.getServiceId(), request.getMethodId()));
+        if (keyIndexes == null) {
+            return false;
+        }
+        // 计算Key需要先解析参数 -- 解析失败的请求由worker处理
+        if (keyIndexes.length > 0 && request.getParameters() instanceof PBLazyParameters lazyParameters && !lazyParameters.parse()) {
+            return false;
+        }
+        final List<Object> parameters = keyIndexes.length > 0 ? request.listParameters() : List.of();
+        final Object[] keyArgs = new Object[keyIndexes.length];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            if (keyIndexes[i] >= parameters.size()) {
+                return false;
+            }
+            keyArgs[i] = parameters.get(keyIndexes[i]);
+        }
+        final ConflateKey key = new ConflateKey(request.getSrcAddr(), request.getServiceId(), request.getMethodId(), Arrays.asList(keyArgs));
+        // 只有创建条目的线程提交任务
+        final ConflateEntry[] created = new ConflateEntry[1];
+        workerCtx.conflateMap.compute(key, (k, e) -> {
+            if (e == null) {
+                return created[0] = new ConflateEntry(this, worker, k, request);
+            }
+            e.request = request;
+            return e;
+        });
+        if (created[0] != null) {
+            worker.execute(created[0]);
+        }
+        return true;
+    }
+
+    record ConflateKey(RpcAddr srcAddr, int serviceId, int methodId, List<Object> keyArgs) {
+
+    }
+
+    /** 待处理的合并消息 */
+    static final class ConflateEntry implements Runnable {
+
+        final NodeRpcSupport rpcSupport;
+        final Worker worker;
+        final ConflateKey key;
+        /** 最新的消息 -- 接收线程替换 */
+        volatile RpcRequest request;
+
+        ConflateEntry(NodeRpcSupport rpcSupport, Worker worker, ConflateKey key, RpcRequest request) {
+            this.rpcSupport = rpcSupport;
+            this.worker = worker;
+            this.key = key;
+            this.request = request;
+        }
+
+        /** worker线程执行 -- 删除后node将为新消息创建新的条目 */
+        @Override
+        public void run() {
+            worker.workerCtx().conflateMap.remove(key, this);
+            rpcSupport.onRcvRequestImpl(worker, request);
+        }
+    }
+
+    // endregion
+
+    // region forward
+
+    /**
+     * 转发玩家的请求或发往玩家的请求
+     *
+     * @return 如果请求不需要转发，则返回false
+     */
+    private boolean forwardRequest(RpcRequest request) {
+        if (request.getDestAddr() instanceof PlayerAddr) {
+            relay(request);
+            return true;
+        }
+        if (!(request.getSrcAddr() instanceof PlayerAddr playerAddr)) {
+            return false;
+        }
+        Function<? super PlayerAddr, ? extends RpcAddr> resolver = forwardTable.getResolver(request.getServiceId());
+        if (resolver == null) {
+            return false;
+        }
+        RpcAddr target = resolver.apply(playerAddr);
+        if (target == null) {
+            logger.info("rpc forward target not found, player {}, serviceId {}", playerAddr, request.getServiceId());
+            if (RpcInvokeType.isCall(request.getInvokeType())) {
+                sendResponse(newFailedResponse(request, RpcErrorCodes.SERVER_CONNECTION_STATE_ERROR, "forward target not found"));
+            }
+            return true;
+        }
+        // 背压 -- 快速失败
+        if (!router.isWritable(target)) {
+            logger.info("rpc router busy, target " + target);
+            if (RpcInvokeType.isCall(request.getInvokeType())) {
+                sendResponse(newFailedResponse(request, RpcErrorCodes.SERVER_OVERLOADED, "router busy"));
+            }
+            return true;
+        }
+        request.setDestAddr(target);
+        relay(request);
+        return true;
+    }
+
+    /** 原样发送协议 -- 未反序列化的参数或结果仍是编码后的字节数组，Router不需要再次编码 */
+    private void relay(RpcProtocol protocol) {
+        if (!protocol.isDeserialized()) {
+            protocol.setSerialized();
+        }
+        if (!router.send(protocol)) {
+            logger.info("rpc forward failure, target " + protocol.getDestAddr());
+        }
+    }
+
+    // endregion
+
     // region rcvResponse
 
     /**
      * 通知Support模块收到一个Rpc响应
      * 1.该方法由IO线程调用 -- 即RpcRouter类调用。
-     * 2.如果外部未反序列化结果，则在Node线程自动反序列化
+     * 2.根据请求id中的worker槽位，直接将响应投递给发起调用的worker，不经过node线程。
+     * 3.如果外部未反序列化结果，则在worker线程自动反序列化
      */
     public void onRcvResponse(RpcResponse response) {
         Objects.requireNonNull(response);
+        // 网关转发 -- 发往玩家的响应
+        if (forwardTable != null && response.getDestAddr() instanceof PlayerAddr) {
+            if (!node.inEventLoop()) {
+                node.execute(() -> relay(response));
+            } else {
+                relay(response);
+            }
+            return;
+        }
         if (response.getConId() != conId) {
             // 收到旧进程的rpc响应，常见于使用MQ通信的服务器
             logger.info("rcv old process rpc response, remote {}", response.getSrcAddr());
@@ -491,32 +1443,36 @@ public class NodeRpcSupport implements WorkerModule {
             watcher.onEvent(response);
             return;
         }
-        if (!node.inEventLoop()) {
-            node.execute(() -> onRcvResponseImpl(response));
-        } else {
-            onRcvResponseImpl(response);
+        final Worker worker = workerOfRequestId(response.getRequestId());
+        if (worker == null) {
+            logger.info("rcv rpc response, but worker is absent, requestId {}", response.getRequestId());
+            return;
         }
+        // 总是提交任务 -- 本地路由可能在发起调用的线程投递响应，避免重入
+        worker.execute(() -> onRcvResponseImpl(worker, response));
     }
 
-    private void onRcvResponseImpl(RpcResponse response) {
+    /** worker线程调用 */
+    private void onRcvResponseImpl(Worker worker, RpcResponse response) {
         // 使用之前反序列化
         if (!response.isDeserialized() && !decodeResult(response)) {
             response.setFailed(RpcErrorCodes.LOCAL_DESERIALIZE_FAILED, "data error");
         }
-        final RpcRequestStubImpl requestStub = requestStubMap.remove(response.getRequestId());
+        final RpcRequestStubImpl requestStub = removeStub(worker.workerCtx(), response.getRequestId());
         if (logConfig.getRcvResponseLogLevel() > DebugLogLevel.NONE) {
             logRcvResponse(response, requestStub == null);
         }
         if (requestStub == null) {
             return;
         }
-        // future的跨线程问题是在call的时候处理的
-        @SuppressWarnings("unchecked") CompletableFuture<Object> future = (CompletableFuture<Object>) requestStub.future;
+        recordLatency(requestStub, timeProvider.getTime());
         final int errorCode = response.getErrorCode();
         if (errorCode == 0) {
-            future.complete(response.getResult());
+            // 批量调用的结果列表即是所有调用的结果
+            boolean batch = requestStub.request.getInvokeType() == RpcInvokeType.BATCH_CALL;
+            requestStub.setResult(batch ? response.listResult() : response.getResult());
         } else {
-            future.completeExceptionally(RpcServerException.newServerException(response));
+            requestStub.setException(RpcServerException.newServerException(response));
         }
     }
 
@@ -538,6 +1494,34 @@ public class NodeRpcSupport implements WorkerModule {
         return request;
     }
 
+    /**
+     * worker线程调用 -- 所有调用的参数打包为一个扁平的列表
+     * 不嵌套容器，以保证和普通请求的参数具有相同的序列化要求。
+     */
+    private RpcRequest newBatchRequest(RpcAddr target, List<? extends RpcMethodSpec<?>> methodSpecs) {
+        int size = 0;
+        for (RpcMethodSpec<?> methodSpec : methodSpecs) {
+            size += 3 + methodSpec.getParameters().size();
+        }
+        final List<Object> parameters = new ArrayList<>(size);
+        for (RpcMethodSpec<?> methodSpec : methodSpecs) {
+            parameters.add(methodSpec.getServiceId());
+            parameters.add(methodSpec.getMethodId());
+            parameters.add(methodSpec.getParameters().size());
+            parameters.addAll(methodSpec.getParameters());
+        }
+        // 请求头使用第一个调用的服务 -- 只用于日志和转发，目标节点按每个调用的服务选择worker
+        RpcMethodSpec<?> first = methodSpecs.get(0);
+        RpcRequest request = new RpcRequest(conId, selfAddr, target)
+                .setInvokeType(RpcInvokeType.BATCH_CALL)
+                .setServiceId(first.getServiceId())
+                .setMethodId(first.getMethodId())
+                .setParameters(parameters);
+        encodeParameters(request);
+        request.setSerialized();
+        return request;
+    }
+
     /**
      * 填充Request的数据
      * 1.在node线程调用，分配请求id等
@@ -548,6 +1532,29 @@ public class NodeRpcSupport implements WorkerModule {
         request.setRequestId(++sequencer);
     }
 
+    /**
+     * worker线程调用 -- 为call分配请求id
+     * 1.高位为worker的槽位（workerIndex + 1），node自身为0，收到响应时据此查找worker。
+     * 2.低位为worker内递增的序号，因此同一worker发出的请求id是有序的。
+     */
+    private long nextRequestId(Worker worker) {
+        if (worker == node) {
+            return ++sequencer;
+        }
+        final WorkerCtx workerCtx = worker.workerCtx();
+        final long slot = worker.workerIndex() + 1;
+        return (slot << REQUEST_ID_SLOT_SHIFT) | (++workerCtx.sequencer & REQUEST_ID_SEQ_MASK);
+    }
+
+    /** IO线程调用 -- 槽位不合法时返回null */
+    private Worker workerOfRequestId(long requestId) {
+        final int slot = (int) (requestId >>> REQUEST_ID_SLOT_SHIFT);
+        if (slot == 0) {
+            return node;
+        }
+        return node.getWorker(slot - 1);
+    }
+
     /** node或worker线程调用 */
     private void sendResponse(final RpcResponse response) {
         if (enableNullCheck && router.isCrossLanguageAddr(response.getDestAddr())) {
@@ -619,6 +1626,7 @@ public class NodeRpcSupport implements WorkerModule {
                 .setServiceId(src.getServiceId())
                 .setMethodId(src.getMethodId())
                 .setParameters(bytesParameters);
+        request.setRcvNanos(src.getRcvNanos());
         decodeParameters(request);
         request.setDeserialized();
         return request;
@@ -639,10 +1647,13 @@ public class NodeRpcSupport implements WorkerModule {
         }
     }
 
-    /** 反序列化rpc参数 -- 在使用之前；可顺带进行部分初始化 */
+    /**
+     * 反序列化rpc参数 -- 在使用之前；可顺带进行部分初始化
+     * 跨语言的参数延迟到Worker线程执行方法之前解析
+     */
     private boolean decodeParameters(RpcRequest request) {
         if (router.isCrossLanguageAddr(request.getSrcAddr())) {
-            return methodInfoRegistry.decodeParameters(request);
+            return methodInfoRegistry.decodeParametersLazily(request);
         }
         try {
             Object parameters = serializer.read(request.bytesParameters());
@@ -715,6 +1726,15 @@ public class NodeRpcSupport implements WorkerModule {
         final RpcRequest request;
         final NodeRpcSupport rpcClient;
         int options;
+        /** 请求获得的并发许可，返回结果时释放 */
+        ConcurrencyLimiter serviceLimiter;
+        ConcurrencyLimiter methodLimiter;
+        long acquireNanos;
+        /** 请求持有的串行队列，返回结果时释放 */
+        SerialQueue serialQueue;
+        /** 所属的批量调用 -- 结果交由批量调用合并 */
+        BatchCall batchCall;
+        int batchIndex;
 
         RpcContextImpl(RpcRequest request, NodeRpcSupport rpcClient) {
             this.request = request;
@@ -756,12 +1776,52 @@ public class NodeRpcSupport implements WorkerModule {
             options = BitFlags.set(options, MASK_RESULT_MANUAL, value);
         }
 
+        /**
+         * 释放并发许可 -- 只有第一次调用有效
+         *
+         * @param sample 是否计入延迟采样
+         */
+        void releaseLimiter(boolean sample) {
+            if (serviceLimiter == null && methodLimiter == null) {
+                return;
+            }
+            long rttNanos = sample ? Math.max(1, System.nanoTime() - acquireNanos) : 0;
+            if (serviceLimiter != null) {
+                serviceLimiter.release(rttNanos);
+                serviceLimiter = null;
+            }
+            if (methodLimiter != null) {
+                methodLimiter.release(rttNanos);
+                methodLimiter = null;
+            }
+        }
+
+        /** 发送响应 -- 批量调用中的请求不直接返回 */
+        void sendResponse(RpcResponse response) {
+            if (batchCall != null) {
+                batchCall.onCompleted(batchIndex, response);
+            } else {
+                rpcClient.sendResponse(response);
+            }
+        }
+
+        /** 释放串行队列，执行该Key的下一个请求 -- 只有第一次调用有效 */
+        void releaseSerial() {
+            SerialQueue serialQueue = this.serialQueue;
+            if (serialQueue != null) {
+                this.serialQueue = null;
+                serialQueue.release();
+            }
+        }
+
         @Override
         public void sendResult(V result) {
+            releaseLimiter(true);
+            releaseSerial();
             RpcResponse response = new RpcResponse(request, rpcClient.selfAddr);
             response.setSharable(isSharable());
             response.setSuccess(result);
-            rpcClient.sendResponse(response);
+            sendResponse(response);
         }
 
         @Override
@@ -769,24 +1829,30 @@ public class NodeRpcSupport implements WorkerModule {
             if (!RpcErrorCodes.isUserCode(errorCode)) {
                 throw new IllegalArgumentException("invalid errorCode: " + errorCode);
             }
+            releaseLimiter(true);
+            releaseSerial();
             RpcResponse response = new RpcResponse(request, rpcClient.selfAddr);
             response.setSharable(true);
             response.setFailed(errorCode, msg);
-            rpcClient.sendResponse(response);
+            sendResponse(response);
         }
 
         @Override
         public void sendError(Throwable ex) {
             Objects.requireNonNull(ex);
+            releaseLimiter(true);
+            releaseSerial();
             RpcResponse response = new RpcResponse(request, rpcClient.selfAddr);
             response.setSharable(true);
             response.setFailed(ex);
-            rpcClient.sendResponse(response);
+            sendResponse(response);
         }
 
         @Override
         public void sendEncodedResult(byte[] result, boolean sharable) {
             Objects.requireNonNull(result);
+            releaseLimiter(true);
+            releaseSerial();
             RpcResponse response = new RpcResponse(request, rpcClient.selfAddr);
             if (sharable) {
                 response.setSuccess(result);
@@ -795,7 +1861,7 @@ public class NodeRpcSupport implements WorkerModule {
             }
             response.setSharable(sharable);
             response.setSerialized();
-            rpcClient.sendResponse(response);
+            sendResponse(response);
         }
 
         @Override
@@ -817,16 +1883,145 @@ public class NodeRpcSupport implements WorkerModule {
         }
     }
 
-    private static class RpcRequestStubImpl implements RpcRequestStub {
+    /**
+     * 串行Key的等待队列
+     * 队列存在于Map中时表示Key正在执行请求，最后一个请求完成时从Map中删除。
+     */
+    static final class SerialQueue {
+
+        Worker worker;
+        WorkerCtx workerCtx;
+        Map<Object, SerialQueue> owner;
+        Object key;
+        /** 等待执行的请求 -- 出现竞争时才创建 */
+        ArrayDeque<Runnable> waiters;
+
+        void addWaiter(Runnable task) {
+            if (waiters == null) {
+                waiters = new ArrayDeque<>(4);
+            }
+            waiters.addLast(task);
+        }
 
+        /** 释放队列 -- 可在任意线程调用 */
+        void release() {
+            if (worker.inEventLoop()) {
+                releaseImpl();
+            } else {
+                worker.execute(this::releaseImpl);
+            }
+        }
+
+        private void releaseImpl() {
+            Runnable next = waiters == null ? null : waiters.pollFirst();
+            if (next != null) {
+                // 通过事件队列执行，避免同步完成的请求递归调用
+                worker.execute(next);
+                return;
+            }
+            owner.remove(key);
+            workerCtx.recycleSerialQueue(this);
+        }
+    }
+
+    /**
+     * 批量调用的结果合并
+     * 调用可能异步完成或在不同的worker完成，结果按调用的顺序合并为{@code [errorCode, resultCount, results...]...}，全部完成后返回一个响应。
+     */
+    private static final class BatchCall {
+
+        final NodeRpcSupport rpcSupport;
+        /** 合并结果的worker */
+        final Worker worker;
         final RpcRequest request;
-        final long deadline;
-        final IPromise<?> future;
+        final RpcResponse[] responses;
+        int remaining;
 
-        RpcRequestStubImpl(RpcRequest request, long deadline, IPromise<?> future) {
-            this.future = future;
-            this.deadline = deadline;
+        BatchCall(NodeRpcSupport rpcSupport, Worker worker, RpcRequest request, int count) {
+            this.rpcSupport = rpcSupport;
+            this.worker = worker;
+            this.request = request;
+            this.responses = new RpcResponse[count];
+            this.remaining = count;
+        }
+
+        /** 单个调用完成 -- 可在任意线程调用 */
+        void onCompleted(int index, RpcResponse response) {
+            if (!worker.inEventLoop()) {
+                worker.execute(() -> onCompleted(index, response));
+                return;
+            }
+            if (responses[index] != null) {
+                return; // 重复返回结果
+            }
+            if (response.isSerialized() && response.isSuccess() && response.getResult() instanceof byte[] bytes) {
+                // 用户发送的已编码结果，合并前需要解码
+                try {
+                    response.setResults(rpcSupport.serializer.read(bytes));
+                } catch (Exception e) {
+                    logger.info("decode encoded result caught exception, serviceId {}, methodId {}",
+                            response.getServiceId(), response.getMethodId(), e);
+                    response.setFailed(RpcErrorCodes.SERVER_EXCEPTION, "invalid encoded result");
+                }
+            }
+            responses[index] = response;
+            if (--remaining > 0) {
+                return;
+            }
+            final List<Object> results = new ArrayList<>(responses.length * 3);
+            for (RpcResponse callResponse : responses) {
+                List<Object> callResults = callResponse.listResult();
+                results.add(callResponse.getErrorCode());
+                results.add(callResults.size());
+                results.addAll(callResults);
+            }
+            RpcResponse batchResponse = new RpcResponse(request, rpcSupport.selfAddr);
+            batchResponse.setResults(results);
+            rpcSupport.sendResponse(batchResponse);
+        }
+    }
+
+    /**
+     * 调用的存根 -- 保存在发起调用的worker的上下文中
+     * 存根自身即是切换到node线程发送请求的任务。
+     */
+    static class RpcRequestStubImpl implements RpcRequestStub, Runnable {
+
+        /** 按截止时间排序 */
+        static final Comparator<RpcRequestStubImpl> DEADLINE_COMPARATOR = Comparator.comparingLong(stub -> stub.deadline);
+
+        final NodeRpcSupport rpcSupport;
+        final Worker worker;
+        final RpcRequest request;
+        final IPromise<?> future;
+        /** 在保留存根时赋值 */
+        long deadline;
+        long startTime;
+        /** 方法的自适应超时，null表示使用固定超时 */
+        AdaptiveTimeout adaptiveTimeout;
+
+        RpcRequestStubImpl(NodeRpcSupport rpcSupport, Worker worker, RpcRequest request, IPromise<?> future) {
+            this.rpcSupport = rpcSupport;
+            this.worker = worker;
             this.request = request;
+            this.future = future;
+        }
+
+        /** 在node线程发送请求 */
+        @Override
+        public void run() {
+            rpcSupport.sendCall(this);
+        }
+
+        /** 调用成功 -- worker线程调用 */
+        @SuppressWarnings("unchecked")
+        void setResult(Object result) {
+            ((IPromise<Object>) future).trySetResult(result);
+        }
+
+        /** 调用失败 -- worker线程调用 */
+        void setException(Throwable cause) {
+            future.trySetException(cause);
         }
 
         @Override
@@ -845,6 +2040,40 @@ public class NodeRpcSupport implements WorkerModule {
         }
     }
 
+    /** 基于回调的存根 -- 完成时已在worker线程，直接执行回调 */
+    private static final class CallbackStub<V> extends RpcRequestStubImpl {
+
+        final RpcCallback<? super V> callback;
+        final Object ctx;
+
+        CallbackStub(NodeRpcSupport rpcSupport, Worker worker, RpcRequest request,
+                     RpcCallback<? super V> callback, Object ctx) {
+            super(rpcSupport, worker, request, null);
+            this.callback = callback;
+            this.ctx = ctx;
+        }
+
+        @Override
+        void setResult(Object result) {
+            complete(result, null);
+        }
+
+        @Override
+        void setException(Throwable cause) {
+            complete(null, cause);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(Object result, Throwable cause) {
+            try {
+                callback.onCompleted((V) result, cause, ctx);
+            } catch (Throwable e) {
+                logger.warn("rpc callback caught exception, serviceId={}, methodId={}",
+                        request.getServiceId(), request.getMethodId(), e);
+            }
+        }
+    }
+
     // endregion
 
     // region debug日志
@@ -33,4 +33,25 @@ public final class PlayerAddr implements RpcAddr {
         this.playerGuid = playerGuid;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PlayerAddr that = (PlayerAddr) o;
+        return playerGuid == that.playerGuid;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(playerGuid);
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerAddr{" +
+                "playerGuid=" + playerGuid +
+                '}';
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.RpcMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rpc阻塞方法的执行器管理器
+ * <p>
+ * 1. 用于执行{@link RpcMethod#executor()}指定的方法，避免阻塞Worker的主循环。
+ * 2. 每个执行器都是有界的，队列满时将拒绝任务，由调用方返回错误码。
+ * 3. 该模块应当添加到Node上，并在Node的Injector中绑定；执行器在启动前配置，运行时不可修改。
+ *
+ * @author wjybxx
+ * date - 2024/1/10
+ */
+@ThreadSafe
+public class RpcExecutorMgr implements WorkerModule {
+
+    private static final Logger logger = LoggerFactory.getLogger(RpcExecutorMgr.class);
+
+    /** 停止时等待任务完成的时间 */
+    private long shutdownTimeoutMs = 5 * 1000;
+    private final Map<String, NamedExecutor> executorMap = new LinkedHashMap<>();
+    private volatile boolean mutable = true;
+
+    // region 设置
+
+    /**
+     * 添加一个固定线程数的执行器
+     *
+     * @param name          执行器名字
+     * @param nThreads      线程数
+     * @param queueCapacity 等待队列的容量
+     */
+    public RpcExecutorMgr addExecutor(String name, int nThreads, int queueCapacity) {
+        ensureMutable();
+        checkName(name);
+        executorMap.put(name, new PooledExecutor(name, nThreads, queueCapacity));
+        return this;
+    }
+
+    /**
+     * 添加一个基于虚拟线程的执行器
+     *
+     * @param name           执行器名字
+     * @param maxConcurrency 最大并发数
+     * @param queueCapacity  等待队列的容量
+     */
+    public RpcExecutorMgr addVirtualExecutor(String name, int maxConcurrency, int queueCapacity) {
+        ensureMutable();
+        checkName(name);
+        executorMap.put(name, new VirtualExecutor(name, maxConcurrency, queueCapacity));
+        return this;
+    }
+
+    public long getShutdownTimeoutMs() {
+        return shutdownTimeoutMs;
+    }
+
+    public RpcExecutorMgr setShutdownTimeoutMs(long shutdownTimeoutMs) {
+        ensureMutable();
+        this.shutdownTimeoutMs = Math.max(0, shutdownTimeoutMs);
+        return this;
+    }
+
+    private void checkName(String name) {
+        Objects.requireNonNull(name, "name");
+        if (executorMap.containsKey(name)) {
+            throw new IllegalArgumentException("executor is duplicate, name: " + name);
+        }
+    }
+
+    private void ensureMutable() {
+        if (!mutable) {
+            throw new IllegalStateException("node is started");
+        }
+    }
+    // endregion
+
+    @Override
+    public void start() {
+        mutable = false;
+    }
+
+    @Override
+    public void stop() {
+        for (NamedExecutor executor : executorMap.values()) {
+            executor.executorService.shutdown();
+        }
+        final long deadline = System.currentTimeMillis() + shutdownTimeoutMs;
+        for (NamedExecutor executor : executorMap.values()) {
+            try {
+                long timeout = Math.max(0, deadline - System.currentTimeMillis());
+                if (!executor.executorService.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                    logger.warn("executor terminate timeout, name {}, stats {}", executor.name, executor.stats());
+                    executor.executorService.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.executorService.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 提交一个任务
+     *
+     * @param name 执行器名字
+     * @param task 任务
+     * @return 如果执行器不存在或拒绝了任务，则返回false
+     */
+    public boolean execute(String name, Runnable task) {
+        NamedExecutor executor = executorMap.get(name);
+        if (executor == null) {
+            return false;
+        }
+        return executor.execute(task);
+    }
+
+    /** 查询是否存在指定名字的执行器 */
+    public boolean hasExecutor(String name) {
+        return executorMap.containsKey(name);
+    }
+
+    /**
+     * 查询执行器的统计信息
+     *
+     * @return 如果执行器不存在，则返回null
+     */
+    public ExecutorStats getStats(String name) {
+        NamedExecutor executor = executorMap.get(name);
+        return executor == null ? null : executor.stats();
+    }
+
+    /** 查询所有执行器的统计信息 */
+    public List<ExecutorStats> listStats() {
+        List<ExecutorStats> result = new ArrayList<>(executorMap.size());
+        for (NamedExecutor executor : executorMap.values()) {
+            result.add(executor.stats());
+        }
+        return result;
+    }
+
+    /**
+     * 执行器的统计信息
+     *
+     * @param name           执行器名字
+     * @param queueSize      等待执行的任务数
+     * @param activeCount    正在执行的任务数
+     * @param completedCount 已完成的任务数
+     * @param rejectedCount  被拒绝的任务数
+     */
+    public record ExecutorStats(String name, int queueSize, int activeCount, long completedCount, long rejectedCount) {
+
+    }
+
+    // region 执行器
+
+    private static abstract class NamedExecutor {
+
+        final String name;
+        final ExecutorService executorService;
+        final AtomicLong rejectedCount = new AtomicLong();
+
+        NamedExecutor(String name, ExecutorService executorService) {
+            this.name = name;
+            this.executorService = executorService;
+        }
+
+        abstract boolean execute(Runnable task);
+
+        abstract ExecutorStats stats();
+
+        /** 执行任务 -- 捕获所有异常，以免线程退出 */
+        static void runSafely(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                logger.warn("executor task caught exception", e);
+            }
+        }
+    }
+
+    private static class PooledExecutor extends NamedExecutor {
+
+        PooledExecutor(String name, int nThreads, int queueCapacity) {
+            super(name, newThreadPool(name, nThreads, queueCapacity));
+        }
+
+        private static ThreadPoolExecutor newThreadPool(String name, int nThreads, int queueCapacity) {
+            AtomicInteger counter = new AtomicInteger();
+            return new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    r -> {
+                        Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        @Override
+        boolean execute(Runnable task) {
+            try {
+                executorService.execute(() -> runSafely(task));
+                return true;
+            } catch (RejectedExecutionException e) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+        }
+
+        @Override
+        ExecutorStats stats() {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executorService;
+            return new ExecutorStats(name, pool.getQueue().size(), pool.getActiveCount(),
+                    pool.getCompletedTaskCount(), rejectedCount.get());
+        }
+    }
+
+    /** 虚拟线程本身是无界的，通过信号量限制并发，通过计数限制排队任务数 */
+    private static class VirtualExecutor extends NamedExecutor {
+
+        final Semaphore semaphore;
+        final int maxConcurrency;
+        final int queueCapacity;
+        final AtomicInteger pendingCount = new AtomicInteger();
+        final AtomicLong completedCount = new AtomicLong();
+
+        VirtualExecutor(String name, int maxConcurrency, int queueCapacity) {
+            super(name, Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory()));
+            if (maxConcurrency <= 0 || queueCapacity < 0) {
+                throw new IllegalArgumentException("maxConcurrency: %d, queueCapacity: %d".formatted(maxConcurrency, queueCapacity));
+            }
+            this.semaphore = new Semaphore(maxConcurrency);
+            this.maxConcurrency = maxConcurrency;
+            this.queueCapacity = queueCapacity;
+        }
+
+        @Override
+        boolean execute(Runnable task) {
+            // 排队的任务包括正在执行的任务
+            if (pendingCount.incrementAndGet() > maxConcurrency + queueCapacity) {
+                pendingCount.decrementAndGet();
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            try {
+                executorService.execute(() -> runTask(task));
+                return true;
+            } catch (RejectedExecutionException e) {
+                pendingCount.decrementAndGet();
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+        }
+
+        private void runTask(Runnable task) {
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                pendingCount.decrementAndGet();
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                runSafely(task);
+            } finally {
+                semaphore.release();
+                pendingCount.decrementAndGet();
+                completedCount.incrementAndGet();
+            }
+        }
+
+        @Override
+        ExecutorStats stats() {
+            int activeCount = maxConcurrency - semaphore.availablePermits();
+            int queueSize = Math.max(0, pendingCount.get() - activeCount);
+            return new ExecutorStats(name, queueSize, activeCount, completedCount.get(), rejectedCount.get());
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.RpcAddr;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * 网关的转发规则表
+ * <p>
+ * 1. 按服务id区间配置，玩家({@link PlayerAddr})发送的请求命中规则时，由网关原样转发，不解码参数。
+ * 2. 转发时只修改目标地址，发送方仍是玩家，由接收方解码参数并直接响应玩家。
+ * 3. 区间不可重叠；应当在Node启动前配置，运行时只读。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public final class RpcForwardTable {
+
+    /** 按区间起点排序 */
+    private final List<Rule> rules = new ArrayList<>();
+
+    /**
+     * 添加单个服务的转发规则
+     *
+     * @param resolver 查询玩家请求的转发目标，返回null表示无法转发
+     */
+    public RpcForwardTable addRule(int serviceId, Function<? super PlayerAddr, ? extends RpcAddr> resolver) {
+        return addRule(serviceId, serviceId, resolver);
+    }
+
+    /**
+     * 添加服务id区间的转发规则
+     *
+     * @param minServiceId 最小服务id(包含)
+     * @param maxServiceId 最大服务id(包含)
+     * @param resolver     查询玩家请求的转发目标，返回null表示无法转发
+     */
+    public RpcForwardTable addRule(int minServiceId, int maxServiceId, Function<? super PlayerAddr, ? extends RpcAddr> resolver) {
+        Objects.requireNonNull(resolver, "resolver");
+        if (minServiceId > maxServiceId) {
+            throw new IllegalArgumentException("minServiceId: %d, maxServiceId: %d".formatted(minServiceId, maxServiceId));
+        }
+        for (Rule rule : rules) {
+            if (minServiceId <= rule.maxServiceId && rule.minServiceId <= maxServiceId) {
+                throw new IllegalArgumentException("serviceId range [%d, %d] overlaps with [%d, %d]"
+                        .formatted(minServiceId, maxServiceId, rule.minServiceId, rule.maxServiceId));
+            }
+        }
+        rules.add(new Rule(minServiceId, maxServiceId, resolver));
+        rules.sort(Comparator.comparingInt(Rule::minServiceId));
+        return this;
+    }
+
+    /**
+     * 查询服务的转发目标解析器
+     *
+     * @return 如果服务不需要转发，则返回null
+     */
+    @Nullable
+    public Function<? super PlayerAddr, ? extends RpcAddr> getResolver(int serviceId) {
+        // 区间不重叠，二分查找
+        int low = 0;
+        int high = rules.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Rule rule = rules.get(mid);
+            if (serviceId < rule.minServiceId) {
+                high = mid - 1;
+            } else if (serviceId > rule.maxServiceId) {
+                low = mid + 1;
+            } else {
+                return rule.resolver;
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    private record Rule(int minServiceId, int maxServiceId, Function<? super PlayerAddr, ? extends RpcAddr> resolver) {
+
+    }
+}
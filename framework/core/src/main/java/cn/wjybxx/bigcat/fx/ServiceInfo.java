@@ -29,6 +29,8 @@ public final class ServiceInfo {
 
     public final int serviceId;
     public final List<Worker> workerList;
+    /** 按{@link Worker#workerIndex()}索引的Worker，不支持该服务的位置为null -- 不可变时才创建 */
+    private final Worker[] workerTable;
 
     /**
      * @param serviceId  服务id
@@ -37,10 +39,48 @@ public final class ServiceInfo {
     public ServiceInfo(int serviceId, List<Worker> workerList) {
         this.serviceId = serviceId;
         this.workerList = Objects.requireNonNull(workerList);
+        this.workerTable = null;
+    }
+
+    private ServiceInfo(int serviceId, List<Worker> workerList, Worker[] workerTable) {
+        this.serviceId = serviceId;
+        this.workerList = workerList;
+        this.workerTable = workerTable;
     }
 
     public ServiceInfo toImmutable() {
-        return new ServiceInfo(serviceId, List.copyOf(workerList));
+        int length = 0;
+        for (Worker worker : workerList) {
+            length = Math.max(length, worker.workerIndex() + 1);
+        }
+        Worker[] workerTable = new Worker[length];
+        for (Worker worker : workerList) {
+            if (worker.workerIndex() >= 0) {
+                workerTable[worker.workerIndex()] = worker;
+            }
+        }
+        return new ServiceInfo(serviceId, List.copyOf(workerList), workerTable);
+    }
+
+    /**
+     * 根据Worker的索引查找支持该服务的Worker
+     *
+     * @return 如果Worker不存在或不支持该服务，则返回null
+     */
+    public Worker getWorker(int workerIndex) {
+        Worker[] workerTable = this.workerTable;
+        if (workerTable == null) {
+            for (Worker worker : workerList) {
+                if (worker.workerIndex() == workerIndex) {
+                    return worker;
+                }
+            }
+            return null;
+        }
+        if (workerIndex < 0 || workerIndex >= workerTable.length) {
+            return null;
+        }
+        return workerTable[workerIndex];
     }
 
     public ServiceInfo addWorker(Worker worker) {
@@ -60,6 +60,13 @@ public interface Worker extends EventLoop {
      */
     String workerId();
 
+    /**
+     * Worker在Node中的索引 —— 由Node创建Worker时分配，从0开始连续分配
+     * 1. Rpc路由时通过该索引直接查找Worker，见{@link WorkerAddr#workerIndex}
+     * 2. Node自身返回{@link WorkerAddr#INDEX_NONE}
+     */
+    int workerIndex();
+
     /** Worker上绑定的Bean容器 */
     Injector injector();
 
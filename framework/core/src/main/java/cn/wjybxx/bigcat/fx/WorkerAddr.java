@@ -30,6 +30,8 @@ import java.util.Objects;
  * 1. {@link #serverType} 如果为-1，表示匹配所有类型的服务器
  * 2. {@link #serverId} 如果为-1，表示匹配该类型所有服务器
  * 3. {@link #workerId} 如果为null或空白，表示不指定Worker；如果为'*'，表示匹配所有worker
+ * 4. {@link #workerIndex} 为Worker在Node中的索引，路由时直接通过索引查找Worker；
+ * 字符串形式的workerId仅用于展示，'*'会自动转换为{@link #INDEX_ALL}。
  *
  * @author wjybxx
  * date - 2023/10/4
@@ -37,21 +39,40 @@ import java.util.Objects;
 @DsonLiteSerializable
 public class WorkerAddr implements RpcAddr {
 
+    /** 不指定Worker */
+    public static final int INDEX_NONE = -1;
+    /** 匹配所有Worker */
+    public static final int INDEX_ALL = -2;
+
     /** 服务器类型 */
     public final int serverType;
     /** 服务器id */
     public final int serverId;
     /** 线程id */
     public final String workerId;
+    /** 线程索引 -- 负数表示特殊地址 */
+    public final int workerIndex;
 
     public WorkerAddr(int serverType, int serverId) {
-        this(serverType, serverId, null);
+        this(serverType, serverId, INDEX_NONE, null);
     }
 
     public WorkerAddr(int serverType, int serverId, String workerId) {
+        this(serverType, serverId, "*".equals(workerId) ? INDEX_ALL : INDEX_NONE, workerId);
+    }
+
+    /**
+     * @param workerIndex 线程索引，见{@link Worker#workerIndex()}
+     * @param workerId    线程id，仅用于展示
+     */
+    public WorkerAddr(int serverType, int serverId, int workerIndex, String workerId) {
+        if (workerIndex < INDEX_ALL) {
+            throw new IllegalArgumentException("invalid workerIndex: " + workerIndex);
+        }
         this.serverType = serverType;
         this.serverId = serverId;
         this.workerId = workerId;
+        this.workerIndex = workerIndex;
     }
 
     /** 解码函数 */
@@ -59,6 +80,7 @@ public class WorkerAddr implements RpcAddr {
         this.serverType = reader.readInt(WorkerAddrCodec.numbers_serverType);
         this.serverId = reader.readInt(WorkerAddrCodec.numbers_serverId);
         this.workerId = reader.readString(WorkerAddrCodec.numbers_workerId);
+        this.workerIndex = reader.readInt(WorkerAddrCodec.numbers_workerIndex);
     }
 
     /** 是否有workerId */
@@ -66,6 +88,11 @@ public class WorkerAddr implements RpcAddr {
         return !StringUtils.isBlank(workerId);
     }
 
+    /** 是否指定了单个Worker */
+    public boolean hasWorkerIndex() {
+        return workerIndex >= 0;
+    }
+
     /** 测试除worker以外的部分是否相同 */
     public boolean equalsIgnoreWorker(WorkerAddr that) {
         return serverType == that.serverType
@@ -81,6 +108,7 @@ public class WorkerAddr implements RpcAddr {
 
         if (serverType != that.serverType) return false;
         if (serverId != that.serverId) return false;
+        if (workerIndex != that.workerIndex) return false;
         return Objects.equals(workerId, that.workerId);
     }
 
@@ -88,6 +116,7 @@ public class WorkerAddr implements RpcAddr {
     public int hashCode() {
         int result = serverType;
         result = 31 * result + serverId;
+        result = 31 * result + workerIndex;
         result = 31 * result + (workerId != null ? workerId.hashCode() : 0);
         return result;
     }
@@ -98,6 +127,7 @@ public class WorkerAddr implements RpcAddr {
                 "serverType=" + serverType +
                 ", serverId=" + serverId +
                 ", workerId='" + workerId + '\'' +
+                ", workerIndex=" + workerIndex +
                 '}';
     }
 }
\ No newline at end of file
@@ -16,38 +16,110 @@
 
 package cn.wjybxx.bigcat.fx;
 
+import cn.wjybxx.bigcat.rpc.CoDelShedder;
+import cn.wjybxx.bigcat.rpc.ConcurrencyLimiter;
 import cn.wjybxx.bigcat.rpc.RpcInterceptor;
 import cn.wjybxx.bigcat.rpc.RpcRegistry;
 import com.google.inject.ConfigurationException;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
-import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * node为管理worker，需要保存Worker的一些上下文
  * <p>
- * 1.上下文中的数据只应Node读写，因此不保证对其它线程的可见性
- * 2.该对象仅用于底层Node和Worker交互，用户不应该使用
+ * 1.该对象仅用于底层Node和Worker交互，用户不应该使用
+ * 2.字段按所属线程分为三类，字段的注释标明了访问它的线程：
+ * a.初始化字段：Node在启动Worker前写入，之后只读，由Worker线程的启动保证可见性；
+ * b.worker字段：只在worker线程读写，不需要同步；
+ * c.跨线程字段：使用volatile或并发容器，由写入方发布。
  *
  * @author wjybxx
  * date - 2023/10/28
  */
-@NotThreadSafe
 public final class WorkerCtx {
 
+    private static final int MAX_POOLED_SERIAL_QUEUE = 64;
+
+    /** Worker在Node中的索引 -- 创建Worker前由Node分配，之后只读 */
+    int workerIndex = WorkerAddr.INDEX_NONE;
+    /** 心跳信息 -- worker线程写入，看门狗线程读取 */
+    final WorkerHeartbeat heartbeat = new WorkerHeartbeat();
+    /** Worker的注册表 -- 启动前由Node初始化，之后只在worker线程访问；接收线程读取{@link #conflateKeyMap} */
     RpcRegistry rpcRegistry;
+    /** 请求拦截器，可能为null -- 启动前由Node初始化，之后只在worker线程访问 */
     RpcInterceptor rpcInterceptor;
+    /** Node的rpc支持，未绑定时为null -- 启动前由Node初始化，worker线程每次循环检查调用超时 */
+    NodeRpcSupport rpcSupport;
+    /** 服务的并发限制器 -- 只在worker线程访问 */
+    final Int2ObjectMap<ConcurrencyLimiter> serviceLimiterMap = new Int2ObjectOpenHashMap<>();
+    /** 方法的并发限制器，methodKey -> limiter -- 只在worker线程访问 */
+    final Int2ObjectMap<ConcurrencyLimiter> methodLimiterMap = new Int2ObjectOpenHashMap<>();
+    /** 过载时丢弃请求 -- 只在worker线程访问 */
+    CoDelShedder shedder;
+    /** 串行Key的等待队列，serviceId -> (key -> queue) -- 只在worker线程访问 */
+    final Int2ObjectMap<Map<Object, NodeRpcSupport.SerialQueue>> serialQueueMap = new Int2ObjectOpenHashMap<>();
+    /** 空闲的串行队列，减少对象分配 -- 只在worker线程访问 */
+    private final ArrayDeque<NodeRpcSupport.SerialQueue> serialQueuePool = new ArrayDeque<>();
+    /** worker发起的call的序号 -- 只在worker线程访问 */
+    long sequencer;
+    /** worker发起的使用固定超时的call的存根，保持插入序很重要 -- 只在worker线程访问 */
+    final Long2ObjectLinkedOpenHashMap<NodeRpcSupport.RpcRequestStubImpl> requestStubMap = new Long2ObjectLinkedOpenHashMap<>(16);
+    /** worker发起的使用自适应超时的call的存根，各方法的超时不同，插入序不是超时序 -- 只在worker线程访问 */
+    final Long2ObjectOpenHashMap<NodeRpcSupport.RpcRequestStubImpl> adaptiveStubMap = new Long2ObjectOpenHashMap<>(16);
+    /** 自适应超时存根的截止时间堆，已完成的存根延迟删除 -- 只在worker线程访问 */
+    final PriorityQueue<NodeRpcSupport.RpcRequestStubImpl> adaptiveDeadlineQueue = new PriorityQueue<>(16, NodeRpcSupport.RpcRequestStubImpl.DEADLINE_COMPARATOR);
+    /** 方法的合并Key快照，methodKey -> paramIndexes -- worker导出服务时发布，接收线程读取 */
+    volatile Int2ObjectMap<int[]> conflateKeyMap = Int2ObjectMaps.emptyMap();
+    /** 待处理的合并消息 -- 接收线程创建和替换，worker线程删除 */
+    final ConcurrentMap<NodeRpcSupport.ConflateKey, NodeRpcSupport.ConflateEntry> conflateMap = new ConcurrentHashMap<>();
 
     public WorkerCtx() {
     }
 
+    /** Node在启动Worker前调用 -- node线程 */
     void init(Worker worker) {
-        assert worker.inEventLoop();
+        assert worker.inEventLoop() || worker.parent().inEventLoop();
         this.rpcRegistry = worker.injector().getInstance(RpcRegistry.class);
         try {
             this.rpcInterceptor = worker.injector().getInstance(RpcInterceptor.class);
         } catch (ConfigurationException ignore) {
 
         }
+        Node node = worker instanceof Node ? (Node) worker : worker.parent();
+        try {
+            this.rpcSupport = node.injector().getInstance(NodeRpcSupport.class);
+        } catch (ConfigurationException ignore) {
+
+        }
+    }
+
+    NodeRpcSupport.SerialQueue newSerialQueue(Worker worker, Map<Object, NodeRpcSupport.SerialQueue> owner, Object key) {
+        NodeRpcSupport.SerialQueue queue = serialQueuePool.pollFirst();
+        if (queue == null) {
+            queue = new NodeRpcSupport.SerialQueue();
+            queue.worker = worker;
+            queue.workerCtx = this;
+        }
+        queue.owner = owner;
+        queue.key = key;
+        return queue;
+    }
+
+    void recycleSerialQueue(NodeRpcSupport.SerialQueue queue) {
+        queue.owner = null;
+        queue.key = null;
+        if (serialQueuePool.size() < MAX_POOLED_SERIAL_QUEUE) {
+            serialQueuePool.addLast(queue);
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Worker的心跳信息 -- 由Worker线程写，{@link WorkerWatchdog}读
+ * <p>
+ * 1. 每次循环更新一次{@link #loopNanos}，每次派发Rpc请求在开始和结束时各有一次volatile写。
+ * 2. 正在执行的方法id为普通字段，由{@link #dispatchNanos}的volatile写发布；读取时可能读到之后的请求，仅用于诊断。
+ * 3. 派发时间晚于循环时间，表示Rpc请求正在执行；方法返回后派发时间回退为循环时间，之后的卡顿视为循环卡顿。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@ThreadSafe
+final class WorkerHeartbeat {
+
+    /** Worker线程 -- 启动时设置 */
+    volatile Thread thread;
+    /** 最近一次循环的时间 */
+    volatile long loopNanos;
+    /** 正在执行的Rpc请求的派发时间 -- 不晚于{@link #loopNanos}时表示未在执行 */
+    volatile long dispatchNanos;
+    int serviceId;
+    int methodId;
+
+    /** 已报告的时间戳，避免重复报告 -- 只在看门狗线程访问 */
+    long reportedNanos;
+
+    void onStart() {
+        thread = Thread.currentThread();
+        loopNanos = System.nanoTime();
+    }
+
+    void onLoop() {
+        loopNanos = System.nanoTime();
+    }
+
+    void onDispatch(int serviceId, int methodId) {
+        this.serviceId = serviceId;
+        this.methodId = methodId;
+        this.dispatchNanos = System.nanoTime();
+    }
+
+    /** 方法返回或抛出异常时调用 -- 异步方法的future完成不属于派发 */
+    void onDispatchEnd() {
+        dispatchNanos = loopNanos;
+    }
+
+    void onStop() {
+        thread = null;
+    }
+}
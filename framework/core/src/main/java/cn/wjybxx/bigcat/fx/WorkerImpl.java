@@ -16,6 +16,7 @@
 
 package cn.wjybxx.bigcat.fx;
 
+import cn.wjybxx.bigcat.rpc.CopyOnWriteRpcRegistry;
 import cn.wjybxx.bigcat.rpc.RpcRegistry;
 import cn.wjybxx.concurrent.*;
 import com.google.inject.Injector;
@@ -73,6 +74,11 @@ public class WorkerImpl extends DisruptorEventLoop<RingBufferEvent> implements W
         return workerId;
     }
 
+    @Override
+    public int workerIndex() {
+        return workerCtx.workerIndex;
+    }
+
     @Override
     public Injector injector() {
         return injector;
@@ -128,6 +134,7 @@ public class WorkerImpl extends DisruptorEventLoop<RingBufferEvent> implements W
         MainModule mainModule; // 缓存
         List<WorkerModule> updatableModuleList = new ArrayList<>();
         List<WorkerModule> startedModuleList = new ArrayList<>();
+        CopyOnWriteRpcRegistry.Listener registryListener;
         long loopFrame;
 
         public Agent() {
@@ -141,6 +148,7 @@ public class WorkerImpl extends DisruptorEventLoop<RingBufferEvent> implements W
         @Override
         public void onStart() throws Exception {
             Worker.CURRENT_WORKER.set(worker);
+            worker.workerCtx.heartbeat.onStart();
             mainModule = worker.mainModule;
             updatableModuleList.addAll(FxUtils.filterUpdatableModules(worker.moduleList));
             resolveDependence();
@@ -160,7 +168,17 @@ public class WorkerImpl extends DisruptorEventLoop<RingBufferEvent> implements W
 
         private void exportServices() {
             RpcRegistry registry = worker.injector.getInstance(RpcRegistry.class);
+            worker.workerCtx.conflateKeyMap = registry.exportConflateKeys();
             worker.setServiceIdSet(registry.export());
+            // 支持运行时注册服务 -- 由Node重新发布
+            if (registry instanceof CopyOnWriteRpcRegistry cowRegistry) {
+                registryListener = r -> {
+                    worker.workerCtx.conflateKeyMap = r.exportConflateKeys();
+                    worker.setServiceIdSet(r.export());
+                    worker.node().refreshServices();
+                };
+                cowRegistry.addListener(registryListener);
+            }
         }
 
         private void startModules() {
@@ -191,6 +209,12 @@ public class WorkerImpl extends DisruptorEventLoop<RingBufferEvent> implements W
 
         @Override
         public void update() throws Exception {
+            worker.workerCtx.heartbeat.onLoop();
+            // 调用的超时不依赖可选的模块，也不受帧率限制
+            NodeRpcSupport rpcSupport = worker.workerCtx.rpcSupport;
+            if (rpcSupport != null) {
+                rpcSupport.checkTimeout(worker);
+            }
             while (mainModule.checkMainLoop(loopFrame)) {
                 mainModule.beforeMainLoop();
                 List<WorkerModule> updatableModuleList = this.updatableModuleList;
@@ -218,7 +242,12 @@ public class WorkerImpl extends DisruptorEventLoop<RingBufferEvent> implements W
                 stopModules();
                 mainModule.afterWorkerShutdown();
             } finally {
+                if (registryListener != null) {
+                    ((CopyOnWriteRpcRegistry) worker.injector.getInstance(RpcRegistry.class)).removeListener(registryListener);
+                    registryListener = null;
+                }
                 Worker.CURRENT_WORKER.remove();
+                worker.workerCtx.heartbeat.onStop();
                 mainModule = null;
                 updatableModuleList.clear();
                 startedModuleList.clear();
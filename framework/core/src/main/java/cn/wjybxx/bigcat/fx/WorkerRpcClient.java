@@ -17,13 +17,25 @@
 package cn.wjybxx.bigcat.fx;
 
 import cn.wjybxx.bigcat.rpc.RpcAddr;
+import cn.wjybxx.bigcat.rpc.RpcCallback;
 import cn.wjybxx.bigcat.rpc.RpcClient;
 import cn.wjybxx.bigcat.rpc.RpcMethodSpec;
 import cn.wjybxx.concurrent.IFuture;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
+ * Worker的Rpc客户端
+ * <p>
+ * 1. 开启{@link #setCoalescePlayerMessages(boolean)}后，一帧内发往同一玩家的单向消息会先缓存，
+ * 在本轮循环结束后打包为一个数据包发送，客户端透明解包。
+ * 2. 发起call之前会先发出缓存的消息，以保证同一目标的消息顺序。
+ * 3. call的存根保存在Worker上，由该模块在Worker线程检查超时。
+ *
  * @author wjybxx
  * date - 2023/10/28
  */
@@ -32,6 +44,32 @@ public class WorkerRpcClient implements RpcClient, WorkerModule {
     private Worker worker;
     private NodeRpcSupport rpcSupport;
 
+    private boolean coalescePlayerMessages;
+    private volatile boolean mutable = true;
+    /** 待发送的玩家消息 -- 只在Worker线程访问 */
+    private final Map<PlayerAddr, List<RpcMethodSpec<?>>> pendingMessages = new LinkedHashMap<>();
+    private boolean flushScheduled;
+
+    // region 设置
+
+    public boolean isCoalescePlayerMessages() {
+        return coalescePlayerMessages;
+    }
+
+    /** 是否合并一帧内发往同一玩家的单向消息 */
+    public WorkerRpcClient setCoalescePlayerMessages(boolean coalescePlayerMessages) {
+        ensureMutable();
+        this.coalescePlayerMessages = coalescePlayerMessages;
+        return this;
+    }
+
+    private void ensureMutable() {
+        if (!mutable) {
+            throw new IllegalStateException("worker is started");
+        }
+    }
+    // endregion
+
     @Override
     public void inject(Worker worker) {
         this.worker = Objects.requireNonNull(worker);
@@ -44,24 +82,93 @@ public class WorkerRpcClient implements RpcClient, WorkerModule {
         this.rpcSupport = node.injector().getInstance(NodeRpcSupport.class);
     }
 
+    @Override
+    public void start() {
+        mutable = false;
+    }
+
+    @Override
+    public void stop() {
+        flush();
+    }
+
     @Override
     public void send(RpcAddr target, RpcMethodSpec<?> methodSpec) {
+        if (coalescePlayerMessages && target instanceof PlayerAddr playerAddr && worker.inEventLoop()) {
+            Objects.requireNonNull(methodSpec, "methodSpec");
+            pendingMessages.computeIfAbsent(playerAddr, k -> new ArrayList<>(4)).add(methodSpec);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                worker.execute(this::flush);
+            }
+            return;
+        }
         rpcSupport.w2n_send(worker, target, methodSpec);
     }
 
     @Override
     public <V> IFuture<V> call(RpcAddr target, RpcMethodSpec<V> methodSpec) {
+        flushBefore(target);
         return rpcSupport.w2n_call(worker, target, methodSpec);
     }
 
+    @Override
+    public <V> void call(RpcAddr target, RpcMethodSpec<V> methodSpec, RpcCallback<? super V> callback, Object ctx) {
+        flushBefore(target);
+        rpcSupport.w2n_call(worker, target, methodSpec, callback, ctx);
+    }
+
+    @Override
+    public List<IFuture<?>> batchCall(RpcAddr target, List<? extends RpcMethodSpec<?>> methodSpecs) {
+        flushBefore(target);
+        return rpcSupport.w2n_batchCall(worker, target, methodSpecs);
+    }
+
     @Override
     public <V> V syncCall(RpcAddr target, RpcMethodSpec<V> methodSpec) {
+        flushBefore(target);
         return rpcSupport.w2n_syncCall(worker, target, methodSpec);
     }
 
     @Override
     public <V> V syncCall(RpcAddr target, RpcMethodSpec<V> methodSpec, long timeoutMs) {
+        flushBefore(target);
         return rpcSupport.w2n_syncCall(worker, target, methodSpec, timeoutMs);
     }
 
+    // region 合并发送
+
+    /** 发送缓存的消息 -- 在本轮循环结束后执行 */
+    public void flush() {
+        flushScheduled = false;
+        if (pendingMessages.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<PlayerAddr, List<RpcMethodSpec<?>>> entry : pendingMessages.entrySet()) {
+            List<RpcMethodSpec<?>> methodSpecs = entry.getValue();
+            if (methodSpecs.size() == 1) {
+                rpcSupport.w2n_send(worker, entry.getKey(), methodSpecs.get(0));
+            } else {
+                rpcSupport.w2n_sendBundle(worker, entry.getKey(), methodSpecs);
+            }
+        }
+        pendingMessages.clear();
+    }
+
+    /** 查询待发送的消息数 */
+    public int pendingCount() {
+        int count = 0;
+        for (List<RpcMethodSpec<?>> methodSpecs : pendingMessages.values()) {
+            count += methodSpecs.size();
+        }
+        return count;
+    }
+
+    private void flushBefore(RpcAddr target) {
+        if (!pendingMessages.isEmpty() && target instanceof PlayerAddr && worker.inEventLoop()) {
+            flush();
+        }
+    }
+    // endregion
+
 }
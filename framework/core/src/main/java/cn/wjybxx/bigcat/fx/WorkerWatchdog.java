@@ -0,0 +1,247 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker看门狗
+ * <p>
+ * 1. 独立的线程定期检查Node和Worker的心跳，循环长时间未更新或单个Rpc请求执行过久时，打印线程堆栈并通知监听器。
+ * 2. 监听器在看门狗线程回调，可用于踢出玩家、重启Worker等 -- 注意此时Worker线程可能仍然卡住。
+ * 3. 同一次卡顿只报告一次；该模块应当添加到Node上，并在Node的Injector中绑定。
+ * 4. 在执行器中执行的方法不受监控，见{@link RpcExecutorMgr}。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@ThreadSafe
+public class WorkerWatchdog implements WorkerModule {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkerWatchdog.class);
+
+    private long checkIntervalMs = 1000;
+    private long loopTimeoutMs = 5000;
+    private long rpcTimeoutMs = 3000;
+    private boolean logStackTrace = true;
+    private Listener listener;
+    private volatile boolean mutable = true;
+
+    private Node node;
+    private volatile Thread thread;
+
+    // region 设置
+
+    /** 卡顿类型 */
+    public enum Kind {
+        /** 循环长时间未更新 -- 不在执行Rpc请求，方法id为-1 */
+        LOOP_STUCK,
+        /** 单个Rpc请求执行过久 */
+        SLOW_RPC,
+    }
+
+    /**
+     * 卡顿信息
+     *
+     * @param worker     卡住的Worker(可能是Node)
+     * @param kind       卡顿类型
+     * @param elapsedMs  已卡住的时间
+     * @param serviceId  正在执行的Rpc服务id，未在执行Rpc时为-1
+     * @param methodId   正在执行的Rpc方法id，未在执行Rpc时为-1
+     * @param stackTrace Worker线程的堆栈
+     */
+    public record StuckInfo(Worker worker, Kind kind, long elapsedMs, int serviceId, int methodId,
+                            StackTraceElement[] stackTrace) {
+
+    }
+
+    @FunctionalInterface
+    public interface Listener {
+
+        /** 在看门狗线程回调 */
+        void onStuck(StuckInfo info);
+
+    }
+
+    public long getCheckIntervalMs() {
+        return checkIntervalMs;
+    }
+
+    public WorkerWatchdog setCheckIntervalMs(long checkIntervalMs) {
+        ensureMutable();
+        this.checkIntervalMs = Math.max(1, checkIntervalMs);
+        return this;
+    }
+
+    public long getLoopTimeoutMs() {
+        return loopTimeoutMs;
+    }
+
+    /** @param loopTimeoutMs 循环超过该时间未更新时报告 */
+    public WorkerWatchdog setLoopTimeoutMs(long loopTimeoutMs) {
+        ensureMutable();
+        this.loopTimeoutMs = Math.max(1, loopTimeoutMs);
+        return this;
+    }
+
+    public long getRpcTimeoutMs() {
+        return rpcTimeoutMs;
+    }
+
+    /** @param rpcTimeoutMs 单个Rpc请求执行超过该时间时报告 */
+    public WorkerWatchdog setRpcTimeoutMs(long rpcTimeoutMs) {
+        ensureMutable();
+        this.rpcTimeoutMs = Math.max(1, rpcTimeoutMs);
+        return this;
+    }
+
+    public boolean isLogStackTrace() {
+        return logStackTrace;
+    }
+
+    public WorkerWatchdog setLogStackTrace(boolean logStackTrace) {
+        ensureMutable();
+        this.logStackTrace = logStackTrace;
+        return this;
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    public WorkerWatchdog setListener(Listener listener) {
+        ensureMutable();
+        this.listener = listener;
+        return this;
+    }
+
+    private void ensureMutable() {
+        if (!mutable) {
+            throw new IllegalStateException("node is started");
+        }
+    }
+    // endregion
+
+    @Override
+    public void inject(Worker worker) {
+        this.node = (Node) worker;
+    }
+
+    @Override
+    public void start() {
+        mutable = false;
+        Thread thread = new Thread(this::loop, "worker-watchdog");
+        thread.setDaemon(true);
+        this.thread = thread;
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread thread = this.thread;
+        if (thread != null) {
+            this.thread = null;
+            thread.interrupt();
+        }
+    }
+
+    private void loop() {
+        final Thread self = Thread.currentThread();
+        while (thread == self) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(checkIntervalMs);
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                check(System.nanoTime());
+            } catch (Throwable e) {
+                logger.warn("watchdog check caught exception", e);
+            }
+        }
+    }
+
+    /** 检查所有Worker -- 测试时可直接调用 */
+    void check(long nowNanos) {
+        checkWorker(node, nowNanos);
+        Iterator<Worker> itr = node.workers();
+        while (itr.hasNext()) {
+            checkWorker(itr.next(), nowNanos);
+        }
+    }
+
+    private void checkWorker(Worker worker, long nowNanos) {
+        WorkerHeartbeat heartbeat = worker.workerCtx().heartbeat;
+        Thread workerThread = heartbeat.thread;
+        if (workerThread == null) { // 未启动或已停止
+            return;
+        }
+        long loopNanos = heartbeat.loopNanos;
+        long dispatchNanos = heartbeat.dispatchNanos;
+        boolean dispatching = dispatchNanos - loopNanos > 0;
+        int serviceId = dispatching ? heartbeat.serviceId : -1;
+        int methodId = dispatching ? heartbeat.methodId : -1;
+
+        final Kind kind;
+        final long stuckNanos;
+        if (dispatching && nowNanos - dispatchNanos > TimeUnit.MILLISECONDS.toNanos(rpcTimeoutMs)) {
+            kind = Kind.SLOW_RPC;
+            stuckNanos = dispatchNanos;
+        } else if (nowNanos - loopNanos > TimeUnit.MILLISECONDS.toNanos(loopTimeoutMs)) {
+            kind = Kind.LOOP_STUCK;
+            stuckNanos = loopNanos;
+        } else {
+            return;
+        }
+        if (heartbeat.reportedNanos == stuckNanos) {
+            return;
+        }
+        heartbeat.reportedNanos = stuckNanos;
+
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(nowNanos - stuckNanos);
+        StackTraceElement[] stackTrace = workerThread.getStackTrace();
+        if (logStackTrace) {
+            logger.warn("worker stuck, worker {}, kind {}, elapsedMs {}, serviceId {}, methodId {}, stackTrace:\n{}",
+                    worker.workerId(), kind, elapsedMs, serviceId, methodId, formatStackTrace(stackTrace));
+        } else {
+            logger.warn("worker stuck, worker {}, kind {}, elapsedMs {}, serviceId {}, methodId {}",
+                    worker.workerId(), kind, elapsedMs, serviceId, methodId);
+        }
+        if (listener != null) {
+            try {
+                listener.onStuck(new StuckInfo(worker, kind, elapsedMs, serviceId, methodId, stackTrace));
+            } catch (Throwable e) {
+                logger.warn("watchdog listener caught exception", e);
+            }
+        }
+    }
+
+    private static String formatStackTrace(StackTraceElement[] stackTrace) {
+        List<String> lines = new ArrayList<>(stackTrace.length);
+        for (StackTraceElement element : stackTrace) {
+            lines.add("\tat " + element);
+        }
+        return String.join("\n", lines);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.pb;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.AbstractList;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * 延迟解析的rpc方法参数
+ * <p>
+ * 1. 持有参数的字节数组和解析器，首次访问参数时解析 -- 通常是Worker线程执行方法之前。
+ * 2. 被拦截、限流或丢弃的请求不会解析参数，减少Node线程的开销。
+ * 3. 该列表只有一个元素，支持{@link #set(int, Object)}；非线程安全，由线程间的任务传递保证可见性。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@NotThreadSafe
+public final class PBLazyParameters extends AbstractList<Object> implements RandomAccess {
+
+    private final Parser<?> parser;
+    /** 未解析的字节数组，解析后置为null */
+    private byte[] bytes;
+    private Object message;
+    private InvalidProtocolBufferException cause;
+
+    public PBLazyParameters(Parser<?> parser, byte[] bytes) {
+        this.parser = Objects.requireNonNull(parser);
+        this.bytes = Objects.requireNonNull(bytes);
+    }
+
+    /**
+     * 解析参数 -- 重复调用是安全的
+     *
+     * @return 如果解析失败，则返回false
+     */
+    public boolean parse() {
+        if (bytes == null) {
+            return true;
+        }
+        if (cause != null) {
+            return false;
+        }
+        try {
+            // 空字节数组将被解析为空消息
+            message = parser.parseFrom(bytes);
+            bytes = null;
+            return true;
+        } catch (InvalidProtocolBufferException e) {
+            cause = e;
+            return false;
+        }
+    }
+
+    /** 参数是否已解析 */
+    public boolean isParsed() {
+        return bytes == null;
+    }
+
+    /** 解析失败的原因 */
+    public InvalidProtocolBufferException getCause() {
+        return cause;
+    }
+
+    @Override
+    public Object get(int index) {
+        Objects.checkIndex(index, 1);
+        if (!parse()) {
+            throw new IllegalStateException("parse parameter failed", cause);
+        }
+        return message;
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        Objects.checkIndex(index, 1);
+        Object old = bytes == null ? message : null;
+        message = element;
+        bytes = null;
+        cause = null;
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return 1;
+    }
+
+    /** 未解析时不打印参数，避免日志触发解析 */
+    @Override
+    public String toString() {
+        return bytes == null ? super.toString() : "[<" + bytes.length + " bytes>]";
+    }
+}
@@ -28,6 +28,7 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
@@ -115,6 +116,54 @@ public final class PBMethodInfoRegistry {
         }
     }
 
+    /**
+     * 延迟解析参数 -- 只检查方法是否存在，参数在首次访问时解析
+     *
+     * @return 如果方法不存在，则返回false
+     * @see PBLazyParameters
+     */
+    public boolean decodeParametersLazily(RpcRequest request) {
+        int methodKey = RpcMethodKey.methodKey(request.getServiceId(), request.getMethodId());
+        PBMethodInfo<?, ?> methodInfo = methodInfoMap.get(methodKey);
+        if (methodInfo == null) {
+            return false;
+        }
+        if (methodInfo.argParser == null) { // 无参数
+            request.setParameters(List.of());
+        } else {
+            request.setParameters(new PBLazyParameters(methodInfo.argParser, request.bytesParameters()));
+        }
+        return true;
+    }
+
+    /**
+     * 从缓冲区解析参数，不拷贝为中间的字节数组
+     *
+     * @param data 剩余部分为参数，解析后position移动到limit
+     */
+    public boolean decodeParameters(RpcRequest request, ByteBuffer data) {
+        int methodKey = RpcMethodKey.methodKey(request.getServiceId(), request.getMethodId());
+        PBMethodInfo<?, ?> methodInfo = methodInfoMap.get(methodKey);
+        if (methodInfo == null) {
+            return false;
+        }
+        if (methodInfo.argParser == null) { // 无参数
+            data.position(data.limit());
+            request.setParameters(List.of());
+            return true;
+        }
+        try {
+            Object message = methodInfo.argParser.parseFrom(data);
+            data.position(data.limit());
+            request.setParameters(List.of(message));
+            return true;
+        } catch (InvalidProtocolBufferException e) {
+            logger.info("decode parameter caught exception, serviceId: {}, methodId {}",
+                    request.getServiceId(), request.getMethodId(), e);
+            return false;
+        }
+    }
+
     public void encodeResult(RpcResponse response) {
         if (!response.isSuccess()) { // 失败
             byte[] msgBytes = response.getErrorMsg().getBytes(StandardCharsets.UTF_8);
@@ -158,5 +207,39 @@ public final class PBMethodInfoRegistry {
         }
     }
 
+    /**
+     * 从缓冲区解析结果，不拷贝为中间的字节数组
+     *
+     * @param data 剩余部分为结果，解析后position移动到limit
+     */
+    public boolean decodeResult(RpcResponse response, ByteBuffer data) {
+        if (!response.isSuccess()) {
+            String errorMsg = StandardCharsets.UTF_8.decode(data).toString();
+            response.setResults(List.of(errorMsg));
+            return true;
+        }
+
+        int methodKey = RpcMethodKey.methodKey(response.getServiceId(), response.getMethodId());
+        PBMethodInfo<?, ?> methodInfo = methodInfoMap.get(methodKey);
+        if (methodInfo == null) {
+            return false;
+        }
+        if (methodInfo.resultParser == null) { // Void
+            data.position(data.limit());
+            response.setResults(List.of());
+            return true;
+        }
+        try {
+            Object message = methodInfo.resultParser.parseFrom(data);
+            data.position(data.limit());
+            response.setResults(List.of(message));
+            return true;
+        } catch (InvalidProtocolBufferException e) {
+            logger.info("decode result caught exception, serviceId: {}, methodId {}",
+                    response.getServiceId(), response.getMethodId(), e);
+            return false;
+        }
+    }
+
     // endregion
-}
\ No newline at end of file
+}
@@ -21,8 +21,10 @@ import cn.wjybxx.dson.codec.DuplexCodec;
 import com.google.protobuf.*;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Objects;
 import java.util.Set;
@@ -114,4 +116,19 @@ public class ProtobufUtils {
         final var enumLiteMap = findMapper(messageClazz);
         return new MessageEnumCodec<>(messageClazz, enumLiteMap);
     }
-}
\ No newline at end of file
+
+    /**
+     * 将消息直接编码到缓冲区，不产生中间的字节数组
+     * 1. 缓冲区的剩余空间不可小于{@link MessageLite#getSerializedSize()} -- 生成的消息会缓存长度，不会重复计算。
+     * 2. 编码完成后，缓冲区的position前进消息的长度。
+     */
+    public static void writeTo(MessageLite message, ByteBuffer out) {
+        try {
+            CodedOutputStream output = CodedOutputStream.newInstance(out);
+            message.writeTo(output);
+            output.flush();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("buffer is too small", e);
+        }
+    }
+}
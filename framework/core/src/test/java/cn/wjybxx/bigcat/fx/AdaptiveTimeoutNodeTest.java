@@ -0,0 +1,194 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.*;
+import cn.wjybxx.concurrent.IFuture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node的自适应超时测试
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class AdaptiveTimeoutNodeTest {
+
+    private static final WorkerAddr GATE_ADDR = new WorkerAddr(1, 1);
+    private static final WorkerAddr GAME_ADDR = new WorkerAddr(2, 1);
+
+    /** 本地调用的延迟很低，超时为下限 */
+    @Test
+    void testMinTimeout() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, true, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, true, true, 1);
+        RpcMethodSpec<String> echoSpec = RpcServiceExampleProxy.echo("hello");
+        NodeRpcSupport rpcSupport = gate.injector().getInstance(NodeRpcSupport.class);
+        rpcSupport.setTimeoutFactory((target, serviceId, methodId) ->
+                methodId == echoSpec.getMethodId() ? AdaptiveTimeout.ofP999(500, 2000) : null);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            Worker worker = gate.workers().next();
+            // 预热 -- 避免首次调用的冷启动延迟进入样本
+            call(worker, RpcServiceExampleProxy.workerIndex()).toFuture().get(5, TimeUnit.SECONDS);
+            for (int i = 0; i < 40; i++) {
+                call(worker, echoSpec).toFuture().get(5, TimeUnit.SECONDS);
+            }
+            call(worker, RpcServiceExampleProxy.workerIndex()).toFuture().get(5, TimeUnit.SECONDS);
+
+            // 只有选择自适应超时的方法被统计
+            List<NodeRpcSupport.AdaptiveTimeoutStats> statsList = rpcSupport.listAdaptiveTimeouts();
+            Assertions.assertEquals(1, statsList.size());
+            NodeRpcSupport.AdaptiveTimeoutStats stats = statsList.get(0);
+            Assertions.assertEquals(echoSpec.getMethodId(), stats.methodId());
+            Assertions.assertEquals(40, (int) stats.sampleCount());
+            Assertions.assertEquals(500, stats.timeoutMs());
+        } finally {
+            shutdown(gate, game);
+        }
+    }
+
+    /** 延迟的3倍超过上限时，超时为上限 */
+    @Test
+    void testMaxTimeout() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, true, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, true, true, 1);
+        NodeRpcSupport rpcSupport = gate.injector().getInstance(NodeRpcSupport.class);
+        rpcSupport.setTimeoutFactory((target, serviceId, methodId) -> AdaptiveTimeout.ofP999(10, 30));
+        try {
+            gate.start().join();
+            game.start().join();
+
+            Worker worker = gate.workers().next();
+            for (int i = 0; i < 32; i++) {
+                call(worker, RpcServiceExampleProxy.stuck(20)).toFuture().get(5, TimeUnit.SECONDS);
+            }
+            NodeRpcSupport.AdaptiveTimeoutStats stats = rpcSupport.listAdaptiveTimeouts().get(0);
+            Assertions.assertTrue(stats.quantileMs() >= 20, "quantileMs " + stats.quantileMs());
+            Assertions.assertEquals(30, stats.timeoutMs());
+        } finally {
+            shutdown(gate, game);
+        }
+    }
+
+    /** 目标不响应时所有调用都超时，超时时间不应增长 */
+    @Test
+    void testDeadTarget() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, true, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, true, true, 1);
+        RpcMethodSpec<String> echoSpec = RpcServiceExampleProxy.echo("hello");
+        NodeRpcSupport rpcSupport = gate.injector().getInstance(NodeRpcSupport.class);
+        rpcSupport.setTimeoutFactory((target, serviceId, methodId) -> AdaptiveTimeout.ofP999(100, 2000));
+        CountDownLatch workerLatch = new CountDownLatch(1);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            Worker worker = gate.workers().next();
+            for (int i = 0; i < 32; i++) {
+                call(worker, echoSpec).toFuture().get(5, TimeUnit.SECONDS);
+            }
+            long timeoutMs = rpcSupport.listAdaptiveTimeouts().get(0).timeoutMs();
+
+            // game的worker卡住，期间的调用都超时
+            game.getWorker(0).execute(() -> {
+                try {
+                    workerLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            RpcClient rpcClient = worker.injector().getInstance(RpcClient.class);
+            List<IFuture<?>> futures = worker.submit(() -> {
+                List<IFuture<?>> result = new ArrayList<>();
+                for (int i = 0; i < 48; i++) {
+                    result.add(rpcClient.call(GAME_ADDR, echoSpec));
+                }
+                return result;
+            }).get(5, TimeUnit.SECONDS);
+            for (IFuture<?> future : futures) {
+                TestNodes.assertErrorCode(RpcErrorCodes.LOCAL_TIMEOUT, future);
+            }
+            NodeRpcSupport.AdaptiveTimeoutStats stats = rpcSupport.listAdaptiveTimeouts().get(0);
+            Assertions.assertEquals(timeoutMs, stats.timeoutMs());
+            Assertions.assertEquals(32, (int) stats.sampleCount());
+            Assertions.assertEquals(48, (int) stats.timeoutCount());
+        } finally {
+            workerLatch.countDown();
+            shutdown(gate, game);
+        }
+    }
+
+    /** 排在固定超时调用之后的自适应超时调用，应当按自己的截止时间超时 */
+    @Test
+    void testDeadlineOrder() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, true, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, true, true, 1);
+        RpcMethodSpec<String> echoSpec = RpcServiceExampleProxy.echo("hello");
+        NodeRpcSupport rpcSupport = gate.injector().getInstance(NodeRpcSupport.class);
+        rpcSupport.setTimeoutFactory((target, serviceId, methodId) ->
+                methodId == echoSpec.getMethodId() ? AdaptiveTimeout.ofP999(100, 500) : null);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            Worker worker = gate.workers().next();
+            for (int i = 0; i < 32; i++) {
+                call(worker, echoSpec).toFuture().get(5, TimeUnit.SECONDS);
+            }
+            // 预热的延迟受机器负载影响，只要求远小于卡住的时长
+            long timeoutMs = rpcSupport.listAdaptiveTimeouts().get(0).timeoutMs();
+            Assertions.assertTrue(timeoutMs >= 100 && timeoutMs <= 500, "timeoutMs " + timeoutMs);
+
+            // game的worker卡住，先发起的固定超时(15秒)调用和后发起的自适应超时调用都不能及时返回
+            RpcClient rpcClient = worker.injector().getInstance(RpcClient.class);
+            List<IFuture<?>> futures = worker.submit(() -> List.<IFuture<?>>of(
+                    rpcClient.call(GAME_ADDR, RpcServiceExampleProxy.stuck(1000)),
+                    rpcClient.call(GAME_ADDR, echoSpec))).get(5, TimeUnit.SECONDS);
+            TestNodes.assertErrorCode(RpcErrorCodes.LOCAL_TIMEOUT, futures.get(1));
+            Assertions.assertFalse(futures.get(0).isDone());
+            // 固定超时的调用不受影响
+            futures.get(0).toFuture().get(5, TimeUnit.SECONDS);
+        } finally {
+            shutdown(gate, game);
+        }
+    }
+
+    private static <V> IFuture<V> call(Worker worker, RpcMethodSpec<V> methodSpec) {
+        return worker.submit(() -> worker.injector().getInstance(RpcClient.class).call(GAME_ADDR, methodSpec))
+                .composeApply((ctx, e) -> e);
+    }
+
+    private static void shutdown(Node gate, Node game) {
+        gate.shutdownNow();
+        game.shutdownNow();
+        gate.terminationFuture().join();
+        game.terminationFuture().join();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.*;
+import com.google.inject.Singleton;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 故障注入路由测试
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class FaultInjectionRouterTest {
+
+    private static final WorkerAddr NODE_ADDR = new WorkerAddr(1, 1);
+    private static final WorkerAddr REMOTE_ADDR = new WorkerAddr(2, 1);
+    private static final WorkerAddr OTHER_ADDR = new WorkerAddr(3, 1);
+
+    /** 相同的种子和消息序列，丢弃的消息相同 */
+    @Test
+    void testReproducible() {
+        List<Long> first = sendWithDropRate(1024);
+        List<Long> second = sendWithDropRate(1024);
+        Assertions.assertEquals(first, second);
+        Assertions.assertTrue(first.size() > 20 && first.size() < 80, "size " + first.size());
+        Assertions.assertNotEquals(first, sendWithDropRate(2048));
+    }
+
+    private static List<Long> sendWithDropRate(long seed) {
+        CaptureRouter capture = new CaptureRouter();
+        FaultInjectionRouter router = new FaultInjectionRouter(capture, seed)
+                .addRule(FaultRule.newBuilder("drop").setDropRate(0.5).build());
+        for (int i = 1; i <= 100; i++) {
+            Assertions.assertTrue(router.send(newRequest(REMOTE_ADDR, 1, i)));
+        }
+        List<Long> result = new ArrayList<>();
+        for (RpcProtocol protocol : capture.sendQueue) {
+            result.add(((RpcRequest) protocol).getRequestId());
+        }
+        return result;
+    }
+
+    @Test
+    void testMatch() {
+        CaptureRouter capture = new CaptureRouter();
+        FaultRule rule = FaultRule.newBuilder("dup")
+                .setDestAddr(REMOTE_ADDR)
+                .addServiceId(2)
+                .setMatchResponse(false)
+                .setDuplicateRate(1)
+                .build();
+        FaultInjectionRouter router = new FaultInjectionRouter(capture, 1).addRule(rule);
+
+        router.send(newRequest(REMOTE_ADDR, 2, 1)); // 重复
+        router.send(newRequest(REMOTE_ADDR, 1, 2)); // 服务不匹配
+        router.send(newRequest(OTHER_ADDR, 2, 3)); // 地址不匹配
+        router.send(new RpcResponse(newRequest(NODE_ADDR, 2, 4), NODE_ADDR)); // 响应不匹配
+        Assertions.assertEquals(5, capture.sendQueue.size());
+        Assertions.assertEquals(1, rule.getMatchedCount());
+        Assertions.assertEquals(1, rule.getDuplicatedCount());
+
+        // 禁用后不再注入
+        router.setEnabled(false);
+        router.send(newRequest(REMOTE_ADDR, 2, 5));
+        Assertions.assertEquals(6, capture.sendQueue.size());
+    }
+
+    @Test
+    void testBurstyDelay() {
+        FaultRule.Delay delay = FaultRule.Delay.bursty(FaultRule.Delay.fixed(1), 100, 0.1, 5);
+        SplittableRandom random = new SplittableRandom(1);
+        int burstCount = 0;
+        int consecutive = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (delay.nextDelay(random) == 100) {
+                consecutive++;
+            } else {
+                if (consecutive > 0) {
+                    Assertions.assertEquals(0, consecutive % 5);
+                    burstCount++;
+                }
+                consecutive = 0;
+            }
+        }
+        Assertions.assertTrue(burstCount > 0);
+    }
+
+    @Test
+    void testDelayAndPartition() throws Exception {
+        CaptureRouter capture = new CaptureRouter();
+        FaultInjectionRouter router = new FaultInjectionRouter(capture, 1)
+                .addRule(FaultRule.newBuilder("delay")
+                        .setDestAddr(REMOTE_ADDR)
+                        .setDelay(FaultRule.Delay.fixed(200))
+                        .build());
+        Node node = newNode(router);
+        try {
+            node.start().join();
+            // 延迟的消息不在当前调用栈内派发
+            long startNanos = System.nanoTime();
+            node.execute(() -> {
+                router.send(newRequest(REMOTE_ADDR, 1, 1));
+                Assertions.assertTrue(capture.sendQueue.isEmpty());
+            });
+            Assertions.assertNotNull(capture.sendQueue.poll(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(200));
+
+            // 分区期间的消息都被丢弃，恢复后正常发送
+            FaultRule partition = router.partition(REMOTE_ADDR);
+            node.execute(() -> router.send(newRequest(REMOTE_ADDR, 1, 2)));
+            Assertions.assertNull(capture.sendQueue.poll(500, TimeUnit.MILLISECONDS));
+            Assertions.assertEquals(1, partition.getDroppedCount());
+            // 发往该Node指定Worker的消息同样被丢弃
+            node.execute(() -> router.send(newRequest(new WorkerAddr(2, 1, 0, "Worker-0"), 1, 2)));
+            Assertions.assertNull(capture.sendQueue.poll(500, TimeUnit.MILLISECONDS));
+            Assertions.assertEquals(2, partition.getDroppedCount());
+            // 其它Node不受影响
+            node.execute(() -> router.send(newRequest(new WorkerAddr(2, 2), 1, 2)));
+            Assertions.assertNotNull(capture.sendQueue.poll(5, TimeUnit.SECONDS));
+
+            router.removeRule(partition);
+            node.execute(() -> router.send(newRequest(REMOTE_ADDR, 1, 3)));
+            RpcRequest request = (RpcRequest) capture.sendQueue.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(request);
+            Assertions.assertEquals(3, request.getRequestId());
+        } finally {
+            node.shutdownNow();
+            node.terminationFuture().join();
+        }
+    }
+
+    private static RpcRequest newRequest(RpcAddr destAddr, int serviceId, long requestId) {
+        return new RpcRequest(1, NODE_ADDR, destAddr)
+                .setRequestId(requestId)
+                .setInvokeType(RpcInvokeType.ONEWAY)
+                .setServiceId(serviceId)
+                .setMethodId(1)
+                .setParameters(new byte[0]);
+    }
+
+    /** 记录发送的协议 */
+    private static class CaptureRouter extends AbstractRpcRouter {
+
+        final LinkedBlockingQueue<RpcProtocol> sendQueue = new LinkedBlockingQueue<>();
+
+        @Override
+        public boolean send(RpcProtocol protocol) {
+            return sendQueue.offer(protocol);
+        }
+    }
+
+    private static Node newNode(FaultInjectionRouter router) {
+        return NodeBuilder.newDefaultNodeBuilder()
+                .setNodeAddr(NODE_ADDR)
+                .setWorkerId("Node")
+                .setInjector(TestNodes.newNodeInjector(binder -> {
+                    binder.bind(NodeRpcRouter.class).toInstance(router);
+                    binder.bind(NodeRpcSupport.class).in(Singleton.class);
+                }))
+                .addModule(NodeRpcSupport.class)
+                .addModule(NodeRpcRouter.class)
+                .setWorkerFactory((parent, index, workerCtx) -> WorkerBuilder.newDisruptorWorkerBuilder()
+                        .setWorkerId("Worker-" + index)
+                        .setParent(parent)
+                        .setWorkerCtx(workerCtx)
+                        .setInjector(TestNodes.newWorkerInjector())
+                        .build())
+                .build();
+    }
+}
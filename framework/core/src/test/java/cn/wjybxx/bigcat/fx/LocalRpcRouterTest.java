@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.RpcClient;
+import cn.wjybxx.concurrent.IFuture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同一个进程内的多Node通信测试
+ *
+ * @author wjybxx
+ * date - 2024/1/20
+ */
+public class LocalRpcRouterTest {
+
+    private static final WorkerAddr GATE_ADDR = new WorkerAddr(1, 1);
+    private static final WorkerAddr GAME_ADDR = new WorkerAddr(2, 1);
+
+    @Test
+    void testShare() throws Exception {
+        runCall(true);
+    }
+
+    @Test
+    void testNoShare() throws Exception {
+        runCall(false);
+    }
+
+    private static void runCall(boolean enableLocalShare) throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = newNode(GATE_ADDR, registry, enableLocalShare, false);
+        Node game = newNode(GAME_ADDR, registry, enableLocalShare, true);
+        try {
+            gate.start().join();
+            game.start().join();
+            Assertions.assertEquals(2, registry.size());
+
+            Worker worker = gate.workers().next();
+            String msg = new String("hello"); // 避免常量池干扰
+            IFuture<String> future = worker.submit(() -> worker.injector().getInstance(RpcClient.class)
+                            .call(GAME_ADDR, RpcServiceExampleProxy.echo(msg)))
+                    .composeApply((ctx, e) -> e);
+            String result = future.toFuture().get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(msg, result);
+            if (enableLocalShare) {
+                Assertions.assertSame(msg, result);
+            } else {
+                Assertions.assertNotSame(msg, result);
+            }
+            // 进程内的Node都是本地地址
+            NodeRpcRouter router = gate.injector().getInstance(NodeRpcRouter.class);
+            Assertions.assertTrue(router.isLocalAddr(GAME_ADDR));
+            Assertions.assertFalse(router.isLocalAddr(new WorkerAddr(3, 1)));
+        } finally {
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+        Assertions.assertEquals(0, registry.size());
+    }
+
+    private static Node newNode(WorkerAddr nodeAddr, LocalNodeRegistry registry, boolean enableLocalShare, boolean exportService) {
+        return TestNodes.newLocalNode(nodeAddr, registry, enableLocalShare, exportService, 1);
+    }
+}
@@ -53,6 +53,7 @@ public class NodeTest {
                 .addModule(WorkerRpcClient.class)
                 .addModule(NodeRpcSupport.class)
                 .addModule(TestRpcRouter.class)
+                .addModule(RpcExecutorMgr.class)
                 // 初始化Worker
                 .setWorkerFactory((parent, index, workerCtx) -> {
                     return WorkerBuilder.newDisruptorWorkerBuilder()
@@ -136,6 +137,8 @@ public class NodeTest {
                 bind(NodeRpcSupport.class).in(Singleton.class);
                 bind(RpcSerializer.class).to(TestRpcSerializer.class).in(Singleton.class);
                 bind(PBMethodInfoRegistry.class).in(Singleton.class);
+                bind(RpcExecutorMgr.class).toInstance(new RpcExecutorMgr()
+                        .addVirtualExecutor("blocking", 4, 100));
             }
         });
     }
@@ -198,6 +201,12 @@ public class NodeTest {
                             Assertions.assertTrue(worker.inEventLoop(), "worker.inEventLoop");
                             logger.info("rcv echo " + result);
                         });
+                rpcClient.call(StaticRpcAddr.LOCAL, RpcServiceExampleProxy.blockingEcho(msg))
+                        .thenAccept((ctx, result) -> {
+                            Assertions.assertEquals(msg, result);
+                            Assertions.assertTrue(worker.inEventLoop(), "worker.inEventLoop");
+                            logger.info("rcv blockingEcho " + result);
+                        });
             }
         }
 
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.RpcClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 响应绕过node线程的测试
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class ResponseBypassNodeTest {
+
+    private static final WorkerAddr GATE_ADDR = new WorkerAddr(1, 1);
+    private static final WorkerAddr GAME_ADDR = new WorkerAddr(2, 1);
+
+    /** 响应直接投递给发起调用的worker，node线程阻塞时调用也能完成 */
+    @Test
+    void testResponseBypassNode() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, false, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, false, true, 1);
+        CountDownLatch nodeLatch = new CountDownLatch(1);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            Worker worker = gate.workers().next();
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            worker.execute(() -> {
+                RpcClient rpcClient = worker.injector().getInstance(RpcClient.class);
+                rpcClient.call(GAME_ADDR, RpcServiceExampleProxy.stuck(200))
+                        .onCompleted(f -> future.complete(worker.inEventLoop() && f.isSucceeded()), 0);
+                // 请求已提交给node发送，之后阻塞node线程
+                gate.execute(() -> {
+                    try {
+                        nodeLatch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            });
+            Assertions.assertTrue(future.get(5, TimeUnit.SECONDS));
+        } finally {
+            nodeLatch.countDown();
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.RpcClient;
+import cn.wjybxx.bigcat.rpc.RpcErrorCodes;
+import cn.wjybxx.bigcat.rpc.RpcMethodSpec;
+import cn.wjybxx.bigcat.rpc.RpcRegistry;
+import cn.wjybxx.concurrent.IFuture;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量调用的测试
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class RpcBatchCallTest {
+
+    private static final WorkerAddr GATE_ADDR = new WorkerAddr(1, 1);
+    private static final WorkerAddr GAME_ADDR = new WorkerAddr(2, 1);
+
+    @Test
+    void testBatchCall() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, false, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, false, true, 1);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            RpcMethodSpec<String> echoSpec = RpcServiceExampleProxy.echo("hello");
+            List<RpcMethodSpec<?>> methodSpecs = List.of(
+                    echoSpec,
+                    RpcServiceExampleProxy.workerIndex(),
+                    new RpcMethodSpec<>(echoSpec.getServiceId(), 9999, List.of()), // 不存在的方法
+                    RpcServiceExampleProxy.blockingEcho("blocking"), // 未配置执行器
+                    RpcServiceExampleProxy.serialUpdate(1, 10)); // 异步完成
+            Worker worker = gate.workers().next();
+            List<IFuture<?>> futures = worker.submit(() -> worker.injector().getInstance(RpcClient.class)
+                    .batchCall(GAME_ADDR, methodSpecs)).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(methodSpecs.size(), futures.size());
+
+            Assertions.assertEquals("hello", futures.get(0).toFuture().get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(0, futures.get(1).toFuture().get(5, TimeUnit.SECONDS));
+            TestNodes.assertErrorCode(RpcErrorCodes.SERVER_UNSUPPORTED_INTERFACE, futures.get(2));
+            TestNodes.assertErrorCode(RpcErrorCodes.SERVER_EXECUTOR_REJECTED, futures.get(3));
+            Assertions.assertEquals(Boolean.TRUE, futures.get(4).toFuture().get(5, TimeUnit.SECONDS));
+        } finally {
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+    }
+
+    /** 单个调用出错不影响其它调用 */
+    @Test
+    void testFailedCall() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, false, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, false, true, 1);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            List<RpcMethodSpec<?>> methodSpecs = List.of(
+                    RpcServiceExampleProxy.echo("a"),
+                    RpcServiceExampleProxy.fail("boom"),
+                    new RpcMethodSpec<>(9999, 1, List.of()), // 不存在的服务
+                    RpcServiceExampleProxy.echo("b"));
+            List<IFuture<?>> futures = batchCall(gate, methodSpecs);
+            Assertions.assertEquals("a", futures.get(0).toFuture().get(5, TimeUnit.SECONDS));
+            TestNodes.assertErrorCode(RpcErrorCodes.SERVER_EXCEPTION, futures.get(1));
+            TestNodes.assertErrorCode(RpcErrorCodes.SERVER_UNSUPPORTED_INTERFACE, futures.get(2));
+            Assertions.assertEquals("b", futures.get(3).toFuture().get(5, TimeUnit.SECONDS));
+        } finally {
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+    }
+
+    /** 第一个调用的服务不存在时，不影响其它调用 */
+    @Test
+    void testUnknownFirstService() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, false, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, false, true, 1);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            List<RpcMethodSpec<?>> methodSpecs = List.of(
+                    new RpcMethodSpec<>(9999, 1, List.of()),
+                    RpcServiceExampleProxy.echo("hello"));
+            List<IFuture<?>> futures = batchCall(gate, methodSpecs);
+            TestNodes.assertErrorCode(RpcErrorCodes.SERVER_UNSUPPORTED_INTERFACE, futures.get(0));
+            Assertions.assertEquals("hello", futures.get(1).toFuture().get(5, TimeUnit.SECONDS));
+            // 空的批量调用不发送请求
+            Assertions.assertTrue(batchCall(gate, List.of()).isEmpty());
+        } finally {
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+    }
+
+    /** 服务在不同的worker上时，每个调用在其服务所在的worker执行，结果按调用的顺序返回 */
+    @Test
+    void testMultiWorker() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, false, false, 1);
+        Node game = NodeBuilder.newDefaultNodeBuilder()
+                .setNodeAddr(GAME_ADDR)
+                .setNumberChildren(2)
+                .setWorkerId("Node")
+                .setInjector(TestNodes.newNodeInjector(TestNodes.localRouterModule(new LocalRpcRouter(registry))))
+                .addModule(WorkerRpcClient.class)
+                .addModule(NodeRpcSupport.class)
+                .addModule(LocalRpcRouter.class)
+                .setWorkerFactory((parent, index, workerCtx) -> WorkerBuilder.newDisruptorWorkerBuilder()
+                        .setWorkerId("Worker-" + index)
+                        .setParent(parent)
+                        .setWorkerCtx(workerCtx)
+                        .setInjector(TestNodes.newWorkerInjector(
+                                binder -> binder.bind(ServiceModule2.class).in(Singleton.class)))
+                        .addModule(WorkerRpcClient.class)
+                        .addModule(index == 0 ? TestNodes.ServiceModule.class : ServiceModule2.class)
+                        .build())
+                .build();
+        try {
+            gate.start().join();
+            game.start().join();
+
+            List<RpcMethodSpec<?>> methodSpecs = List.of(
+                    RpcServiceExampleProxy.workerIndex(),
+                    RpcServiceExample2Proxy.workerIndex(),
+                    RpcServiceExampleProxy.echo("hello"),
+                    RpcServiceExample2Proxy.workerIndex());
+            List<IFuture<?>> futures = batchCall(gate, methodSpecs);
+            Assertions.assertEquals(0, futures.get(0).toFuture().get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, futures.get(1).toFuture().get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals("hello", futures.get(2).toFuture().get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, futures.get(3).toFuture().get(5, TimeUnit.SECONDS));
+        } finally {
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+    }
+
+    private static List<IFuture<?>> batchCall(Node gate, List<RpcMethodSpec<?>> methodSpecs) throws Exception {
+        Worker worker = gate.workers().next();
+        List<IFuture<?>> futures = worker.submit(() -> worker.injector().getInstance(RpcClient.class)
+                .batchCall(GAME_ADDR, methodSpecs)).get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(methodSpecs.size(), futures.size());
+        return futures;
+    }
+
+    /** 导出{@link RpcServiceExample2} */
+    static class ServiceModule2 implements WorkerModule {
+
+        @Inject
+        RpcRegistry registry;
+
+        @Override
+        public void start() {
+            RpcServiceExample2Exporter.export(registry, new RpcServiceExample2());
+        }
+    }
+}
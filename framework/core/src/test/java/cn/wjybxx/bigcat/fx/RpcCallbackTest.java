@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.RpcClient;
+import cn.wjybxx.bigcat.rpc.RpcErrorCodes;
+import cn.wjybxx.bigcat.rpc.RpcException;
+import cn.wjybxx.bigcat.rpc.RpcMethodSpec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 回调式调用的测试
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class RpcCallbackTest {
+
+    private static final WorkerAddr GATE_ADDR = new WorkerAddr(1, 1);
+    private static final WorkerAddr GAME_ADDR = new WorkerAddr(2, 1);
+
+    @Test
+    void testCallback() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, false, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, false, true, 1);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            Worker worker = gate.workers().next();
+            RpcMethodSpec<String> echoSpec = RpcServiceExampleProxy.echo("hello");
+            CompletableFuture<String> echoFuture = new CompletableFuture<>();
+            CompletableFuture<Throwable> errorFuture = new CompletableFuture<>();
+            worker.execute(() -> {
+                RpcClient rpcClient = worker.injector().getInstance(RpcClient.class);
+                rpcClient.call(GAME_ADDR, echoSpec, (result, cause, ctx) -> {
+                    // 回调在发起调用的线程执行
+                    if (worker.inEventLoop() && ctx == echoFuture) {
+                        echoFuture.complete(result);
+                    } else {
+                        echoFuture.completeExceptionally(new IllegalStateException("unexpected thread or ctx"));
+                    }
+                }, echoFuture);
+                rpcClient.call(GAME_ADDR, new RpcMethodSpec<>(echoSpec.getServiceId(), 9999, List.of()),
+                        (result, cause, ctx) -> errorFuture.complete(cause), null);
+            });
+            Assertions.assertEquals("hello", echoFuture.get(5, TimeUnit.SECONDS));
+            Throwable cause = errorFuture.get(5, TimeUnit.SECONDS);
+            Assertions.assertTrue(cause instanceof RpcException, "unexpected exception " + cause);
+            Assertions.assertEquals(RpcErrorCodes.SERVER_UNSUPPORTED_INTERFACE, ((RpcException) cause).getErrorCode());
+        } finally {
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+    }
+
+    /** 超时后回调以超时异常执行一次，迟到的响应被忽略 */
+    @Test
+    void testCallbackTimeout() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, false, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, false, true, 1);
+        gate.injector().getInstance(NodeRpcSupport.class).setTimeoutMs(200);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            Worker worker = gate.workers().next();
+            RpcClient rpcClient = worker.injector().getInstance(RpcClient.class);
+            AtomicInteger callbackCount = new AtomicInteger();
+            CompletableFuture<Throwable> timeoutFuture = new CompletableFuture<>();
+            worker.execute(() -> rpcClient.call(GAME_ADDR, RpcServiceExampleProxy.stuck(600), (result, cause, ctx) -> {
+                callbackCount.incrementAndGet();
+                timeoutFuture.complete(worker.inEventLoop() ? cause : new IllegalStateException("unexpected thread"));
+            }, null));
+            Throwable cause = timeoutFuture.get(5, TimeUnit.SECONDS);
+            Assertions.assertTrue(cause instanceof RpcException, "unexpected exception " + cause);
+            Assertions.assertEquals(RpcErrorCodes.LOCAL_TIMEOUT, ((RpcException) cause).getErrorCode());
+
+            // 等待迟到的响应到达gate的worker -- 同一worker的响应按序到达
+            game.getWorker(0).submit(() -> {}).join();
+            CompletableFuture<String> echoFuture = new CompletableFuture<>();
+            worker.execute(() -> rpcClient.call(GAME_ADDR, RpcServiceExampleProxy.echo("hello"),
+                    (result, ex, ctx) -> echoFuture.complete(result), null));
+            Assertions.assertEquals("hello", echoFuture.get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, callbackCount.get());
+        } finally {
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.CopyOnWriteRpcRegistry;
+import cn.wjybxx.bigcat.rpc.DefaultRpcRegistry;
+import cn.wjybxx.bigcat.rpc.RpcClient;
+import cn.wjybxx.bigcat.rpc.RpcRegistry;
+import cn.wjybxx.concurrent.IFuture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息合并的测试
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class RpcConflateTest {
+
+    private static final WorkerAddr GATE_ADDR = new WorkerAddr(1, 1);
+    private static final WorkerAddr GAME_ADDR = new WorkerAddr(2, 1);
+
+    /** worker阻塞期间，同一玩家的位置更新只保留最新的一条 */
+    @Test
+    void testConflate() throws Exception {
+        updatePositions(DefaultRpcRegistry.class);
+    }
+
+    /** 合并Key不依赖注册表的实现 */
+    @Test
+    void testConflateCopyOnWrite() throws Exception {
+        updatePositions(CopyOnWriteRpcRegistry.class);
+    }
+
+    /** 阻塞worker，发送两个玩家的各100条位置更新 */
+    private static void updatePositions(Class<? extends RpcRegistry> registryType) throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, false, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, false, true, 1, registryType);
+        CountDownLatch workerLatch = new CountDownLatch(1);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            game.getWorker(0).execute(() -> {
+                try {
+                    workerLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Worker worker = gate.workers().next();
+            RpcClient rpcClient = worker.injector().getInstance(RpcClient.class);
+            worker.submit(() -> {
+                for (int x = 1; x <= 100; x++) {
+                    rpcClient.send(GAME_ADDR, RpcServiceExampleProxy.updatePosition(1, x));
+                    rpcClient.send(GAME_ADDR, RpcServiceExampleProxy.updatePosition(2, -x));
+                }
+            }).join();
+            // 等待消息到达game的node
+            gate.submit(() -> {}).join();
+            game.submit(() -> {}).join();
+            // 合并后的消息不再排队，worker的队列长度受限于活跃的Key数
+            int taskCount = ((WorkerImpl) game.getWorker(0)).taskCount();
+            Assertions.assertTrue(taskCount < 10, "taskCount " + taskCount);
+            workerLatch.countDown();
+
+            IFuture<Integer> countFuture = worker.submit(() -> rpcClient.call(GAME_ADDR, RpcServiceExampleProxy.positionUpdateCount()))
+                    .composeApply((ctx, e) -> e);
+            Assertions.assertEquals(2, (int) countFuture.toFuture().get(5, TimeUnit.SECONDS));
+            IFuture<Integer> positionFuture = worker.submit(() -> rpcClient.call(GAME_ADDR, RpcServiceExampleProxy.getPosition(2)))
+                    .composeApply((ctx, e) -> e);
+            Assertions.assertEquals(-100, (int) positionFuture.toFuture().get(5, TimeUnit.SECONDS));
+        } finally {
+            workerLatch.countDown();
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+    }
+}
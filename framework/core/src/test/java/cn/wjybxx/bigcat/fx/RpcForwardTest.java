@@ -0,0 +1,124 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 网关转发测试 -- 参数是无法解码的字节数组，转发时不能解码
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class RpcForwardTest {
+
+    private static final WorkerAddr GATE_ADDR = new WorkerAddr(1, 1);
+    private static final WorkerAddr GAME_ADDR = new WorkerAddr(2, 1);
+    private static final PlayerAddr PLAYER_ADDR = new PlayerAddr(10001);
+
+    @Test
+    void testForward() throws Exception {
+        RpcForwardTable forwardTable = new RpcForwardTable()
+                .addRule(100, 199, playerAddr -> playerAddr.playerGuid > 10000 ? GAME_ADDR : null);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> forwardTable.addRule(150, 250, playerAddr -> GAME_ADDR));
+
+        CaptureRouter router = new CaptureRouter();
+        NodeRpcSupport rpcSupport = new NodeRpcSupport().setForwardTable(forwardTable);
+        Node gate = newNode(router, rpcSupport);
+        try {
+            gate.start().join();
+            // 上行：只修改目标地址，参数原样转发
+            byte[] bytes = {1, 2, 3};
+            RpcRequest request = newPlayerRequest(PLAYER_ADDR, 101, bytes);
+            rpcSupport.onRcvRequest(request);
+            RpcProtocol forwarded = router.sendQueue.poll(5, TimeUnit.SECONDS);
+            Assertions.assertSame(request, forwarded);
+            Assertions.assertEquals(GAME_ADDR, request.getDestAddr());
+            Assertions.assertEquals(PLAYER_ADDR, request.getSrcAddr());
+            Assertions.assertSame(bytes, request.getParameters());
+            Assertions.assertTrue(request.isSerialized());
+
+            // 无法转发时返回错误
+            PlayerAddr guest = new PlayerAddr(1);
+            rpcSupport.onRcvRequest(newPlayerRequest(guest, 102, bytes));
+            RpcResponse failed = (RpcResponse) router.sendQueue.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(failed);
+            Assertions.assertEquals(guest, failed.getDestAddr());
+            Assertions.assertEquals(RpcErrorCodes.SERVER_CONNECTION_STATE_ERROR, failed.getErrorCode());
+
+            // 下行：发往玩家的响应原样转发，不检查conId
+            RpcResponse response = new RpcResponse(request, GAME_ADDR);
+            response.setResults(new byte[]{4, 5, 6});
+            rpcSupport.onRcvResponse(response);
+            Assertions.assertSame(response, router.sendQueue.poll(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(response.isSerialized());
+
+            // 未命中规则的请求正常处理 -- 网关没有该服务
+            rpcSupport.onRcvRequest(newPlayerRequest(PLAYER_ADDR, 300, bytes));
+            RpcResponse unsupported = (RpcResponse) router.sendQueue.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(unsupported);
+            Assertions.assertNotEquals(0, unsupported.getErrorCode());
+        } finally {
+            gate.shutdownNow();
+            gate.terminationFuture().join();
+        }
+    }
+
+    private static RpcRequest newPlayerRequest(PlayerAddr playerAddr, int serviceId, byte[] bytes) {
+        return new RpcRequest(1, playerAddr, GATE_ADDR)
+                .setRequestId(1)
+                .setInvokeType(RpcInvokeType.CALL)
+                .setServiceId(serviceId)
+                .setMethodId(1)
+                .setParameters(bytes);
+    }
+
+    /** 记录发送的协议 */
+    private static class CaptureRouter extends AbstractRpcRouter {
+
+        final LinkedBlockingQueue<RpcProtocol> sendQueue = new LinkedBlockingQueue<>();
+
+        @Override
+        public boolean send(RpcProtocol protocol) {
+            return sendQueue.offer(protocol);
+        }
+    }
+
+    private static Node newNode(CaptureRouter router, NodeRpcSupport rpcSupport) {
+        return NodeBuilder.newDefaultNodeBuilder()
+                .setNodeAddr(GATE_ADDR)
+                .setWorkerId("Node")
+                .setInjector(TestNodes.newNodeInjector(binder -> {
+                    binder.bind(NodeRpcRouter.class).toInstance(router);
+                    binder.bind(NodeRpcSupport.class).toInstance(rpcSupport);
+                }))
+                .addModule(NodeRpcSupport.class)
+                .addModule(NodeRpcRouter.class)
+                .setWorkerFactory((parent, index, workerCtx) -> WorkerBuilder.newDisruptorWorkerBuilder()
+                        .setWorkerId("Worker-" + index)
+                        .setParent(parent)
+                        .setWorkerCtx(workerCtx)
+                        .setInjector(TestNodes.newWorkerInjector())
+                        .build())
+                .build();
+    }
+}
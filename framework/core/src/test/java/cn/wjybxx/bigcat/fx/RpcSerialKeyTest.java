@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.*;
+import cn.wjybxx.concurrent.IFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 串行Key测试
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class RpcSerialKeyTest {
+
+    private static final WorkerAddr NODE_ADDR = new WorkerAddr(1, 1);
+
+    private Node node;
+
+    @BeforeEach
+    void setUp() {
+        node = TestNodes.newLocalNode(NODE_ADDR, new LocalNodeRegistry(), true, true, 1);
+        node.start().join();
+    }
+
+    @AfterEach
+    void tearDown() {
+        node.shutdownNow();
+        node.terminationFuture().join();
+    }
+
+    @Test
+    void testSerial() throws Exception {
+        Worker worker = node.workers().next();
+        List<IFuture<Boolean>> futureList = worker.submit(() -> {
+            RpcClient rpcClient = worker.injector().getInstance(RpcClient.class);
+            List<IFuture<Boolean>> result = new ArrayList<>();
+            for (int idx = 0; idx < 10; idx++) {
+                result.add(rpcClient.call(StaticRpcAddr.LOCAL, RpcServiceExampleProxy.serialUpdate(idx % 2, 10)));
+            }
+            return result;
+        }).get(5, TimeUnit.SECONDS);
+
+        for (IFuture<Boolean> future : futureList) {
+            Assertions.assertTrue(future.toFuture().get(5, TimeUnit.SECONDS), "request interleaved");
+        }
+        // 请求全部完成后，队列应当被删除
+        int queueCount = worker.submit(() -> worker.workerCtx().serialQueueMap.values().stream()
+                .mapToInt(Map::size)
+                .sum()).get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(0, queueCount);
+    }
+}
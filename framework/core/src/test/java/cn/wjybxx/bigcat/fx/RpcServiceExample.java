@@ -16,11 +16,20 @@
 
 package cn.wjybxx.bigcat.fx;
 
+import cn.wjybxx.base.ThreadUtils;
+import cn.wjybxx.bigcat.rpc.RpcConflateKey;
 import cn.wjybxx.bigcat.rpc.RpcMethod;
+import cn.wjybxx.bigcat.rpc.RpcSerialKey;
 import cn.wjybxx.bigcat.rpc.RpcService;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author wjybxx
@@ -29,6 +38,10 @@ import java.util.StringJoiner;
 @RpcService(serviceId = 1)
 public class RpcServiceExample {
 
+    private final Set<Long> updatingKeys = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Integer> positions = new HashMap<>();
+    private int positionUpdateCount;
+
     @RpcMethod(methodId = 1, customData = "{interval : 500}")
     public String echo(String msg) {
         return msg;
@@ -43,4 +56,59 @@ public class RpcServiceExample {
         return joiner.toString();
     }
 
+    /** 模拟阻塞操作 */
+    @RpcMethod(methodId = 5, executor = "blocking")
+    public String blockingEcho(String msg) {
+        ThreadUtils.sleepQuietly(5);
+        return msg;
+    }
+
+    /** 执行请求的Worker的索引 */
+    @RpcMethod(methodId = 7)
+    public int workerIndex() {
+        return Worker.CURRENT_WORKER.get().workerIndex();
+    }
+
+    /** 模拟卡住的Worker */
+    @RpcMethod(methodId = 8)
+    public void stuck(int sleepMs) {
+        ThreadUtils.sleepQuietly(sleepMs);
+    }
+
+    /**
+     * 模拟异步修改数据 -- 同一个key的请求交错执行时返回false
+     */
+    @RpcMethod(methodId = 6)
+    public CompletableFuture<Boolean> serialUpdate(@RpcSerialKey long key, int delayMs) {
+        if (!updatingKeys.add(key)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return CompletableFuture.supplyAsync(() -> updatingKeys.remove(key),
+                CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS));
+    }
+
+    /** 同步位置 -- 未处理的旧位置被新位置覆盖 */
+    @RpcMethod(methodId = 9, conflate = true)
+    public void updatePosition(@RpcConflateKey long playerId, int x) {
+        positions.put(playerId, x);
+        positionUpdateCount++;
+    }
+
+    /** 查询处理过的位置更新数 */
+    @RpcMethod(methodId = 10)
+    public int positionUpdateCount() {
+        return positionUpdateCount;
+    }
+
+    @RpcMethod(methodId = 11)
+    public Integer getPosition(long playerId) {
+        return positions.get(playerId);
+    }
+
+    /** 模拟执行出错 */
+    @RpcMethod(methodId = 12)
+    public String fail(String msg) {
+        throw new IllegalStateException(msg);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.RpcMethod;
+import cn.wjybxx.bigcat.rpc.RpcService;
+
+/**
+ * 与{@link RpcServiceExample}导出到不同Worker的服务
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@RpcService(serviceId = 2)
+public class RpcServiceExample2 {
+
+    /** 执行请求的Worker的索引 */
+    @RpcMethod(methodId = 1)
+    public int workerIndex() {
+        return Worker.CURRENT_WORKER.get().workerIndex();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.RpcErrorCodes;
+import cn.wjybxx.concurrent.IFuture;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 调用超时的测试
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class RpcTimeoutTest {
+
+    private static final WorkerAddr GATE_ADDR = new WorkerAddr(1, 1);
+    private static final WorkerAddr GAME_ADDR = new WorkerAddr(2, 1);
+
+    /** Worker未安装{@link WorkerRpcClient}，直接通过{@link NodeRpcSupport}发起的调用也应超时 */
+    @Test
+    void testTimeoutWithoutClient() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = newBareNode(GATE_ADDR, registry);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, false, true, 1);
+        NodeRpcSupport rpcSupport = gate.injector().getInstance(NodeRpcSupport.class);
+        rpcSupport.setTimeoutMs(200);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            Worker worker = gate.workers().next();
+            IFuture<Void> future = worker.submit(() -> rpcSupport.w2n_call(worker, GAME_ADDR, RpcServiceExampleProxy.stuck(600)))
+                    .composeApply((ctx, e) -> e);
+            TestNodes.assertErrorCode(RpcErrorCodes.LOCAL_TIMEOUT, future);
+            // 等待卡住的调用完成，迟到的响应被忽略
+            game.getWorker(0).submit(() -> {}).get(5, TimeUnit.SECONDS);
+        } finally {
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+    }
+
+    /** Worker不安装任何模块 */
+    private static Node newBareNode(WorkerAddr nodeAddr, LocalNodeRegistry registry) {
+        LocalRpcRouter router = new LocalRpcRouter(registry);
+        return NodeBuilder.newDefaultNodeBuilder()
+                .setNodeAddr(nodeAddr)
+                .setNumberChildren(1)
+                .setWorkerId("Node")
+                .setInjector(TestNodes.newNodeInjector(TestNodes.localRouterModule(router)))
+                .addModule(NodeRpcSupport.class)
+                .addModule(LocalRpcRouter.class)
+                .setWorkerFactory((parent, index, workerCtx) -> WorkerBuilder.newDisruptorWorkerBuilder()
+                        .setWorkerId("Worker-" + index)
+                        .setParent(parent)
+                        .setWorkerCtx(workerCtx)
+                        .setInjector(TestNodes.newWorkerInjector())
+                        .build())
+                .build();
+    }
+}
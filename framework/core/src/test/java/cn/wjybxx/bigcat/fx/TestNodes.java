@@ -0,0 +1,187 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.base.time.TimeProvider;
+import cn.wjybxx.bigcat.pb.PBMethodInfoRegistry;
+import cn.wjybxx.bigcat.rpc.DefaultRpcRegistry;
+import cn.wjybxx.bigcat.rpc.RpcClient;
+import cn.wjybxx.bigcat.rpc.RpcException;
+import cn.wjybxx.bigcat.rpc.RpcRegistry;
+import cn.wjybxx.bigcat.rpc.RpcSerializer;
+import cn.wjybxx.concurrent.IFuture;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import org.junit.jupiter.api.Assertions;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测试用的公共绑定 -- 各测试只需提供路由等额外的绑定
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+final class TestNodes {
+
+    private TestNodes() {
+    }
+
+    /**
+     * Node的公共绑定，路由和{@link NodeRpcSupport}由额外的模块绑定
+     *
+     * @param extraModules 额外的绑定
+     */
+    static Injector newNodeInjector(Module... extraModules) {
+        return Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                super.configure();
+                binder().requireExplicitBindings();
+
+                bind(MainModule.class).to(DefaultMainModule.class).in(Singleton.class);
+                bind(DefaultMainModule.class).in(Singleton.class);
+                bind(RpcClient.class).to(WorkerRpcClient.class).in(Singleton.class);
+                bind(WorkerRpcClient.class).in(Singleton.class);
+                bind(RpcRegistry.class).to(DefaultRpcRegistry.class).in(Singleton.class);
+                bind(TimeProvider.class).to(TimeModule.class).in(Singleton.class);
+                bind(TimeModule.class).in(Singleton.class);
+
+                bind(RpcSerializer.class).to(TestRpcSerializer.class).in(Singleton.class);
+                bind(PBMethodInfoRegistry.class).in(Singleton.class);
+                for (Module module : extraModules) {
+                    install(module);
+                }
+            }
+        });
+    }
+
+    /**
+     * Worker的公共绑定，包含{@link ServiceModule}
+     *
+     * @param extraModules 额外的绑定
+     */
+    static Injector newWorkerInjector(Module... extraModules) {
+        return newWorkerInjector(DefaultRpcRegistry.class, extraModules);
+    }
+
+    /**
+     * Worker的公共绑定，包含{@link ServiceModule}
+     *
+     * @param registryType 注册表的实现类
+     * @param extraModules 额外的绑定
+     */
+    static Injector newWorkerInjector(Class<? extends RpcRegistry> registryType, Module... extraModules) {
+        return Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                super.configure();
+                binder().requireExplicitBindings();
+
+                bind(MainModule.class).to(DefaultMainModule.class).in(Singleton.class);
+                bind(DefaultMainModule.class).in(Singleton.class);
+                bind(RpcClient.class).to(WorkerRpcClient.class).in(Singleton.class);
+                bind(WorkerRpcClient.class).in(Singleton.class);
+                bind(RpcRegistry.class).to(registryType).in(Singleton.class);
+                bind(TimeProvider.class).to(TimeModule.class).in(Singleton.class);
+                bind(TimeModule.class).in(Singleton.class);
+
+                bind(ServiceModule.class).in(Singleton.class);
+                for (Module module : extraModules) {
+                    install(module);
+                }
+            }
+        });
+    }
+
+    /** 绑定进程内路由和{@link NodeRpcSupport} */
+    static Module localRouterModule(LocalRpcRouter router) {
+        return binder -> {
+            binder.bind(NodeRpcRouter.class).toInstance(router);
+            binder.bind(LocalRpcRouter.class).toInstance(router);
+            binder.bind(NodeRpcSupport.class).in(Singleton.class);
+        };
+    }
+
+    /**
+     * 创建使用进程内路由的Node
+     *
+     * @param exportService Worker是否导出{@link RpcServiceExample}
+     */
+    static Node newLocalNode(WorkerAddr nodeAddr, LocalNodeRegistry registry, boolean enableLocalShare, boolean exportService,
+                             int numberChildren) {
+        return newLocalNode(nodeAddr, registry, enableLocalShare, exportService, numberChildren, DefaultRpcRegistry.class);
+    }
+
+    /**
+     * 创建使用进程内路由的Node
+     *
+     * @param exportService Worker是否导出{@link RpcServiceExample}
+     * @param registryType  Worker的注册表实现类
+     */
+    static Node newLocalNode(WorkerAddr nodeAddr, LocalNodeRegistry registry, boolean enableLocalShare, boolean exportService,
+                             int numberChildren, Class<? extends RpcRegistry> registryType) {
+        LocalRpcRouter router = new LocalRpcRouter(registry);
+        router.setEnableLocalShare(enableLocalShare);
+        return NodeBuilder.newDefaultNodeBuilder()
+                .setNodeAddr(nodeAddr)
+                .setNumberChildren(numberChildren)
+                .setWorkerId("Node")
+                .setInjector(newNodeInjector(localRouterModule(router)))
+                .addModule(WorkerRpcClient.class)
+                .addModule(NodeRpcSupport.class)
+                .addModule(LocalRpcRouter.class)
+                .setWorkerFactory((parent, index, workerCtx) -> {
+                    WorkerBuilder.DisruptWorkerBuilder builder = WorkerBuilder.newDisruptorWorkerBuilder()
+                            .setWorkerId("Worker-" + index)
+                            .setParent(parent)
+                            .setWorkerCtx(workerCtx)
+                            .setInjector(newWorkerInjector(registryType))
+                            .addModule(WorkerRpcClient.class);
+                    if (exportService) {
+                        builder.addModule(ServiceModule.class);
+                    }
+                    return builder.build();
+                })
+                .build();
+    }
+
+    /** 断言调用以指定错误码失败 */
+    static void assertErrorCode(int errorCode, IFuture<?> future) {
+        ExecutionException ex = Assertions.assertThrows(ExecutionException.class,
+                () -> future.toFuture().get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(ex.getCause() instanceof RpcException, "unexpected exception " + ex.getCause());
+        Assertions.assertEquals(errorCode, ((RpcException) ex.getCause()).getErrorCode());
+    }
+
+    /** 导出{@link RpcServiceExample} */
+    static class ServiceModule implements WorkerModule {
+
+        @Inject
+        RpcRegistry registry;
+
+        @Override
+        public void start() {
+            RpcServiceExampleExporter.export(registry, new RpcServiceExample());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.RpcClient;
+import cn.wjybxx.concurrent.IFuture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker索引的测试
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class WorkerIndexTest {
+
+    private static final WorkerAddr GATE_ADDR = new WorkerAddr(1, 1);
+    private static final WorkerAddr GAME_ADDR = new WorkerAddr(2, 1);
+
+    @Test
+    void testWorkerIndex() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, true, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, true, true, 4);
+        try {
+            gate.start().join();
+            game.start().join();
+            Assertions.assertEquals(2, game.getWorker(2).workerIndex());
+            Assertions.assertSame(game.getWorker(2), game.findWorker("Worker-2"));
+            Assertions.assertNull(game.getWorker(4));
+
+            // 通过索引路由到指定的Worker
+            Worker worker = gate.workers().next();
+            for (int idx = 0; idx < 4; idx++) {
+                WorkerAddr target = new WorkerAddr(GAME_ADDR.serverType, GAME_ADDR.serverId, idx, "Worker-" + idx);
+                IFuture<Integer> future = worker.submit(() -> worker.injector().getInstance(RpcClient.class)
+                                .call(target, RpcServiceExampleProxy.workerIndex()))
+                        .composeApply((ctx, e) -> e);
+                Assertions.assertEquals(idx, (int) future.toFuture().get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+    }
+
+    /** 索引不存在时，退化为按来源地址选择Worker */
+    @Test
+    void testInvalidWorkerIndex() throws Exception {
+        LocalNodeRegistry registry = new LocalNodeRegistry();
+        Node gate = TestNodes.newLocalNode(GATE_ADDR, registry, true, false, 1);
+        Node game = TestNodes.newLocalNode(GAME_ADDR, registry, true, true, 4);
+        try {
+            gate.start().join();
+            game.start().join();
+
+            Worker worker = gate.workers().next();
+            WorkerAddr target = new WorkerAddr(GAME_ADDR.serverType, GAME_ADDR.serverId, 9, "Worker-9");
+            IFuture<Integer> future = worker.submit(() -> worker.injector().getInstance(RpcClient.class)
+                            .call(target, RpcServiceExampleProxy.workerIndex()))
+                    .composeApply((ctx, e) -> e);
+            int workerIndex = future.toFuture().get(5, TimeUnit.SECONDS);
+            Assertions.assertTrue(workerIndex >= 0 && workerIndex < 4, "workerIndex " + workerIndex);
+        } finally {
+            gate.shutdownNow();
+            game.shutdownNow();
+            gate.terminationFuture().join();
+            game.terminationFuture().join();
+        }
+    }
+}
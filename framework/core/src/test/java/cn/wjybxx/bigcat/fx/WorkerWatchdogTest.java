@@ -0,0 +1,134 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.fx;
+
+import cn.wjybxx.bigcat.rpc.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 看门狗测试
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class WorkerWatchdogTest {
+
+    private static final WorkerAddr NODE_ADDR = new WorkerAddr(1, 1);
+
+    private static final BlockingQueue<WorkerWatchdog.StuckInfo> stuckQueue = new LinkedBlockingQueue<>();
+    private Node node;
+
+    @BeforeEach
+    void setUp() {
+        node = NodeBuilder.newDefaultNodeBuilder()
+                .setNodeAddr(NODE_ADDR)
+                .setWorkerId("Node")
+                .setInjector(TestNodes.newNodeInjector(
+                        TestNodes.localRouterModule(new LocalRpcRouter(new LocalNodeRegistry())),
+                        binder -> binder.bind(WorkerWatchdog.class).toInstance(new WorkerWatchdog()
+                                .setCheckIntervalMs(10)
+                                .setRpcTimeoutMs(100)
+                                .setLoopTimeoutMs(300)
+                                .setLogStackTrace(false)
+                                .setListener(stuckQueue::offer))))
+                .addModule(WorkerRpcClient.class)
+                .addModule(NodeRpcSupport.class)
+                .addModule(LocalRpcRouter.class)
+                .addModule(WorkerWatchdog.class)
+                .setWorkerFactory((parent, index, workerCtx) -> WorkerBuilder.newDisruptorWorkerBuilder()
+                        .setWorkerId("Worker-" + index)
+                        .setParent(parent)
+                        .setWorkerCtx(workerCtx)
+                        .setInjector(TestNodes.newWorkerInjector())
+                        .addModule(WorkerRpcClient.class)
+                        .addModule(TestNodes.ServiceModule.class)
+                        .build())
+                .build();
+        node.start().join();
+    }
+
+    @AfterEach
+    void tearDown() {
+        node.shutdownNow();
+        node.terminationFuture().join();
+    }
+
+    @Test
+    void testSlowRpc() throws Exception {
+        Worker worker = node.workers().next();
+        worker.execute(() -> worker.injector().getInstance(RpcClient.class)
+                .send(StaticRpcAddr.LOCAL, RpcServiceExampleProxy.stuck(500)));
+
+        WorkerWatchdog.StuckInfo info = stuckQueue.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(info);
+        Assertions.assertSame(worker, info.worker());
+        Assertions.assertEquals(WorkerWatchdog.Kind.SLOW_RPC, info.kind());
+        Assertions.assertEquals(1, info.serviceId());
+        Assertions.assertEquals(8, info.methodId());
+        Assertions.assertTrue(Arrays.stream(info.stackTrace())
+                .anyMatch(e -> e.getMethodName().equals("stuck")));
+
+        // 同一次卡顿只报告一次，恢复后不再报告
+        Thread.sleep(600);
+        Assertions.assertNull(stuckQueue.poll());
+    }
+
+    /** Rpc方法返回后，同一批次中其它任务的卡顿不能报告为该方法 */
+    @Test
+    void testStuckAfterRpc() throws Exception {
+        Worker worker = node.workers().next();
+        CountDownLatch latch = new CountDownLatch(1);
+        worker.execute(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        // 阻塞期间将请求和卡顿任务依次压入Worker队列，使其在同一批次执行
+        node.execute(() -> node.injector().getInstance(RpcClient.class)
+                .send(StaticRpcAddr.LOCAL, RpcServiceExampleProxy.echo("hello")));
+        Thread.sleep(100);
+        worker.execute(() -> {
+            try {
+                Thread.sleep(600);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        latch.countDown();
+
+        WorkerWatchdog.StuckInfo info = stuckQueue.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(info);
+        Assertions.assertSame(worker, info.worker());
+        Assertions.assertEquals(WorkerWatchdog.Kind.LOOP_STUCK, info.kind());
+        Assertions.assertEquals(-1, info.serviceId());
+        Assertions.assertEquals(-1, info.methodId());
+
+        Thread.sleep(400);
+        Assertions.assertNull(stuckQueue.poll());
+    }
+}
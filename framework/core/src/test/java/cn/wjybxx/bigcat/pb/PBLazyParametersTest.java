@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.pb;
+
+import com.google.protobuf.StringValue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class PBLazyParametersTest {
+
+    @Test
+    void testLazyParse() {
+        StringValue message = StringValue.of("hello");
+        PBLazyParameters parameters = new PBLazyParameters(StringValue.parser(), message.toByteArray());
+        Assertions.assertEquals(1, parameters.size());
+        // 打印日志不触发解析
+        Assertions.assertEquals("[<7 bytes>]", parameters.toString());
+        Assertions.assertFalse(parameters.isParsed());
+
+        Assertions.assertEquals(message, parameters.get(0));
+        Assertions.assertTrue(parameters.isParsed());
+        Assertions.assertSame(parameters.get(0), parameters.get(0));
+
+        StringValue other = StringValue.of("world");
+        Assertions.assertEquals(message, parameters.set(0, other));
+        Assertions.assertSame(other, parameters.get(0));
+    }
+
+    @Test
+    void testParseFailed() {
+        PBLazyParameters parameters = new PBLazyParameters(StringValue.parser(), new byte[]{10, 100});
+        Assertions.assertFalse(parameters.parse());
+        Assertions.assertNotNull(parameters.getCause());
+        Assertions.assertThrows(IllegalStateException.class, () -> parameters.get(0));
+
+        // 空字节数组解析为空消息
+        Assertions.assertEquals(StringValue.getDefaultInstance(),
+                new PBLazyParameters(StringValue.parser(), new byte[0]).get(0));
+    }
+}
@@ -0,0 +1,675 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.kcp;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * KCP风格的ARQ协议实现(只实现消息模式)
+ * <p>
+ * 1. 选择性确认：每个分片独立确认，同时携带una确认之前的所有分片。
+ * 2. 快速重传：被跳过指定次数的分片立即重传，无需等待超时。
+ * 3. 拥塞控制：慢启动 + 拥塞避免，丢包时收缩窗口；可通过配置关闭。
+ * 4. 分片：超过mss的消息拆分为多个分片，最多255个。
+ * <p>
+ * 该类不涉及IO，输出通过{@link KcpOutput}回调；所有方法都应当在同一个线程调用。
+ * 分片头部固定24字节：conv(4) cmd(1) frg(1) wnd(2) ts(4) sn(4) una(4) len(4)，大端编码。
+ *
+ * @author wjybxx
+ * date - 2024/1/18
+ */
+@NotThreadSafe
+public class Kcp {
+
+    /** 分片头部长度 */
+    public static final int OVERHEAD = 24;
+
+    static final int CMD_PUSH = 81;
+    static final int CMD_ACK = 82;
+    static final int CMD_WASK = 83;
+    static final int CMD_WINS = 84;
+
+    private static final int ASK_SEND = 1;
+    private static final int ASK_TELL = 2;
+
+    private static final int RTO_NODELAY = 30;
+    private static final int RTO_MIN = 100;
+    private static final int RTO_DEF = 200;
+    private static final int RTO_MAX = 60000;
+    private static final int THRESH_INIT = 2;
+    private static final int THRESH_MIN = 2;
+    private static final int PROBE_INIT = 7000;
+    private static final int PROBE_LIMIT = 120000;
+    /** 快速重传的最大次数，超过后只能等待超时重传 */
+    private static final int FAST_RESEND_LIMIT = 5;
+    private static final int MAX_FRAGMENTS = 255;
+
+    private final int conv;
+    private final KcpOutput output;
+    private final int mtu;
+    private final int mss;
+    private final int sndWnd;
+    private final int rcvWnd;
+    private final int interval;
+    private final boolean nodelay;
+    private final int fastResend;
+    private final boolean noCwnd;
+    private final int deadLink;
+    private final int minRto;
+
+    private int sndUna;
+    private int sndNxt;
+    private int rcvNxt;
+
+    private int rmtWnd;
+    private int cwnd = 1;
+    private int incr;
+    private int ssthresh = THRESH_INIT;
+    private int probe;
+    private int probeWait;
+    private int tsProbe;
+
+    private int rxRttVal;
+    private int rxSrtt;
+    private int rxRto = RTO_DEF;
+
+    private int current;
+    private int tsFlush;
+    private boolean updated;
+    private boolean dead;
+    private long xmitCount;
+
+    private final ArrayDeque<Segment> sndQueue = new ArrayDeque<>();
+    private final ArrayDeque<Segment> rcvQueue = new ArrayDeque<>();
+    /** 已发送未确认的分片，按sn有序 */
+    private final ArrayList<Segment> sndBuf = new ArrayList<>();
+    /** 已收到但尚未连续的分片，按sn有序 */
+    private final ArrayList<Segment> rcvBuf = new ArrayList<>();
+    /** 待发送的ack，sn和ts交替存储 */
+    private int[] ackList = new int[16];
+    private int ackCount;
+
+    /** flush使用的缓冲区 -- 输出回调必须同步消费 */
+    private final ByteBuffer flushBuffer;
+
+    public Kcp(int conv, KcpConfig config, KcpOutput output) {
+        this.conv = conv;
+        this.output = Objects.requireNonNull(output);
+        this.mtu = config.getMtu();
+        this.mss = mtu - OVERHEAD;
+        this.sndWnd = config.getSndWnd();
+        this.rcvWnd = config.getRcvWnd();
+        this.rmtWnd = config.getRcvWnd();
+        this.interval = config.getInterval();
+        this.nodelay = config.isNodelay();
+        this.fastResend = config.getFastResend();
+        this.noCwnd = config.isNoCwnd();
+        this.deadLink = config.getDeadLink();
+        this.minRto = nodelay ? RTO_NODELAY : RTO_MIN;
+        this.incr = mss;
+        this.flushBuffer = ByteBuffer.allocate(mtu);
+    }
+
+    // region 用户接口
+
+    public int getConv() {
+        return conv;
+    }
+
+    /**
+     * 发送一条消息
+     *
+     * @return 如果消息过大，则返回false
+     */
+    public boolean send(byte[] data, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, data.length);
+        int count = length <= mss ? 1 : (length + mss - 1) / mss;
+        if (count > MAX_FRAGMENTS || count > rcvWnd) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            int size = Math.min(length, mss);
+            Segment segment = new Segment(size);
+            System.arraycopy(data, offset, segment.data, 0, size);
+            segment.frg = count - i - 1;
+            sndQueue.add(segment);
+            offset += size;
+            length -= size;
+        }
+        return true;
+    }
+
+    public boolean send(byte[] data) {
+        return send(data, 0, data.length);
+    }
+
+    /**
+     * 接收一条完整的消息
+     *
+     * @return 如果没有完整的消息，则返回null
+     */
+    public byte[] recv() {
+        int size = peekSize();
+        if (size < 0) {
+            return null;
+        }
+        byte[] result = new byte[size];
+        recv(ByteBuffer.wrap(result));
+        return result;
+    }
+
+    /**
+     * 接收一条完整的消息到缓冲区 -- 可复用缓冲区，避免为每条消息分配字节数组
+     *
+     * @param out 剩余空间不可小于{@link #peekSize()}，消息写入后position前进消息的长度
+     * @return 消息的长度，如果没有完整的消息，则返回-1
+     */
+    public int recv(ByteBuffer out) {
+        int size = peekSize();
+        if (size < 0) {
+            return -1;
+        }
+        if (out.remaining() < size) {
+            throw new IllegalArgumentException("buffer is too small, size " + size);
+        }
+        boolean recover = rcvQueue.size() >= rcvWnd;
+        while (!rcvQueue.isEmpty()) {
+            Segment segment = rcvQueue.poll();
+            out.put(segment.data);
+            if (segment.frg == 0) {
+                break;
+            }
+        }
+        moveRcvBufToQueue();
+        // 窗口恢复，主动告知对方
+        if (recover && rcvQueue.size() < rcvWnd) {
+            probe |= ASK_TELL;
+        }
+        return size;
+    }
+
+    /** 下一条完整消息的长度，-1表示没有完整的消息 */
+    public int peekSize() {
+        Segment first = rcvQueue.peek();
+        if (first == null) {
+            return -1;
+        }
+        if (first.frg == 0) {
+            return first.data.length;
+        }
+        if (rcvQueue.size() < first.frg + 1) {
+            return -1;
+        }
+        int size = 0;
+        for (Segment segment : rcvQueue) {
+            size += segment.data.length;
+            if (segment.frg == 0) {
+                break;
+            }
+        }
+        return size;
+    }
+
+    /** 等待发送和等待确认的分片数 */
+    public int waitSnd() {
+        return sndBuf.size() + sndQueue.size();
+    }
+
+    /** 是否有分片的重传次数超过了限制 -- 通常意味着连接已断开 */
+    public boolean isDead() {
+        return dead;
+    }
+
+    /** 重传的总次数 */
+    public long getXmitCount() {
+        return xmitCount;
+    }
+
+    /** 平滑后的rtt */
+    public int getSrtt() {
+        return rxSrtt;
+    }
+
+    // endregion
+
+    // region 输入
+
+    /**
+     * 输入一个收到的数据包
+     *
+     * @return 0表示成功，负数表示数据包非法
+     */
+    public int input(ByteBuffer data) {
+        if (data.remaining() < OVERHEAD) {
+            return -1;
+        }
+        final int prevUna = sndUna;
+        boolean hasAck = false;
+        int maxAck = 0;
+        int latestTs = 0;
+        while (data.remaining() >= OVERHEAD) {
+            int conv = data.getInt();
+            if (conv != this.conv) {
+                return -1;
+            }
+            int cmd = data.get() & 0xFF;
+            int frg = data.get() & 0xFF;
+            int wnd = data.getShort() & 0xFFFF;
+            int ts = data.getInt();
+            int sn = data.getInt();
+            int una = data.getInt();
+            int len = data.getInt();
+            if (len < 0 || data.remaining() < len) {
+                return -2;
+            }
+            if (cmd != CMD_PUSH && cmd != CMD_ACK && cmd != CMD_WASK && cmd != CMD_WINS) {
+                return -3;
+            }
+            rmtWnd = wnd;
+            parseUna(una);
+            shrinkBuf();
+
+            switch (cmd) {
+                case CMD_ACK -> {
+                    if (current - ts >= 0) {
+                        updateAck(current - ts);
+                    }
+                    parseAck(sn);
+                    shrinkBuf();
+                    if (!hasAck) {
+                        hasAck = true;
+                        maxAck = sn;
+                        latestTs = ts;
+                    } else if (sn - maxAck > 0) {
+                        maxAck = sn;
+                        latestTs = ts;
+                    }
+                }
+                case CMD_PUSH -> {
+                    if (sn - (rcvNxt + rcvWnd) < 0) {
+                        pushAck(sn, ts);
+                        if (sn - rcvNxt >= 0) {
+                            Segment segment = new Segment(len);
+                            data.get(segment.data);
+                            segment.sn = sn;
+                            segment.frg = frg;
+                            parseData(segment);
+                            continue;
+                        }
+                    }
+                }
+                case CMD_WASK -> probe |= ASK_TELL;
+                default -> {
+                    // CMD_WINS 只需要更新远端窗口
+                }
+            }
+            data.position(data.position() + len);
+        }
+        if (hasAck) {
+            parseFastAck(maxAck);
+        }
+        // 收到新的确认，扩大拥塞窗口
+        if (sndUna - prevUna > 0 && cwnd < rmtWnd) {
+            if (cwnd < ssthresh) {
+                cwnd++;
+                incr += mss;
+            } else {
+                if (incr < mss) incr = mss;
+                incr += (mss * mss) / incr + (mss / 16);
+                if ((cwnd + 1) * mss <= incr) {
+                    cwnd = (incr + mss - 1) / mss;
+                }
+            }
+            if (cwnd > rmtWnd) {
+                cwnd = rmtWnd;
+                incr = rmtWnd * mss;
+            }
+        }
+        return 0;
+    }
+
+    private void updateAck(int rtt) {
+        if (rxSrtt == 0) {
+            rxSrtt = rtt;
+            rxRttVal = rtt / 2;
+        } else {
+            int delta = Math.abs(rtt - rxSrtt);
+            rxRttVal = (3 * rxRttVal + delta) / 4;
+            rxSrtt = Math.max(1, (7 * rxSrtt + rtt) / 8);
+        }
+        int rto = rxSrtt + Math.max(interval, 4 * rxRttVal);
+        rxRto = Math.max(minRto, Math.min(rto, RTO_MAX));
+    }
+
+    private void shrinkBuf() {
+        sndUna = sndBuf.isEmpty() ? sndNxt : sndBuf.get(0).sn;
+    }
+
+    private void parseAck(int sn) {
+        if (sn - sndUna < 0 || sn - sndNxt >= 0) {
+            return;
+        }
+        for (int i = 0; i < sndBuf.size(); i++) {
+            Segment segment = sndBuf.get(i);
+            if (sn == segment.sn) {
+                sndBuf.remove(i);
+                break;
+            }
+            if (sn - segment.sn < 0) {
+                break;
+            }
+        }
+    }
+
+    private void parseUna(int una) {
+        int count = 0;
+        while (count < sndBuf.size() && sndBuf.get(count).sn - una < 0) {
+            count++;
+        }
+        if (count > 0) {
+            sndBuf.subList(0, count).clear();
+        }
+    }
+
+    private void parseFastAck(int sn) {
+        if (sn - sndUna < 0 || sn - sndNxt >= 0) {
+            return;
+        }
+        for (Segment segment : sndBuf) {
+            if (sn - segment.sn < 0) {
+                break;
+            }
+            if (sn != segment.sn) {
+                segment.fastAck++;
+            }
+        }
+    }
+
+    private void pushAck(int sn, int ts) {
+        int newSize = (ackCount + 1) * 2;
+        if (newSize > ackList.length) {
+            ackList = Arrays.copyOf(ackList, ackList.length * 2);
+        }
+        ackList[ackCount * 2] = sn;
+        ackList[ackCount * 2 + 1] = ts;
+        ackCount++;
+    }
+
+    private void parseData(Segment newSegment) {
+        int sn = newSegment.sn;
+        if (sn - (rcvNxt + rcvWnd) >= 0 || sn - rcvNxt < 0) {
+            return;
+        }
+        // 从后向前查找插入位置，通常是追加
+        int index = rcvBuf.size() - 1;
+        for (; index >= 0; index--) {
+            Segment segment = rcvBuf.get(index);
+            if (segment.sn == sn) {
+                return; // 重复
+            }
+            if (sn - segment.sn > 0) {
+                break;
+            }
+        }
+        rcvBuf.add(index + 1, newSegment);
+        moveRcvBufToQueue();
+    }
+
+    private void moveRcvBufToQueue() {
+        int count = 0;
+        while (count < rcvBuf.size()) {
+            Segment segment = rcvBuf.get(count);
+            if (segment.sn != rcvNxt || rcvQueue.size() >= rcvWnd) {
+                break;
+            }
+            rcvQueue.add(segment);
+            rcvNxt++;
+            count++;
+        }
+        if (count > 0) {
+            rcvBuf.subList(0, count).clear();
+        }
+    }
+
+    // endregion
+
+    // region 输出
+
+    /**
+     * 更新状态
+     * 应当以{@link KcpConfig#getInterval()}为间隔调用，或在{@link #check(long)}返回的时间调用。
+     *
+     * @param currentMs 当前时间(毫秒)
+     */
+    public void update(long currentMs) {
+        current = (int) currentMs;
+        if (!updated) {
+            updated = true;
+            tsFlush = current;
+        }
+        int slap = current - tsFlush;
+        if (slap >= 10000 || slap < -10000) {
+            tsFlush = current;
+            slap = 0;
+        }
+        if (slap >= 0) {
+            tsFlush += interval;
+            if (current - tsFlush >= 0) {
+                tsFlush = current + interval;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * 查询下次需要调用{@link #update(long)}的时间
+     *
+     * @param currentMs 当前时间(毫秒)
+     * @return 下次更新的时间(毫秒)
+     */
+    public long check(long currentMs) {
+        int current = (int) currentMs;
+        if (!updated) {
+            return currentMs;
+        }
+        int tsFlush = this.tsFlush;
+        if (current - tsFlush >= 10000 || current - tsFlush < -10000) {
+            tsFlush = current;
+        }
+        if (current - tsFlush >= 0) {
+            return currentMs;
+        }
+        int minimal = tsFlush - current;
+        for (Segment segment : sndBuf) {
+            int diff = segment.resendTs - current;
+            if (diff <= 0) {
+                return currentMs;
+            }
+            minimal = Math.min(minimal, diff);
+        }
+        return currentMs + Math.min(minimal, interval);
+    }
+
+    /** 立即输出待发送的数据 */
+    public void flush() {
+        if (!updated) {
+            return;
+        }
+        final int current = this.current;
+        final int wnd = wndUnused();
+        final ByteBuffer buffer = this.flushBuffer;
+        buffer.clear();
+
+        // ack
+        for (int i = 0; i < ackCount; i++) {
+            ensureSpace(buffer, OVERHEAD);
+            encodeHeader(buffer, CMD_ACK, 0, wnd, ackList[i * 2 + 1], ackList[i * 2], rcvNxt, 0);
+        }
+        ackCount = 0;
+
+        // 远端窗口为0时，需要探测窗口
+        if (rmtWnd == 0) {
+            if (probeWait == 0) {
+                probeWait = PROBE_INIT;
+                tsProbe = current + probeWait;
+            } else if (current - tsProbe >= 0) {
+                probeWait = Math.min(PROBE_LIMIT, Math.max(PROBE_INIT, probeWait + probeWait / 2));
+                tsProbe = current + probeWait;
+                probe |= ASK_SEND;
+            }
+        } else {
+            tsProbe = 0;
+            probeWait = 0;
+        }
+        if ((probe & ASK_SEND) != 0) {
+            ensureSpace(buffer, OVERHEAD);
+            encodeHeader(buffer, CMD_WASK, 0, wnd, 0, 0, rcvNxt, 0);
+        }
+        if ((probe & ASK_TELL) != 0) {
+            ensureSpace(buffer, OVERHEAD);
+            encodeHeader(buffer, CMD_WINS, 0, wnd, 0, 0, rcvNxt, 0);
+        }
+        probe = 0;
+
+        // 将发送队列中的分片移入发送缓冲区
+        int cwnd = Math.min(sndWnd, rmtWnd);
+        if (!noCwnd) {
+            cwnd = Math.min(this.cwnd, cwnd);
+        }
+        while (sndNxt - (sndUna + cwnd) < 0 && !sndQueue.isEmpty()) {
+            Segment segment = sndQueue.poll();
+            segment.sn = sndNxt++;
+            segment.resendTs = current;
+            segment.rto = rxRto;
+            segment.fastAck = 0;
+            segment.xmit = 0;
+            sndBuf.add(segment);
+        }
+
+        final int resent = fastResend > 0 ? fastResend : Integer.MAX_VALUE;
+        final int rtoMin = nodelay ? 0 : (rxRto >> 3);
+        boolean change = false;
+        boolean lost = false;
+        for (Segment segment : sndBuf) {
+            boolean needSend = false;
+            if (segment.xmit == 0) {
+                needSend = true;
+                segment.xmit++;
+                segment.rto = rxRto;
+                segment.resendTs = current + segment.rto + rtoMin;
+            } else if (current - segment.resendTs >= 0) {
+                // 超时重传
+                needSend = true;
+                segment.xmit++;
+                xmitCount++;
+                segment.rto += nodelay ? segment.rto / 2 : Math.max(segment.rto, rxRto);
+                segment.resendTs = current + segment.rto;
+                lost = true;
+            } else if (segment.fastAck >= resent && segment.xmit <= FAST_RESEND_LIMIT) {
+                // 快速重传
+                needSend = true;
+                segment.xmit++;
+                xmitCount++;
+                segment.fastAck = 0;
+                segment.resendTs = current + segment.rto;
+                change = true;
+            }
+            if (needSend) {
+                ensureSpace(buffer, OVERHEAD + segment.data.length);
+                encodeHeader(buffer, CMD_PUSH, segment.frg, wnd, current, segment.sn, rcvNxt, segment.data.length);
+                buffer.put(segment.data);
+                if (segment.xmit >= deadLink) {
+                    dead = true;
+                }
+            }
+        }
+        if (buffer.position() > 0) {
+            flushBuffer(buffer);
+        }
+
+        // 调整拥塞窗口
+        if (change) {
+            int inflight = sndNxt - sndUna;
+            ssthresh = Math.max(THRESH_MIN, inflight / 2);
+            this.cwnd = ssthresh + resent;
+            incr = this.cwnd * mss;
+        }
+        if (lost) {
+            ssthresh = Math.max(THRESH_MIN, cwnd / 2);
+            this.cwnd = 1;
+            incr = mss;
+        }
+        if (this.cwnd < 1) {
+            this.cwnd = 1;
+            incr = mss;
+        }
+    }
+
+    private int wndUnused() {
+        return Math.max(0, rcvWnd - rcvQueue.size());
+    }
+
+    private void ensureSpace(ByteBuffer buffer, int need) {
+        if (buffer.position() + need > mtu) {
+            flushBuffer(buffer);
+        }
+    }
+
+    private void flushBuffer(ByteBuffer buffer) {
+        buffer.flip();
+        output.output(buffer, this);
+        buffer.clear();
+    }
+
+    private void encodeHeader(ByteBuffer buffer, int cmd, int frg, int wnd, int ts, int sn, int una, int len) {
+        buffer.putInt(conv);
+        buffer.put((byte) cmd);
+        buffer.put((byte) frg);
+        buffer.putShort((short) wnd);
+        buffer.putInt(ts);
+        buffer.putInt(sn);
+        buffer.putInt(una);
+        buffer.putInt(len);
+    }
+
+    // endregion
+
+    /** 读取数据包中的conv -- 用于查找会话 */
+    public static int readConv(ByteBuffer data) {
+        return data.getInt(data.position());
+    }
+
+    private static class Segment {
+
+        final byte[] data;
+        int frg;
+        int sn;
+        int resendTs;
+        int rto;
+        int fastAck;
+        int xmit;
+
+        Segment(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
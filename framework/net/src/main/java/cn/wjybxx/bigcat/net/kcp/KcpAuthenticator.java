@@ -0,0 +1,43 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.kcp;
+
+import java.net.SocketAddress;
+
+/**
+ * Kcp握手验证器
+ * 该接口在IO线程调用，实现应当是轻量的，比如验证登录服签发的token。
+ * 路由未设置验证器时拒绝所有握手，接受所有握手需要显式指定{@link #ACCEPT_ALL}。
+ *
+ * @author wjybxx
+ * date - 2024/1/18
+ */
+@FunctionalInterface
+public interface KcpAuthenticator {
+
+    /** 接受所有握手 -- 仅用于测试 */
+    KcpAuthenticator ACCEPT_ALL = (playerGuid, token, remoteAddr) -> true;
+
+    /**
+     * @param playerGuid 玩家guid
+     * @param token      客户端提交的令牌
+     * @param remoteAddr 客户端地址
+     * @return 如果允许建立会话，则返回true
+     */
+    boolean authenticate(long playerGuid, byte[] token, SocketAddress remoteAddr);
+
+}
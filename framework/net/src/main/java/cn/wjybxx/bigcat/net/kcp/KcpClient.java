@@ -0,0 +1,356 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.kcp;
+
+import cn.wjybxx.bigcat.fx.PlayerAddr;
+import cn.wjybxx.bigcat.pb.PBMethodInfoRegistry;
+import cn.wjybxx.bigcat.rpc.RpcProtocol;
+import cn.wjybxx.bigcat.rpc.RpcRequest;
+import cn.wjybxx.bigcat.rpc.RpcResponse;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.Objects;
+
+/**
+ * Kcp客户端
+ * <p>
+ * 1. 由调用方驱动，不创建线程；需要周期性调用{@link #update(long)}。
+ * 2. 协议参数和结果可以是protobuf字节或消息，请求和响应都直接编码到复用的发送缓冲区。
+ * 3. 收到的协议默认不反序列化；设置{@link PBMethodInfoRegistry}后，直接从接收缓冲区解析消息。
+ * 打包的消息({@link KcpRpcCodec#MSG_BUNDLE})透明解包，按原顺序放入接收队列。
+ * 4. 收到服务器的迁移挑战时，使用握手时下发的密钥签名应答，以完成会话迁移。
+ * 5. 主要用于测试和压测工具，真实的客户端通常使用其它语言实现。
+ *
+ * @author wjybxx
+ * date - 2024/1/18
+ */
+@NotThreadSafe
+public class KcpClient implements Closeable {
+
+    /** 握手包的重发间隔 */
+    private static final long HANDSHAKE_INTERVAL = 200;
+    /** 空闲时的心跳间隔 */
+    private static final long PING_INTERVAL = 5000;
+
+    private final KcpConfig config;
+    private final SocketAddress serverAddr;
+    private final long playerGuid;
+    private final PlayerAddr playerAddr;
+    private final byte[] token;
+    private DatagramChannel channel;
+    private final ByteBuffer rcvBuffer = ByteBuffer.allocateDirect(65536);
+    private final ByteBuffer ctlBuffer = ByteBuffer.allocate(512);
+    private final ArrayDeque<RpcProtocol> rcvQueue = new ArrayDeque<>();
+    /** 复用的消息缓冲区 */
+    private ByteBuffer sndMsgBuffer = ByteBuffer.allocate(1024);
+    private ByteBuffer rcvMsgBuffer = ByteBuffer.allocate(4096);
+    private PBMethodInfoRegistry methodInfoRegistry;
+
+    private Kcp kcp;
+    /** 会话迁移密钥 */
+    private byte[] migrationKey;
+    private State state = State.INIT;
+    private long nextHandshakeMs;
+    private long lastSndMs;
+    private long lastRcvMs;
+    private long nextUpdateMs;
+
+    public KcpClient(KcpConfig config, SocketAddress serverAddr, long playerGuid, byte[] token) throws IOException {
+        this.config = Objects.requireNonNull(config);
+        this.serverAddr = Objects.requireNonNull(serverAddr);
+        this.playerGuid = playerGuid;
+        this.playerAddr = new PlayerAddr(playerGuid);
+        this.token = Objects.requireNonNull(token);
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(0));
+        this.channel.configureBlocking(false);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isConnected() {
+        return state == State.CONNECTED;
+    }
+
+    public long getPlayerGuid() {
+        return playerGuid;
+    }
+
+    /** 当前会话的conv，未连接时返回0 */
+    public int getConv() {
+        return kcp == null ? 0 : kcp.getConv();
+    }
+
+    public PBMethodInfoRegistry getMethodInfoRegistry() {
+        return methodInfoRegistry;
+    }
+
+    /** 设置后，收到的协议将直接从接收缓冲区解析 */
+    public KcpClient setMethodInfoRegistry(PBMethodInfoRegistry methodInfoRegistry) {
+        this.methodInfoRegistry = methodInfoRegistry;
+        return this;
+    }
+
+    /**
+     * 更换本地端口 -- 模拟NAT重绑定或网络切换，会话将通过迁移验证继续使用
+     */
+    public void rebind() throws IOException {
+        if (state == State.CLOSED) {
+            throw new IllegalStateException("client is closed");
+        }
+        DatagramChannel newChannel = DatagramChannel.open();
+        newChannel.bind(new InetSocketAddress(0));
+        newChannel.configureBlocking(false);
+        channel.close();
+        channel = newChannel;
+    }
+
+    /** 发送握手包，握手结果在update中处理 */
+    public void connect() {
+        if (state == State.CLOSED) {
+            throw new IllegalStateException("client is closed");
+        }
+        state = State.CONNECTING;
+        nextHandshakeMs = 0;
+        kcp = null;
+    }
+
+    /**
+     * 发送一个协议
+     *
+     * @return 如果未连接或消息过大，则返回false
+     */
+    public boolean send(RpcProtocol protocol) {
+        if (state != State.CONNECTED) {
+            return false;
+        }
+        // kcp会拷贝数据，因此可复用缓冲区
+        int size = protocol instanceof RpcRequest request
+                ? KcpRpcCodec.requestSize(request)
+                : KcpRpcCodec.responseSize((RpcResponse) protocol);
+        if (sndMsgBuffer.capacity() < size) {
+            sndMsgBuffer = ByteBuffer.allocate(Math.max(size, sndMsgBuffer.capacity() * 2));
+        }
+        sndMsgBuffer.clear();
+        if (protocol instanceof RpcRequest request) {
+            KcpRpcCodec.writeRequest(sndMsgBuffer, request);
+        } else {
+            KcpRpcCodec.writeResponse(sndMsgBuffer, (RpcResponse) protocol);
+        }
+        if (!kcp.send(sndMsgBuffer.array(), 0, sndMsgBuffer.position())) {
+            return false;
+        }
+        nextUpdateMs = 0;
+        return true;
+    }
+
+    /** @return 如果没有收到协议，则返回null */
+    public RpcProtocol poll() {
+        return rcvQueue.poll();
+    }
+
+    /** 等待发送和等待确认的分片数 */
+    public int waitSnd() {
+        return kcp == null ? 0 : kcp.waitSnd();
+    }
+
+    /** 重传次数 */
+    public long getXmitCount() {
+        return kcp == null ? 0 : kcp.getXmitCount();
+    }
+
+    public void update(long nowMs) throws IOException {
+        if (state == State.INIT || state == State.CLOSED) {
+            return;
+        }
+        receivePackets(nowMs);
+        if (state == State.CONNECTING) {
+            if (nowMs >= nextHandshakeMs) {
+                nextHandshakeMs = nowMs + HANDSHAKE_INTERVAL;
+                ctlBuffer.clear();
+                KcpRpcCodec.writeHandshake(ctlBuffer, playerGuid, token);
+                ctlBuffer.flip();
+                channel.send(ctlBuffer, serverAddr);
+            }
+            return;
+        }
+        if (state != State.CONNECTED) {
+            return;
+        }
+        if (kcp.isDead() || nowMs - lastRcvMs > config.getSessionTimeoutMs()) {
+            state = State.DISCONNECTED;
+            return;
+        }
+        if (nowMs - lastSndMs >= PING_INTERVAL && kcp.waitSnd() == 0) {
+            kcp.send(KcpRpcCodec.encodePing());
+            nextUpdateMs = 0;
+        }
+        if (nowMs >= nextUpdateMs) {
+            kcp.update(nowMs);
+            nextUpdateMs = kcp.check(nowMs);
+        }
+    }
+
+    private void receivePackets(long nowMs) throws IOException {
+        while (true) {
+            rcvBuffer.clear();
+            SocketAddress remoteAddr = channel.receive(rcvBuffer);
+            if (remoteAddr == null) {
+                return;
+            }
+            rcvBuffer.flip();
+            if (KcpRpcCodec.isControlPacket(rcvBuffer)) {
+                onRcvControl(nowMs);
+                continue;
+            }
+            if (kcp == null || kcp.input(rcvBuffer) < 0) {
+                continue;
+            }
+            lastRcvMs = nowMs;
+            nextUpdateMs = nowMs;
+            int size;
+            while ((size = kcp.peekSize()) >= 0) {
+                if (rcvMsgBuffer.capacity() < size) {
+                    rcvMsgBuffer = ByteBuffer.allocate(Math.max(size, rcvMsgBuffer.capacity() * 2));
+                }
+                rcvMsgBuffer.clear();
+                kcp.recv(rcvMsgBuffer);
+                rcvMsgBuffer.flip();
+                if (KcpRpcCodec.isBundle(rcvMsgBuffer)) {
+                    ByteBuffer[] messages = KcpRpcCodec.sliceBundle(rcvMsgBuffer);
+                    if (messages != null) {
+                        for (ByteBuffer message : messages) {
+                            addRcvProtocol(decode(message));
+                        }
+                    }
+                } else {
+                    addRcvProtocol(decode(rcvMsgBuffer));
+                }
+            }
+        }
+    }
+
+    private void addRcvProtocol(RpcProtocol protocol) {
+        if (protocol != null) {
+            rcvQueue.add(protocol);
+        }
+    }
+
+    private RpcProtocol decode(ByteBuffer data) {
+        if (methodInfoRegistry == null) {
+            return KcpRpcCodec.decode(data, null, playerAddr);
+        }
+        RpcProtocol protocol = KcpRpcCodec.decodeHeader(data, null, playerAddr);
+        boolean success;
+        if (protocol instanceof RpcRequest request) {
+            success = methodInfoRegistry.decodeParameters(request, data);
+        } else if (protocol instanceof RpcResponse response) {
+            success = methodInfoRegistry.decodeResult(response, data);
+        } else {
+            return null;
+        }
+        if (!success) {
+            return null;
+        }
+        protocol.setDeserialized();
+        return protocol;
+    }
+
+    private void onRcvControl(long nowMs) {
+        rcvBuffer.getInt();
+        int type = rcvBuffer.get();
+        switch (type) {
+            case KcpRpcCodec.CTL_HANDSHAKE_ACK -> {
+                if (state != State.CONNECTING
+                        || rcvBuffer.remaining() < 12 + KcpRpcCodec.MIGRATION_KEY_LENGTH
+                        || rcvBuffer.getLong() != playerGuid) {
+                    return;
+                }
+                int conv = rcvBuffer.getInt();
+                migrationKey = new byte[KcpRpcCodec.MIGRATION_KEY_LENGTH];
+                rcvBuffer.get(migrationKey);
+                kcp = new Kcp(conv, config, this::output);
+                lastRcvMs = nowMs;
+                state = State.CONNECTED;
+                // 立即发送一个心跳，以确认会话建立
+                kcp.send(KcpRpcCodec.encodePing());
+                nextUpdateMs = 0;
+            }
+            case KcpRpcCodec.CTL_HANDSHAKE_REJECT -> {
+                if (state == State.CONNECTING) {
+                    state = State.REJECTED;
+                }
+            }
+            case KcpRpcCodec.CTL_MIGRATE_CHALLENGE -> {
+                if (state != State.CONNECTED || rcvBuffer.remaining() < 12 || rcvBuffer.getInt() != kcp.getConv()) {
+                    return;
+                }
+                long nonce = rcvBuffer.getLong();
+                ctlBuffer.clear();
+                KcpRpcCodec.writeMigrate(ctlBuffer, kcp.getConv(), nonce, migrationKey);
+                ctlBuffer.flip();
+                try {
+                    channel.send(ctlBuffer, serverAddr);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            case KcpRpcCodec.CTL_RESET -> {
+                if (kcp != null && rcvBuffer.remaining() >= 4 && rcvBuffer.getInt() == kcp.getConv()) {
+                    state = State.DISCONNECTED;
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void output(ByteBuffer data, Kcp kcp) {
+        try {
+            channel.send(data, serverAddr);
+            lastSndMs = System.currentTimeMillis();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        state = State.CLOSED;
+        channel.close();
+    }
+
+    public enum State {
+        INIT,
+        CONNECTING,
+        CONNECTED,
+        /** 握手被拒绝 */
+        REJECTED,
+        /** 会话超时或被服务器重置 */
+        DISCONNECTED,
+        CLOSED,
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.kcp;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Kcp配置
+ * 默认配置偏向低延迟，适用于移动网络下的客户端通信。
+ *
+ * @author wjybxx
+ * date - 2024/1/18
+ */
+@Immutable
+public class KcpConfig {
+
+    public static final KcpConfig DEFAULT = KcpConfig.newBuilder().build();
+
+    private final int mtu;
+    private final int sndWnd;
+    private final int rcvWnd;
+    private final int interval;
+    private final boolean nodelay;
+    private final int fastResend;
+    private final boolean noCwnd;
+    private final int deadLink;
+    private final long sessionTimeoutMs;
+
+    private KcpConfig(Builder builder) {
+        this.mtu = builder.mtu;
+        this.sndWnd = builder.sndWnd;
+        this.rcvWnd = builder.rcvWnd;
+        this.interval = builder.interval;
+        this.nodelay = builder.nodelay;
+        this.fastResend = builder.fastResend;
+        this.noCwnd = builder.noCwnd;
+        this.deadLink = builder.deadLink;
+        this.sessionTimeoutMs = builder.sessionTimeoutMs;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public int getSndWnd() {
+        return sndWnd;
+    }
+
+    public int getRcvWnd() {
+        return rcvWnd;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public boolean isNodelay() {
+        return nodelay;
+    }
+
+    public int getFastResend() {
+        return fastResend;
+    }
+
+    public boolean isNoCwnd() {
+        return noCwnd;
+    }
+
+    public int getDeadLink() {
+        return deadLink;
+    }
+
+    public long getSessionTimeoutMs() {
+        return sessionTimeoutMs;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        /** 数据包的最大长度 -- 移动网络下不宜超过1200 */
+        private int mtu = 1200;
+        /** 发送窗口(分片数) */
+        private int sndWnd = 128;
+        /** 接收窗口(分片数) */
+        private int rcvWnd = 128;
+        /** 内部更新间隔(毫秒) */
+        private int interval = 10;
+        /** 是否启用nodelay模式 -- 更小的最小rto，重传时rto增长更慢 */
+        private boolean nodelay = true;
+        /** 被跳过多少次后快速重传，0表示不启用 */
+        private int fastResend = 2;
+        /** 是否关闭拥塞控制 */
+        private boolean noCwnd = false;
+        /** 分片重传多少次后认为连接已断开 */
+        private int deadLink = 20;
+        /** 会话多久未收到数据后关闭(毫秒) */
+        private long sessionTimeoutMs = 30 * 1000;
+
+        public int getMtu() {
+            return mtu;
+        }
+
+        public Builder setMtu(int mtu) {
+            if (mtu < 50 || mtu > 65000) {
+                throw new IllegalArgumentException("mtu: " + mtu);
+            }
+            this.mtu = mtu;
+            return this;
+        }
+
+        public int getSndWnd() {
+            return sndWnd;
+        }
+
+        public Builder setSndWnd(int sndWnd) {
+            this.sndWnd = checkWnd(sndWnd);
+            return this;
+        }
+
+        public int getRcvWnd() {
+            return rcvWnd;
+        }
+
+        public Builder setRcvWnd(int rcvWnd) {
+            this.rcvWnd = checkWnd(rcvWnd);
+            return this;
+        }
+
+        public int getInterval() {
+            return interval;
+        }
+
+        public Builder setInterval(int interval) {
+            this.interval = Math.max(1, Math.min(5000, interval));
+            return this;
+        }
+
+        public boolean isNodelay() {
+            return nodelay;
+        }
+
+        public Builder setNodelay(boolean nodelay) {
+            this.nodelay = nodelay;
+            return this;
+        }
+
+        public int getFastResend() {
+            return fastResend;
+        }
+
+        public Builder setFastResend(int fastResend) {
+            this.fastResend = Math.max(0, fastResend);
+            return this;
+        }
+
+        public boolean isNoCwnd() {
+            return noCwnd;
+        }
+
+        public Builder setNoCwnd(boolean noCwnd) {
+            this.noCwnd = noCwnd;
+            return this;
+        }
+
+        public int getDeadLink() {
+            return deadLink;
+        }
+
+        public Builder setDeadLink(int deadLink) {
+            this.deadLink = Math.max(1, deadLink);
+            return this;
+        }
+
+        public long getSessionTimeoutMs() {
+            return sessionTimeoutMs;
+        }
+
+        public Builder setSessionTimeoutMs(long sessionTimeoutMs) {
+            this.sessionTimeoutMs = Math.max(1000, sessionTimeoutMs);
+            return this;
+        }
+
+        private static int checkWnd(int wnd) {
+            if (wnd <= 0 || wnd > 65535) {
+                throw new IllegalArgumentException("wnd: " + wnd);
+            }
+            return wnd;
+        }
+
+        public KcpConfig build() {
+            return new KcpConfig(this);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.kcp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Kcp的输出回调
+ *
+ * @author wjybxx
+ * date - 2024/1/18
+ */
+@FunctionalInterface
+public interface KcpOutput {
+
+    /**
+     * 输出一个数据包
+     * 注意：data在回调返回后将被重用，实现必须同步消费(发送或拷贝)。
+     *
+     * @param data 待发送的数据，position到limit之间为有效数据
+     * @param kcp  产生数据的kcp
+     */
+    void output(ByteBuffer data, Kcp kcp);
+
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.kcp;
+
+import cn.wjybxx.bigcat.pb.ProtobufUtils;
+import cn.wjybxx.bigcat.rpc.RpcAddr;
+import cn.wjybxx.bigcat.rpc.RpcProtocol;
+import cn.wjybxx.bigcat.rpc.RpcRequest;
+import cn.wjybxx.bigcat.rpc.RpcResponse;
+
+import com.google.protobuf.MessageLite;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Kcp通道上的Rpc协议编解码
+ * <p>
+ * 1. 控制包不经过kcp，首4字节固定为0(conv为0)，紧跟1字节的控制类型。
+ * 2. 业务消息经过kcp传输，首字节为消息类型；参数和结果为protobuf字节，未序列化的消息直接编码到缓冲区。
+ * 3. 客户端地址变化时，服务器发送迁移挑战，客户端使用握手时下发的迁移密钥签名挑战，服务器验证通过后才迁移会话。
+ * <pre>
+ * 握手:     conv(0) type guid(8) tokenLen(2) token
+ * 握手确认: conv(0) type guid(8) conv(4) migrationKey(32)
+ * 握手拒绝: conv(0) type guid(8)
+ * 重置:     conv(0) type conv(4)
+ * 迁移挑战: conv(0) type conv(4) nonce(8)
+ * 迁移:     conv(0) type conv(4) nonce(8) mac(16)
+ * 请求:     type conId(8) requestId(8) invokeType(1) serviceId(4) methodId(4) parameters
+ * 响应:     type conId(8) requestId(8) serviceId(4) methodId(4) errorCode(4) results
+ * 心跳:     type
+ * 打包:     type count(2) [length(4) 请求]...
+ * </pre>
+ *
+ * @author wjybxx
+ * date - 2024/1/18
+ */
+public final class KcpRpcCodec {
+
+    // 控制包类型
+    public static final int CTL_HANDSHAKE = 1;
+    public static final int CTL_HANDSHAKE_ACK = 2;
+    public static final int CTL_HANDSHAKE_REJECT = 3;
+    public static final int CTL_RESET = 4;
+    public static final int CTL_MIGRATE_CHALLENGE = 5;
+    public static final int CTL_MIGRATE = 6;
+
+    /** 迁移密钥的长度 */
+    public static final int MIGRATION_KEY_LENGTH = 32;
+    /** 迁移签名的长度 -- 截断的HmacSHA256 */
+    public static final int MIGRATION_MAC_LENGTH = 16;
+
+    // 消息类型
+    public static final int MSG_REQUEST = 1;
+    public static final int MSG_RESPONSE = 2;
+    public static final int MSG_PING = 3;
+    public static final int MSG_BUNDLE = 4;
+
+    private static final int REQUEST_HEADER = 1 + 8 + 8 + 1 + 4 + 4;
+    private static final int RESPONSE_HEADER = 1 + 8 + 8 + 4 + 4 + 4;
+
+    private static final int BUNDLE_HEADER = 1 + 2;
+    /** 单个包内的最大消息数 */
+    public static final int MAX_BUNDLE_COUNT = 0xFFFF;
+
+    private static final byte[] PING = {MSG_PING};
+
+    private KcpRpcCodec() {
+    }
+
+    // region 控制包
+
+    /** 测试是否是控制包 */
+    public static boolean isControlPacket(ByteBuffer packet) {
+        return packet.remaining() >= 5 && packet.getInt(packet.position()) == 0;
+    }
+
+    public static void writeHandshake(ByteBuffer out, long playerGuid, byte[] token) {
+        out.putInt(0).put((byte) CTL_HANDSHAKE).putLong(playerGuid);
+        out.putShort((short) token.length).put(token);
+    }
+
+    public static void writeHandshakeAck(ByteBuffer out, long playerGuid, int conv, byte[] migrationKey) {
+        out.putInt(0).put((byte) CTL_HANDSHAKE_ACK).putLong(playerGuid).putInt(conv).put(migrationKey);
+    }
+
+    public static void writeHandshakeReject(ByteBuffer out, long playerGuid) {
+        out.putInt(0).put((byte) CTL_HANDSHAKE_REJECT).putLong(playerGuid);
+    }
+
+    public static void writeReset(ByteBuffer out, int conv) {
+        out.putInt(0).put((byte) CTL_RESET).putInt(conv);
+    }
+
+    public static void writeMigrateChallenge(ByteBuffer out, int conv, long nonce) {
+        out.putInt(0).put((byte) CTL_MIGRATE_CHALLENGE).putInt(conv).putLong(nonce);
+    }
+
+    public static void writeMigrate(ByteBuffer out, int conv, long nonce, byte[] migrationKey) {
+        out.putInt(0).put((byte) CTL_MIGRATE).putInt(conv).putLong(nonce).put(migrationMac(migrationKey, conv, nonce));
+    }
+
+    /** 计算迁移签名 -- 会话迁移很少发生，因此不缓存{@link Mac} */
+    public static byte[] migrationMac(byte[] migrationKey, int conv, long nonce) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(migrationKey, "HmacSHA256"));
+            byte[] result = mac.doFinal(ByteBuffer.allocate(12).putInt(conv).putLong(nonce).array());
+            return Arrays.copyOf(result, MIGRATION_MAC_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // endregion
+
+    // region 业务消息
+
+    public static byte[] encodePing() {
+        return PING;
+    }
+
+    /** 请求编码后的长度 -- 参数未序列化时按protobuf消息计算 */
+    public static int requestSize(RpcRequest request) {
+        if (request.getParameters() instanceof byte[] parameters) {
+            return REQUEST_HEADER + parameters.length;
+        }
+        MessageLite message = (MessageLite) request.getArgument();
+        return REQUEST_HEADER + (message == null ? 0 : message.getSerializedSize());
+    }
+
+    /**
+     * 编码请求到缓冲区
+     * 参数未序列化时，protobuf消息直接写入缓冲区，不产生中间的字节数组。
+     *
+     * @param out 剩余空间不可小于{@link #requestSize(RpcRequest)}
+     */
+    public static void writeRequest(ByteBuffer out, RpcRequest request) {
+        out.put((byte) MSG_REQUEST)
+                .putLong(request.getConId())
+                .putLong(request.getRequestId())
+                .put((byte) request.getInvokeType())
+                .putInt(request.getServiceId())
+                .putInt(request.getMethodId());
+        if (request.getParameters() instanceof byte[] parameters) {
+            out.put(parameters);
+        } else {
+            MessageLite message = (MessageLite) request.getArgument();
+            if (message != null) {
+                ProtobufUtils.writeTo(message, out);
+            }
+        }
+    }
+
+    public static byte[] encodeRequest(RpcRequest request) {
+        ByteBuffer buffer = ByteBuffer.allocate(requestSize(request));
+        writeRequest(buffer, request);
+        return buffer.array();
+    }
+
+    /** 单条请求打包后占用的长度 */
+    public static int bundleEntrySize(RpcRequest request) {
+        return 4 + requestSize(request);
+    }
+
+    /**
+     * 将多条请求打包为一条消息
+     * 每条请求仍按{@link #writeRequest(ByteBuffer, RpcRequest)}编码，客户端解包后逐条处理。
+     *
+     * @param requests 请求数不可超过{@link #MAX_BUNDLE_COUNT}
+     */
+    public static byte[] encodeBundle(List<? extends RpcRequest> requests) {
+        ByteBuffer buffer = ByteBuffer.allocate(bundleSize(requests));
+        writeBundle(buffer, requests);
+        return buffer.array();
+    }
+
+    /** 打包后的长度 */
+    public static int bundleSize(List<? extends RpcRequest> requests) {
+        int size = BUNDLE_HEADER;
+        for (RpcRequest request : requests) {
+            size += bundleEntrySize(request);
+        }
+        return size;
+    }
+
+    /**
+     * 将多条请求打包写入缓冲区
+     *
+     * @param out 剩余空间不可小于{@link #bundleSize(List)}
+     */
+    public static void writeBundle(ByteBuffer out, List<? extends RpcRequest> requests) {
+        if (requests.size() > MAX_BUNDLE_COUNT) {
+            throw new IllegalArgumentException("too many requests: " + requests.size());
+        }
+        out.put((byte) MSG_BUNDLE).putShort((short) requests.size());
+        for (RpcRequest request : requests) {
+            int lengthIndex = out.position();
+            out.putInt(0);
+            writeRequest(out, request);
+            out.putInt(lengthIndex, out.position() - lengthIndex - 4);
+        }
+    }
+
+    /** 测试是否是打包的消息 */
+    public static boolean isBundle(ByteBuffer data) {
+        return data.hasRemaining() && data.get(data.position()) == MSG_BUNDLE;
+    }
+
+    /**
+     * 解包消息
+     * 返回的每个缓冲区都是原缓冲区的切片，为一条完整的消息，可继续调用{@link #decode(ByteBuffer, RpcAddr, RpcAddr)}解码。
+     *
+     * @param data 解包后position移动到limit
+     * @return 如果数据非法，则返回null
+     */
+    public static ByteBuffer[] sliceBundle(ByteBuffer data) {
+        if (data.remaining() < BUNDLE_HEADER || data.get() != MSG_BUNDLE) {
+            return null;
+        }
+        int count = data.getShort() & 0xFFFF;
+        ByteBuffer[] result = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            if (data.remaining() < 4) {
+                return null;
+            }
+            int length = data.getInt();
+            if (length < 0 || length > data.remaining()) {
+                return null;
+            }
+            result[i] = data.slice(data.position(), length);
+            data.position(data.position() + length);
+        }
+        data.position(data.limit());
+        return result;
+    }
+
+    /**
+     * 编码响应
+     * 结果未序列化时，protobuf消息直接写入缓冲区，不产生中间的字节数组。
+     */
+    public static byte[] encodeResponse(RpcResponse response) {
+        ByteBuffer buffer = ByteBuffer.allocate(responseSize(response));
+        writeResponse(buffer, response);
+        return buffer.array();
+    }
+
+    /** 响应编码后的长度 -- 结果未序列化时按protobuf消息计算 */
+    public static int responseSize(RpcResponse response) {
+        Object results = response.getResults();
+        if (results instanceof byte[] bytes) {
+            return RESPONSE_HEADER + bytes.length;
+        }
+        if (!response.isSuccess()) {
+            return RESPONSE_HEADER + response.getErrorMsg().getBytes(StandardCharsets.UTF_8).length;
+        }
+        MessageLite message = (MessageLite) response.getResult();
+        return RESPONSE_HEADER + (message == null ? 0 : message.getSerializedSize());
+    }
+
+    /**
+     * 编码响应到缓冲区
+     * 结果未序列化时，protobuf消息直接写入缓冲区；失败的响应写入错误信息。
+     *
+     * @param out 剩余空间不可小于{@link #responseSize(RpcResponse)}
+     */
+    public static void writeResponse(ByteBuffer out, RpcResponse response) {
+        writeResponseHeader(out, response);
+        Object results = response.getResults();
+        if (results instanceof byte[] bytes) {
+            out.put(bytes);
+        } else if (!response.isSuccess()) {
+            out.put(response.getErrorMsg().getBytes(StandardCharsets.UTF_8));
+        } else {
+            MessageLite message = (MessageLite) response.getResult();
+            if (message != null) {
+                ProtobufUtils.writeTo(message, out);
+            }
+        }
+    }
+
+    private static void writeResponseHeader(ByteBuffer out, RpcResponse response) {
+        out.put((byte) MSG_RESPONSE)
+                .putLong(response.getConId())
+                .putLong(response.getRequestId())
+                .putInt(response.getServiceId())
+                .putInt(response.getMethodId())
+                .putInt(response.getErrorCode());
+    }
+
+    /**
+     * 解码业务消息
+     * 返回的协议参数或结果为字节数组，且未标记为已反序列化。
+     *
+     * @return 如果不是请求或响应，或数据非法，则返回null
+     */
+    public static RpcProtocol decode(byte[] data, RpcAddr srcAddr, RpcAddr destAddr) {
+        return decode(ByteBuffer.wrap(data), srcAddr, destAddr);
+    }
+
+    /**
+     * 解码业务消息
+     * 返回的协议参数或结果为字节数组，且未标记为已反序列化。
+     *
+     * @param data 一条完整的消息，解码后position移动到limit
+     * @return 如果不是请求或响应，或数据非法，则返回null
+     */
+    public static RpcProtocol decode(ByteBuffer data, RpcAddr srcAddr, RpcAddr destAddr) {
+        RpcProtocol protocol = decodeHeader(data, srcAddr, destAddr);
+        if (protocol instanceof RpcRequest request) {
+            request.setParameters(remaining(data));
+        } else if (protocol instanceof RpcResponse response) {
+            response.setResults(remaining(data));
+        }
+        return protocol;
+    }
+
+    /**
+     * 只解码协议头，缓冲区的剩余部分为参数或结果
+     * 调用方可直接从缓冲区解析protobuf消息，省去中间的字节数组。
+     *
+     * @return 如果不是请求或响应，或数据非法，则返回null
+     */
+    public static RpcProtocol decodeHeader(ByteBuffer data, RpcAddr srcAddr, RpcAddr destAddr) {
+        if (!data.hasRemaining()) {
+            return null;
+        }
+        int type = data.get(data.position());
+        if (type == MSG_REQUEST) {
+            if (data.remaining() < REQUEST_HEADER) {
+                return null;
+            }
+            data.get();
+            RpcRequest request = new RpcRequest(data.getLong(), srcAddr, destAddr);
+            request.setRequestId(data.getLong())
+                    .setInvokeType(data.get())
+                    .setServiceId(data.getInt())
+                    .setMethodId(data.getInt());
+            return request;
+        }
+        if (type == MSG_RESPONSE) {
+            if (data.remaining() < RESPONSE_HEADER) {
+                return null;
+            }
+            data.get();
+            RpcResponse response = new RpcResponse(data.getLong(), srcAddr, destAddr);
+            response.setRequestId(data.getLong())
+                    .setServiceId(data.getInt())
+                    .setMethodId(data.getInt())
+                    .setErrorCode(data.getInt());
+            return response;
+        }
+        return null;
+    }
+
+    private static byte[] remaining(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+    // endregion
+}
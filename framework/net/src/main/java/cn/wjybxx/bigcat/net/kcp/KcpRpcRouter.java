@@ -0,0 +1,629 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.kcp;
+
+import cn.wjybxx.bigcat.fx.AbstractRpcRouter;
+import cn.wjybxx.bigcat.fx.PlayerAddr;
+import cn.wjybxx.bigcat.fx.Worker;
+import cn.wjybxx.bigcat.pb.PBMethodInfoRegistry;
+import cn.wjybxx.bigcat.rpc.RpcAddr;
+import cn.wjybxx.bigcat.rpc.RpcProtocol;
+import cn.wjybxx.bigcat.rpc.RpcRequest;
+import cn.wjybxx.bigcat.rpc.RpcResponse;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于Kcp的可靠UDP路由，用于服务器和客户端({@link PlayerAddr})之间的Rpc通信
+ * <p>
+ * 1. 独立的IO线程负责收发数据包和驱动kcp，Node线程发送时只入队；IO线程将协议编码到复用的缓冲区，kcp会拷贝数据。
+ * 因此协议在发送后不可再修改。
+ * 2. 会话以conv(连接id)标识，conv随机分配；客户端地址变化时，需使用握手时下发的密钥完成迁移验证，不需要重新握手。
+ * 在验证通过前，来自新地址的数据包不会输入kcp。
+ * 3. 未设置{@link KcpAuthenticator}时拒绝所有握手。
+ * 4. 收到的请求和响应交给{@link cn.wjybxx.bigcat.fx.NodeRpcSupport}，由其负责线程切换和反序列化。
+ * 5. 发往其它服务器的协议交给{@link #sendToServer(RpcProtocol)}，默认不支持。
+ *
+ * @author wjybxx
+ * date - 2024/1/18
+ */
+public class KcpRpcRouter extends AbstractRpcRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(KcpRpcRouter.class);
+    /** 迁移挑战的有效时间 */
+    private static final long MIGRATE_CHALLENGE_TIMEOUT = 3000;
+
+    private KcpConfig config = KcpConfig.DEFAULT;
+    private InetSocketAddress bindAddr = new InetSocketAddress(0);
+    private KcpAuthenticator authenticator;
+    private int socketBufferSize = 4 * 1024 * 1024;
+
+    protected PBMethodInfoRegistry methodInfoRegistry;
+    private volatile boolean mutable = true;
+    private volatile boolean running;
+    private Thread ioThread;
+    private DatagramChannel channel;
+    private Selector selector;
+
+    /** IO线程使用 */
+    private final Int2ObjectMap<KcpSession> convSessionMap = new Int2ObjectOpenHashMap<>();
+    /** Node线程查询，IO线程修改 */
+    private final ConcurrentHashMap<Long, KcpSession> guidSessionMap = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<PendingMessage> sendQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    /** conv和密钥不可预测，以免他人猜测会话 -- IO线程使用 */
+    private final SecureRandom secureRandom = new SecureRandom();
+    /** IO线程复用的消息缓冲区 -- 避免为每条消息分配字节数组 */
+    private ByteBuffer msgBuffer = ByteBuffer.allocate(4096);
+    /** IO线程复用的发送缓冲区 */
+    private ByteBuffer sndBuffer = ByteBuffer.allocate(4096);
+
+    // region 设置
+
+    public KcpConfig getConfig() {
+        return config;
+    }
+
+    public KcpRpcRouter setConfig(KcpConfig config) {
+        ensureMutable();
+        this.config = Objects.requireNonNull(config);
+        return this;
+    }
+
+    public InetSocketAddress getBindAddr() {
+        return bindAddr;
+    }
+
+    public KcpRpcRouter setBindAddr(InetSocketAddress bindAddr) {
+        ensureMutable();
+        this.bindAddr = Objects.requireNonNull(bindAddr);
+        return this;
+    }
+
+    public KcpAuthenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    /** 如果未指定验证器，则拒绝所有握手；测试时可指定{@link KcpAuthenticator#ACCEPT_ALL} */
+    public KcpRpcRouter setAuthenticator(KcpAuthenticator authenticator) {
+        ensureMutable();
+        this.authenticator = authenticator;
+        return this;
+    }
+
+    public int getSocketBufferSize() {
+        return socketBufferSize;
+    }
+
+    public KcpRpcRouter setSocketBufferSize(int socketBufferSize) {
+        ensureMutable();
+        this.socketBufferSize = socketBufferSize;
+        return this;
+    }
+
+    private void ensureMutable() {
+        if (!mutable) {
+            throw new IllegalStateException("router is started");
+        }
+    }
+    // endregion
+
+    @Override
+    public void inject(Worker worker) {
+        super.inject(worker);
+        methodInfoRegistry = worker.injector().getInstance(PBMethodInfoRegistry.class);
+    }
+
+    @Override
+    public void start() {
+        mutable = false;
+        if (authenticator == null) {
+            logger.warn("kcp authenticator is null, all handshakes will be rejected");
+        }
+        try {
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, socketBufferSize);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, socketBufferSize);
+            channel.bind(bindAddr);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            closeQuietly();
+            throw new IllegalStateException("kcp router bind failed, addr " + bindAddr, e);
+        }
+        running = true;
+        ioThread = new Thread(this::ioLoop, "kcp-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Thread thread = this.ioThread;
+        if (thread != null) {
+            selector.wakeup();
+            try {
+                thread.join(3000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeQuietly();
+    }
+
+    /** 实际绑定的地址 -- 绑定随机端口时使用 */
+    public InetSocketAddress getLocalAddr() {
+        try {
+            return (InetSocketAddress) channel.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** 查询玩家是否在线 */
+    public boolean isOnline(long playerGuid) {
+        return guidSessionMap.containsKey(playerGuid);
+    }
+
+    /** 当前会话数 */
+    public int sessionCount() {
+        return guidSessionMap.size();
+    }
+
+    // region 发送
+
+    @Override
+    public boolean send(RpcProtocol protocol) {
+        if (!(protocol.getDestAddr() instanceof PlayerAddr playerAddr)) {
+            return sendToServer(protocol);
+        }
+        KcpSession session = guidSessionMap.get(playerAddr.playerGuid);
+        if (session == null) {
+            return false;
+        }
+        // 在IO线程编码，未序列化的protobuf消息直接编码到发送缓冲区
+        offer(new PendingMessage(session, protocol, null));
+        return true;
+    }
+
+    /**
+     * 发往玩家的多条请求打包为一条kcp消息，客户端解包后逐条处理
+     * 单个包不超过{@link #maxBundleSize()}，超出时拆分为多个包，以免超过kcp的分片上限。
+     */
+    @Override
+    public boolean sendBundle(RpcAddr target, List<? extends RpcProtocol> protocols) {
+        if (!(target instanceof PlayerAddr playerAddr)) {
+            return super.sendBundle(target, protocols);
+        }
+        KcpSession session = guidSessionMap.get(playerAddr.playerGuid);
+        if (session == null) {
+            return false;
+        }
+        final int maxBundleSize = maxBundleSize();
+        final List<RpcRequest> bundle = new ArrayList<>(protocols.size());
+        int bundleSize = 0;
+        for (RpcProtocol protocol : protocols) {
+            if (!(protocol instanceof RpcRequest request)) {
+                flushBundle(session, bundle);
+                offer(new PendingMessage(session, protocol, null));
+                bundleSize = 0;
+                continue;
+            }
+            int entrySize = KcpRpcCodec.bundleEntrySize(request);
+            if (!bundle.isEmpty() && (bundleSize + entrySize > maxBundleSize || bundle.size() == KcpRpcCodec.MAX_BUNDLE_COUNT)) {
+                flushBundle(session, bundle);
+                bundleSize = 0;
+            }
+            bundle.add(request);
+            bundleSize += entrySize;
+        }
+        flushBundle(session, bundle);
+        return true;
+    }
+
+    /** 单个打包消息的最大长度 -- 保守地限制为16个分片 */
+    protected int maxBundleSize() {
+        return (config.getMtu() - Kcp.OVERHEAD) * 16;
+    }
+
+    private void flushBundle(KcpSession session, List<RpcRequest> bundle) {
+        if (bundle.isEmpty()) {
+            return;
+        }
+        if (bundle.size() == 1) {
+            offer(new PendingMessage(session, bundle.get(0), null));
+        } else {
+            offer(new PendingMessage(session, null, new ArrayList<>(bundle)));
+        }
+        bundle.clear();
+    }
+
+    private void offer(PendingMessage message) {
+        sendQueue.offer(message);
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 发送协议到其它服务器
+     * 该路由只负责客户端通信，子类可组合服务器间的路由。
+     */
+    protected boolean sendToServer(RpcProtocol protocol) {
+        return false;
+    }
+
+    // endregion
+
+    // region 接收
+
+    /** IO线程调用 -- 测试时可重写 */
+    protected void onRcvRequest(RpcRequest request) {
+        rpcSupport.onRcvRequest(request);
+    }
+
+    /** IO线程调用 -- 测试时可重写 */
+    protected void onRcvResponse(RpcResponse response) {
+        rpcSupport.onRcvResponse(response);
+    }
+
+    // endregion
+
+    // region io
+
+    private void ioLoop() {
+        final ByteBuffer rcvBuffer = ByteBuffer.allocateDirect(65536);
+        final ByteBuffer ctlBuffer = ByteBuffer.allocate(64);
+        final KcpOutput output = this::output;
+        final ArrayList<KcpSession> closedSessions = new ArrayList<>();
+        long nextCheckMs = 0;
+        while (running) {
+            try {
+                long nowMs = System.currentTimeMillis();
+                long timeout = Math.max(1, Math.min(config.getInterval(), nextCheckMs - nowMs));
+                selector.select(timeout);
+                selector.selectedKeys().clear();
+
+                nowMs = System.currentTimeMillis();
+                receivePackets(rcvBuffer, ctlBuffer, output, nowMs);
+                drainSendQueue();
+                nextCheckMs = updateSessions(nowMs, closedSessions);
+            } catch (Throwable e) {
+                logger.warn("kcp io loop caught exception", e);
+            }
+        }
+        // 通知客户端会话关闭
+        for (KcpSession session : convSessionMap.values()) {
+            sendReset(ctlBuffer, session.conv, session.remoteAddr);
+        }
+        convSessionMap.clear();
+        guidSessionMap.clear();
+        sendQueue.clear();
+    }
+
+    private void receivePackets(ByteBuffer rcvBuffer, ByteBuffer ctlBuffer, KcpOutput output, long nowMs) throws IOException {
+        while (true) {
+            rcvBuffer.clear();
+            SocketAddress remoteAddr = channel.receive(rcvBuffer);
+            if (remoteAddr == null) {
+                return;
+            }
+            rcvBuffer.flip();
+            if (KcpRpcCodec.isControlPacket(rcvBuffer)) {
+                onRcvControl(rcvBuffer, ctlBuffer, output, remoteAddr, nowMs);
+                continue;
+            }
+            if (rcvBuffer.remaining() < Kcp.OVERHEAD) {
+                continue;
+            }
+            int conv = Kcp.readConv(rcvBuffer);
+            KcpSession session = convSessionMap.get(conv);
+            if (session == null) {
+                sendReset(ctlBuffer, conv, remoteAddr); // 服务器重启或会话已超时
+                continue;
+            }
+            if (!remoteAddr.equals(session.remoteAddr)) {
+                // 地址变化 -- 客户端需证明持有会话密钥，在此之前不信任该地址的数据包
+                sendMigrateChallenge(ctlBuffer, session, remoteAddr, nowMs);
+                continue;
+            }
+            if (session.kcp.input(rcvBuffer) < 0) {
+                continue;
+            }
+            session.lastRcvMs = nowMs;
+            session.nextUpdateMs = nowMs; // 尽快回复ack
+            readMessages(session);
+        }
+    }
+
+    private void onRcvControl(ByteBuffer packet, ByteBuffer ctlBuffer, KcpOutput output, SocketAddress remoteAddr, long nowMs) {
+        packet.getInt();
+        int type = packet.get();
+        if (type == KcpRpcCodec.CTL_HANDSHAKE) {
+            onRcvHandshake(packet, ctlBuffer, output, remoteAddr, nowMs);
+        } else if (type == KcpRpcCodec.CTL_MIGRATE) {
+            onRcvMigrate(packet, remoteAddr, nowMs);
+        }
+    }
+
+    private void onRcvHandshake(ByteBuffer packet, ByteBuffer ctlBuffer, KcpOutput output, SocketAddress remoteAddr, long nowMs) {
+        if (packet.remaining() < 10) {
+            return;
+        }
+        long playerGuid = packet.getLong();
+        int tokenLength = packet.getShort() & 0xFFFF;
+        if (packet.remaining() < tokenLength) {
+            return;
+        }
+        byte[] token = new byte[tokenLength];
+        packet.get(token);
+
+        KcpSession session = guidSessionMap.get(playerGuid);
+        // 重复的握手包 -- 确认包丢失
+        if (session != null && !session.established && remoteAddr.equals(session.remoteAddr)) {
+            sendHandshakeAck(ctlBuffer, session);
+            return;
+        }
+        if (authenticator == null || !authenticator.authenticate(playerGuid, token, remoteAddr)) {
+            ctlBuffer.clear();
+            KcpRpcCodec.writeHandshakeReject(ctlBuffer, playerGuid);
+            sendControl(ctlBuffer, remoteAddr);
+            return;
+        }
+        if (session != null) { // 顶号或重连
+            closeSession(session);
+            sendReset(ctlBuffer, session.conv, session.remoteAddr);
+        }
+        int conv = nextConv();
+        byte[] migrationKey = new byte[KcpRpcCodec.MIGRATION_KEY_LENGTH];
+        secureRandom.nextBytes(migrationKey);
+        Kcp kcp = new Kcp(conv, config, output);
+        session = new KcpSession(conv, new PlayerAddr(playerGuid), kcp, migrationKey, remoteAddr, nowMs);
+        convSessionMap.put(conv, session);
+        guidSessionMap.put(playerGuid, session);
+        sendHandshakeAck(ctlBuffer, session);
+        logger.info("kcp session open, guid {}, conv {}, remote {}", playerGuid, conv, remoteAddr);
+    }
+
+    /**
+     * 向新地址发送迁移挑战
+     * 同一地址在有效期内复用同一个nonce，新地址会替换旧的挑战。
+     */
+    private void sendMigrateChallenge(ByteBuffer ctlBuffer, KcpSession session, SocketAddress remoteAddr, long nowMs) {
+        if (!remoteAddr.equals(session.challengeAddr) || nowMs - session.challengeMs > MIGRATE_CHALLENGE_TIMEOUT) {
+            session.challengeAddr = remoteAddr;
+            session.challengeNonce = secureRandom.nextLong();
+            session.challengeMs = nowMs;
+        }
+        ctlBuffer.clear();
+        KcpRpcCodec.writeMigrateChallenge(ctlBuffer, session.conv, session.challengeNonce);
+        sendControl(ctlBuffer, remoteAddr);
+    }
+
+    /** 迁移请求必须来自被挑战的地址，且签名正确 */
+    private void onRcvMigrate(ByteBuffer packet, SocketAddress remoteAddr, long nowMs) {
+        if (packet.remaining() < 12 + KcpRpcCodec.MIGRATION_MAC_LENGTH) {
+            return;
+        }
+        int conv = packet.getInt();
+        long nonce = packet.getLong();
+        byte[] mac = new byte[KcpRpcCodec.MIGRATION_MAC_LENGTH];
+        packet.get(mac);
+
+        KcpSession session = convSessionMap.get(conv);
+        if (session == null
+                || !remoteAddr.equals(session.challengeAddr)
+                || nonce != session.challengeNonce
+                || nowMs - session.challengeMs > MIGRATE_CHALLENGE_TIMEOUT) {
+            return;
+        }
+        if (!MessageDigest.isEqual(mac, KcpRpcCodec.migrationMac(session.migrationKey, conv, nonce))) {
+            logger.info("kcp session migrate verify failed, guid {}, remote {}", session.playerAddr.playerGuid, remoteAddr);
+            return;
+        }
+        logger.info("kcp session migrate, guid {}, from {} to {}", session.playerAddr.playerGuid, session.remoteAddr, remoteAddr);
+        session.remoteAddr = remoteAddr;
+        session.challengeAddr = null;
+        session.lastRcvMs = nowMs;
+        session.nextUpdateMs = 0; // 尽快重传发往旧地址的数据
+    }
+
+    private void readMessages(KcpSession session) {
+        int size;
+        while ((size = session.kcp.peekSize()) >= 0) {
+            if (msgBuffer.capacity() < size) {
+                msgBuffer = ByteBuffer.allocate(Math.max(size, msgBuffer.capacity() * 2));
+            }
+            msgBuffer.clear();
+            session.kcp.recv(msgBuffer);
+            msgBuffer.flip();
+            session.established = true;
+            RpcProtocol protocol = KcpRpcCodec.decode(msgBuffer, session.playerAddr, node == null ? null : node.nodeAddr());
+            if (protocol == null) {
+                continue; // 心跳或未知消息
+            }
+            try {
+                if (protocol instanceof RpcRequest request) {
+                    onRcvRequest(request);
+                } else {
+                    onRcvResponse((RpcResponse) protocol);
+                }
+            } catch (Throwable e) {
+                logger.warn("kcp dispatch protocol caught exception", e);
+            }
+        }
+    }
+
+    private void drainSendQueue() {
+        wakeupPending.set(false);
+        PendingMessage message;
+        while ((message = sendQueue.poll()) != null) {
+            KcpSession session = message.session;
+            if (session.closed) {
+                continue;
+            }
+            int size = encode(message);
+            if (!session.kcp.send(sndBuffer.array(), 0, size)) {
+                logger.warn("kcp message is too large, guid {}, size {}", session.playerAddr.playerGuid, size);
+                continue;
+            }
+            session.nextUpdateMs = 0; // 立即发送
+        }
+    }
+
+    /**
+     * 编码消息到发送缓冲区
+     *
+     * @return 消息的长度
+     */
+    private int encode(PendingMessage message) {
+        int size;
+        if (message.bundle != null) {
+            size = KcpRpcCodec.bundleSize(message.bundle);
+        } else if (message.protocol instanceof RpcRequest request) {
+            size = KcpRpcCodec.requestSize(request);
+        } else {
+            size = KcpRpcCodec.responseSize((RpcResponse) message.protocol);
+        }
+        if (sndBuffer.capacity() < size) {
+            sndBuffer = ByteBuffer.allocate(Math.max(size, sndBuffer.capacity() * 2));
+        }
+        sndBuffer.clear();
+        if (message.bundle != null) {
+            KcpRpcCodec.writeBundle(sndBuffer, message.bundle);
+        } else if (message.protocol instanceof RpcRequest request) {
+            KcpRpcCodec.writeRequest(sndBuffer, request);
+        } else {
+            KcpRpcCodec.writeResponse(sndBuffer, (RpcResponse) message.protocol);
+        }
+        return sndBuffer.position();
+    }
+
+    /** @return 下次需要更新的时间 */
+    private long updateSessions(long nowMs, ArrayList<KcpSession> closedSessions) {
+        final long sessionTimeoutMs = config.getSessionTimeoutMs();
+        long nextCheckMs = nowMs + config.getInterval();
+        for (KcpSession session : convSessionMap.values()) {
+            if (nowMs - session.lastRcvMs > sessionTimeoutMs || session.kcp.isDead()) {
+                closedSessions.add(session);
+                continue;
+            }
+            if (nowMs >= session.nextUpdateMs) {
+                session.kcp.update(nowMs);
+                session.nextUpdateMs = session.kcp.check(nowMs);
+            }
+            nextCheckMs = Math.min(nextCheckMs, session.nextUpdateMs);
+        }
+        if (closedSessions.size() > 0) {
+            for (KcpSession session : closedSessions) {
+                logger.info("kcp session timeout, guid {}, conv {}, dead {}", session.playerAddr.playerGuid, session.conv, session.kcp.isDead());
+                closeSession(session);
+            }
+            closedSessions.clear();
+        }
+        return nextCheckMs;
+    }
+
+    private void closeSession(KcpSession session) {
+        session.closed = true;
+        convSessionMap.remove(session.conv);
+        guidSessionMap.remove(session.playerAddr.playerGuid, session);
+    }
+
+    private int nextConv() {
+        int conv;
+        do {
+            conv = secureRandom.nextInt();
+        } while (conv == 0 || convSessionMap.containsKey(conv));
+        return conv;
+    }
+
+    /** kcp的输出回调 -- 数据需同步写出 */
+    private void output(ByteBuffer data, Kcp kcp) {
+        KcpSession session = convSessionMap.get(kcp.getConv());
+        if (session == null) {
+            return;
+        }
+        try {
+            channel.send(data, session.remoteAddr);
+        } catch (IOException e) {
+            logger.info("kcp send caught exception, remote {}", session.remoteAddr, e);
+        }
+    }
+
+    private void sendHandshakeAck(ByteBuffer ctlBuffer, KcpSession session) {
+        ctlBuffer.clear();
+        KcpRpcCodec.writeHandshakeAck(ctlBuffer, session.playerAddr.playerGuid, session.conv, session.migrationKey);
+        sendControl(ctlBuffer, session.remoteAddr);
+    }
+
+    private void sendReset(ByteBuffer ctlBuffer, int conv, SocketAddress remoteAddr) {
+        ctlBuffer.clear();
+        KcpRpcCodec.writeReset(ctlBuffer, conv);
+        sendControl(ctlBuffer, remoteAddr);
+    }
+
+    private void sendControl(ByteBuffer ctlBuffer, SocketAddress remoteAddr) {
+        ctlBuffer.flip();
+        try {
+            channel.send(ctlBuffer, remoteAddr);
+        } catch (IOException e) {
+            logger.info("kcp send control caught exception, remote {}", remoteAddr, e);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException e) {
+            logger.info("kcp router close caught exception", e);
+        }
+    }
+
+    /** 单条协议或打包的请求 */
+    private record PendingMessage(KcpSession session, RpcProtocol protocol, List<RpcRequest> bundle) {
+
+    }
+
+    // endregion
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.kcp;
+
+import cn.wjybxx.bigcat.fx.PlayerAddr;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.net.SocketAddress;
+
+/**
+ * Kcp会话
+ * 除{@link #playerAddr}外，其它字段只能在IO线程访问。
+ *
+ * @author wjybxx
+ * date - 2024/1/18
+ */
+@NotThreadSafe
+final class KcpSession {
+
+    final int conv;
+    final PlayerAddr playerAddr;
+    final Kcp kcp;
+    /** 握手时下发给客户端的密钥，用于验证迁移请求 */
+    final byte[] migrationKey;
+    /** 客户端地址 -- 连接以conv标识，地址可以变化(NAT重绑定，网络切换)，但需要通过迁移验证 */
+    SocketAddress remoteAddr;
+    /** 等待迁移验证的地址 */
+    SocketAddress challengeAddr;
+    long challengeNonce;
+    long challengeMs;
+    /** 最后一次收到数据的时间 */
+    long lastRcvMs;
+    /** 下次需要更新kcp的时间 */
+    long nextUpdateMs;
+    /** 是否收到过业务数据 -- 用于处理重复的握手包 */
+    boolean established;
+    boolean closed;
+
+    KcpSession(int conv, PlayerAddr playerAddr, Kcp kcp, byte[] migrationKey, SocketAddress remoteAddr, long nowMs) {
+        this.conv = conv;
+        this.playerAddr = playerAddr;
+        this.kcp = kcp;
+        this.migrationKey = migrationKey;
+        this.remoteAddr = remoteAddr;
+        this.lastRcvMs = nowMs;
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.shm;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * 基于内存映射文件的单生产者单消费者环形缓冲区，用于同一主机上的进程间通信
+ * <p>
+ * 1. 文件布局：头部(魔数、容量、生产者序号、消费者序号，各占独立的缓存行) + 数据区。
+ * 2. 记录格式：length(4) + data，按8字节对齐；length为-1表示跳到数据区开头。
+ * 3. 序号是累计写入的字节数，通过release/acquire语义发布，不需要锁和系统调用。
+ * 4. 生产者创建文件：先写临时文件，初始化后原子重命名，消费者不会看见未初始化的文件；
+ * 生产者重启时会创建新文件，消费者可通过{@link #isReplaced()}检测。
+ * <p>
+ * 生产者和消费者各自只能由一个线程访问。
+ *
+ * @author wjybxx
+ * date - 2024/1/21
+ */
+@NotThreadSafe
+public final class ShmRingBuffer {
+
+    private static final long MAGIC = 0x4243_4154_5249_4E47L; // BCATRING
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int PRODUCER_OFFSET = 64;
+    private static final int CONSUMER_OFFSET = 128;
+    private static final int DATA_OFFSET = 192;
+    private static final int PADDING = -1;
+
+    private static final VarHandle LONG_HANDLE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final Path path;
+    private final Object fileKey;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final int maxRecordSize;
+
+    /** 生产者或消费者本地的序号 */
+    private long position;
+    /** 对端序号的缓存，减少跨核读取 */
+    private long cachedRemotePosition;
+
+    private ShmRingBuffer(Path path, Object fileKey, MappedByteBuffer buffer, int capacity) {
+        this.path = path;
+        this.fileKey = fileKey;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.maxRecordSize = capacity / 4;
+    }
+
+    /**
+     * 生产者创建缓冲区 -- 如果文件已存在，则替换为新文件
+     *
+     * @param capacity 数据区容量，必须是2的幂
+     */
+    public static ShmRingBuffer create(Path path, int capacity) throws IOException {
+        if (capacity < 1024 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be power of 2 and >= 1024, capacity: " + capacity);
+        }
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + capacity);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        LONG_HANDLE.set(buffer, CAPACITY_OFFSET, (long) capacity);
+        LONG_HANDLE.set(buffer, PRODUCER_OFFSET, 0L);
+        LONG_HANDLE.set(buffer, CONSUMER_OFFSET, 0L);
+        LONG_HANDLE.setRelease(buffer, MAGIC_OFFSET, MAGIC);
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new ShmRingBuffer(path, fileKey(path), buffer, capacity);
+    }
+
+    /**
+     * 消费者打开缓冲区
+     *
+     * @return 如果文件不存在或未初始化，则返回null
+     */
+    @Nullable
+    public static ShmRingBuffer open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        Object fileKey;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            fileKey = fileKey(path);
+            long size = channel.size();
+            if (size <= DATA_OFFSET) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        if ((long) LONG_HANDLE.getAcquire(buffer, MAGIC_OFFSET) != MAGIC) {
+            return null;
+        }
+        int capacity = (int) (long) LONG_HANDLE.get(buffer, CAPACITY_OFFSET);
+        if (DATA_OFFSET + (long) capacity != buffer.capacity()) {
+            throw new IOException("invalid ring buffer file, path " + path);
+        }
+        ShmRingBuffer ringBuffer = new ShmRingBuffer(path, fileKey, buffer, capacity);
+        ringBuffer.position = (long) LONG_HANDLE.getAcquire(buffer, CONSUMER_OFFSET);
+        return ringBuffer;
+    }
+
+    private static Object fileKey(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey();
+        return fileKey != null ? fileKey : attributes.creationTime();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** 单条记录的最大长度 */
+    public int getMaxDataLength() {
+        return maxRecordSize - 4;
+    }
+
+    // region 生产者
+
+    /**
+     * 写入一条记录
+     *
+     * @return 如果空间不足，则返回false
+     */
+    public boolean offer(byte[] data) {
+        Objects.requireNonNull(data);
+        int recordSize = align(4 + data.length);
+        if (recordSize > maxRecordSize) {
+            throw new IllegalArgumentException("data is too large, length " + data.length);
+        }
+        long pos = position;
+        int index = (int) (pos & mask);
+        int tail = capacity - index;
+        int required = recordSize <= tail ? recordSize : tail + recordSize;
+        if (required > capacity - (pos - cachedRemotePosition)) {
+            cachedRemotePosition = (long) LONG_HANDLE.getAcquire(buffer, CONSUMER_OFFSET);
+            if (required > capacity - (pos - cachedRemotePosition)) {
+                return false;
+            }
+        }
+        if (recordSize > tail) {
+            buffer.putInt(DATA_OFFSET + index, PADDING);
+            pos += tail;
+            index = 0;
+        }
+        buffer.putInt(DATA_OFFSET + index, data.length);
+        buffer.put(DATA_OFFSET + index + 4, data);
+        position = pos + recordSize;
+        LONG_HANDLE.setRelease(buffer, PRODUCER_OFFSET, position);
+        return true;
+    }
+
+    /** 剩余的空间 */
+    public int freeBytes() {
+        cachedRemotePosition = (long) LONG_HANDLE.getAcquire(buffer, CONSUMER_OFFSET);
+        return (int) (capacity - (position - cachedRemotePosition));
+    }
+
+    // endregion
+
+    // region 消费者
+
+    /** @return 如果没有可读的记录，则返回null */
+    @Nullable
+    public byte[] poll() {
+        long pos = position;
+        if (pos >= cachedRemotePosition) {
+            cachedRemotePosition = (long) LONG_HANDLE.getAcquire(buffer, PRODUCER_OFFSET);
+            if (pos >= cachedRemotePosition) {
+                return null;
+            }
+        }
+        int index = (int) (pos & mask);
+        int length = buffer.getInt(DATA_OFFSET + index);
+        if (length == PADDING) {
+            pos += capacity - index;
+            index = 0;
+            length = buffer.getInt(DATA_OFFSET);
+        }
+        byte[] data = new byte[length];
+        buffer.get(DATA_OFFSET + index + 4, data);
+        position = pos + align(4 + length);
+        LONG_HANDLE.setRelease(buffer, CONSUMER_OFFSET, position);
+        return data;
+    }
+
+    /** 是否有可读的记录 */
+    public boolean isReadable() {
+        if (position < cachedRemotePosition) {
+            return true;
+        }
+        cachedRemotePosition = (long) LONG_HANDLE.getAcquire(buffer, PRODUCER_OFFSET);
+        return position < cachedRemotePosition;
+    }
+
+    /** 文件是否已被生产者替换(生产者重启) */
+    public boolean isReplaced() {
+        try {
+            return !fileKey.equals(fileKey(path));
+        } catch (IOException e) {
+            return true; // 文件已删除
+        }
+    }
+
+    // endregion
+
+    /** 生产者删除文件 -- 映射在缓冲区被回收时释放 */
+    public void delete() throws IOException {
+        if (!isReplaced()) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+}
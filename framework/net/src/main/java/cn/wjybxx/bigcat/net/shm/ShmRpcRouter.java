@@ -0,0 +1,480 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.shm;
+
+import cn.wjybxx.bigcat.fx.AbstractRpcRouter;
+import cn.wjybxx.bigcat.fx.WorkerAddr;
+import cn.wjybxx.bigcat.rpc.RpcAddr;
+import cn.wjybxx.bigcat.rpc.RpcProtocol;
+import cn.wjybxx.bigcat.rpc.RpcRequest;
+import cn.wjybxx.bigcat.rpc.RpcResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 基于共享内存的路由，用于同一主机上的节点之间的Rpc通信
+ * <p>
+ * 1. 每对节点每个方向一个{@link ShmRingBuffer}，文件位于{@code /dev/shm}(不存在时使用临时目录)，
+ * 本节点是出站文件的唯一生产者，对方节点的读线程是唯一消费者。
+ * 2. 消息体为{@link cn.wjybxx.bigcat.rpc.RpcSerializer}序列化的完整协议，与Tcp路由一致。
+ * 3. 读线程没有消息时依次自旋、让出CPU、短暂睡眠，见{@link #setSpinTries(int)}等；
+ * 由于无法跨进程唤醒，不支持阻塞等待。
+ * 4. 出站缓冲区剩余空间不足1/4时{@link #isWritable(RpcAddr)}返回false；缓冲区满时{@link #send(RpcProtocol)}返回false。
+ * 5. 入站文件在对方节点启动后延迟打开；对方重启会创建新文件，读线程检测到后切换到新文件。
+ * 6. 本地地址不经过共享内存，由读线程直接派发。
+ *
+ * @author wjybxx
+ * date - 2024/1/21
+ */
+public class ShmRpcRouter extends AbstractRpcRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShmRpcRouter.class);
+    /** 检查入站文件的间隔 */
+    private static final long MAINTAIN_INTERVAL_NANOS = 1000_000_000L;
+
+    private Path directory = defaultDirectory();
+    private int ringCapacity = 8 * 1024 * 1024;
+    private int spinTries = 100;
+    private int yieldTries = 100;
+    private long parkNanos = 100;
+
+    private volatile boolean mutable = true;
+    private volatile boolean running;
+    private Thread readThread;
+    /** 以下字段只在读线程访问 */
+    private long lastMaintainNanos;
+    private long idleCount;
+
+    /** 对方节点 -- 任意线程查询 */
+    private final ConcurrentHashMap<Long, Peer> peerMap = new ConcurrentHashMap<>();
+    /** 本地协议 -- 由读线程派发 */
+    private final ConcurrentLinkedQueue<RpcProtocol> localQueue = new ConcurrentLinkedQueue<>();
+
+    // region 设置
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public ShmRpcRouter setDirectory(Path directory) {
+        ensureMutable();
+        this.directory = Objects.requireNonNull(directory);
+        return this;
+    }
+
+    public int getRingCapacity() {
+        return ringCapacity;
+    }
+
+    /** @param ringCapacity 每个方向的缓冲区容量，必须是2的幂 */
+    public ShmRpcRouter setRingCapacity(int ringCapacity) {
+        ensureMutable();
+        if (ringCapacity < 1024 || Integer.bitCount(ringCapacity) != 1) {
+            throw new IllegalArgumentException("ringCapacity must be power of 2 and >= 1024, ringCapacity: " + ringCapacity);
+        }
+        this.ringCapacity = ringCapacity;
+        return this;
+    }
+
+    public int getSpinTries() {
+        return spinTries;
+    }
+
+    /** @param spinTries 没有消息时自旋的次数；{@link Integer#MAX_VALUE}表示忙等待 */
+    public ShmRpcRouter setSpinTries(int spinTries) {
+        ensureMutable();
+        if (spinTries < 0) {
+            throw new IllegalArgumentException("spinTries: " + spinTries);
+        }
+        this.spinTries = spinTries;
+        return this;
+    }
+
+    public int getYieldTries() {
+        return yieldTries;
+    }
+
+    /** @param yieldTries 自旋之后让出CPU的次数；{@link Integer#MAX_VALUE}表示不睡眠 */
+    public ShmRpcRouter setYieldTries(int yieldTries) {
+        ensureMutable();
+        if (yieldTries < 0) {
+            throw new IllegalArgumentException("yieldTries: " + yieldTries);
+        }
+        this.yieldTries = yieldTries;
+        return this;
+    }
+
+    public long getParkNanos() {
+        return parkNanos;
+    }
+
+    /** @param parkNanos 让出之后每次睡眠的时间，决定了空闲时的最大延迟 */
+    public ShmRpcRouter setParkNanos(long parkNanos) {
+        ensureMutable();
+        if (parkNanos <= 0) {
+            throw new IllegalArgumentException("parkNanos: " + parkNanos);
+        }
+        this.parkNanos = parkNanos;
+        return this;
+    }
+
+    private void ensureMutable() {
+        if (!mutable) {
+            throw new IllegalStateException("router is started");
+        }
+    }
+
+    private static Path defaultDirectory() {
+        Path shm = Path.of("/dev/shm");
+        return Files.isDirectory(shm) ? shm : Path.of(System.getProperty("java.io.tmpdir"));
+    }
+
+    // endregion
+
+    // region 对方节点
+
+    /**
+     * 添加对方节点 -- 可在运行时调用
+     * 对方节点也需要添加本节点，双方才能互相通信。
+     */
+    public void addPeer(int serverType, int serverId) {
+        if (serverType <= 0 || serverId <= 0) {
+            throw new IllegalArgumentException("serverType: %d, serverId: %d".formatted(serverType, serverId));
+        }
+        if (mutable) {
+            throw new IllegalStateException("router is not started");
+        }
+        WorkerAddr selfAddr = selfAddr();
+        Peer peer = new Peer(serverType,
+                directory.resolve(ringFileName(selfAddr.serverType, selfAddr.serverId, serverType, serverId)),
+                directory.resolve(ringFileName(serverType, serverId, selfAddr.serverType, selfAddr.serverId)));
+        try {
+            peer.outbound = ShmRingBuffer.create(peer.outboundPath, ringCapacity);
+        } catch (IOException e) {
+            throw new IllegalStateException("create ring buffer failed, path " + peer.outboundPath, e);
+        }
+        Peer old = peerMap.put(nodeKey(serverType, serverId), peer);
+        if (old != null) {
+            old.removed = true;
+        }
+    }
+
+    /** 删除对方节点 -- 可在运行时调用 */
+    public void removePeer(int serverType, int serverId) {
+        Peer peer = peerMap.remove(nodeKey(serverType, serverId));
+        if (peer != null) {
+            peer.removed = true;
+            synchronized (peer) {
+                deleteQuietly(peer.outbound);
+            }
+        }
+    }
+
+    /** 查询对方节点的入站缓冲区是否已打开 -- 即对方节点已启动 */
+    public boolean isConnected(int serverType, int serverId) {
+        Peer peer = peerMap.get(nodeKey(serverType, serverId));
+        return peer != null && peer.inbound != null;
+    }
+
+    private static String ringFileName(int srcType, int srcId, int dstType, int dstId) {
+        return "bigcat-%d_%d-to-%d_%d.ring".formatted(srcType, srcId, dstType, dstId);
+    }
+
+    private static long nodeKey(int serverType, int serverId) {
+        return ((long) serverType << 32) | (serverId & 0xFFFFFFFFL);
+    }
+
+    /** 本节点地址 -- 测试时可重写 */
+    protected WorkerAddr selfAddr() {
+        return node.nodeAddr();
+    }
+
+    // endregion
+
+    @Override
+    public void start() {
+        mutable = false;
+        running = true;
+        lastMaintainNanos = System.nanoTime() - MAINTAIN_INTERVAL_NANOS;
+        readThread = new Thread(this::readLoop, "shm-read");
+        readThread.setDaemon(true);
+        readThread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Thread thread = this.readThread;
+        if (thread != null) {
+            try {
+                thread.join(3000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Peer peer : peerMap.values()) {
+            peer.removed = true;
+            synchronized (peer) {
+                deleteQuietly(peer.outbound);
+            }
+        }
+        peerMap.clear();
+        localQueue.clear();
+    }
+
+    // region 发送
+
+    @Override
+    public boolean isWritable(RpcAddr addr) {
+        if (addr instanceof WorkerAddr workerAddr && workerAddr.serverId > 0 && !isLocalAddr(workerAddr)) {
+            Peer peer = peerMap.get(nodeKey(workerAddr.serverType, workerAddr.serverId));
+            return peer == null || peer.isWritable();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean send(RpcProtocol protocol) {
+        Objects.requireNonNull(protocol);
+        RpcAddr destAddr = protocol.getDestAddr();
+        if (isLocalAddr(destAddr)) {
+            sendLocal(protocol);
+            return true;
+        }
+        if (!(destAddr instanceof WorkerAddr workerAddr)) {
+            return false;
+        }
+        if (workerAddr.serverId > 0) { // 单播
+            Peer peer = peerMap.get(nodeKey(workerAddr.serverType, workerAddr.serverId));
+            if (peer == null) {
+                return false;
+            }
+            return peer.offer(serializer.write(protocol));
+        }
+        // 多播到同类型的所有节点，只序列化一次
+        byte[] body = null;
+        boolean success = false;
+        for (Peer peer : peerMap.values()) {
+            if (peer.serverType != workerAddr.serverType) {
+                continue;
+            }
+            if (body == null) {
+                body = serializer.write(protocol);
+            }
+            success |= peer.offer(body);
+        }
+        return success;
+    }
+
+    /** 本地协议不经过共享内存，但不能在当前线程派发，否则无法支持同步调用 */
+    private void sendLocal(RpcProtocol protocol) {
+        if (protocol.isSerialized()) {
+            if (protocol instanceof RpcRequest request) {
+                request.setParameters(serializer.read(request.bytesParameters()));
+            } else {
+                RpcResponse response = (RpcResponse) protocol;
+                response.setResults(serializer.read(response.bytesResults()));
+            }
+        } else if (!enableLocalShare) {
+            if (protocol instanceof RpcRequest request) {
+                request.setParameters(serializer.read(serializer.write(request.getParameters())));
+            } else {
+                RpcResponse response = (RpcResponse) protocol;
+                response.setResults(serializer.read(serializer.write(response.getResults())));
+            }
+        }
+        protocol.setDeserialized();
+        localQueue.offer(protocol);
+    }
+
+    // endregion
+
+    // region 接收
+
+    /** 读线程调用 -- 测试时可重写 */
+    protected void onRcvRequest(RpcRequest request) {
+        rpcSupport.onRcvRequest(request);
+    }
+
+    /** 读线程调用 -- 测试时可重写 */
+    protected void onRcvResponse(RpcResponse response) {
+        rpcSupport.onRcvResponse(response);
+    }
+
+    private void dispatch(RpcProtocol protocol) {
+        try {
+            if (protocol instanceof RpcRequest request) {
+                onRcvRequest(request);
+            } else if (protocol instanceof RpcResponse response) {
+                onRcvResponse(response);
+            }
+        } catch (Throwable e) {
+            logger.warn("shm dispatch protocol caught exception", e);
+        }
+    }
+
+    private void readLoop() {
+        while (running) {
+            if (!hasWork()) {
+                idle();
+                continue;
+            }
+            idleCount = 0;
+            try {
+                RpcProtocol protocol;
+                while ((protocol = localQueue.poll()) != null) {
+                    dispatch(protocol);
+                }
+                for (Peer peer : peerMap.values()) {
+                    drain(peer.inbound);
+                }
+                long nanoTime = System.nanoTime();
+                if (nanoTime - lastMaintainNanos >= MAINTAIN_INTERVAL_NANOS) {
+                    lastMaintainNanos = nanoTime;
+                    maintain();
+                }
+            } catch (Throwable e) {
+                logger.warn("shm read loop caught exception", e);
+            }
+        }
+        for (Peer peer : peerMap.values()) {
+            peer.inbound = null;
+        }
+    }
+
+    /** 是否有可读的消息或需要维护 */
+    private boolean hasWork() {
+        if (!localQueue.isEmpty() || System.nanoTime() - lastMaintainNanos >= MAINTAIN_INTERVAL_NANOS) {
+            return true;
+        }
+        for (Peer peer : peerMap.values()) {
+            ShmRingBuffer inbound = peer.inbound;
+            if (inbound != null && inbound.isReadable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 没有消息时等待 -- 先自旋，再让出CPU，最后睡眠；停止时最多延迟一次睡眠的时间 */
+    private void idle() {
+        long count = idleCount++;
+        if (count < spinTries) {
+            Thread.onSpinWait();
+        } else if (count < (long) spinTries + yieldTries) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(parkNanos);
+        }
+    }
+
+    private void drain(ShmRingBuffer inbound) {
+        if (inbound == null) {
+            return;
+        }
+        byte[] body;
+        while ((body = inbound.poll()) != null) {
+            decodeAndDispatch(body);
+        }
+    }
+
+    /** 打开对方节点创建的入站文件；对方重启后切换到新文件 */
+    private void maintain() {
+        for (Peer peer : peerMap.values()) {
+            ShmRingBuffer inbound = peer.inbound;
+            if (inbound != null && !inbound.isReplaced()) {
+                continue;
+            }
+            if (inbound != null) {
+                drain(inbound); // 旧文件中剩余的消息
+                peer.inbound = null;
+                logger.info("shm inbound ring replaced, path {}", inbound.getPath());
+            }
+            try {
+                peer.inbound = ShmRingBuffer.open(peer.inboundPath);
+                if (peer.inbound != null) {
+                    logger.info("shm inbound ring opened, path {}", peer.inboundPath);
+                }
+            } catch (IOException e) {
+                logger.info("shm open ring buffer failed, path {}", peer.inboundPath, e);
+            }
+        }
+    }
+
+    private void decodeAndDispatch(byte[] body) {
+        RpcProtocol protocol;
+        try {
+            protocol = (RpcProtocol) serializer.read(body);
+        } catch (Exception e) {
+            logger.info("shm decode protocol caught exception", e);
+            return;
+        }
+        // 发送方已序列化的参数或结果仍为字节数组，由NodeRpcSupport按需反序列化
+        Object payload = protocol instanceof RpcRequest request ? request.getParameters() : ((RpcResponse) protocol).getResults();
+        if (!(payload instanceof byte[])) {
+            protocol.setDeserialized();
+        }
+        dispatch(protocol);
+    }
+
+    private static void deleteQuietly(ShmRingBuffer ringBuffer) {
+        if (ringBuffer == null) {
+            return;
+        }
+        try {
+            ringBuffer.delete();
+        } catch (IOException e) {
+            logger.info("shm delete ring buffer failed, path {}", ringBuffer.getPath(), e);
+        }
+    }
+
+    // endregion
+
+    private static class Peer {
+
+        final int serverType;
+        final Path outboundPath;
+        final Path inboundPath;
+        /** 出站缓冲区 -- 发送方加锁，保证单生产者 */
+        ShmRingBuffer outbound;
+        /** 入站缓冲区 -- 读线程使用 */
+        volatile ShmRingBuffer inbound;
+        volatile boolean removed;
+
+        Peer(int serverType, Path outboundPath, Path inboundPath) {
+            this.serverType = serverType;
+            this.outboundPath = outboundPath;
+            this.inboundPath = inboundPath;
+        }
+
+        synchronized boolean offer(byte[] body) {
+            return !removed && outbound.offer(body);
+        }
+
+        synchronized boolean isWritable() {
+            return removed || outbound.freeBytes() >= outbound.getCapacity() / 4;
+        }
+    }
+}
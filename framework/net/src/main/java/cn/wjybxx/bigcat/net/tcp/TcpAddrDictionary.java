@@ -0,0 +1,176 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.bigcat.rpc.RpcAddr;
+import cn.wjybxx.bigcat.rpc.RpcSerializer;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Tcp连接的地址字典
+ * <p>
+ * 1. 地址首次出现时发送定义(id + 序列化的地址)，之后只发送id，避免每个协议重复编码地址。
+ * 2. 出站连接使用编码部分，入站连接使用解码部分；只在IO线程访问，连接断开后重置。
+ * 3. 字典容量有限，超出容量的地址直接内联编码，以免玩家地址等临时地址撑大字典。
+ * 4. 解码的地址会经过路由的驻留表，相同的地址总是同一个实例，equals可直接通过引用比较返回。
+ *
+ * <pre>
+ * 地址格式：
+ * null:   tag(1)
+ * ref:    tag(1) + id(2)
+ * define: tag(1) + id(2) + length(2) + addr
+ * inline: tag(1) + length(2) + addr
+ * </pre>
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@NotThreadSafe
+final class TcpAddrDictionary {
+
+    static final byte TAG_NULL = 0;
+    static final byte TAG_REF = 1;
+    static final byte TAG_DEFINE = 2;
+    static final byte TAG_INLINE = 3;
+    /** 字典的最大容量 -- 也用于限制驻留表 */
+    static final int MAX_SIZE = 4096;
+
+    /** 编码字典，addr -> id */
+    private final Object2IntOpenHashMap<RpcAddr> addrIdMap = new Object2IntOpenHashMap<>();
+    /** 解码字典，id -> addr */
+    private final ArrayList<RpcAddr> idAddrList = new ArrayList<>();
+    /** 编码地址的临时缓冲区 */
+    private ByteBuffer scratch = ByteBuffer.allocate(64);
+
+    TcpAddrDictionary() {
+        addrIdMap.defaultReturnValue(-1);
+    }
+
+    /** 连接断开时重置 */
+    void reset() {
+        addrIdMap.clear();
+        idAddrList.clear();
+    }
+
+    /**
+     * 编码帧头
+     *
+     * @param bodyLength 帧内容的长度
+     * @return length(4) + srcAddr + destAddr
+     */
+    ByteBuffer encodeHeader(RpcAddr srcAddr, RpcAddr destAddr, int bodyLength, RpcSerializer serializer) {
+        scratch.clear();
+        writeAddr(srcAddr, serializer);
+        writeAddr(destAddr, serializer);
+        scratch.flip();
+
+        ByteBuffer header = ByteBuffer.allocate(4 + scratch.remaining());
+        header.putInt(scratch.remaining() + bodyLength);
+        header.put(scratch);
+        return header.flip();
+    }
+
+    private void writeAddr(RpcAddr addr, RpcSerializer serializer) {
+        if (addr == null) {
+            ensureScratch(1).put(TAG_NULL);
+            return;
+        }
+        int id = addrIdMap.getInt(addr);
+        if (id >= 0) {
+            ensureScratch(3).put(TAG_REF).putShort((short) id);
+            return;
+        }
+        byte[] addrBytes = serializer.write(addr);
+        ByteBuffer out = ensureScratch(5 + addrBytes.length);
+        if (addrIdMap.size() < MAX_SIZE) {
+            id = addrIdMap.size();
+            addrIdMap.put(addr, id);
+            out.put(TAG_DEFINE).putShort((short) id);
+        } else {
+            out.put(TAG_INLINE);
+        }
+        out.putShort((short) addrBytes.length);
+        out.put(addrBytes);
+    }
+
+    private ByteBuffer ensureScratch(int bytes) {
+        if (scratch.remaining() < bytes) {
+            ByteBuffer newScratch = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + bytes));
+            scratch.flip();
+            newScratch.put(scratch);
+            scratch = newScratch;
+        }
+        return scratch;
+    }
+
+    /**
+     * 解码地址
+     *
+     * @param interner 路由的驻留表
+     */
+    RpcAddr readAddr(ByteBuffer in, RpcSerializer serializer, Map<RpcAddr, RpcAddr> interner) throws IOException {
+        byte tag = in.get();
+        switch (tag) {
+            case TAG_NULL -> {
+                return null;
+            }
+            case TAG_REF -> {
+                int id = in.getShort() & 0xFFFF;
+                if (id >= idAddrList.size()) {
+                    throw new IOException("unknown addr id " + id);
+                }
+                return idAddrList.get(id);
+            }
+            case TAG_DEFINE -> {
+                int id = in.getShort() & 0xFFFF;
+                if (id != idAddrList.size()) {
+                    throw new IOException("unexpected addr id " + id + ", expected " + idAddrList.size());
+                }
+                RpcAddr addr = intern(readAddrBytes(in, serializer), interner);
+                idAddrList.add(addr);
+                return addr;
+            }
+            case TAG_INLINE -> {
+                return intern(readAddrBytes(in, serializer), interner);
+            }
+            default -> throw new IOException("invalid addr tag " + tag);
+        }
+    }
+
+    private static RpcAddr readAddrBytes(ByteBuffer in, RpcSerializer serializer) {
+        byte[] addrBytes = new byte[in.getShort() & 0xFFFF];
+        in.get(addrBytes);
+        return (RpcAddr) serializer.read(addrBytes);
+    }
+
+    private static RpcAddr intern(RpcAddr addr, Map<RpcAddr, RpcAddr> interner) {
+        RpcAddr interned = interner.get(addr);
+        if (interned != null) {
+            return interned;
+        }
+        if (interner.size() < MAX_SIZE) {
+            interner.put(addr, addr);
+        }
+        return addr;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.bigcat.rpc.RpcAddr;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tcp连接
+ * 出站队列和水位可在任意线程访问，其它字段只能在IO线程访问。
+ * 出站连接断开后保留未发送的帧，重连后继续发送；写了一半的帧将从头重发。
+ * 地址字典随连接重置，因此已出队的帧需要在重连后重新编码帧头。
+ *
+ * @author wjybxx
+ * date - 2024/1/19
+ */
+@ThreadSafe
+final class TcpConnection {
+
+    /** 出站连接的远程节点key，入站连接为0 */
+    final long nodeKey;
+    final int serverType;
+    final InetSocketAddress remoteAddr;
+
+    // region 出站 -- 线程安全
+    private final ConcurrentLinkedQueue<Frame> outQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    /** 是否已在IO线程的待刷新队列中 */
+    final AtomicBoolean flushPending = new AtomicBoolean();
+    private volatile boolean writable = true;
+    private final long highWaterMark;
+    private final long lowWaterMark;
+    // endregion
+
+    // region IO线程
+    SocketChannel channel;
+    SelectionKey selectionKey;
+    boolean connected;
+    /** 已出队但未写完的帧 */
+    final ArrayDeque<Frame> inflight = new ArrayDeque<>();
+    ByteBuffer readBuffer;
+    /** 地址字典 -- 出站连接用于编码，入站连接用于解码 */
+    final TcpAddrDictionary addrDictionary = new TcpAddrDictionary();
+    long nextConnectMs;
+    long reconnectIntervalMs;
+    boolean removed;
+    // endregion
+
+    TcpConnection(long nodeKey, int serverType, InetSocketAddress remoteAddr, long highWaterMark, long lowWaterMark) {
+        this.nodeKey = nodeKey;
+        this.serverType = serverType;
+        this.remoteAddr = remoteAddr;
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    boolean isOutbound() {
+        return nodeKey != 0;
+    }
+
+    /** 出站缓冲区是否低于高水位 */
+    boolean isWritable() {
+        return writable;
+    }
+
+    long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /** 任意线程调用 */
+    void offer(Frame frame) {
+        outQueue.offer(frame);
+        if (pendingBytes.addAndGet(frame.size()) > highWaterMark) {
+            writable = false;
+        }
+    }
+
+    /** IO线程调用 */
+    Frame pollFrame() {
+        return outQueue.poll();
+    }
+
+    /** IO线程调用 */
+    void onWritten(int bytes) {
+        if (pendingBytes.addAndGet(-bytes) <= lowWaterMark && !writable) {
+            writable = true;
+        }
+    }
+
+    /** IO线程调用 -- 关闭通道，保留待发送的帧 */
+    void closeChannel() {
+        connected = false;
+        if (selectionKey != null) {
+            selectionKey.cancel();
+            selectionKey = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+            channel = null;
+        }
+        readBuffer = null;
+        // 字典已重置，写了一半的帧需要从头发送，未写的帧需要重新编码帧头
+        addrDictionary.reset();
+        for (Frame frame : inflight) {
+            frame.rewind();
+        }
+    }
+
+    /** IO线程调用 -- 丢弃所有待发送的帧 */
+    void discardFrames() {
+        inflight.clear();
+        Frame frame;
+        while ((frame = outQueue.poll()) != null) {
+            onWritten(frame.size());
+        }
+        pendingBytes.set(0);
+        writable = true;
+    }
+
+    /**
+     * 长度前缀帧 -- 头部和内容分开，以便聚集写，避免拷贝
+     * 帧头包含长度和地址，依赖连接的地址字典，因此在IO线程写出前编码；内容可被多个连接共享。
+     */
+    static final class Frame {
+
+        final RpcAddr srcAddr;
+        final RpcAddr destAddr;
+        final ByteBuffer body;
+        /** 帧头 -- IO线程编码 */
+        ByteBuffer header;
+
+        Frame(RpcAddr srcAddr, RpcAddr destAddr, byte[] body) {
+            this.srcAddr = srcAddr;
+            this.destAddr = destAddr;
+            this.body = ByteBuffer.wrap(body);
+        }
+
+        /** 帧的大小 -- 用于水位统计，不包含地址 */
+        int size() {
+            return 4 + body.capacity();
+        }
+
+        boolean isDone() {
+            return header != null && !header.hasRemaining() && !body.hasRemaining();
+        }
+
+        void rewind() {
+            header = null;
+            body.clear();
+        }
+    }
+}
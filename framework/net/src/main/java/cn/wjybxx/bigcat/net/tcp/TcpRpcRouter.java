@@ -0,0 +1,699 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.bigcat.fx.AbstractRpcRouter;
+import cn.wjybxx.bigcat.fx.WorkerAddr;
+import cn.wjybxx.bigcat.net.tcp.TcpConnection.Frame;
+import cn.wjybxx.bigcat.rpc.RpcAddr;
+import cn.wjybxx.bigcat.rpc.RpcProtocol;
+import cn.wjybxx.bigcat.rpc.RpcRequest;
+import cn.wjybxx.bigcat.rpc.RpcResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于NIO的Tcp路由，用于服务器节点之间的Rpc通信
+ * <p>
+ * 1. 帧格式为 length(4) + srcAddr + destAddr + body，body为{@link cn.wjybxx.bigcat.rpc.RpcSerializer}序列化的不含地址的协议。
+ *    地址通过连接的地址字典编码，首次出现时发送定义，之后只发送id，见{@link TcpAddrDictionary}。
+ * 2. 每个远程节点一条出站连接，用于发送；入站连接只用于接收 -- 响应通过本节点到对方的出站连接返回。
+ * 3. Node线程只负责编码和入队，IO线程通过聚集写一次写出多个帧，减少系统调用。
+ * 4. 出站缓冲区超过高水位时{@link #isWritable(RpcAddr)}返回false，降到低水位以下时恢复。
+ * 5. 出站连接断开后自动重连，重连间隔指数退避；断开期间的帧保留在缓冲区，受水位限制。
+ * 6. 本地地址不经过网络，由IO线程直接派发。
+ *
+ * @author wjybxx
+ * date - 2024/1/19
+ */
+public class TcpRpcRouter extends AbstractRpcRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TcpRpcRouter.class);
+
+    /** 监听地址，为null时不监听 */
+    private InetSocketAddress bindAddr;
+    private long highWaterMark = 4 * 1024 * 1024;
+    private long lowWaterMark = 1024 * 1024;
+    private long reconnectIntervalMs = 500;
+    private long maxReconnectIntervalMs = 10 * 1000;
+    private int maxFrameLength = 16 * 1024 * 1024;
+    /** 单次聚集写的最大帧数 */
+    private int maxGatherFrames = 256;
+
+    private volatile boolean mutable = true;
+    private volatile boolean running;
+    private Thread ioThread;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+
+    /** 出站连接 -- 任意线程查询 */
+    private final ConcurrentHashMap<Long, TcpConnection> outboundMap = new ConcurrentHashMap<>();
+    /** 入站连接 -- IO线程使用 */
+    private final List<TcpConnection> inboundList = new ArrayList<>();
+    private final ConcurrentLinkedQueue<TcpConnection> flushQueue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    /** 解码地址的驻留表 -- IO线程使用 */
+    private final Map<RpcAddr, RpcAddr> internedAddrMap = new HashMap<>();
+
+    // 统计信息，IO线程写
+    private volatile long writeCount;
+    private volatile long frameCount;
+
+    // region 设置
+
+    public InetSocketAddress getBindAddr() {
+        return bindAddr;
+    }
+
+    public TcpRpcRouter setBindAddr(InetSocketAddress bindAddr) {
+        ensureMutable();
+        this.bindAddr = bindAddr;
+        return this;
+    }
+
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public long getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    /**
+     * @param lowWaterMark  低水位，出站缓冲区降到该值以下时恢复可写
+     * @param highWaterMark 高水位，出站缓冲区超过该值时不可写
+     */
+    public TcpRpcRouter setWaterMark(long lowWaterMark, long highWaterMark) {
+        ensureMutable();
+        if (lowWaterMark < 0 || highWaterMark < lowWaterMark) {
+            throw new IllegalArgumentException("lowWaterMark: %d, highWaterMark: %d".formatted(lowWaterMark, highWaterMark));
+        }
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        return this;
+    }
+
+    public long getReconnectIntervalMs() {
+        return reconnectIntervalMs;
+    }
+
+    public long getMaxReconnectIntervalMs() {
+        return maxReconnectIntervalMs;
+    }
+
+    /**
+     * @param reconnectIntervalMs    首次重连间隔
+     * @param maxReconnectIntervalMs 最大重连间隔 -- 每次失败间隔翻倍
+     */
+    public TcpRpcRouter setReconnectInterval(long reconnectIntervalMs, long maxReconnectIntervalMs) {
+        ensureMutable();
+        this.reconnectIntervalMs = Math.max(1, reconnectIntervalMs);
+        this.maxReconnectIntervalMs = Math.max(this.reconnectIntervalMs, maxReconnectIntervalMs);
+        return this;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    public TcpRpcRouter setMaxFrameLength(int maxFrameLength) {
+        ensureMutable();
+        this.maxFrameLength = maxFrameLength;
+        return this;
+    }
+
+    public int getMaxGatherFrames() {
+        return maxGatherFrames;
+    }
+
+    public TcpRpcRouter setMaxGatherFrames(int maxGatherFrames) {
+        ensureMutable();
+        this.maxGatherFrames = Math.max(1, maxGatherFrames);
+        return this;
+    }
+
+    private void ensureMutable() {
+        if (!mutable) {
+            throw new IllegalStateException("router is started");
+        }
+    }
+    // endregion
+
+    // region 远程节点
+
+    /**
+     * 添加远程节点 -- 可在运行时调用
+     * 如果节点已存在，则替换为新的地址，未发送的数据将被丢弃。
+     */
+    public void addRemoteNode(int serverType, int serverId, InetSocketAddress remoteAddr) {
+        Objects.requireNonNull(remoteAddr);
+        if (serverType <= 0 || serverId <= 0) {
+            throw new IllegalArgumentException("serverType: %d, serverId: %d".formatted(serverType, serverId));
+        }
+        long nodeKey = nodeKey(serverType, serverId);
+        TcpConnection connection = new TcpConnection(nodeKey, serverType, remoteAddr, highWaterMark, lowWaterMark);
+        TcpConnection old = outboundMap.put(nodeKey, connection);
+        execute(() -> {
+            if (old != null) {
+                removeOutbound(old);
+            }
+            connection.reconnectIntervalMs = reconnectIntervalMs;
+            connect(connection);
+        });
+    }
+
+    /** 删除远程节点 -- 可在运行时调用 */
+    public void removeRemoteNode(int serverType, int serverId) {
+        TcpConnection connection = outboundMap.remove(nodeKey(serverType, serverId));
+        if (connection != null) {
+            execute(() -> removeOutbound(connection));
+        }
+    }
+
+    /** 查询到远程节点的连接是否已建立 */
+    public boolean isConnected(int serverType, int serverId) {
+        TcpConnection connection = outboundMap.get(nodeKey(serverType, serverId));
+        return connection != null && connection.connected;
+    }
+
+    /** 查询到远程节点的待发送字节数 */
+    public long getPendingBytes(int serverType, int serverId) {
+        TcpConnection connection = outboundMap.get(nodeKey(serverType, serverId));
+        return connection == null ? 0 : connection.getPendingBytes();
+    }
+
+    /** 聚集写的调用次数 */
+    public long getWriteCount() {
+        return writeCount;
+    }
+
+    /** 已写出的帧数 */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    private static long nodeKey(int serverType, int serverId) {
+        return ((long) serverType << 32) | (serverId & 0xFFFFFFFFL);
+    }
+
+    // endregion
+
+    @Override
+    public void start() {
+        mutable = false;
+        try {
+            selector = Selector.open();
+            if (bindAddr != null) {
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.bind(bindAddr);
+                serverChannel.configureBlocking(false);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            throw new IllegalStateException("tcp router bind failed, addr " + bindAddr, e);
+        }
+        running = true;
+        ioThread = new Thread(this::ioLoop, "tcp-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Thread thread = this.ioThread;
+        if (thread != null) {
+            selector.wakeup();
+            try {
+                thread.join(3000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeQuietly();
+    }
+
+    /** 实际监听的地址 -- 绑定随机端口时使用 */
+    public InetSocketAddress getLocalAddr() {
+        try {
+            return serverChannel == null ? null : (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // region 发送
+
+    @Override
+    public boolean isWritable(RpcAddr addr) {
+        if (addr instanceof WorkerAddr workerAddr && workerAddr.serverId > 0 && !isLocalAddr(workerAddr)) {
+            TcpConnection connection = outboundMap.get(nodeKey(workerAddr.serverType, workerAddr.serverId));
+            return connection == null || connection.isWritable();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean send(RpcProtocol protocol) {
+        Objects.requireNonNull(protocol);
+        RpcAddr destAddr = protocol.getDestAddr();
+        if (isLocalAddr(destAddr)) {
+            sendLocal(protocol);
+            return true;
+        }
+        if (!(destAddr instanceof WorkerAddr workerAddr)) {
+            return false;
+        }
+        if (workerAddr.serverId > 0) { // 单播
+            TcpConnection connection = outboundMap.get(nodeKey(workerAddr.serverType, workerAddr.serverId));
+            if (connection == null) {
+                return false;
+            }
+            enqueue(connection, protocol, serializer.write(withoutAddr(protocol)));
+            return true;
+        }
+        // 多播到同类型的所有节点，只序列化一次
+        byte[] body = null;
+        for (TcpConnection connection : outboundMap.values()) {
+            if (connection.serverType != workerAddr.serverType) {
+                continue;
+            }
+            if (body == null) {
+                body = serializer.write(withoutAddr(protocol));
+            }
+            enqueue(connection, protocol, body);
+        }
+        return body != null;
+    }
+
+    private void enqueue(TcpConnection connection, RpcProtocol protocol, byte[] body) {
+        if (body.length > maxFrameLength) {
+            throw new IllegalArgumentException("frame is too large, length " + body.length);
+        }
+        connection.offer(new Frame(protocol.getSrcAddr(), protocol.getDestAddr(), body));
+        if (connection.flushPending.compareAndSet(false, true)) {
+            flushQueue.offer(connection);
+            wakeup();
+        }
+    }
+
+    /** 浅拷贝协议并去除地址 -- 地址由帧头编码 */
+    private static RpcProtocol withoutAddr(RpcProtocol protocol) {
+        if (protocol instanceof RpcRequest request) {
+            RpcRequest result = new RpcRequest(request.getConId(), null, null);
+            result.setRequestId(request.getRequestId())
+                    .setInvokeType(request.getInvokeType())
+                    .setServiceId(request.getServiceId())
+                    .setMethodId(request.getMethodId())
+                    .setParameters(request.getParameters());
+            return result;
+        }
+        if (protocol instanceof RpcResponse response) {
+            RpcResponse result = new RpcResponse(response.getConId(), null, null);
+            result.setRequestId(response.getRequestId())
+                    .setServiceId(response.getServiceId())
+                    .setMethodId(response.getMethodId())
+                    .setErrorCode(response.getErrorCode())
+                    .setResults(response.getResults());
+            return result;
+        }
+        throw new IllegalArgumentException("unsupported protocol " + protocol.getClass());
+    }
+
+    /** 本地协议不经过网络，但不能在当前线程派发，否则无法支持同步调用 */
+    private void sendLocal(RpcProtocol protocol) {
+        if (protocol.isSerialized()) {
+            if (protocol instanceof RpcRequest request) {
+                request.setParameters(serializer.read(request.bytesParameters()));
+            } else {
+                RpcResponse response = (RpcResponse) protocol;
+                response.setResults(serializer.read(response.bytesResults()));
+            }
+        } else if (!enableLocalShare) {
+            if (protocol instanceof RpcRequest request) {
+                request.setParameters(serializer.read(serializer.write(request.getParameters())));
+            } else {
+                RpcResponse response = (RpcResponse) protocol;
+                response.setResults(serializer.read(serializer.write(response.getResults())));
+            }
+        }
+        protocol.setDeserialized();
+        execute(() -> dispatch(protocol));
+    }
+
+    // endregion
+
+    // region 接收
+
+    /** IO线程调用 -- 测试时可重写 */
+    protected void onRcvRequest(RpcRequest request) {
+        rpcSupport.onRcvRequest(request);
+    }
+
+    /** IO线程调用 -- 测试时可重写 */
+    protected void onRcvResponse(RpcResponse response) {
+        rpcSupport.onRcvResponse(response);
+    }
+
+    private void dispatch(RpcProtocol protocol) {
+        if (protocol instanceof RpcRequest request) {
+            onRcvRequest(request);
+        } else if (protocol instanceof RpcResponse response) {
+            onRcvResponse(response);
+        }
+    }
+
+    // endregion
+
+    // region io
+
+    private void execute(Runnable task) {
+        taskQueue.offer(task);
+        wakeup();
+    }
+
+    private void wakeup() {
+        // 启动前添加的任务在启动后执行
+        if (selector != null && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    private void ioLoop() {
+        final ByteBuffer[] gatherBuffers = new ByteBuffer[maxGatherFrames * 2];
+        while (running) {
+            try {
+                selector.select(100);
+                wakeupPending.set(false);
+
+                runTasks();
+                TcpConnection connection;
+                while ((connection = flushQueue.poll()) != null) {
+                    connection.flushPending.set(false);
+                    if (connection.connected) {
+                        flush(connection, gatherBuffers);
+                    }
+                }
+                Iterator<SelectionKey> itr = selector.selectedKeys().iterator();
+                while (itr.hasNext()) {
+                    SelectionKey key = itr.next();
+                    itr.remove();
+                    processKey(key, gatherBuffers);
+                }
+                reconnect(System.currentTimeMillis());
+            } catch (Throwable e) {
+                logger.warn("tcp io loop caught exception", e);
+            }
+        }
+        for (TcpConnection connection : outboundMap.values()) {
+            connection.closeChannel();
+            connection.discardFrames();
+        }
+        for (TcpConnection connection : inboundList) {
+            connection.closeChannel();
+        }
+        inboundList.clear();
+        taskQueue.clear();
+        flushQueue.clear();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = taskQueue.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                logger.warn("tcp io task caught exception", e);
+            }
+        }
+    }
+
+    private void processKey(SelectionKey key, ByteBuffer[] gatherBuffers) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+        TcpConnection connection = (TcpConnection) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                finishConnect(connection);
+                return;
+            }
+            if (key.isReadable()) {
+                read(connection);
+            }
+            if (connection.connected && key.isValid() && key.isWritable()) {
+                flush(connection, gatherBuffers);
+            }
+        } catch (IOException e) {
+            logger.info("tcp connection caught exception, remote {}", connection.remoteAddr, e);
+            onDisconnect(connection);
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                InetSocketAddress remoteAddr = (InetSocketAddress) channel.getRemoteAddress();
+                TcpConnection connection = new TcpConnection(0, 0, remoteAddr, highWaterMark, lowWaterMark);
+                connection.channel = channel;
+                connection.connected = true;
+                connection.readBuffer = ByteBuffer.allocate(64 * 1024);
+                connection.selectionKey = channel.register(selector, SelectionKey.OP_READ, connection);
+                inboundList.add(connection);
+                logger.info("tcp inbound connection, remote {}", remoteAddr);
+            }
+        } catch (IOException e) {
+            logger.info("tcp accept caught exception", e);
+        }
+    }
+
+    private void connect(TcpConnection connection) {
+        if (connection.removed) {
+            return;
+        }
+        try {
+            SocketChannel channel = SocketChannel.open();
+            connection.channel = channel;
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (channel.connect(connection.remoteAddr)) {
+                connection.selectionKey = channel.register(selector, 0, connection);
+                onConnected(connection);
+            } else {
+                connection.selectionKey = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            }
+        } catch (IOException e) {
+            logger.info("tcp connect failed, remote {}", connection.remoteAddr, e);
+            onDisconnect(connection);
+        }
+    }
+
+    private void finishConnect(TcpConnection connection) throws IOException {
+        if (connection.channel.finishConnect()) {
+            onConnected(connection);
+        }
+    }
+
+    private void onConnected(TcpConnection connection) {
+        connection.connected = true;
+        connection.reconnectIntervalMs = reconnectIntervalMs;
+        connection.readBuffer = ByteBuffer.allocate(1024);
+        connection.selectionKey.interestOps(SelectionKey.OP_READ);
+        logger.info("tcp outbound connected, remote {}", connection.remoteAddr);
+        // 发送断开期间积累的帧
+        connection.flushPending.set(true);
+        flushQueue.offer(connection);
+        wakeup();
+    }
+
+    private void onDisconnect(TcpConnection connection) {
+        boolean wasConnected = connection.connected;
+        connection.closeChannel();
+        if (!connection.isOutbound()) {
+            inboundList.remove(connection);
+            return;
+        }
+        if (wasConnected) {
+            logger.info("tcp outbound disconnected, remote {}", connection.remoteAddr);
+        }
+        connection.nextConnectMs = System.currentTimeMillis() + connection.reconnectIntervalMs;
+        connection.reconnectIntervalMs = Math.min(maxReconnectIntervalMs, connection.reconnectIntervalMs * 2);
+    }
+
+    private void reconnect(long nowMs) {
+        for (TcpConnection connection : outboundMap.values()) {
+            if (connection.channel == null && !connection.removed && connection.nextConnectMs > 0 && nowMs >= connection.nextConnectMs) {
+                connection.nextConnectMs = 0;
+                connect(connection);
+            }
+        }
+    }
+
+    private void removeOutbound(TcpConnection connection) {
+        connection.removed = true;
+        connection.closeChannel();
+        connection.discardFrames();
+    }
+
+    /** 聚集写 -- 一次系统调用写出多个帧 */
+    private void flush(TcpConnection connection, ByteBuffer[] gatherBuffers) throws IOException {
+        final int maxFrames = gatherBuffers.length / 2;
+        while (true) {
+            // 补充待写的帧
+            while (connection.inflight.size() < maxFrames) {
+                Frame frame = connection.pollFrame();
+                if (frame == null) {
+                    break;
+                }
+                connection.inflight.addLast(frame);
+            }
+            if (connection.inflight.isEmpty()) {
+                connection.selectionKey.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            int count = 0;
+            for (Frame frame : connection.inflight) {
+                if (frame.header == null) { // 按写出顺序编码，保证地址定义先于引用
+                    frame.header = connection.addrDictionary.encodeHeader(frame.srcAddr, frame.destAddr,
+                            frame.body.capacity(), serializer);
+                }
+                gatherBuffers[count++] = frame.header;
+                gatherBuffers[count++] = frame.body;
+            }
+            connection.channel.write(gatherBuffers, 0, count);
+            writeCount++;
+            Arrays.fill(gatherBuffers, 0, count, null);
+
+            int frames = 0;
+            Frame frame;
+            while ((frame = connection.inflight.peekFirst()) != null && frame.isDone()) {
+                connection.inflight.pollFirst();
+                connection.onWritten(frame.size());
+                frames++;
+            }
+            frameCount += frames;
+            if (!connection.inflight.isEmpty()) {
+                // 套接字缓冲区已满，等待可写
+                connection.selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    private void read(TcpConnection connection) throws IOException {
+        ByteBuffer readBuffer = connection.readBuffer;
+        int n = connection.channel.read(readBuffer);
+        if (n < 0) {
+            onDisconnect(connection);
+            return;
+        }
+        readBuffer.flip();
+        while (readBuffer.remaining() >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length < 0 || length > maxFrameLength) {
+                throw new IOException("invalid frame length " + length);
+            }
+            if (readBuffer.remaining() < 4 + length) {
+                break;
+            }
+            readBuffer.getInt();
+            int start = readBuffer.position();
+            RpcAddr srcAddr = connection.addrDictionary.readAddr(readBuffer, serializer, internedAddrMap);
+            RpcAddr destAddr = connection.addrDictionary.readAddr(readBuffer, serializer, internedAddrMap);
+            int bodyLength = length - (readBuffer.position() - start);
+            if (bodyLength < 0) {
+                throw new IOException("invalid frame length " + length);
+            }
+            byte[] body = new byte[bodyLength];
+            readBuffer.get(body);
+            decodeAndDispatch(srcAddr, destAddr, body);
+        }
+        readBuffer.compact();
+        // 扩容以容纳完整的帧
+        if (readBuffer.position() >= 4) {
+            int frameSize = 4 + readBuffer.getInt(0);
+            if (frameSize > readBuffer.capacity()) {
+                ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(frameSize, readBuffer.capacity() * 2));
+                readBuffer.flip();
+                newBuffer.put(readBuffer);
+                connection.readBuffer = newBuffer;
+            }
+        }
+    }
+
+    private void decodeAndDispatch(RpcAddr srcAddr, RpcAddr destAddr, byte[] body) {
+        RpcProtocol protocol;
+        try {
+            protocol = (RpcProtocol) serializer.read(body);
+        } catch (Exception e) {
+            logger.info("tcp decode protocol caught exception", e);
+            return;
+        }
+        protocol.setSrcAddr(srcAddr);
+        protocol.setDestAddr(destAddr);
+        // 发送方已序列化的参数或结果仍为字节数组，由NodeRpcSupport按需反序列化
+        Object payload = protocol instanceof RpcRequest request ? request.getParameters() : ((RpcResponse) protocol).getResults();
+        if (!(payload instanceof byte[])) {
+            protocol.setDeserialized();
+        }
+        try {
+            dispatch(protocol);
+        } catch (Throwable e) {
+            logger.warn("tcp dispatch protocol caught exception", e);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException e) {
+            logger.info("tcp router close caught exception", e);
+        }
+    }
+
+    // endregion
+}
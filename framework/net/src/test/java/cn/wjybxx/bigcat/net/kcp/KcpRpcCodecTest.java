@@ -0,0 +1,138 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.kcp;
+
+import cn.wjybxx.bigcat.fx.PlayerAddr;
+import cn.wjybxx.bigcat.fx.WorkerAddr;
+import cn.wjybxx.bigcat.pb.PBMethodInfo;
+import cn.wjybxx.bigcat.pb.PBMethodInfoRegistry;
+import cn.wjybxx.bigcat.rpc.*;
+import com.google.protobuf.StringValue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 消息直接编码到缓冲区，以及直接从缓冲区解析
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class KcpRpcCodecTest {
+
+    private static final PlayerAddr PLAYER_ADDR = new PlayerAddr(10001);
+    private static final WorkerAddr SERVER_ADDR = new WorkerAddr(1, 1);
+
+    @Test
+    void testRequest() {
+        PBMethodInfoRegistry registry = newRegistry();
+        StringValue message = StringValue.of("hello");
+        RpcRequest request = new RpcRequest(1, PLAYER_ADDR, SERVER_ADDR)
+                .setRequestId(2)
+                .setInvokeType(RpcInvokeType.CALL)
+                .setServiceId(1)
+                .setMethodId(1)
+                .setParameters(List.of(message));
+        byte[] direct = KcpRpcCodec.encodeRequest(request);
+        Assertions.assertEquals(KcpRpcCodec.requestSize(request), direct.length);
+
+        // 与先序列化再编码的结果一致
+        RpcRequest serialized = new RpcRequest(1, PLAYER_ADDR, SERVER_ADDR)
+                .setRequestId(2)
+                .setInvokeType(RpcInvokeType.CALL)
+                .setServiceId(1)
+                .setMethodId(1)
+                .setParameters(List.of(message));
+        registry.encodeParameters(serialized);
+        Assertions.assertArrayEquals(KcpRpcCodec.encodeRequest(serialized), direct);
+
+        ByteBuffer buffer = ByteBuffer.wrap(direct);
+        RpcRequest decoded = (RpcRequest) KcpRpcCodec.decodeHeader(buffer, PLAYER_ADDR, SERVER_ADDR);
+        Assertions.assertNotNull(decoded);
+        Assertions.assertEquals(2, decoded.getRequestId());
+        Assertions.assertTrue(registry.decodeParameters(decoded, buffer));
+        Assertions.assertFalse(buffer.hasRemaining());
+        Assertions.assertEquals(message, decoded.getArgument());
+    }
+
+    @Test
+    void testResponse() {
+        PBMethodInfoRegistry registry = newRegistry();
+        RpcRequest request = new RpcRequest(1, PLAYER_ADDR, SERVER_ADDR)
+                .setRequestId(3)
+                .setServiceId(1)
+                .setMethodId(1);
+        RpcResponse response = new RpcResponse(request, SERVER_ADDR);
+        response.setSuccess(StringValue.of("world"));
+
+        ByteBuffer buffer = ByteBuffer.wrap(KcpRpcCodec.encodeResponse(response));
+        RpcResponse decoded = (RpcResponse) KcpRpcCodec.decodeHeader(buffer, SERVER_ADDR, PLAYER_ADDR);
+        Assertions.assertNotNull(decoded);
+        Assertions.assertTrue(registry.decodeResult(decoded, buffer));
+        Assertions.assertEquals(StringValue.of("world"), decoded.getResult());
+
+        // 失败的结果为错误信息
+        RpcResponse failed = new RpcResponse(request, SERVER_ADDR);
+        failed.setFailed(RpcErrorCodes.SERVER_EXCEPTION, "error");
+        buffer = ByteBuffer.wrap(KcpRpcCodec.encodeResponse(failed));
+        decoded = (RpcResponse) KcpRpcCodec.decodeHeader(buffer, SERVER_ADDR, PLAYER_ADDR);
+        Assertions.assertNotNull(decoded);
+        Assertions.assertTrue(registry.decodeResult(decoded, buffer));
+        Assertions.assertEquals("error", decoded.getErrorMsg());
+    }
+
+    @Test
+    void testBundle() {
+        PBMethodInfoRegistry registry = newRegistry();
+        List<RpcRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            requests.add(new RpcRequest(1, SERVER_ADDR, PLAYER_ADDR)
+                    .setRequestId(i + 1)
+                    .setInvokeType(RpcInvokeType.ONEWAY)
+                    .setServiceId(1)
+                    .setMethodId(1)
+                    .setParameters(List.of(StringValue.of("msg-" + i))));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(KcpRpcCodec.encodeBundle(requests));
+        Assertions.assertTrue(KcpRpcCodec.isBundle(buffer));
+        ByteBuffer[] messages = KcpRpcCodec.sliceBundle(buffer);
+        Assertions.assertNotNull(messages);
+        Assertions.assertFalse(buffer.hasRemaining());
+        Assertions.assertEquals(3, messages.length);
+        for (int i = 0; i < 3; i++) {
+            RpcRequest decoded = (RpcRequest) KcpRpcCodec.decodeHeader(messages[i], SERVER_ADDR, PLAYER_ADDR);
+            Assertions.assertNotNull(decoded);
+            Assertions.assertEquals(i + 1, decoded.getRequestId());
+            Assertions.assertTrue(registry.decodeParameters(decoded, messages[i]));
+            Assertions.assertEquals(StringValue.of("msg-" + i), decoded.getArgument());
+        }
+
+        // 截断的包
+        byte[] data = KcpRpcCodec.encodeBundle(requests);
+        Assertions.assertNull(KcpRpcCodec.sliceBundle(ByteBuffer.wrap(data, 0, data.length - 1)));
+    }
+
+    private static PBMethodInfoRegistry newRegistry() {
+        PBMethodInfoRegistry registry = new PBMethodInfoRegistry();
+        registry.register(new PBMethodInfo<>(1, 1, StringValue.class, StringValue.class));
+        registry.makeImmutable();
+        return registry;
+    }
+}
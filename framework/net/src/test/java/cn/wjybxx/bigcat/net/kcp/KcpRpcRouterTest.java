@@ -0,0 +1,354 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.kcp;
+
+import cn.wjybxx.bigcat.fx.PlayerAddr;
+import cn.wjybxx.bigcat.rpc.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 通过回环地址测试握手和请求响应，中间经过一个丢包乱序的代理
+ *
+ * @author wjybxx
+ * date - 2024/1/18
+ */
+public class KcpRpcRouterTest {
+
+    @Test
+    void testEchoOverLossyLink() throws Exception {
+        EchoRouter router = new EchoRouter();
+        router.setBindAddr(new InetSocketAddress("127.0.0.1", 0))
+                .setAuthenticator((playerGuid, token, remoteAddr) -> "token".equals(new String(token, StandardCharsets.UTF_8)));
+        router.start();
+        LossyProxy proxy = new LossyProxy(router.getLocalAddr(), 0.1);
+        KcpClient client = new KcpClient(KcpConfig.DEFAULT, proxy.getLocalAddr(), 10001, "token".getBytes(StandardCharsets.UTF_8));
+        try {
+            client.connect();
+            List<RpcResponse> responses = new ArrayList<>();
+            int msgCount = 100;
+            int sent = 0;
+            long deadline = System.currentTimeMillis() + 20_000;
+            while (responses.size() < msgCount && System.currentTimeMillis() < deadline) {
+                long now = System.currentTimeMillis();
+                proxy.pump();
+                client.update(now);
+                if (client.isConnected() && sent < msgCount) {
+                    RpcRequest request = new RpcRequest(1, null, null);
+                    request.setRequestId(sent + 1)
+                            .setInvokeType(RpcInvokeType.CALL)
+                            .setServiceId(1)
+                            .setMethodId(1)
+                            .setParameters(("msg-" + sent).getBytes(StandardCharsets.UTF_8));
+                    Assertions.assertTrue(client.send(request));
+                    sent++;
+                }
+                RpcProtocol protocol;
+                while ((protocol = client.poll()) != null) {
+                    responses.add((RpcResponse) protocol);
+                }
+                Thread.sleep(1);
+            }
+            Assertions.assertEquals(msgCount, responses.size());
+            for (int i = 0; i < msgCount; i++) {
+                RpcResponse response = responses.get(i);
+                Assertions.assertEquals(i + 1, response.getRequestId());
+                Assertions.assertEquals("msg-" + i, new String(response.bytesResults(), StandardCharsets.UTF_8));
+            }
+            Assertions.assertTrue(router.isOnline(10001));
+        } finally {
+            client.close();
+            proxy.close();
+            router.stop();
+        }
+    }
+
+    @Test
+    void testRejectHandshake() throws Exception {
+        EchoRouter router = new EchoRouter();
+        router.setBindAddr(new InetSocketAddress("127.0.0.1", 0))
+                .setAuthenticator((playerGuid, token, remoteAddr) -> false);
+        router.start();
+        KcpClient client = new KcpClient(KcpConfig.DEFAULT, router.getLocalAddr(), 10002, new byte[0]);
+        try {
+            client.connect();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (client.getState() == KcpClient.State.CONNECTING && System.currentTimeMillis() < deadline) {
+                client.update(System.currentTimeMillis());
+                Thread.sleep(1);
+            }
+            Assertions.assertEquals(KcpClient.State.REJECTED, client.getState());
+            Assertions.assertEquals(0, router.sessionCount());
+        } finally {
+            client.close();
+            router.stop();
+        }
+    }
+
+    /** 未设置验证器时拒绝所有握手 */
+    @Test
+    void testRejectWithoutAuthenticator() throws Exception {
+        EchoRouter router = new EchoRouter();
+        router.setBindAddr(new InetSocketAddress("127.0.0.1", 0));
+        router.start();
+        KcpClient client = new KcpClient(KcpConfig.DEFAULT, router.getLocalAddr(), 10004, new byte[0]);
+        try {
+            client.connect();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (client.getState() == KcpClient.State.CONNECTING && System.currentTimeMillis() < deadline) {
+                client.update(System.currentTimeMillis());
+                Thread.sleep(1);
+            }
+            Assertions.assertEquals(KcpClient.State.REJECTED, client.getState());
+            Assertions.assertEquals(0, router.sessionCount());
+        } finally {
+            client.close();
+            router.stop();
+        }
+    }
+
+    /** 客户端更换地址后通过迁移验证继续使用会话；伪造的数据包和签名不能劫持会话 */
+    @Test
+    void testMigrate() throws Exception {
+        EchoRouter router = new EchoRouter();
+        router.setBindAddr(new InetSocketAddress("127.0.0.1", 0))
+                .setAuthenticator(KcpAuthenticator.ACCEPT_ALL);
+        router.start();
+        KcpClient client = new KcpClient(KcpConfig.DEFAULT, router.getLocalAddr(), 10005, new byte[0]);
+        DatagramChannel attacker = DatagramChannel.open();
+        attacker.bind(new InetSocketAddress("127.0.0.1", 0));
+        attacker.configureBlocking(false);
+        try {
+            client.connect();
+            Assertions.assertEquals("msg-1", echo(client, 1));
+
+            // 攻击者知道conv，但不知道迁移密钥
+            ByteBuffer packet = ByteBuffer.allocate(Kcp.OVERHEAD);
+            packet.putInt(0, client.getConv());
+            attacker.send(packet, router.getLocalAddr());
+            ByteBuffer challenge = receive(attacker);
+            Assertions.assertNotNull(challenge);
+            Assertions.assertEquals(KcpRpcCodec.CTL_MIGRATE_CHALLENGE, challenge.get(4));
+            long nonce = challenge.getLong(9);
+            ByteBuffer migrate = ByteBuffer.allocate(64);
+            KcpRpcCodec.writeMigrate(migrate, client.getConv(), nonce, new byte[KcpRpcCodec.MIGRATION_KEY_LENGTH]);
+            attacker.send(migrate.flip(), router.getLocalAddr());
+            Assertions.assertEquals("msg-2", echo(client, 2));
+
+            // 攻击者收不到任何业务数据
+            ByteBuffer leaked;
+            while ((leaked = receive(attacker)) != null) {
+                Assertions.assertTrue(KcpRpcCodec.isControlPacket(leaked));
+            }
+
+            // 真实的地址变化
+            client.rebind();
+            Assertions.assertEquals("msg-3", echo(client, 3));
+            Assertions.assertTrue(router.isOnline(10005));
+        } finally {
+            attacker.close();
+            client.close();
+            router.stop();
+        }
+    }
+
+    private static String echo(KcpClient client, long requestId) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        boolean sent = false;
+        while (System.currentTimeMillis() < deadline) {
+            client.update(System.currentTimeMillis());
+            if (client.isConnected() && !sent) {
+                RpcRequest request = new RpcRequest(1, null, null);
+                request.setRequestId(requestId)
+                        .setInvokeType(RpcInvokeType.CALL)
+                        .setServiceId(1)
+                        .setMethodId(1)
+                        .setParameters(("msg-" + requestId).getBytes(StandardCharsets.UTF_8));
+                sent = client.send(request);
+            }
+            RpcProtocol protocol;
+            while ((protocol = client.poll()) != null) {
+                if (protocol instanceof RpcResponse response && response.getRequestId() == requestId) {
+                    return new String(response.bytesResults(), StandardCharsets.UTF_8);
+                }
+            }
+            Thread.sleep(1);
+        }
+        return null;
+    }
+
+    /** 等待一小段时间接收数据包 */
+    private static ByteBuffer receive(DatagramChannel channel) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        long deadline = System.currentTimeMillis() + 200;
+        while (System.currentTimeMillis() < deadline) {
+            if (channel.receive(buffer) != null) {
+                return buffer.flip();
+            }
+            Thread.sleep(1);
+        }
+        return null;
+    }
+
+    @Test
+    void testBundle() throws Exception {
+        EchoRouter router = new EchoRouter();
+        router.setBindAddr(new InetSocketAddress("127.0.0.1", 0))
+                .setAuthenticator(KcpAuthenticator.ACCEPT_ALL);
+        router.start();
+        KcpClient client = new KcpClient(KcpConfig.DEFAULT, router.getLocalAddr(), 10003, new byte[0]);
+        try {
+            client.connect();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!router.isOnline(10003) && System.currentTimeMillis() < deadline) {
+                client.update(System.currentTimeMillis());
+                Thread.sleep(1);
+            }
+            Assertions.assertTrue(router.isOnline(10003));
+
+            // 超过单个包上限的部分拆分为多个包
+            int msgCount = 100;
+            byte[] parameters = new byte[router.maxBundleSize() / 30];
+            List<RpcRequest> requests = new ArrayList<>();
+            for (int i = 0; i < msgCount; i++) {
+                RpcRequest request = new RpcRequest(1, null, new PlayerAddr(10003));
+                request.setRequestId(i + 1)
+                        .setInvokeType(RpcInvokeType.ONEWAY)
+                        .setServiceId(1)
+                        .setMethodId(1)
+                        .setParameters(parameters);
+                requests.add(request);
+            }
+            Assertions.assertTrue(router.sendBundle(new PlayerAddr(10003), requests));
+
+            List<RpcProtocol> received = new ArrayList<>();
+            deadline = System.currentTimeMillis() + 10_000;
+            while (received.size() < msgCount && System.currentTimeMillis() < deadline) {
+                client.update(System.currentTimeMillis());
+                RpcProtocol protocol;
+                while ((protocol = client.poll()) != null) {
+                    received.add(protocol);
+                }
+                Thread.sleep(1);
+            }
+            Assertions.assertEquals(msgCount, received.size());
+            for (int i = 0; i < msgCount; i++) {
+                Assertions.assertEquals(i + 1, ((RpcRequest) received.get(i)).getRequestId());
+            }
+        } finally {
+            client.close();
+            router.stop();
+        }
+    }
+
+    /** 将请求参数原样返回 */
+    private static class EchoRouter extends KcpRpcRouter {
+
+        @Override
+        protected void onRcvRequest(RpcRequest request) {
+            RpcResponse response = new RpcResponse(request, null);
+            response.setErrorCode(RpcErrorCodes.SUCCESS);
+            response.setResults(request.bytesParameters());
+            response.setSerialized();
+            send(response);
+        }
+
+        @Override
+        protected void onRcvResponse(RpcResponse response) {
+
+        }
+    }
+
+    /** 单客户端的udp代理，按比例丢包，并随机交换相邻的包 */
+    private static class LossyProxy {
+
+        final SocketAddress serverAddr;
+        final double lossRate;
+        final DatagramChannel channel;
+        final Random random = new Random(1024);
+        final ByteBuffer buffer = ByteBuffer.allocate(65536);
+        SocketAddress clientAddr;
+
+        LossyProxy(SocketAddress serverAddr, double lossRate) throws IOException {
+            this.serverAddr = serverAddr;
+            this.lossRate = lossRate;
+            this.channel = DatagramChannel.open();
+            this.channel.bind(new InetSocketAddress("127.0.0.1", 0));
+            this.channel.configureBlocking(false);
+        }
+
+        SocketAddress getLocalAddr() throws IOException {
+            return channel.getLocalAddress();
+        }
+
+        void pump() throws IOException {
+            List<byte[]> toServer = new ArrayList<>();
+            List<byte[]> toClient = new ArrayList<>();
+            SocketAddress from;
+            while (true) {
+                buffer.clear();
+                if ((from = channel.receive(buffer)) == null) {
+                    break;
+                }
+                buffer.flip();
+                byte[] packet = new byte[buffer.remaining()];
+                buffer.get(packet);
+                if (from.equals(serverAddr)) {
+                    toClient.add(packet);
+                } else {
+                    clientAddr = from;
+                    toServer.add(packet);
+                }
+            }
+            forward(toServer, serverAddr);
+            if (clientAddr != null) {
+                forward(toClient, clientAddr);
+            }
+        }
+
+        private void forward(List<byte[]> packets, SocketAddress target) throws IOException {
+            for (int i = 0; i + 1 < packets.size(); i += 2) {
+                if (random.nextBoolean()) {
+                    byte[] tmp = packets.get(i);
+                    packets.set(i, packets.get(i + 1));
+                    packets.set(i + 1, tmp);
+                }
+            }
+            for (byte[] packet : packets) {
+                // 控制包不丢弃，以免测试时间过长
+                if (!KcpRpcCodec.isControlPacket(ByteBuffer.wrap(packet)) && random.nextDouble() < lossRate) {
+                    continue;
+                }
+                channel.send(ByteBuffer.wrap(packet), target);
+            }
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.kcp;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 在内存中模拟丢包、乱序和重复的链路
+ *
+ * @author wjybxx
+ * date - 2024/1/18
+ */
+public class KcpTest {
+
+    @Test
+    void testReliableWithoutLoss() {
+        runLink(0, 0, 100, 64);
+    }
+
+    @Test
+    void testLossAndReorder() {
+        runLink(0.2, 0.3, 300, 64);
+    }
+
+    @Test
+    void testFragment() {
+        runLink(0.1, 0.2, 50, 8000);
+    }
+
+    private static void runLink(double lossRate, double reorderRate, int msgCount, int maxSize) {
+        Random random = new Random(1024);
+        LossyLink aToB = new LossyLink(random, lossRate, reorderRate);
+        LossyLink bToA = new LossyLink(random, lossRate, reorderRate);
+        KcpConfig config = KcpConfig.newBuilder().setInterval(10).build();
+        Kcp a = new Kcp(1, config, (data, kcp) -> aToB.offer(data));
+        Kcp b = new Kcp(1, config, (data, kcp) -> bToA.offer(data));
+
+        List<byte[]> sent = new ArrayList<>(msgCount);
+        for (int i = 0; i < msgCount; i++) {
+            byte[] msg = new byte[1 + random.nextInt(maxSize)];
+            random.nextBytes(msg);
+            msg[0] = (byte) i;
+            Assertions.assertTrue(a.send(msg));
+            sent.add(msg);
+        }
+
+        List<byte[]> received = new ArrayList<>(msgCount);
+        for (long now = 0; now < 60_000 && received.size() < msgCount; now += 10) {
+            a.update(now);
+            b.update(now);
+            aToB.deliver(b);
+            bToA.deliver(a);
+            byte[] msg;
+            while ((msg = b.recv()) != null) {
+                received.add(msg);
+            }
+        }
+        Assertions.assertEquals(msgCount, received.size());
+        for (int i = 0; i < msgCount; i++) {
+            Assertions.assertArrayEquals(sent.get(i), received.get(i));
+        }
+        if (lossRate > 0) {
+            Assertions.assertTrue(a.getXmitCount() > 0);
+        }
+    }
+
+    private static class LossyLink {
+
+        final Random random;
+        final double lossRate;
+        final double reorderRate;
+        final List<byte[]> packets = new ArrayList<>();
+
+        LossyLink(Random random, double lossRate, double reorderRate) {
+            this.random = random;
+            this.lossRate = lossRate;
+            this.reorderRate = reorderRate;
+        }
+
+        void offer(ByteBuffer data) {
+            if (random.nextDouble() < lossRate) {
+                return;
+            }
+            byte[] packet = new byte[data.remaining()];
+            data.get(packet);
+            if (random.nextDouble() < reorderRate && !packets.isEmpty()) {
+                packets.add(random.nextInt(packets.size()), packet);
+            } else {
+                packets.add(packet);
+            }
+            // 偶尔重复
+            if (random.nextDouble() < 0.05) {
+                packets.add(packet.clone());
+            }
+        }
+
+        void deliver(Kcp target) {
+            for (byte[] packet : packets) {
+                target.input(ByteBuffer.wrap(packet));
+            }
+            packets.clear();
+        }
+    }
+}
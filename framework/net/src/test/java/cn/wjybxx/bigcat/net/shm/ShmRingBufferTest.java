@@ -0,0 +1,80 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.shm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author wjybxx
+ * date - 2024/1/21
+ */
+public class ShmRingBufferTest {
+
+    @Test
+    void testWrapAround() throws IOException {
+        Path tempDir = Files.createTempDirectory("bigcat-shm");
+        Path path = tempDir.resolve("test.ring");
+        Assertions.assertNull(ShmRingBuffer.open(path));
+
+        ShmRingBuffer producer = ShmRingBuffer.create(path, 1024);
+        ShmRingBuffer consumer = ShmRingBuffer.open(path);
+        Assertions.assertNotNull(consumer);
+        Assertions.assertNull(consumer.poll());
+
+        // 记录长度不对齐容量，多次绕回数据区开头
+        for (int i = 0; i < 1000; i++) {
+            byte[] data = ("message-" + i + "-" + "x".repeat(i % 50)).getBytes(StandardCharsets.UTF_8);
+            Assertions.assertTrue(producer.offer(data));
+            Assertions.assertTrue(consumer.isReadable());
+            Assertions.assertArrayEquals(data, consumer.poll());
+        }
+        Assertions.assertFalse(consumer.isReadable());
+        Assertions.assertEquals(1024, producer.freeBytes());
+    }
+
+    @Test
+    void testFullAndReplace() throws IOException {
+        Path tempDir = Files.createTempDirectory("bigcat-shm");
+        Path path = tempDir.resolve("test.ring");
+        ShmRingBuffer producer = ShmRingBuffer.create(path, 1024);
+        ShmRingBuffer consumer = ShmRingBuffer.open(path);
+        Assertions.assertNotNull(consumer);
+
+        byte[] data = new byte[100]; // 对齐后每条记录占104字节
+        int count = 0;
+        while (producer.offer(data)) {
+            count++;
+        }
+        Assertions.assertEquals(1024 / 104, count);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> producer.offer(new byte[1024]));
+
+        // 消费后恢复可写
+        Assertions.assertNotNull(consumer.poll());
+        Assertions.assertTrue(producer.offer(data));
+
+        // 生产者重启，消费者可检测到文件已替换
+        Assertions.assertFalse(consumer.isReplaced());
+        ShmRingBuffer.create(path, 1024);
+        Assertions.assertTrue(consumer.isReplaced());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.shm;
+
+import cn.wjybxx.bigcat.fx.WorkerAddr;
+import cn.wjybxx.bigcat.rpc.RpcInvokeType;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * 共享内存的往返延迟测试
+ * 调用方逐个发送请求并等待响应，统计往返延迟的分位数。
+ * 读线程默认自旋后让出CPU，不睡眠；核数充足时可传入 spin 使用忙等待。
+ *
+ * @author wjybxx
+ * date - 2024/1/21
+ */
+public class ShmRpcRouterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        boolean spin = args.length > 1 && "spin".equals(args[1]);
+        int warmup = count / 4;
+
+        Path directory = Files.createTempDirectory("bigcat-shm");
+        WorkerAddr addrA = new WorkerAddr(1, 1);
+        WorkerAddr addrB = new WorkerAddr(2, 1);
+        TestShmRouter a = new TestShmRouter(addrA, directory);
+        TestShmRouter b = new TestShmRouter(addrB, directory);
+        for (TestShmRouter router : new TestShmRouter[]{a, b}) {
+            router.setSpinTries(spin ? Integer.MAX_VALUE : 100)
+                    .setYieldTries(Integer.MAX_VALUE);
+        }
+        a.start();
+        b.start();
+        a.addPeer(2, 1);
+        b.addPeer(1, 1);
+        ShmRpcRouterTest.waitUntil(() -> a.isConnected(2, 1) && b.isConnected(1, 1));
+
+        long[] costs = new long[count];
+        for (int i = 0; i < warmup + count; i++) {
+            long startTime = System.nanoTime();
+            a.send(a.newRequest(addrB, i, RpcInvokeType.CALL, i));
+            while (a.responseQueue.poll() == null) {
+                if (spin) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+            if (i >= warmup) {
+                costs[i - warmup] = System.nanoTime() - startTime;
+            }
+        }
+        Arrays.sort(costs);
+        System.out.printf("round trips %d, p50 %.2f us, p99 %.2f us, p999 %.2f us%n", count,
+                costs[count / 2] / 1e3, costs[(int) (count * 0.99)] / 1e3, costs[(int) (count * 0.999)] / 1e3);
+        a.stop();
+        b.stop();
+    }
+}
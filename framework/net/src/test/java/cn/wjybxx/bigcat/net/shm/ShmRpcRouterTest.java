@@ -0,0 +1,120 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.shm;
+
+import cn.wjybxx.base.ThreadUtils;
+import cn.wjybxx.bigcat.fx.WorkerAddr;
+import cn.wjybxx.bigcat.rpc.RpcInvokeType;
+import cn.wjybxx.bigcat.rpc.RpcRequest;
+import cn.wjybxx.bigcat.rpc.RpcResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+/**
+ * @author wjybxx
+ * date - 2024/1/21
+ */
+public class ShmRpcRouterTest {
+
+    private static final WorkerAddr ADDR_A = new WorkerAddr(1, 1);
+    private static final WorkerAddr ADDR_B = new WorkerAddr(2, 1);
+
+    @Test
+    void testEcho() throws IOException {
+        Path tempDir = Files.createTempDirectory("bigcat-shm");
+        TestShmRouter a = new TestShmRouter(ADDR_A, tempDir);
+        TestShmRouter b = new TestShmRouter(ADDR_B, tempDir);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> a.setSpinTries(-1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> a.setParkNanos(0));
+        a.start();
+        b.start();
+        try {
+            a.addPeer(2, 1);
+            b.addPeer(1, 1);
+            waitUntil(() -> a.isConnected(2, 1) && b.isConnected(1, 1));
+
+            int count = 10000;
+            int sent = 0;
+            for (int i = 1; i <= count; i++) {
+                while (!a.isWritable(ADDR_B)) {
+                    Thread.onSpinWait();
+                }
+                RpcRequest request = (i & 1) == 0
+                        ? a.newRequest(ADDR_B, i, RpcInvokeType.CALL, "msg-" + i)
+                        : a.newSerializedRequest(ADDR_B, i, RpcInvokeType.CALL, "msg-" + i);
+                Assertions.assertTrue(a.send(request));
+                sent++;
+            }
+            final int total = sent;
+            waitUntil(() -> a.responseQueue.size() >= total);
+            for (int i = 1; i <= count; i++) {
+                RpcResponse response = a.responseQueue.poll();
+                Assertions.assertNotNull(response);
+                Assertions.assertEquals(i, response.getRequestId());
+                Assertions.assertEquals("msg-" + i, response.listResult().get(0));
+            }
+            // 本地地址由读线程派发
+            Assertions.assertTrue(a.send(a.newRequest(ADDR_A, 1, RpcInvokeType.CALL, "local")));
+            waitUntil(() -> !a.responseQueue.isEmpty());
+            Assertions.assertEquals("local", a.responseQueue.poll().listResult().get(0));
+        } finally {
+            a.stop();
+            b.stop();
+        }
+        Assertions.assertFalse(tempDir.resolve("bigcat-1_1-to-2_1.ring").toFile().exists());
+    }
+
+    @Test
+    void testPeerRestart() throws IOException {
+        Path tempDir = Files.createTempDirectory("bigcat-shm");
+        TestShmRouter a = new TestShmRouter(ADDR_A, tempDir);
+        TestShmRouter b = new TestShmRouter(ADDR_B, tempDir);
+        a.start();
+        b.start();
+        try {
+            a.addPeer(2, 1);
+            b.addPeer(1, 1);
+            waitUntil(() -> b.isConnected(1, 1));
+            Assertions.assertTrue(a.send(a.newRequest(ADDR_B, 1, RpcInvokeType.ONEWAY, "first")));
+            waitUntil(() -> b.requestCount.get() == 1);
+
+            // 重启a，b切换到新文件
+            a.stop();
+            a = new TestShmRouter(ADDR_A, tempDir);
+            a.start();
+            a.addPeer(2, 1);
+            Assertions.assertTrue(a.send(a.newRequest(ADDR_B, 2, RpcInvokeType.ONEWAY, "second")));
+            waitUntil(() -> b.requestCount.get() == 2);
+            Assertions.assertEquals(2, b.requestCount.get());
+        } finally {
+            a.stop();
+            b.stop();
+        }
+    }
+
+    static void waitUntil(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            ThreadUtils.sleepQuietly(1);
+        }
+    }
+}
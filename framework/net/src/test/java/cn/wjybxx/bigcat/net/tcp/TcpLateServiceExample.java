@@ -0,0 +1,35 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.bigcat.rpc.RpcMethod;
+import cn.wjybxx.bigcat.rpc.RpcService;
+
+/**
+ * 运行时注册的测试服务
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@RpcService(serviceId = 2)
+public class TcpLateServiceExample {
+
+    @RpcMethod(methodId = 1)
+    public String hello(String name) {
+        return "hello " + name;
+    }
+}
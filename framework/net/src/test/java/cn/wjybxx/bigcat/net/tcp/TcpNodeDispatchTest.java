@@ -0,0 +1,242 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.base.time.TimeProvider;
+import cn.wjybxx.bigcat.fx.*;
+import cn.wjybxx.bigcat.net.TestRpcSerializer;
+import cn.wjybxx.bigcat.pb.PBMethodInfoRegistry;
+import cn.wjybxx.bigcat.rpc.*;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 经由Tcp路由接收的请求由IO线程直接分发给Worker
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class TcpNodeDispatchTest {
+
+    private static final WorkerAddr GATE_ADDR = new WorkerAddr(1, 1);
+    private static final WorkerAddr GAME_ADDR = new WorkerAddr(2, 1);
+
+    private CountingTcpRouter gameRouter;
+    private Node gate;
+    private Node game;
+    private final CountDownLatch nodeLatch = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        CountingTcpRouter gateRouter = new CountingTcpRouter();
+        gameRouter = new CountingTcpRouter();
+        gate = newNode(GATE_ADDR, gateRouter, false);
+        game = newNode(GAME_ADDR, gameRouter, true);
+        gate.start().join();
+        game.start().join();
+        gateRouter.addRemoteNode(GAME_ADDR.serverType, GAME_ADDR.serverId, gameRouter.getLocalAddr());
+        gameRouter.addRemoteNode(GATE_ADDR.serverType, GATE_ADDR.serverId, gateRouter.getLocalAddr());
+        // 阻塞game的node线程 -- 请求只能由IO线程分发
+        block(game, nodeLatch);
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodeLatch.countDown();
+        gate.shutdownNow();
+        game.shutdownNow();
+        gate.terminationFuture().join();
+        game.terminationFuture().join();
+    }
+
+    @Test
+    void testBypassNode() throws Exception {
+        Worker gameWorker = game.getWorker(0);
+        TcpServiceExample service = gameWorker.injector().getInstance(ServiceModule.class).service;
+        send(TcpServiceExampleProxy.mark());
+        Assertions.assertSame(gameWorker, service.markedWorker.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, nodeLatch.getCount());
+    }
+
+    /** 运行时注册的服务尚未由node发布，IO线程查找失败后在node线程重试 */
+    @Test
+    void testLookupMissRetry() throws Exception {
+        Worker gameWorker = game.getWorker(0);
+        gameWorker.submit(() -> TcpLateServiceExampleExporter.export(gameWorker.injector().getInstance(RpcRegistry.class),
+                new TcpLateServiceExample())).get(5, TimeUnit.SECONDS);
+        Assertions.assertNull(game.serviceInfoMap().get(2));
+
+        Worker worker = gate.workers().next();
+        var future = worker.submit(() -> worker.injector().getInstance(RpcClient.class)
+                        .call(GAME_ADDR, TcpLateServiceExampleProxy.hello("tcp")))
+                .composeApply((ctx, e) -> e);
+        TcpRpcRouterTest.waitUntil(() -> gameRouter.requestCount.get() >= 1);
+        Assertions.assertEquals(1, gameRouter.requestCount.get());
+        Assertions.assertFalse(future.isDone());
+
+        // node刷新服务后重试成功
+        nodeLatch.countDown();
+        Assertions.assertEquals("hello tcp", future.toFuture().get(5, TimeUnit.SECONDS));
+    }
+
+    /** worker阻塞期间，IO线程合并同一玩家的位置更新，不经过node线程 */
+    @Test
+    void testConflate() throws Exception {
+        Worker gameWorker = game.getWorker(0);
+        TcpServiceExample service = gameWorker.injector().getInstance(ServiceModule.class).service;
+        CountDownLatch workerLatch = new CountDownLatch(1);
+        try {
+            block(gameWorker, workerLatch);
+            for (int x = 1; x <= 100; x++) {
+                send(TcpServiceExampleProxy.updatePosition(1, x));
+                send(TcpServiceExampleProxy.updatePosition(2, -x));
+            }
+            TcpRpcRouterTest.waitUntil(() -> gameRouter.requestCount.get() >= 200);
+            Assertions.assertEquals(200, gameRouter.requestCount.get());
+            // 合并后的消息不再排队，worker的队列长度受限于活跃的Key数
+            int taskCount = ((WorkerImpl) gameWorker).taskCount();
+            Assertions.assertTrue(taskCount < 10, "taskCount " + taskCount);
+        } finally {
+            workerLatch.countDown();
+        }
+        gameWorker.submit(() -> {}).get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(2, (int) gameWorker.submit(() -> service.positionUpdateCount).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(-100, (int) gameWorker.submit(() -> service.positions.get(2L)).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, nodeLatch.getCount());
+    }
+
+    private void send(RpcMethodSpec<?> methodSpec) {
+        Worker worker = gate.workers().next();
+        worker.execute(() -> worker.injector().getInstance(RpcClient.class).send(GAME_ADDR, methodSpec));
+    }
+
+    private static void block(Executor executor, CountDownLatch latch) {
+        executor.execute(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private static Node newNode(WorkerAddr nodeAddr, CountingTcpRouter router, boolean exportService) {
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                super.configure();
+                binder().requireExplicitBindings();
+
+                bind(MainModule.class).to(DefaultMainModule.class).in(Singleton.class);
+                bind(DefaultMainModule.class).in(Singleton.class);
+                bind(RpcClient.class).to(WorkerRpcClient.class).in(Singleton.class);
+                bind(WorkerRpcClient.class).in(Singleton.class);
+                bind(RpcRegistry.class).to(DefaultRpcRegistry.class).in(Singleton.class);
+                bind(TimeProvider.class).to(TimeModule.class).in(Singleton.class);
+                bind(TimeModule.class).in(Singleton.class);
+
+                bind(RpcSerializer.class).to(TestRpcSerializer.class).in(Singleton.class);
+                bind(PBMethodInfoRegistry.class).in(Singleton.class);
+                bind(NodeRpcRouter.class).toInstance(router);
+                bind(CountingTcpRouter.class).toInstance(router);
+                bind(NodeRpcSupport.class).in(Singleton.class);
+            }
+        });
+        return NodeBuilder.newDefaultNodeBuilder()
+                .setNodeAddr(nodeAddr)
+                .setWorkerId("Node")
+                .setInjector(injector)
+                .addModule(WorkerRpcClient.class)
+                .addModule(NodeRpcSupport.class)
+                .addModule(CountingTcpRouter.class)
+                .setWorkerFactory((parent, index, workerCtx) -> {
+                    WorkerBuilder.DisruptWorkerBuilder builder = WorkerBuilder.newDisruptorWorkerBuilder()
+                            .setWorkerId("Worker-" + index)
+                            .setParent(parent)
+                            .setWorkerCtx(workerCtx)
+                            .setInjector(newWorkerInjector())
+                            .addModule(WorkerRpcClient.class);
+                    if (exportService) {
+                        builder.addModule(ServiceModule.class);
+                    }
+                    return builder.build();
+                })
+                .build();
+    }
+
+    /** 线程安全的注册表 -- 允许IO线程合并消息，允许运行时注册服务 */
+    private static Injector newWorkerInjector() {
+        return Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                super.configure();
+                binder().requireExplicitBindings();
+
+                bind(MainModule.class).to(DefaultMainModule.class).in(Singleton.class);
+                bind(DefaultMainModule.class).in(Singleton.class);
+                bind(RpcClient.class).to(WorkerRpcClient.class).in(Singleton.class);
+                bind(WorkerRpcClient.class).in(Singleton.class);
+                bind(RpcRegistry.class).to(CopyOnWriteRpcRegistry.class).in(Singleton.class);
+                bind(TimeProvider.class).to(TimeModule.class).in(Singleton.class);
+                bind(TimeModule.class).in(Singleton.class);
+
+                bind(ServiceModule.class).in(Singleton.class);
+            }
+        });
+    }
+
+    /** 记录收到的请求数 -- 计数时请求已分发 */
+    static class CountingTcpRouter extends TcpRpcRouter {
+
+        final AtomicInteger requestCount = new AtomicInteger();
+
+        CountingTcpRouter() {
+            setBindAddr(new InetSocketAddress("127.0.0.1", 0));
+        }
+
+        @Override
+        protected void onRcvRequest(RpcRequest request) {
+            super.onRcvRequest(request);
+            requestCount.incrementAndGet();
+        }
+    }
+
+    static class ServiceModule implements WorkerModule {
+
+        final TcpServiceExample service = new TcpServiceExample();
+        @Inject
+        RpcRegistry registry;
+
+        @Override
+        public void start() {
+            TcpServiceExampleExporter.export(registry, service);
+        }
+    }
+}
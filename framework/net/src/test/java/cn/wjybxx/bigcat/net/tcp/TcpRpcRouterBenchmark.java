@@ -0,0 +1,65 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.bigcat.fx.WorkerAddr;
+import cn.wjybxx.bigcat.rpc.RpcInvokeType;
+
+/**
+ * 回环地址上的吞吐量测试
+ * 单个Node线程持续发送单向消息，统计每秒送达的消息数和每次写调用合并的帧数。
+ *
+ * @author wjybxx
+ * date - 2024/1/19
+ */
+public class TcpRpcRouterBenchmark {
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int payloadSize = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        WorkerAddr addrA = new WorkerAddr(1, 1);
+        WorkerAddr addrB = new WorkerAddr(2, 1);
+        TestTcpRouter a = new TestTcpRouter(addrA);
+        TestTcpRouter b = new TestTcpRouter(addrB);
+        a.start();
+        b.start();
+        a.addRemoteNode(2, 1, b.getLocalAddr());
+        TcpRpcRouterTest.waitUntil(() -> a.isConnected(2, 1));
+
+        String payload = "x".repeat(payloadSize);
+        long sequence = 0;
+        long startTime = System.nanoTime();
+        long endTime = startTime + seconds * 1_000_000_000L;
+        while (System.nanoTime() < endTime) {
+            if (!a.isWritable(addrB)) {
+                Thread.onSpinWait();
+                continue;
+            }
+            a.send(a.newRequest(addrB, ++sequence, RpcInvokeType.ONEWAY, payload));
+        }
+        final long sent = sequence;
+        TcpRpcRouterTest.waitUntil(() -> b.requestCount.get() >= sent);
+        double costSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        System.out.printf("payload %d bytes, messages %d, throughput %.0f msg/s, frames per write %.1f%n",
+                payloadSize, b.requestCount.get(), b.requestCount.get() / costSeconds,
+                (double) a.getFrameCount() / Math.max(1, a.getWriteCount()));
+        a.stop();
+        b.stop();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.base.ThreadUtils;
+import cn.wjybxx.bigcat.fx.WorkerAddr;
+import cn.wjybxx.bigcat.net.TestRpcSerializer;
+import cn.wjybxx.bigcat.rpc.RpcAddr;
+import cn.wjybxx.bigcat.rpc.RpcInvokeType;
+import cn.wjybxx.bigcat.rpc.RpcRequest;
+import cn.wjybxx.bigcat.rpc.RpcResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * @author wjybxx
+ * date - 2024/1/19
+ */
+public class TcpRpcRouterTest {
+
+    private static final WorkerAddr ADDR_A = new WorkerAddr(1, 1);
+    private static final WorkerAddr ADDR_B = new WorkerAddr(2, 1);
+
+    @Test
+    void testEcho() {
+        TestTcpRouter a = new TestTcpRouter(ADDR_A);
+        TestTcpRouter b = new TestTcpRouter(ADDR_B);
+        a.start();
+        b.start();
+        try {
+            a.addRemoteNode(2, 1, b.getLocalAddr());
+            b.addRemoteNode(1, 1, a.getLocalAddr());
+
+            int count = 10000;
+            for (int i = 1; i <= count; i++) {
+                RpcRequest request = (i & 1) == 0
+                        ? a.newRequest(ADDR_B, i, RpcInvokeType.CALL, "msg-" + i)
+                        : a.newSerializedRequest(ADDR_B, i, RpcInvokeType.CALL, "msg-" + i);
+                Assertions.assertTrue(a.send(request));
+            }
+            waitUntil(() -> a.responseQueue.size() >= count);
+            for (int i = 1; i <= count; i++) {
+                RpcResponse response = a.responseQueue.poll();
+                Assertions.assertNotNull(response);
+                Assertions.assertEquals(i, response.getRequestId());
+                Assertions.assertEquals("msg-" + i, response.listResult().get(0));
+            }
+            // 聚集写应当合并多个帧
+            Assertions.assertTrue(a.getFrameCount() >= count);
+            Assertions.assertTrue(a.getWriteCount() < a.getFrameCount());
+        } finally {
+            a.stop();
+            b.stop();
+        }
+    }
+
+    @Test
+    void testBackpressureAndReconnect() throws IOException {
+        int port = freePort();
+        TestTcpRouter a = new TestTcpRouter(ADDR_A);
+        a.setWaterMark(1024, 4096)
+                .setReconnectInterval(50, 200);
+        a.start();
+        TestTcpRouter b = new TestTcpRouter(ADDR_B);
+        b.setBindAddr(new InetSocketAddress("127.0.0.1", port));
+        try {
+            a.addRemoteNode(2, 1, new InetSocketAddress("127.0.0.1", port));
+            // 对方未启动，帧积压在缓冲区，超过高水位后不可写
+            int sent = 0;
+            while (a.isWritable(ADDR_B)) {
+                Assertions.assertTrue(a.send(a.newRequest(ADDR_B, ++sent, RpcInvokeType.ONEWAY, "0123456789abcdef")));
+            }
+            Assertions.assertTrue(a.getPendingBytes(2, 1) > 4096);
+            Assertions.assertTrue(a.isWritable(new WorkerAddr(3, 1))); // 未知节点不受影响
+
+            // 对方启动后自动重连，积压的帧全部送达，恢复可写
+            b.start();
+            final int total = sent;
+            waitUntil(() -> b.requestCount.get() >= total);
+            Assertions.assertEquals(total, b.requestCount.get());
+            Assertions.assertTrue(a.isConnected(2, 1));
+            waitUntil(() -> a.isWritable(ADDR_B));
+            Assertions.assertEquals(0, a.getPendingBytes(2, 1));
+        } finally {
+            a.stop();
+            b.stop();
+        }
+    }
+
+    @Test
+    void testAddrDictionary() throws IOException {
+        TestRpcSerializer serializer = new TestRpcSerializer();
+        TcpAddrDictionary encoder = new TcpAddrDictionary();
+        TcpAddrDictionary decoder = new TcpAddrDictionary();
+        Map<RpcAddr, RpcAddr> interner = new HashMap<>();
+
+        // 首次出现时定义，之后只发送id
+        ByteBuffer first = encoder.encodeHeader(ADDR_A, ADDR_B, 0, serializer);
+        ByteBuffer second = encoder.encodeHeader(ADDR_B, ADDR_A, 0, serializer);
+        Assertions.assertEquals(4 + 3 + 3, second.remaining());
+        Assertions.assertTrue(first.remaining() > second.remaining());
+
+        first.getInt();
+        RpcAddr srcAddr = decoder.readAddr(first, serializer, interner);
+        RpcAddr destAddr = decoder.readAddr(first, serializer, interner);
+        Assertions.assertEquals(ADDR_A, srcAddr);
+        Assertions.assertEquals(ADDR_B, destAddr);
+        second.getInt();
+        Assertions.assertSame(destAddr, decoder.readAddr(second, serializer, interner));
+        Assertions.assertSame(srcAddr, decoder.readAddr(second, serializer, interner));
+
+        // 重置后的字典不能解码旧的引用
+        decoder.reset();
+        second.rewind().getInt();
+        Assertions.assertThrows(IOException.class, () -> decoder.readAddr(second, serializer, interner));
+        // 但驻留表仍返回同一个实例
+        encoder.reset();
+        ByteBuffer third = encoder.encodeHeader(new WorkerAddr(1, 1), null, 0, serializer);
+        third.getInt();
+        Assertions.assertSame(srcAddr, decoder.readAddr(third, serializer, interner));
+        Assertions.assertNull(decoder.readAddr(third, serializer, interner));
+    }
+
+    @Test
+    void testAddrInterned() {
+        TestTcpRouter a = new TestTcpRouter(ADDR_A);
+        TestTcpRouter b = new TestTcpRouter(ADDR_B);
+        a.start();
+        b.start();
+        try {
+            a.addRemoteNode(2, 1, b.getLocalAddr());
+            b.addRemoteNode(1, 1, a.getLocalAddr());
+
+            int count = 100;
+            for (int i = 1; i <= count; i++) {
+                Assertions.assertTrue(a.send(a.newRequest(ADDR_B, i, RpcInvokeType.CALL, "msg-" + i)));
+            }
+            waitUntil(() -> a.responseQueue.size() >= count);
+            RpcResponse first = a.responseQueue.poll();
+            Assertions.assertNotNull(first);
+            Assertions.assertEquals(ADDR_B, first.getSrcAddr());
+            Assertions.assertEquals(ADDR_A, first.getDestAddr());
+            Assertions.assertNotSame(ADDR_B, first.getSrcAddr());
+            // 解码的地址是驻留的实例
+            RpcResponse response;
+            while ((response = a.responseQueue.poll()) != null) {
+                Assertions.assertSame(first.getSrcAddr(), response.getSrcAddr());
+                Assertions.assertSame(first.getDestAddr(), response.getDestAddr());
+            }
+        } finally {
+            a.stop();
+            b.stop();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    static void waitUntil(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            ThreadUtils.sleepQuietly(1);
+        }
+    }
+}
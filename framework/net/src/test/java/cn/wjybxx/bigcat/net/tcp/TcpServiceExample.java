@@ -0,0 +1,54 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.bigcat.fx.Worker;
+import cn.wjybxx.bigcat.rpc.RpcConflateKey;
+import cn.wjybxx.bigcat.rpc.RpcMethod;
+import cn.wjybxx.bigcat.rpc.RpcService;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 经由Tcp路由分发的测试服务
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@RpcService(serviceId = 1)
+public class TcpServiceExample {
+
+    /** 执行{@link #mark()}的Worker */
+    final CompletableFuture<Worker> markedWorker = new CompletableFuture<>();
+    final Map<Long, Integer> positions = new HashMap<>();
+    int positionUpdateCount;
+
+    /** 记录执行方法的Worker */
+    @RpcMethod(methodId = 1)
+    public void mark() {
+        markedWorker.complete(Worker.CURRENT_WORKER.get());
+    }
+
+    /** 同步位置 -- 未处理的旧位置被新位置覆盖 */
+    @RpcMethod(methodId = 2, conflate = true)
+    public void updatePosition(@RpcConflateKey long playerId, int x) {
+        positions.put(playerId, x);
+        positionUpdateCount++;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.bigcat.fx.WorkerAddr;
+import cn.wjybxx.bigcat.net.TestRpcSerializer;
+import cn.wjybxx.bigcat.rpc.*;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 不依赖Node的测试路由：请求原样返回，响应放入队列
+ *
+ * @author wjybxx
+ * date - 2024/1/19
+ */
+class TestTcpRouter extends TcpRpcRouter {
+
+    final WorkerAddr selfAddr;
+    final ConcurrentLinkedQueue<RpcResponse> responseQueue = new ConcurrentLinkedQueue<>();
+    final AtomicLong requestCount = new AtomicLong();
+
+    TestTcpRouter(WorkerAddr selfAddr) {
+        this.selfAddr = selfAddr;
+        this.serializer = new TestRpcSerializer();
+        setBindAddr(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    RpcRequest newRequest(WorkerAddr target, long requestId, int invokeType, Object argument) {
+        RpcRequest request = new RpcRequest(1, selfAddr, target);
+        request.setRequestId(requestId)
+                .setInvokeType(invokeType)
+                .setServiceId(1)
+                .setMethodId(1)
+                .setParameters(List.of(argument));
+        return request;
+    }
+
+    /** 参数已在Worker线程序列化的请求 */
+    RpcRequest newSerializedRequest(WorkerAddr target, long requestId, int invokeType, Object argument) {
+        RpcRequest request = newRequest(target, requestId, invokeType, argument);
+        request.setParameters(serializer.write(request.getParameters()));
+        request.setSerialized();
+        return request;
+    }
+
+    @Override
+    public boolean isLocalAddr(WorkerAddr addr) {
+        return selfAddr.equalsIgnoreWorker(addr);
+    }
+
+    @Override
+    protected void onRcvRequest(RpcRequest request) {
+        requestCount.incrementAndGet();
+        if (!request.isDeserialized()) {
+            request.setParameters(serializer.read(request.bytesParameters()));
+        }
+        if (RpcInvokeType.isCall(request.getInvokeType())) {
+            RpcResponse response = new RpcResponse(request, selfAddr);
+            response.setSuccess(request.listParameters().get(0));
+            send(response);
+        }
+    }
+
+    @Override
+    protected void onRcvResponse(RpcResponse response) {
+        responseQueue.offer(response);
+    }
+}
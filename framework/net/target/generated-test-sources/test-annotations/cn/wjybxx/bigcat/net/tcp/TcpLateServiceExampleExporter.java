@@ -0,0 +1,21 @@
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.base.annotation.SourceFileRef;
+import cn.wjybxx.bigcat.rpc.RpcRegistry;
+import javax.annotation.processing.Generated;
+
+@SuppressWarnings({"unchecked", "rawtypes", "unused"})
+@Generated("cn.wjybxx.bigcat.rpc.RpcServiceProcessor")
+@SourceFileRef(TcpLateServiceExample.class)
+public final class TcpLateServiceExampleExporter {
+    private static void _exportHello_1(RpcRegistry registry, TcpLateServiceExample instance) {
+        registry.register(2, 1, (context, methodSpec) -> {
+            context.setSharable(true);
+            return instance.hello(methodSpec.getString(0));
+        });
+    }
+
+    public static void export(RpcRegistry registry, TcpLateServiceExample instance) {
+        _exportHello_1(registry, instance);
+    }
+}
@@ -0,0 +1,19 @@
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.base.annotation.SourceFileRef;
+import cn.wjybxx.bigcat.rpc.RpcMethodSpec;
+import java.util.ArrayList;
+import javax.annotation.processing.Generated;
+
+@Generated("cn.wjybxx.bigcat.rpc.RpcServiceProcessor")
+@SourceFileRef(TcpLateServiceExample.class)
+public final class TcpLateServiceExampleProxy {
+    /**
+     * {@link TcpLateServiceExample#hello}
+     */
+    public static RpcMethodSpec<String> hello(String name) {
+        ArrayList<Object> _parameters = new ArrayList<>(1);
+        _parameters.add(name);
+        return new RpcMethodSpec<>(2, 1, _parameters, true);
+    }
+}
@@ -0,0 +1,32 @@
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.base.annotation.SourceFileRef;
+import cn.wjybxx.bigcat.rpc.RpcRegistry;
+import javax.annotation.processing.Generated;
+
+@SuppressWarnings({"unchecked", "rawtypes", "unused"})
+@Generated("cn.wjybxx.bigcat.rpc.RpcServiceProcessor")
+@SourceFileRef(TcpServiceExample.class)
+public final class TcpServiceExampleExporter {
+    private static void _exportMark_1(RpcRegistry registry, TcpServiceExample instance) {
+        registry.register(1, 1, (context, methodSpec) -> {
+            context.setSharable(true);
+            instance.mark();
+            return null;
+        });
+    }
+
+    private static void _exportUpdatePosition_2(RpcRegistry registry, TcpServiceExample instance) {
+        registry.register(1, 2, (context, methodSpec) -> {
+            context.setSharable(true);
+            instance.updatePosition(methodSpec.getLong(0), methodSpec.getInt(1));
+            return null;
+        });
+        registry.setProxyConflateKey(1, 2, new int[]{0});
+    }
+
+    public static void export(RpcRegistry registry, TcpServiceExample instance) {
+        _exportMark_1(registry, instance);
+        _exportUpdatePosition_2(registry, instance);
+    }
+}
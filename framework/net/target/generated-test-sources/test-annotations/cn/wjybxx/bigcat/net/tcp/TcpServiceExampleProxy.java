@@ -0,0 +1,28 @@
+package cn.wjybxx.bigcat.net.tcp;
+
+import cn.wjybxx.base.annotation.SourceFileRef;
+import cn.wjybxx.bigcat.rpc.RpcMethodSpec;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.processing.Generated;
+
+@Generated("cn.wjybxx.bigcat.rpc.RpcServiceProcessor")
+@SourceFileRef(TcpServiceExample.class)
+public final class TcpServiceExampleProxy {
+    /**
+     * {@link TcpServiceExample#mark}
+     */
+    public static RpcMethodSpec<Void> mark() {
+        return new RpcMethodSpec<>(1, 1, List.of(), true);
+    }
+
+    /**
+     * {@link TcpServiceExample#updatePosition}
+     */
+    public static RpcMethodSpec<Void> updatePosition(long playerId, int x) {
+        ArrayList<Object> _parameters = new ArrayList<>(2);
+        _parameters.add(playerId);
+        _parameters.add(x);
+        return new RpcMethodSpec<>(1, 2, _parameters, true);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * 基于延迟分布的自适应超时
+ * <p>
+ * 1. 使用指数分桶的直方图记录延迟，超时时间为{@code quantile(q) * multiplier}，并限制在{@code [minTimeoutMs, maxTimeoutMs]}之间。
+ * 2. 直方图按半衰期衰减，以跟随延迟的变化；样本不足时使用调用方的默认超时。
+ * 3. 超时的调用是删失样本，只计数而不计入直方图 -- 否则目标宕机时超时将逐步增长到上限。
+ * 过短的超时由接近超时的成功样本修正，因此{@code minTimeoutMs}应留有余量。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@ThreadSafe
+public class AdaptiveTimeout {
+
+    /** 相邻桶上界的比例 -- 分位数的误差不超过20% */
+    private static final double BUCKET_GROWTH = 1.2;
+    private static final double LOG_BUCKET_GROWTH = Math.log(BUCKET_GROWTH);
+    /** 最后一个桶的上界约为20分钟 */
+    private static final int BUCKET_COUNT = 80;
+    /** 生效需要的最少样本数 */
+    private static final int MIN_SAMPLES = 32;
+    /** 每记录多少个样本重新计算一次超时 */
+    private static final int UPDATE_INTERVAL = 16;
+
+    private final double quantile;
+    private final double multiplier;
+    private final long minTimeoutMs;
+    private final long maxTimeoutMs;
+    private final long halfLifeMs;
+
+    /** 只在同步块中访问 */
+    private final double[] buckets = new double[BUCKET_COUNT];
+    private double sampleCount;
+    private double timeoutCount;
+    private long lastDecayTime;
+    private int pendingCount;
+
+    /** 当前超时时间，-1表示样本不足 */
+    private volatile long timeoutMs = -1;
+    private volatile long quantileMs;
+
+    /**
+     * @param quantile     分位数，如0.999
+     * @param multiplier   超时时间相对于分位数的倍数
+     * @param minTimeoutMs 最小超时时间
+     * @param maxTimeoutMs 最大超时时间
+     * @param halfLifeMs   样本的半衰期
+     */
+    public AdaptiveTimeout(double quantile, double multiplier, long minTimeoutMs, long maxTimeoutMs, long halfLifeMs) {
+        if (quantile <= 0 || quantile >= 1 || multiplier < 1
+                || minTimeoutMs <= 0 || minTimeoutMs > maxTimeoutMs || halfLifeMs <= 0) {
+            throw new IllegalArgumentException("quantile: %s, multiplier: %s, minTimeoutMs: %d, maxTimeoutMs: %d, halfLifeMs: %d"
+                    .formatted(quantile, multiplier, minTimeoutMs, maxTimeoutMs, halfLifeMs));
+        }
+        this.quantile = quantile;
+        this.multiplier = multiplier;
+        this.minTimeoutMs = minTimeoutMs;
+        this.maxTimeoutMs = maxTimeoutMs;
+        this.halfLifeMs = halfLifeMs;
+    }
+
+    /** 以p99.9的3倍为超时时间，半衰期为1分钟 */
+    public static AdaptiveTimeout ofP999(long minTimeoutMs, long maxTimeoutMs) {
+        return new AdaptiveTimeout(0.999, 3, minTimeoutMs, maxTimeoutMs, 60 * 1000);
+    }
+
+    /**
+     * 获取超时时间
+     *
+     * @param defaultTimeoutMs 样本不足时的超时时间
+     */
+    public long getTimeoutMs(long defaultTimeoutMs) {
+        long timeoutMs = this.timeoutMs;
+        return timeoutMs < 0 ? defaultTimeoutMs : timeoutMs;
+    }
+
+    /** 当前的延迟分位数 */
+    public long getQuantileMs() {
+        return quantileMs;
+    }
+
+    /** 衰减后的样本数 */
+    public synchronized double getSampleCount() {
+        return sampleCount;
+    }
+
+    /** 衰减后的超时次数 */
+    public synchronized double getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * 记录一次调用的延迟
+     *
+     * @param latencyMs 调用的延迟
+     * @param curTime   当前时间，用于衰减样本
+     */
+    public synchronized void record(long latencyMs, long curTime) {
+        tryDecay(curTime);
+        buckets[bucketIndex(latencyMs)]++;
+        sampleCount++;
+        if (++pendingCount >= UPDATE_INTERVAL) {
+            pendingCount = 0;
+            updateTimeout();
+        }
+    }
+
+    /**
+     * 记录一次超时
+     * 超时不改变延迟分布，因此不重新计算超时时间
+     *
+     * @param curTime 当前时间，用于衰减样本
+     */
+    public synchronized void recordTimeout(long curTime) {
+        tryDecay(curTime);
+        timeoutCount++;
+    }
+
+    private void tryDecay(long curTime) {
+        if (lastDecayTime == 0) {
+            lastDecayTime = curTime;
+        } else if (curTime - lastDecayTime >= halfLifeMs) {
+            decay((curTime - lastDecayTime) / halfLifeMs);
+            lastDecayTime = curTime;
+            pendingCount = UPDATE_INTERVAL;
+        }
+    }
+
+    private void decay(long halfLives) {
+        final double factor = halfLives >= 32 ? 0 : 1.0 / (1L << halfLives);
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] *= factor;
+        }
+        sampleCount *= factor;
+        timeoutCount *= factor;
+    }
+
+    private void updateTimeout() {
+        if (sampleCount < MIN_SAMPLES) {
+            timeoutMs = -1;
+            return;
+        }
+        // 取分位数所在桶的上界，偏保守
+        final double threshold = sampleCount * quantile;
+        double cumulative = 0;
+        int index = BUCKET_COUNT - 1;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i];
+            if (cumulative >= threshold) {
+                index = i;
+                break;
+            }
+        }
+        long quantileMs = bucketBound(index);
+        long timeoutMs = (long) Math.min(Long.MAX_VALUE, quantileMs * multiplier);
+        this.quantileMs = quantileMs;
+        this.timeoutMs = Math.max(minTimeoutMs, Math.min(maxTimeoutMs, timeoutMs));
+    }
+
+    private static int bucketIndex(long latencyMs) {
+        if (latencyMs <= 1) {
+            return 0;
+        }
+        int index = (int) Math.ceil(Math.log(latencyMs) / LOG_BUCKET_GROWTH);
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+
+    private static long bucketBound(int index) {
+        return (long) Math.ceil(Math.pow(BUCKET_GROWTH, index));
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveTimeout{" +
+                "timeoutMs=" + timeoutMs +
+                ", quantileMs=" + quantileMs +
+                '}';
+    }
+}
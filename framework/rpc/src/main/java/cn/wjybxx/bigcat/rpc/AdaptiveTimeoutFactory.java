@@ -0,0 +1,41 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import javax.annotation.Nullable;
+
+/**
+ * 自适应超时工厂
+ * 方法需要通过工厂选择使用自适应超时，每个目标地址和方法的超时是独立的。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public interface AdaptiveTimeoutFactory {
+
+    /**
+     * 创建方法的自适应超时
+     *
+     * @param target    目标地址
+     * @param serviceId 服务id
+     * @param methodId  方法id
+     * @return 如果使用固定的超时时间，则返回null
+     */
+    @Nullable
+    AdaptiveTimeout newTimeout(RpcAddr target, int serviceId, int methodId);
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于排队延迟的请求丢弃策略(CoDel的变种)
+ * <p>
+ * 1. 如果在最近的一个周期内，队列从未清空(最小排队延迟超过目标值)，则认为处于过载状态。
+ * 2. 过载状态下，排队延迟超过目标值的请求将被丢弃；否则只丢弃排队延迟超过周期的请求。
+ * 3. 这样在突发流量时可以容忍短暂的排队，而在持续过载时可保持延迟有界。
+ *
+ * @author wjybxx
+ * date - 2024/1/14
+ */
+@NotThreadSafe
+public class CoDelShedder {
+
+    private final long targetNanos;
+    private final long intervalNanos;
+
+    /** 当前周期的结束时间 */
+    private long intervalEnd;
+    /** 当前周期的最小排队延迟 */
+    private long minDelay = Long.MAX_VALUE;
+    private boolean overloaded;
+    private long shedCount;
+
+    /**
+     * @param targetMs   过载时允许的排队延迟
+     * @param intervalMs 检测周期，也是非过载时允许的排队延迟
+     */
+    public CoDelShedder(long targetMs, long intervalMs) {
+        if (targetMs <= 0 || intervalMs < targetMs) {
+            throw new IllegalArgumentException("targetMs: %d, intervalMs: %d".formatted(targetMs, intervalMs));
+        }
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMs);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+    }
+
+    /**
+     * 测试请求是否应当被丢弃
+     *
+     * @param rcvNanos 请求进入队列的时间
+     * @param nowNanos 当前时间
+     * @return 如果应当丢弃则返回true
+     */
+    public boolean shouldShed(long rcvNanos, long nowNanos) {
+        final long delay = nowNanos - rcvNanos;
+        if (intervalEnd == 0 || nowNanos - intervalEnd > 0) {
+            overloaded = minDelay != Long.MAX_VALUE && minDelay > targetNanos; // 周期内无请求不算过载
+            minDelay = Long.MAX_VALUE;
+            intervalEnd = nowNanos + intervalNanos;
+        }
+        if (delay < minDelay) {
+            minDelay = delay;
+        }
+        if (delay > (overloaded ? targetNanos : intervalNanos)) {
+            shedCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /** 当前是否处于过载状态 */
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /** 丢弃的请求数 */
+    public long getShedCount() {
+        return shedCount;
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * rpc并发限制器
+ * 用于限制服务或方法的在途请求数，以免异步方法在单个Worker上无限堆积。
+ * <p>
+ * 1. 请求的结果可能在其它线程返回，因此实现必须是线程安全的。
+ * 2. 每次{@link #tryAcquire()}成功后，必须且只能调用一次{@link #release(long)}。
+ *
+ * @author wjybxx
+ * date - 2024/1/12
+ */
+@ThreadSafe
+public interface ConcurrencyLimiter {
+
+    /**
+     * 尝试获取一个执行许可
+     *
+     * @return 如果在途请求数已达上限，则返回false
+     */
+    boolean tryAcquire();
+
+    /**
+     * 释放许可
+     *
+     * @param rttNanos 请求的执行时间；若小于等于0，则表示请求未正常执行，不计入采样
+     */
+    void release(long rttNanos);
+
+    /** 当前的在途请求数 */
+    int getInFlight();
+
+    /** 当前的并发上限 */
+    int getLimit();
+
+}
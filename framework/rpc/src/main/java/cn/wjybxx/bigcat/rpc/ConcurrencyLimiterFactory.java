@@ -0,0 +1,53 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import javax.annotation.Nullable;
+
+/**
+ * 并发限制器工厂
+ * 每个服务和方法的限制器都是独立的，请求需要同时获得服务和方法的许可才可以执行。
+ *
+ * @author wjybxx
+ * date - 2024/1/12
+ */
+public interface ConcurrencyLimiterFactory {
+
+    /**
+     * 创建服务级别的限制器
+     *
+     * @param serviceId 服务id
+     * @return 如果不限制，则返回null
+     */
+    @Nullable
+    default ConcurrencyLimiter newServiceLimiter(int serviceId) {
+        return null;
+    }
+
+    /**
+     * 创建方法级别的限制器
+     *
+     * @param serviceId 服务id
+     * @param methodId  方法id
+     * @return 如果不限制，则返回null
+     */
+    @Nullable
+    default ConcurrencyLimiter newMethodLimiter(int serviceId, int methodId) {
+        return null;
+    }
+
+}
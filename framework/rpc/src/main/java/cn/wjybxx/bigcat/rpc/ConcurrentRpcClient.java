@@ -0,0 +1,432 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import cn.wjybxx.base.ThreadUtils;
+import cn.wjybxx.base.time.TimeProvider;
+import cn.wjybxx.bigcat.rpclog.DebugLogLevel;
+import cn.wjybxx.bigcat.rpclog.DebugLogUtils;
+import cn.wjybxx.concurrent.DefaultThreadFactory;
+import cn.wjybxx.concurrent.FutureUtils;
+import cn.wjybxx.concurrent.IFuture;
+import cn.wjybxx.concurrent.IPromise;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 线程安全的{@link RpcClient}实现 -- 用于DB回调、后台管理等非主循环线程直接发起Rpc。
+ * <p>
+ * 1. 请求id通过原子计数分配，存根表按请求id的低位分段，每段独立加锁，以降低竞争。
+ * 2. 超时检测由专用的定时器线程执行（{@link #start(long)}），也可以由用户周期性调用{@link #update()}。
+ * 3. 该实现只用于发起调用，不处理请求；{@link RpcRouter}和{@link TimeProvider}必须是线程安全的。
+ * 4. 响应可在任意线程调用{@link #onRcvResponse(RpcResponse)}，通常由IO线程直接调用，无需转交主线程。
+ * 5. Future的回调在完成Future的线程（IO线程或定时器线程）执行，如有需要，请使用异步回调切换线程。
+ * 6. 先发先到只在单个线程内保证。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@ThreadSafe
+public class ConcurrentRpcClient implements RpcClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrentRpcClient.class);
+
+    private final AtomicLong sequencer = new AtomicLong();
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    private final long conId;
+    private final RpcAddr selfAddr;
+    private final RpcRouter router;
+    private final TimeProvider timeProvider;
+    private final long timeoutMs;
+
+    /** 日志级别 */
+    private volatile RpcLogConfig logConfig = RpcLogConfig.NONE;
+    /** 超时检测的定时器 */
+    private ScheduledExecutorService timer;
+
+    /**
+     * 分段数为cpu数
+     *
+     * @param conId        连接id
+     * @param selfAddr     当前服务器的描述信息
+     * @param router       路由实现，必须是线程安全的
+     * @param timeProvider 用于获取当前时间，必须是线程安全的
+     * @param timeoutMs    rpc超时时间
+     */
+    public ConcurrentRpcClient(long conId, RpcAddr selfAddr,
+                               RpcRouter router, TimeProvider timeProvider, long timeoutMs) {
+        this(conId, selfAddr, router, timeProvider, timeoutMs, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripeCount 存根表的分段数，会调整为2的整次幂
+     */
+    public ConcurrentRpcClient(long conId, RpcAddr selfAddr,
+                               RpcRouter router, TimeProvider timeProvider, long timeoutMs,
+                               int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("stripeCount: " + stripeCount);
+        }
+        this.conId = conId;
+        this.selfAddr = Objects.requireNonNull(selfAddr);
+        this.router = Objects.requireNonNull(router);
+        this.timeProvider = Objects.requireNonNull(timeProvider);
+        this.timeoutMs = timeoutMs;
+
+        stripeCount = stripeCount == 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        this.stripes = new Stripe[stripeCount];
+        this.stripeMask = stripeCount - 1;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public RpcLogConfig getLogConfig() {
+        return logConfig;
+    }
+
+    public ConcurrentRpcClient setLogConfig(RpcLogConfig logConfig) {
+        this.logConfig = Objects.requireNonNullElse(logConfig, RpcLogConfig.NONE);
+        return this;
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * 获取请求的存根信息（用于debug等）
+     */
+    @Nullable
+    public RpcRequestStub getRequestStub(long requestId) {
+        Stripe stripe = stripeOf(requestId);
+        synchronized (stripe) {
+            return stripe.requestStubMap.get(requestId);
+        }
+    }
+
+    /** 获取等待结果的请求数 */
+    public int getPendingCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.requestStubMap.size();
+            }
+        }
+        return count;
+    }
+
+    // region 流程
+
+    /**
+     * 启动超时检测定时器
+     *
+     * @param periodMs 检测间隔
+     */
+    public synchronized void start(long periodMs) {
+        if (timer != null) {
+            throw new IllegalStateException("started");
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("RpcTimeoutTimer", true));
+        timer.scheduleWithFixedDelay(this::updateSafely, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** 停止超时检测定时器 -- 不会取消未完成的请求 */
+    public synchronized void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    private void updateSafely() {
+        try {
+            update();
+        } catch (Throwable e) {
+            logger.warn("rpc timeout check caught exception", e);
+        }
+    }
+
+    /**
+     * 检测超时，可在任意线程调用
+     */
+    public void update() {
+        final long curTime = timeProvider.getTime();
+        final List<RpcRequestStubImpl> timeoutList = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.removeTimeout(curTime, timeoutList);
+            }
+        }
+        // 在锁外完成future，以免用户回调在锁内执行
+        for (RpcRequestStubImpl requestStub : timeoutList) {
+            logger.info("rpc timeout, requestId {}, target {}", requestStub.request.getRequestId(), requestStub.getDestAddr());
+            requestStub.future.trySetException(RpcClientException.timeout());
+        }
+    }
+
+    /**
+     * 清除所有的rpc调用（慎重调用）
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.requestStubMap.clear();
+            }
+        }
+    }
+    // endregion
+
+    // region 发送
+
+    @Override
+    public void send(RpcAddr target, RpcMethodSpec<?> methodSpec) {
+        Objects.requireNonNull(target);
+        Objects.requireNonNull(methodSpec);
+
+        final long requestId = sequencer.incrementAndGet();
+        final RpcRequest request = new RpcRequest(conId, selfAddr, target,
+                RpcInvokeType.ONEWAY, requestId, methodSpec);
+
+        if (logConfig.getSndRequestLogLevel() > DebugLogLevel.NONE) {
+            logSndRequest(request);
+        }
+        if (!router.send(request)) {
+            logger.info("rpc router send failure, target " + target);
+        }
+    }
+
+    @Override
+    public <V> IFuture<V> call(RpcAddr target, RpcMethodSpec<V> methodSpec) {
+        Objects.requireNonNull(target);
+        Objects.requireNonNull(methodSpec);
+
+        final long requestId = sequencer.incrementAndGet();
+        final RpcRequest request = new RpcRequest(conId, selfAddr, target,
+                RpcInvokeType.CALL, requestId, methodSpec);
+
+        if (logConfig.getSndRequestLogLevel() > DebugLogLevel.NONE) {
+            logSndRequest(request);
+        }
+
+        // 必须先保留存根再发送，否则响应可能先于存根到达
+        final IPromise<V> promise = FutureUtils.newPromise();
+        final RpcRequestStubImpl requestStub = new RpcRequestStubImpl(request, promise);
+        final Stripe stripe = stripeOf(requestId);
+        synchronized (stripe) {
+            // 在锁内计算deadline，以保证段内的存根按deadline有序
+            requestStub.deadline = timeProvider.getTime() + timeoutMs;
+            stripe.requestStubMap.put(requestId, requestStub);
+        }
+        if (!router.send(request)) {
+            logger.info("rpc router call failure, target " + target);
+        }
+        return promise;
+    }
+
+    @Override
+    public <V> V syncCall(RpcAddr target, RpcMethodSpec<V> methodSpec) {
+        return syncCall(target, methodSpec, timeoutMs);
+    }
+
+    /**
+     * 同步调用也保存在存根表中，由收到响应的线程唤醒；
+     * 阻塞的线程自行处理超时，定时器不检测同步调用。
+     */
+    @Override
+    public <V> V syncCall(RpcAddr target, RpcMethodSpec<V> methodSpec, long timeoutMs) {
+        Objects.requireNonNull(target);
+        Objects.requireNonNull(methodSpec);
+
+        final long requestId = sequencer.incrementAndGet();
+        final RpcRequest request = new RpcRequest(conId, selfAddr, target,
+                RpcInvokeType.SYNC_CALL, requestId, methodSpec);
+
+        if (logConfig.getSndRequestLogLevel() > DebugLogLevel.NONE) {
+            logSndRequest(request);
+        }
+
+        final CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+        final RpcRequestStubImpl requestStub = new RpcRequestStubImpl(request, future);
+        requestStub.deadline = timeProvider.getTime() + timeoutMs;
+        final Stripe stripe = stripeOf(requestId);
+        synchronized (stripe) {
+            stripe.requestStubMap.put(requestId, requestStub);
+        }
+        try {
+            if (!router.send(request)) {
+                logger.info("rpc router call failure, target " + target);
+                throw RpcClientException.sendFailed(target);
+            }
+
+            RpcResponse response = future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            if (response.getErrorCode() == 0) {
+                @SuppressWarnings("unchecked") final V result = (V) response.getResult();
+                return result;
+            } else {
+                throw RpcServerException.newServerException(response);
+            }
+        } catch (Exception e) {
+            ThreadUtils.recoveryInterrupted(e);
+            throw RpcClientException.wrapOrRethrow(e);
+        } finally {
+            synchronized (stripe) {
+                stripe.requestStubMap.remove(requestId); // 及时删除存根
+            }
+        }
+    }
+    // endregion
+
+    // region 收包
+
+    /**
+     * 接收到一个rpc调用结果，可在任意线程调用。
+     */
+    public void onRcvResponse(RpcResponse response) {
+        Objects.requireNonNull(response);
+        if (response.getConId() != conId) {
+            // 不是我发起的请求的响应 - 避免造成错误的响应
+            logger.info("rcv old process rpc response");
+            return;
+        }
+
+        final long requestId = response.getRequestId();
+        final Stripe stripe = stripeOf(requestId);
+        final RpcRequestStubImpl requestStub;
+        synchronized (stripe) {
+            requestStub = stripe.requestStubMap.remove(requestId);
+        }
+        if (logConfig.getRcvResponseLogLevel() > DebugLogLevel.NONE) {
+            logRcvResponse(response, requestStub == null);
+        }
+        if (requestStub == null) {
+            return;
+        }
+        if (requestStub.syncFuture != null) {
+            requestStub.syncFuture.complete(response);
+            return;
+        }
+        @SuppressWarnings("unchecked") final IPromise<Object> promise = (IPromise<Object>) requestStub.future;
+        if (response.getErrorCode() == 0) {
+            promise.trySetResult(response.getResult());
+        } else {
+            promise.trySetException(RpcServerException.newServerException(response));
+        }
+    }
+
+    // endregion
+
+    // region internal
+
+    private Stripe stripeOf(long requestId) {
+        return stripes[(int) requestId & stripeMask];
+    }
+
+    /** 存根表的一段 -- 使用自身作为锁 */
+    private static class Stripe {
+
+        /** 保持插入序，且段内的异步调用按deadline有序 */
+        final Long2ObjectLinkedOpenHashMap<RpcRequestStubImpl> requestStubMap = new Long2ObjectLinkedOpenHashMap<>();
+
+        void removeTimeout(long curTime, List<RpcRequestStubImpl> out) {
+            if (requestStubMap.isEmpty()) {
+                return;
+            }
+            ObjectIterator<Long2ObjectMap.Entry<RpcRequestStubImpl>> itr = requestStubMap.long2ObjectEntrySet().fastIterator();
+            while (itr.hasNext()) {
+                RpcRequestStubImpl requestStub = itr.next().getValue();
+                if (requestStub.syncFuture != null) {
+                    continue; // 同步调用由阻塞的线程处理超时
+                }
+                if (curTime < requestStub.deadline) {
+                    return;
+                }
+                itr.remove();
+                out.add(requestStub);
+            }
+        }
+    }
+
+    private static class RpcRequestStubImpl implements RpcRequestStub {
+
+        final RpcRequest request;
+        final IPromise<?> future;
+        final CompletableFuture<RpcResponse> syncFuture;
+        long deadline;
+
+        RpcRequestStubImpl(RpcRequest request, IPromise<?> future) {
+            this.request = request;
+            this.future = future;
+            this.syncFuture = null;
+        }
+
+        RpcRequestStubImpl(RpcRequest request, CompletableFuture<RpcResponse> syncFuture) {
+            this.request = request;
+            this.future = null;
+            this.syncFuture = syncFuture;
+        }
+
+        @Override
+        public long getDeadline() {
+            return deadline;
+        }
+
+        @Override
+        public RpcAddr getDestAddr() {
+            return request.getDestAddr();
+        }
+
+        @Override
+        public RpcRequest getRequest() {
+            return request;
+        }
+    }
+
+    // endregion
+
+    // region debug日志
+
+    private void logSndRequest(RpcRequest request) {
+        logger.info("snd rpc request, request {}",
+                DebugLogUtils.logOf(logConfig.getSndRequestLogLevel(), request));
+    }
+
+    private void logRcvResponse(RpcResponse response, boolean timeout) {
+        if (timeout) {
+            logger.info("rcv rpc response, but request is timeout, response {}",
+                    DebugLogUtils.logOf(logConfig.getRcvResponseLogLevel(), response));
+        } else {
+            logger.info("rcv rpc response, response {}",
+                    DebugLogUtils.logOf(logConfig.getRcvResponseLogLevel(), response));
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import it.unimi.dsi.fastutil.ints.*;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 写时复制的Rpc注册表
+ * <p>
+ * 1. 读操作访问不可变的快照，无锁；写操作加锁并复制快照，适用于运行时注册和删除服务（如：活动模块）。
+ * 2. 每次写操作都会复制整个注册表，批量注册时应使用{@link #batchUpdate(Consumer)}，只在结束时发布一次。
+ * 3. 快照发布后将通知监听器，监听器在执行写操作的线程回调。
+ *
+ * @author wjybxx
+ * date - 2024/1/16
+ */
+@ThreadSafe
+public class CopyOnWriteRpcRegistry implements RpcRegistry {
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** 批量更新时的工作数据 -- 只在同步块中访问 */
+    private Int2ObjectOpenHashMap<RpcMethodProxy> workingProxyMap;
+    private Int2ObjectOpenHashMap<String> workingExecutorMap;
+    private Int2IntOpenHashMap workingSerialKeyMap;
+    private Int2ObjectOpenHashMap<int[]> workingConflateKeyMap;
+    private RpcMethodProxy workingDefaultProxy;
+
+    // region 监听器
+
+    /** 注册表的变更监听器 */
+    @FunctionalInterface
+    public interface Listener {
+
+        /** 新的快照已发布 */
+        void onChanged(CopyOnWriteRpcRegistry registry);
+
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public boolean removeListener(Listener listener) {
+        return listeners.remove(listener);
+    }
+
+    // endregion
+
+    // region 写
+
+    /**
+     * 批量更新注册表
+     * action中对注册表的修改将在action结束后一次性发布。
+     */
+    public void batchUpdate(Consumer<? super RpcRegistry> action) {
+        Objects.requireNonNull(action);
+        synchronized (this) {
+            if (workingProxyMap != null) { // 嵌套
+                action.accept(this);
+                return;
+            }
+            beginWrite();
+            try {
+                action.accept(this);
+            } finally {
+                publish();
+            }
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void register(int serviceId, int methodId, @Nonnull RpcMethodProxy proxy) {
+        Objects.requireNonNull(proxy);
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        write(() -> {
+            if (workingProxyMap.containsKey(methodKey)) {
+                throw new IllegalArgumentException("methodKey is duplicate, serviceId: %d, methodId: %d"
+                        .formatted(serviceId, methodId));
+            }
+            workingProxyMap.put(methodKey, proxy);
+        });
+    }
+
+    @Override
+    public void setProxyData(int serviceId, int methodId, Object customData) {
+
+    }
+
+    @Override
+    public void setProxyExecutor(int serviceId, int methodId, String executor) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        write(() -> {
+            if (executor == null) {
+                workingExecutorMap.remove(methodKey);
+            } else {
+                workingExecutorMap.put(methodKey, executor);
+            }
+        });
+    }
+
+    @Override
+    public void setProxySerialKey(int serviceId, int methodId, int paramIndex) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        write(() -> {
+            if (paramIndex < 0) {
+                workingSerialKeyMap.remove(methodKey);
+            } else {
+                workingSerialKeyMap.put(methodKey, paramIndex);
+            }
+        });
+    }
+
+    @Override
+    public void setProxyConflateKey(int serviceId, int methodId, int[] paramIndexes) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        final int[] copied = paramIndexes == null ? null : paramIndexes.clone();
+        write(() -> {
+            if (copied == null) {
+                workingConflateKeyMap.remove(methodKey);
+            } else {
+                workingConflateKeyMap.put(methodKey, copied);
+            }
+        });
+    }
+
+    @Override
+    public RpcMethodProxy removeProxy(int serviceId, int methodId) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        RpcMethodProxy[] result = new RpcMethodProxy[1];
+        write(() -> {
+            result[0] = workingProxyMap.remove(methodKey);
+            workingExecutorMap.remove(methodKey);
+            workingSerialKeyMap.remove(methodKey);
+            workingConflateKeyMap.remove(methodKey);
+        });
+        return result[0];
+    }
+
+    /**
+     * 删除服务的所有方法
+     *
+     * @return 如果服务存在，则返回true
+     */
+    public boolean removeService(int serviceId) {
+        if (!snapshot.serviceIdSet.contains(serviceId)) {
+            return false;
+        }
+        write(() -> {
+            workingProxyMap.keySet().removeIf((int methodKey) -> RpcMethodKey.serviceIdOfKey(methodKey) == serviceId);
+            workingExecutorMap.keySet().removeIf((int methodKey) -> RpcMethodKey.serviceIdOfKey(methodKey) == serviceId);
+            workingSerialKeyMap.keySet().removeIf((int methodKey) -> RpcMethodKey.serviceIdOfKey(methodKey) == serviceId);
+            workingConflateKeyMap.keySet().removeIf((int methodKey) -> RpcMethodKey.serviceIdOfKey(methodKey) == serviceId);
+        });
+        return true;
+    }
+
+    @Override
+    public void setDefaultProxy(RpcMethodProxy defaultProxy) {
+        write(() -> workingDefaultProxy = defaultProxy);
+    }
+
+    @Override
+    public void clear() {
+        write(() -> {
+            workingProxyMap.clear();
+            workingExecutorMap.clear();
+            workingSerialKeyMap.clear();
+            workingConflateKeyMap.clear();
+        });
+    }
+
+    private void write(Runnable action) {
+        synchronized (this) {
+            if (workingProxyMap != null) { // 批量更新中
+                action.run();
+                return;
+            }
+            beginWrite();
+            try {
+                action.run();
+            } finally {
+                publish();
+            }
+        }
+        notifyListeners();
+    }
+
+    private void beginWrite() {
+        Snapshot snapshot = this.snapshot;
+        workingProxyMap = new Int2ObjectOpenHashMap<>(snapshot.proxyMap);
+        workingExecutorMap = new Int2ObjectOpenHashMap<>(snapshot.executorMap);
+        workingSerialKeyMap = new Int2IntOpenHashMap(snapshot.serialKeyMap);
+        workingConflateKeyMap = new Int2ObjectOpenHashMap<>(snapshot.conflateKeyMap);
+        workingDefaultProxy = snapshot.defaultProxy;
+    }
+
+    private void publish() {
+        snapshot = new Snapshot(workingProxyMap, workingExecutorMap, workingSerialKeyMap, workingConflateKeyMap, workingDefaultProxy);
+        workingProxyMap = null;
+        workingExecutorMap = null;
+        workingSerialKeyMap = null;
+        workingConflateKeyMap = null;
+        workingDefaultProxy = null;
+    }
+
+    private void notifyListeners() {
+        for (Listener listener : listeners) {
+            listener.onChanged(this);
+        }
+    }
+
+    // endregion
+
+    // region 读
+
+    @Override
+    public String getProxyExecutor(int serviceId, int methodId) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        return snapshot.executorMap.get(methodKey);
+    }
+
+    @Override
+    public int getProxySerialKey(int serviceId, int methodId) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        return snapshot.serialKeyMap.get(methodKey);
+    }
+
+    @Override
+    public int[] getProxyConflateKey(int serviceId, int methodId) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        return snapshot.conflateKeyMap.get(methodKey);
+    }
+
+    @Override
+    public RpcMethodProxy getProxy(int serviceId, int methodId) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        Snapshot snapshot = this.snapshot;
+        RpcMethodProxy proxy = snapshot.proxyMap.get(methodKey);
+        return proxy != null ? proxy : snapshot.defaultProxy;
+    }
+
+    @Override
+    public boolean hasProxy(int serviceId, int methodId) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        return snapshot.proxyMap.containsKey(methodKey);
+    }
+
+    @Override
+    public RpcMethodProxy getDefaultProxy() {
+        return snapshot.defaultProxy;
+    }
+
+    /** 返回的Set是不可变的 */
+    @Override
+    public IntSet export() {
+        return snapshot.serviceIdSet;
+    }
+
+    @Override
+    public Int2ObjectMap<int[]> exportConflateKeys() {
+        return snapshot.conflateKeyMap;
+    }
+
+    // endregion
+
+    /** 不可变快照 */
+    private static class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(new Int2ObjectOpenHashMap<>(), new Int2ObjectOpenHashMap<>(),
+                new Int2IntOpenHashMap(), new Int2ObjectOpenHashMap<>(), null);
+
+        final Int2ObjectMap<RpcMethodProxy> proxyMap;
+        final Int2ObjectMap<String> executorMap;
+        final Int2IntMap serialKeyMap;
+        final Int2ObjectMap<int[]> conflateKeyMap;
+        final RpcMethodProxy defaultProxy;
+        final IntSet serviceIdSet;
+
+        Snapshot(Int2ObjectOpenHashMap<RpcMethodProxy> proxyMap, Int2ObjectOpenHashMap<String> executorMap,
+                 Int2IntOpenHashMap serialKeyMap, Int2ObjectOpenHashMap<int[]> conflateKeyMap, RpcMethodProxy defaultProxy) {
+            proxyMap.trim();
+            executorMap.trim();
+            serialKeyMap.trim();
+            conflateKeyMap.trim();
+            serialKeyMap.defaultReturnValue(-1);
+            this.serialKeyMap = Int2IntMaps.unmodifiable(serialKeyMap);
+            this.conflateKeyMap = Int2ObjectMaps.unmodifiable(conflateKeyMap);
+            this.proxyMap = Int2ObjectMaps.unmodifiable(proxyMap);
+            this.executorMap = Int2ObjectMaps.unmodifiable(executorMap);
+            this.defaultProxy = defaultProxy;
+
+            IntOpenHashSet serviceIdSet = new IntOpenHashSet();
+            proxyMap.keySet().forEach((int methodKey) -> serviceIdSet.add(RpcMethodKey.serviceIdOfKey(methodKey)));
+            this.serviceIdSet = IntSets.unmodifiable(serviceIdSet);
+        }
+    }
+}
@@ -283,7 +283,8 @@ public class DefaultRpcClient implements RpcClient {
             logRcvRequest(request);
         }
 
-        RpcMethodProxy proxy = registry.getProxy(request.getServiceId(), request.getMethodId());
+        RpcMethodProxy proxy = request.getInvokeType() == RpcInvokeType.BATCH_CALL ? null // 不支持批量调用
+                : registry.getProxy(request.getServiceId(), request.getMethodId());
         if (proxy == null) {
             unsupportedInterface(request);
             return;
@@ -16,7 +16,9 @@
 
 package cn.wjybxx.bigcat.rpc;
 
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
@@ -33,6 +35,22 @@ public class DefaultRpcRegistry implements RpcRegistry {
      * 所有的Rpc请求处理函数, methodKey -> methodProxy
      */
     private final Int2ObjectMap<RpcMethodProxy> proxyMap = new Int2ObjectOpenHashMap<>(512);
+    /**
+     * 方法绑定的执行器，methodKey -> executorName
+     */
+    private final Int2ObjectMap<String> executorMap = new Int2ObjectOpenHashMap<>();
+    /**
+     * 方法的串行Key，methodKey -> paramIndex
+     */
+    private final Int2IntOpenHashMap serialKeyMap = new Int2IntOpenHashMap();
+    /**
+     * 方法的合并Key，methodKey -> paramIndexes
+     */
+    private final Int2ObjectMap<int[]> conflateKeyMap = new Int2ObjectOpenHashMap<>();
+
+    public DefaultRpcRegistry() {
+        serialKeyMap.defaultReturnValue(-1);
+    }
 
     @Override
     public void register(int serviceId, int methodId, @Nonnull RpcMethodProxy proxy) {
@@ -49,6 +67,54 @@ public class DefaultRpcRegistry implements RpcRegistry {
 
     }
 
+    @Override
+    public void setProxyExecutor(int serviceId, int methodId, String executor) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        if (executor == null) {
+            executorMap.remove(methodKey);
+        } else {
+            executorMap.put(methodKey, executor);
+        }
+    }
+
+    @Override
+    public String getProxyExecutor(int serviceId, int methodId) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        return executorMap.get(methodKey);
+    }
+
+    @Override
+    public void setProxySerialKey(int serviceId, int methodId, int paramIndex) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        if (paramIndex < 0) {
+            serialKeyMap.remove(methodKey);
+        } else {
+            serialKeyMap.put(methodKey, paramIndex);
+        }
+    }
+
+    @Override
+    public int getProxySerialKey(int serviceId, int methodId) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        return serialKeyMap.get(methodKey);
+    }
+
+    @Override
+    public void setProxyConflateKey(int serviceId, int methodId, int[] paramIndexes) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        if (paramIndexes == null) {
+            conflateKeyMap.remove(methodKey);
+        } else {
+            conflateKeyMap.put(methodKey, paramIndexes.clone());
+        }
+    }
+
+    @Override
+    public int[] getProxyConflateKey(int serviceId, int methodId) {
+        final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
+        return conflateKeyMap.get(methodKey);
+    }
+
     @Override
     public RpcMethodProxy getProxy(int serviceId, int methodId) {
         final int methodKey = RpcMethodKey.methodKey(serviceId, methodId);
@@ -86,8 +152,17 @@ public class DefaultRpcRegistry implements RpcRegistry {
         return result;
     }
 
+    @Override
+    public Int2ObjectMap<int[]> exportConflateKeys() {
+        // 数组在设置时已拷贝，且不再修改
+        return Int2ObjectMaps.unmodifiable(new Int2ObjectOpenHashMap<>(conflateKeyMap));
+    }
+
     public void clear() {
         proxyMap.clear();
+        executorMap.clear();
+        serialKeyMap.clear();
+        conflateKeyMap.clear();
     }
 
 }
\ No newline at end of file
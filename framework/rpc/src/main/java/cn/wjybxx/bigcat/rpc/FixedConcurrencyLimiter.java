@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 固定上限的并发限制器
+ *
+ * @author wjybxx
+ * date - 2024/1/12
+ */
+public class FixedConcurrencyLimiter implements ConcurrencyLimiter {
+
+    private final int limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public FixedConcurrencyLimiter(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > limit) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void release(long rttNanos) {
+        inFlight.decrementAndGet();
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return "FixedConcurrencyLimiter{" +
+                "limit=" + limit +
+                ", inFlight=" + inFlight.get() +
+                '}';
+    }
+}
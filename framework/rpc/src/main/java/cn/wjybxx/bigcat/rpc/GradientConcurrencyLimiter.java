@@ -0,0 +1,123 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于延迟梯度的自适应并发限制器
+ * <p>
+ * 1. 使用长期的平均延迟作为无负载时的延迟，与最近的延迟相比较得到梯度。
+ * 2. 当延迟上升时梯度小于1，上限随之下降；延迟平稳时上限以{@code sqrt(limit)}的速度增长。
+ * 3. 在途请求数远小于上限时不调整上限，避免空闲时上限无限增长。
+ *
+ * @author wjybxx
+ * date - 2024/1/12
+ */
+public class GradientConcurrencyLimiter implements ConcurrencyLimiter {
+
+    /** 长期平均延迟的采样窗口 */
+    private static final int LONG_WINDOW = 600;
+    /** 可容忍的延迟增长比例 */
+    private static final double RTT_TOLERANCE = 1.5;
+    /** 上限的平滑系数 */
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile int limit;
+    /** 长期的平均延迟 -- 只在同步块中访问 */
+    private double longRtt;
+    private double estimatedLimit;
+
+    /**
+     * @param initialLimit 初始上限
+     * @param minLimit     最小上限
+     * @param maxLimit     最大上限
+     */
+    public GradientConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("initialLimit: %d, minLimit: %d, maxLimit: %d"
+                    .formatted(initialLimit, minLimit, maxLimit));
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > limit) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void release(long rttNanos) {
+        int curInFlight = inFlight.getAndDecrement();
+        if (rttNanos > 0) {
+            update(rttNanos, curInFlight);
+        }
+    }
+
+    private synchronized void update(long rttNanos, int curInFlight) {
+        final double shortRtt = rttNanos;
+        if (longRtt == 0) {
+            longRtt = shortRtt;
+        } else {
+            longRtt = longRtt + (shortRtt - longRtt) / LONG_WINDOW;
+        }
+        // 延迟持续下降时，长期均值需要更快地跟上，否则上限会长期偏高
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95;
+        }
+        // 负载不足时的样本不能反映上限
+        if (curInFlight < estimatedLimit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRtt / shortRtt));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+
+        estimatedLimit = newLimit;
+        limit = (int) newLimit;
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return "GradientConcurrencyLimiter{" +
+                "limit=" + limit +
+                ", inFlight=" + inFlight.get() +
+                '}';
+    }
+}
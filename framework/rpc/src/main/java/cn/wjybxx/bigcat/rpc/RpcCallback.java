@@ -0,0 +1,38 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+/**
+ * Rpc调用的回调
+ * 1. 回调在发起调用的线程执行，实现类无需处理线程切换。
+ * 2. 调用成功时cause为null；调用失败时result为null，cause为调用失败的原因。
+ * 3. ctx为发起调用时传入的上下文，可用于避免为每次调用创建新的回调对象。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@FunctionalInterface
+public interface RpcCallback<V> {
+
+    /**
+     * @param result 调用的结果
+     * @param cause  调用失败的原因
+     * @param ctx    发起调用时传入的上下文
+     */
+    void onCompleted(V result, Throwable cause, Object ctx);
+
+}
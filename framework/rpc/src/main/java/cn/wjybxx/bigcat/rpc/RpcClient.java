@@ -20,6 +20,8 @@ package cn.wjybxx.bigcat.rpc;
 import cn.wjybxx.concurrent.IFuture;
 
 import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Rpc客户端。
@@ -68,6 +70,43 @@ public interface RpcClient {
      */
     <V> IFuture<V> call(RpcAddr target, RpcMethodSpec<V> methodSpec);
 
+    /**
+     * 发起一个rpc调用，并在调用完成时执行回调 -- 适用于只需要回调的高频调用。
+     * 1. 回调在发起调用的线程执行。
+     * 2. 默认实现基于{@link #call(RpcAddr, RpcMethodSpec)}，实现类可优化，以避免创建Future。
+     *
+     * @param target     远程地址
+     * @param methodSpec 要调用的方法信息
+     * @param callback   回调
+     * @param ctx        回调的上下文
+     */
+    default <V> void call(RpcAddr target, RpcMethodSpec<V> methodSpec, RpcCallback<? super V> callback, Object ctx) {
+        call(target, methodSpec).onCompleted(future -> {
+            if (future.isSucceeded()) {
+                callback.onCompleted(future.resultNow(), null, ctx);
+            } else {
+                callback.onCompleted(null, future.exceptionNow(false), ctx);
+            }
+        }, 0);
+    }
+
+    /**
+     * 发起一个批量rpc调用 -- 多个调用打包为一个请求，目标节点按顺序执行，所有结果合并为一个响应返回。
+     * 1. 每个调用的future独立完成，单个调用失败不影响其它调用。
+     * 2. 默认实现为逐个调用{@link #call(RpcAddr, RpcMethodSpec)}，实现类可优化。
+     *
+     * @param target      远程地址
+     * @param methodSpecs 要调用的方法信息
+     * @return 与methodSpecs一一对应的future
+     */
+    default List<IFuture<?>> batchCall(RpcAddr target, List<? extends RpcMethodSpec<?>> methodSpecs) {
+        List<IFuture<?>> futures = new ArrayList<>(methodSpecs.size());
+        for (RpcMethodSpec<?> methodSpec : methodSpecs) {
+            futures.add(call(target, methodSpec));
+        }
+        return futures;
+    }
+
     /**
      * 执行一个同步rpc调用，当前线程会阻塞到结果返回 -- 使用默认的超时时间。
      *
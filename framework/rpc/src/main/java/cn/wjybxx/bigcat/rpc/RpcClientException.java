@@ -59,6 +59,11 @@ public class RpcClientException extends RpcException {
         return new RpcClientException(RpcErrorCodes.LOCAL_ROUTER_EXCEPTION, target + " unreachable", null, true, true);
     }
 
+    /** 背压导致的失败是常态，堆栈毫无益处 */
+    public static RpcClientException routerBusy(RpcAddr target) {
+        return new RpcClientException(RpcErrorCodes.LOCAL_ROUTER_BUSY, target + " busy", null, false, false);
+    }
+
     public static RpcClientException timeout() {
         return TIMEOUT;
     }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 该注解用于标记{@link RpcMethod#conflate()}方法的合并Key参数
+ * <p>
+ * 1. 同一发送方、同一方法、Key参数相等的单向消息，Worker尚未处理时，旧消息将被新消息替换。
+ * 2. 可以标记多个参数，按参数顺序组成Key；不可以是Context参数。
+ * 3. Key参数应当是不可变类型，通常是基本类型或String，并正确实现equals和hashCode。
+ *
+ * <pre>{@code
+ *  @RpcMethod(methodId = 1, conflate = true)
+ *  public void syncPosition(@RpcConflateKey long entityId, float x, float y) {
+ *      ...
+ *  }
+ * }</pre>
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.PARAMETER)
+public @interface RpcConflateKey {
+
+}
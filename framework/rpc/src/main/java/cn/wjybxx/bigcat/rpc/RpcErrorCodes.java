@@ -44,6 +44,8 @@ public class RpcErrorCodes {
     public static final int LOCAL_UNKNOWN_EXCEPTION = 14;
     /** 本地反序列化请求或结果失败 */
     public static final int LOCAL_DESERIALIZE_FAILED = 15;
+    /** 路由繁忙，出站缓冲区已满 */
+    public static final int LOCAL_ROUTER_BUSY = 16;
 
     // 31 - 50 表服务器异常
     /** 表示服务器调用出现异常的错误码 */
@@ -54,6 +56,12 @@ public class RpcErrorCodes {
     public static final int SERVER_CONNECTION_STATE_ERROR = 33;
     /** 服务端反序列化请求失败 */
     public static final int SERVER_DESERIALIZE_FAILED = 34;
+    /** 执行器拒绝了请求(队列已满或已关闭) */
+    public static final int SERVER_EXECUTOR_REJECTED = 35;
+    /** 在途请求数超过了限制 */
+    public static final int SERVER_CONCURRENCY_LIMITED = 36;
+    /** 服务器过载，请求排队过久 */
+    public static final int SERVER_OVERLOADED = 37;
 
     /**
      * 判断错误码是否属于用户命名空间
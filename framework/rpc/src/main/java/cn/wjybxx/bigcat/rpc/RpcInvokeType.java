@@ -25,6 +25,12 @@ public class RpcInvokeType {
     public static final int ONEWAY = 1;
     public static final int CALL = 2;
     public static final int SYNC_CALL = 3;
+    /**
+     * 批量调用 -- 多个调用打包为一个请求，目标节点按序执行，所有结果合并为一个响应。
+     * 参数为扁平列表{@code [serviceId, methodId, parameterCount, parameters...]...}，
+     * 结果为扁平列表{@code [errorCode, resultCount, results...]...}
+     */
+    public static final int BATCH_CALL = 4;
 
     /** 是否是消息 -- 远程不需要结果 */
     public static boolean isMessage(int type) {
@@ -33,7 +39,7 @@ public class RpcInvokeType {
 
     /** 是否是调用 -- 远程需要结果 */
     public static boolean isCall(int type) {
-        return type == CALL || type == SYNC_CALL;
+        return type == CALL || type == SYNC_CALL || type == BATCH_CALL;
     }
 
 }
\ No newline at end of file
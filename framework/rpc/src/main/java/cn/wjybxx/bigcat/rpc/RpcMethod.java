@@ -99,4 +99,23 @@ public @interface RpcMethod {
     @StableName
     String customData() default "";
 
+    /**
+     * 执行该方法的执行器名字
+     * 1. 默认在Worker线程执行；指定执行器后，方法将在对应的执行器中执行，而结果仍回到Worker线程返回。
+     * 2. 仅用于无法避免的阻塞操作(文件导出、旧的JDBC等)，以免阻塞Worker的主循环。
+     * 3. 在执行器中运行的方法不可访问Worker的状态，线程安全由用户保证。
+     */
+    @StableName
+    String executor() default "";
+
+    /**
+     * 是否合并单向消息（后写覆盖）
+     * 1. 用于位置、状态等会被下一条消息覆盖的通知：Worker尚未处理的消息将被同一Key的新消息替换，而不是排队。
+     * 2. Key为方法和{@link RpcConflateKey}标记的参数，以及消息的发送方；没有标记参数时，同一发送方的该方法的消息都将合并。
+     * 3. 只对{@link RpcClient#send(RpcAddr, RpcMethodSpec)}发送的消息有效，call不合并。
+     * 4. 消息在接收线程合并，新消息不再排队，Worker的队列长度受限于活跃的Key数。
+     */
+    @StableName
+    boolean conflate() default false;
+
 }
\ No newline at end of file
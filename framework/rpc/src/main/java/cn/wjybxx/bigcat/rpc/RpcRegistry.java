@@ -17,6 +17,7 @@
 package cn.wjybxx.bigcat.rpc;
 
 import cn.wjybxx.base.annotation.StableName;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
 import javax.annotation.Nonnull;
@@ -67,6 +68,67 @@ public interface RpcRegistry {
         setProxyData(serviceId, methodId, customData);
     }
 
+    /**
+     * 设置方法的执行器
+     * 方法默认在注册表所属的线程执行，设置执行器后，应当在指定的执行器中执行。
+     *
+     * @param serviceId 服务id
+     * @param methodId  方法id
+     * @param executor  执行器的名字；若为null则表示删除
+     */
+    @StableName
+    void setProxyExecutor(int serviceId, int methodId, String executor);
+
+    /**
+     * 查询方法绑定的执行器
+     *
+     * @param serviceId 服务id
+     * @param methodId  方法id
+     * @return 如果未绑定执行器，则返回null
+     */
+    String getProxyExecutor(int serviceId, int methodId);
+
+    /**
+     * 设置方法的串行Key
+     * 同一个服务中串行Key相同的请求将按顺序执行，前一个请求完成后才执行下一个请求。
+     *
+     * @param serviceId  服务id
+     * @param methodId   方法id
+     * @param paramIndex Key参数的索引(不含Context)；若小于0则表示删除
+     */
+    @StableName
+    void setProxySerialKey(int serviceId, int methodId, int paramIndex);
+
+    /**
+     * 查询方法的串行Key
+     *
+     * @param serviceId 服务id
+     * @param methodId  方法id
+     * @return Key参数的索引；如果方法不需要串行执行，则返回-1
+     */
+    int getProxySerialKey(int serviceId, int methodId);
+
+    /**
+     * 设置方法的合并Key
+     * 未处理的单向消息将被Key相同的新消息替换，见{@link RpcMethod#conflate()}
+     *
+     * @param serviceId    服务id
+     * @param methodId     方法id
+     * @param paramIndexes Key参数的索引(不含Context)，可以为空数组；若为null则表示删除
+     */
+    @StableName
+    void setProxyConflateKey(int serviceId, int methodId, int[] paramIndexes);
+
+    /**
+     * 查询方法的合并Key
+     * 注意：该方法只在所属的线程调用，接收线程读取{@link #exportConflateKeys()}导出的快照。
+     *
+     * @param serviceId 服务id
+     * @param methodId  方法id
+     * @return Key参数的索引；如果方法的消息不合并，则返回null
+     */
+    int[] getProxyConflateKey(int serviceId, int methodId);
+
     /**
      * 查询方法绑定的Proxy
      *
@@ -103,6 +165,14 @@ public interface RpcRegistry {
      */
     IntSet export();
 
+    /**
+     * 导出方法的合并Key
+     * Worker在导出服务时发布该快照，接收线程据此合并消息，见{@link RpcMethod#conflate()}
+     *
+     * @return methodKey到Key参数索引的映射，见{@link RpcMethodKey}；映射和数组都不可修改
+     */
+    Int2ObjectMap<int[]> exportConflateKeys();
+
     /**
      * 清理注册表
      * 因为{@link #register(int, int, RpcMethodProxy)}会捕获太多对象，
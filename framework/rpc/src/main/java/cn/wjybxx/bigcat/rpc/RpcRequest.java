@@ -57,6 +57,8 @@ public final class RpcRequest extends RpcProtocol implements DebugLogFriendlyObj
      */
     @FieldImpl(writeProxy = "writeParameters", readProxy = "readParameters")
     private Object parameters;
+    /** 收到请求的时间(纳秒) -- 用于计算排队延迟，不序列化 */
+    private transient long rcvNanos;
 
     public RpcRequest() {
         // 可能的序列化支持
@@ -99,6 +101,14 @@ public final class RpcRequest extends RpcProtocol implements DebugLogFriendlyObj
         return parameters.isEmpty() ? null : parameters.get(0);
     }
 
+    public long getRcvNanos() {
+        return rcvNanos;
+    }
+
+    public void setRcvNanos(long rcvNanos) {
+        this.rcvNanos = rcvNanos;
+    }
+
     // endregion
 
     // region getter/setter
@@ -206,10 +216,11 @@ public final class RpcRequest extends RpcProtocol implements DebugLogFriendlyObj
             return;
         }
         if (parameters instanceof byte[] bytes) {
-            writer.writeValueBytes(name, DsonType.ARRAY, bytes);
+            // 已序列化的数据按二进制写入，接收方按需反序列化
+            writer.writeBytes(name, bytes);
         } else {
             List<Object> parameters = listParameters();
-            writer.writeStartArray(name, getListTypeArgInfo(parameters));
+            writer.writeStartArray(name, parameters, getListTypeArgInfo(parameters));
             for (Object ele : parameters) {
                 writer.writeObject(0, ele);
             }
@@ -225,6 +236,10 @@ public final class RpcRequest extends RpcProtocol implements DebugLogFriendlyObj
             reader.readNull(name);
             return;
         }
+        if (reader.getCurrentDsonType() == DsonType.BINARY) {
+            this.parameters = reader.readBytes(name);
+            return;
+        }
         List<Object> parameters = new ArrayList<>(2);
         reader.readStartArray(TypeArgInfo.ARRAYLIST);
         DsonType dsonType;
@@ -242,10 +242,11 @@ public final class RpcResponse extends RpcProtocol implements DebugLogFriendlyOb
             return;
         }
         if (results instanceof byte[] bytes) {
-            writer.writeValueBytes(name, DsonType.ARRAY, bytes);
+            // 已序列化的数据按二进制写入，接收方按需反序列化
+            writer.writeBytes(name, bytes);
         } else {
             List<Object> results = listResult();
-            writer.writeStartArray(name, RpcRequest.getListTypeArgInfo(results));
+            writer.writeStartArray(name, results, RpcRequest.getListTypeArgInfo(results));
             for (Object ele : results) {
                 writer.writeObject(0, ele);
             }
@@ -261,6 +262,10 @@ public final class RpcResponse extends RpcProtocol implements DebugLogFriendlyOb
             reader.readNull(name);
             return;
         }
+        if (reader.getCurrentDsonType() == DsonType.BINARY) {
+            this.results = reader.readBytes(name);
+            return;
+        }
         List<Object> results = new ArrayList<>(1);
         reader.readStartArray(TypeArgInfo.ARRAYLIST);
         DsonType dsonType;
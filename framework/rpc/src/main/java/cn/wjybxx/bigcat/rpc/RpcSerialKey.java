@@ -0,0 +1,48 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 该注解用于标记{@link RpcMethod}的串行Key参数
+ * <p>
+ * 1. Worker会按照Key串行执行请求：同一个Key的前一个请求未完成时，后续请求将排队等待。
+ * 2. 请求完成是指返回了结果 -- 若方法返回Future，则是Future进入完成状态；手动返回结果时，则是调用了send方法。
+ * 3. Key在服务内有效，即同一个服务的多个方法可使用相同的Key串行化（如：公会id）。
+ * 4. Key参数应当是不可变类型，通常是基本类型或String；Key为null时不串行化。
+ * 5. 一个方法最多一个串行Key，且不可以是Context参数；指定了{@link RpcMethod#executor()}的方法同样有效。
+ * 6. 手动返回结果的方法必须保证返回结果，否则将阻塞该Key后续的所有请求。
+ *
+ * <pre>{@code
+ *  @RpcMethod(methodId = 1)
+ *  public IFuture<Integer> donate(@RpcSerialKey long guildId, long playerId, int count) {
+ *      ...
+ *  }
+ * }</pre>
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.PARAMETER)
+public @interface RpcSerialKey {
+
+}
@@ -37,11 +37,14 @@ public class RpcServerException extends RpcException {
     }
 
     public static RuntimeException newServerException(RpcResponse response) {
-        int errorCode = response.getErrorCode();
+        return newServerException(response.getErrorCode(), response.getErrorMsg());
+    }
+
+    public static RuntimeException newServerException(int errorCode, String errorMsg) {
         if (RpcErrorCodes.isUserCode(errorCode)) {
-            return new ErrorCodeException(errorCode, response.getErrorMsg());
+            return new ErrorCodeException(errorCode, errorMsg);
         } else {
-            return new RpcServerException(errorCode, response.getErrorMsg());
+            return new RpcServerException(errorCode, errorMsg);
         }
     }
 }
\ No newline at end of file
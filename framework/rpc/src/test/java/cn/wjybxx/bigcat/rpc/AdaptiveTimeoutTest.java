@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class AdaptiveTimeoutTest {
+
+    /** 样本不足时使用默认超时，之后跟随延迟分布变化 */
+    @Test
+    void followLatency() {
+        AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout(0.999, 3, 50, 10000, 1000);
+        long curTime = 10000;
+        for (int i = 0; i < 31; i++) {
+            adaptiveTimeout.record(100, curTime);
+        }
+        Assertions.assertEquals(15000, adaptiveTimeout.getTimeoutMs(15000));
+
+        for (int i = 0; i < 1000; i++) {
+            adaptiveTimeout.record(100, curTime);
+        }
+        long timeoutMs = adaptiveTimeout.getTimeoutMs(15000);
+        Assertions.assertTrue(timeoutMs >= 300 && timeoutMs <= 360, "timeoutMs: " + timeoutMs);
+
+        // 旧样本衰减后，超时跟随新的延迟
+        curTime += 10 * 1000;
+        for (int i = 0; i < 1000; i++) {
+            adaptiveTimeout.record(1000, curTime);
+        }
+        timeoutMs = adaptiveTimeout.getTimeoutMs(15000);
+        Assertions.assertTrue(timeoutMs >= 3000 && timeoutMs <= 3600, "timeoutMs: " + timeoutMs);
+    }
+
+    @Test
+    void clamp() {
+        AdaptiveTimeout adaptiveTimeout = AdaptiveTimeout.ofP999(500, 2000);
+        for (int i = 0; i < 100; i++) {
+            adaptiveTimeout.record(1, 10000);
+        }
+        Assertions.assertEquals(500, adaptiveTimeout.getTimeoutMs(15000));
+        for (int i = 0; i < 100; i++) {
+            adaptiveTimeout.record(5000, 10000);
+        }
+        Assertions.assertEquals(2000, adaptiveTimeout.getTimeoutMs(15000));
+    }
+
+    /** 目标宕机时所有调用都超时，超时时间不应增长 */
+    @Test
+    void timeoutNotRecorded() {
+        AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout(0.999, 3, 50, 10000, 1000);
+        long curTime = 10000;
+        for (int i = 0; i < 100; i++) {
+            adaptiveTimeout.record(100, curTime);
+        }
+        long timeoutMs = adaptiveTimeout.getTimeoutMs(15000);
+        for (int i = 0; i < 1000; i++) {
+            curTime += timeoutMs;
+            adaptiveTimeout.recordTimeout(curTime);
+            Assertions.assertEquals(timeoutMs, adaptiveTimeout.getTimeoutMs(15000));
+        }
+        // 超时次数与样本一起衰减
+        Assertions.assertTrue(adaptiveTimeout.getTimeoutCount() < 1000, "timeoutCount: " + adaptiveTimeout.getTimeoutCount());
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wjybxx
+ * date - 2024/1/14
+ */
+public class CoDelShedderTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void test() {
+        CoDelShedder shedder = new CoDelShedder(5, 100);
+        long now = 1000 * MS;
+        // 短暂排队不丢弃
+        Assertions.assertFalse(shedder.shouldShed(now - 20 * MS, now));
+        // 持续排队一个周期后进入过载状态
+        for (int i = 0; i < 110; i++) {
+            now += MS;
+            shedder.shouldShed(now - 20 * MS, now);
+        }
+        Assertions.assertTrue(shedder.isOverloaded());
+        Assertions.assertTrue(shedder.shouldShed(now - 20 * MS, now));
+        Assertions.assertFalse(shedder.shouldShed(now - 2 * MS, now));
+
+        // 队列清空一个周期后恢复
+        for (int i = 0; i < 110; i++) {
+            now += MS;
+            shedder.shouldShed(now, now);
+        }
+        Assertions.assertFalse(shedder.isOverloaded());
+        Assertions.assertFalse(shedder.shouldShed(now - 20 * MS, now));
+    }
+}
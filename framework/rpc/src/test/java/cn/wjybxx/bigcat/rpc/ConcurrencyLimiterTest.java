@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wjybxx
+ * date - 2024/1/12
+ */
+public class ConcurrencyLimiterTest {
+
+    @Test
+    void fixedLimit() {
+        FixedConcurrencyLimiter limiter = new FixedConcurrencyLimiter(2);
+        Assertions.assertTrue(limiter.tryAcquire());
+        Assertions.assertTrue(limiter.tryAcquire());
+        Assertions.assertFalse(limiter.tryAcquire());
+        Assertions.assertEquals(2, limiter.getInFlight());
+
+        limiter.release(0);
+        Assertions.assertTrue(limiter.tryAcquire());
+    }
+
+    /** 延迟突增时上限应当下降，延迟恢复后上限应当回升 */
+    @Test
+    void gradientLimit() {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter(20, 2, 200);
+        final long baseRtt = TimeUnit.MILLISECONDS.toNanos(10);
+        simulate(limiter, baseRtt, 500);
+        int stableLimit = limiter.getLimit();
+        Assertions.assertTrue(stableLimit >= 20, "stableLimit: " + stableLimit);
+
+        simulate(limiter, baseRtt * 10, 2);
+        int overloadLimit = limiter.getLimit();
+        Assertions.assertTrue(overloadLimit < stableLimit, "overloadLimit: " + overloadLimit);
+
+        simulate(limiter, baseRtt, 500);
+        Assertions.assertTrue(limiter.getLimit() > overloadLimit);
+    }
+
+    /** 每轮占满许可后以指定延迟释放 */
+    private static void simulate(ConcurrencyLimiter limiter, long rttNanos, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            int acquired = 0;
+            while (limiter.tryAcquire()) {
+                acquired++;
+            }
+            for (int i = 0; i < acquired; i++) {
+                limiter.release(rttNanos);
+            }
+            Assertions.assertEquals(0, limiter.getInFlight());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import cn.wjybxx.base.time.TimeProviders;
+
+import java.util.ArrayDeque;
+
+/**
+ * 单线程下{@link ConcurrentRpcClient}与{@link DefaultRpcClient}的开销对比
+ * 路由直接生成响应，统计每次调用和处理响应的耗时；前几轮用于预热。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class ConcurrentRpcClientBenchmark {
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        ArrayDeque<RpcResponse> responseQueue = new ArrayDeque<>();
+        RpcRouter router = protocol -> responseQueue.offer(ConcurrentRpcClientTest.echoResponse((RpcRequest) protocol));
+        DefaultRpcClient defaultClient = new DefaultRpcClient(SimpleAddr.CLIENT.id, SimpleAddr.CLIENT,
+                router, new DefaultRpcRegistry(), TimeProviders.systemMillisProvider(), 5000);
+        ConcurrentRpcClient concurrentClient = new ConcurrentRpcClient(SimpleAddr.CLIENT.id, SimpleAddr.CLIENT,
+                router, TimeProviders.systemMillisProvider(), 5000);
+
+        RpcMethodSpec<String> methodSpec = RpcServiceExampleProxy.hello("hello");
+        for (int round = 0; round < rounds; round++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                defaultClient.call(SimpleAddr.SERVER, methodSpec);
+                defaultClient.onRcvResponse(responseQueue.poll());
+            }
+            long defaultCost = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                concurrentClient.call(SimpleAddr.SERVER, methodSpec);
+                concurrentClient.onRcvResponse(responseQueue.poll());
+            }
+            long concurrentCost = System.nanoTime() - startTime;
+            System.out.printf("round %d, default %d ns/op, concurrent %d ns/op%n", round, defaultCost / count, concurrentCost / count);
+        }
+        if (concurrentClient.getPendingCount() != 0) {
+            throw new IllegalStateException("pendingCount: " + concurrentClient.getPendingCount());
+        }
+    }
+}
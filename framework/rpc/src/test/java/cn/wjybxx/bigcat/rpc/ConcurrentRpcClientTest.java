@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import cn.wjybxx.base.time.TimeProviders;
+import cn.wjybxx.concurrent.IFuture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class ConcurrentRpcClientTest {
+
+    /** 多个线程同时发起异步调用和同步调用，响应由模拟的IO线程回传 */
+    @Test
+    void multiThreadCall() throws Exception {
+        ExecutorService ioThread = Executors.newSingleThreadExecutor();
+        ConcurrentRpcClient[] holder = new ConcurrentRpcClient[1];
+        RpcRouter router = protocol -> {
+            RpcResponse response = echoResponse((RpcRequest) protocol);
+            ioThread.execute(() -> holder[0].onRcvResponse(response));
+            return true;
+        };
+        ConcurrentRpcClient rpcClient = holder[0] = new ConcurrentRpcClient(SimpleAddr.CLIENT.id, SimpleAddr.CLIENT,
+                router, TimeProviders.systemMillisProvider(), 5000, 4);
+
+        int nThreads = 4;
+        int callCount = 5000;
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < nThreads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    List<IFuture<String>> futures = new ArrayList<>(callCount);
+                    for (int i = 0; i < callCount; i++) {
+                        futures.add(rpcClient.call(SimpleAddr.SERVER, RpcServiceExampleProxy.hello("hello" + i)));
+                    }
+                    for (int i = 0; i < 100; i++) {
+                        Assertions.assertEquals("sync" + i, rpcClient.syncCall(SimpleAddr.SERVER, RpcServiceExampleProxy.hello("sync" + i)));
+                    }
+                    for (int i = 0; i < callCount; i++) {
+                        Assertions.assertEquals("hello" + i, futures.get(i).get(5, TimeUnit.SECONDS));
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ioThread.shutdown();
+
+        Assertions.assertTrue(errors.isEmpty(), () -> "errors: " + errors);
+        Assertions.assertEquals(0, rpcClient.getPendingCount());
+    }
+
+    /** 超时由定时器线程检测 */
+    @Test
+    void timeout() throws Exception {
+        ConcurrentRpcClient rpcClient = new ConcurrentRpcClient(SimpleAddr.CLIENT.id, SimpleAddr.CLIENT,
+                protocol -> true, TimeProviders.systemMillisProvider(), 50);
+        rpcClient.start(10);
+        try {
+            IFuture<String> future = rpcClient.call(SimpleAddr.SERVER, RpcServiceExampleProxy.hello("hello"));
+            future.await(5, TimeUnit.SECONDS);
+            Assertions.assertTrue(future.isFailed());
+            Throwable cause = future.exceptionNow(false);
+            Assertions.assertTrue(cause instanceof RpcClientException, "cause: " + cause);
+            Assertions.assertEquals(RpcErrorCodes.LOCAL_TIMEOUT, ((RpcClientException) cause).getErrorCode());
+            Assertions.assertEquals(0, rpcClient.getPendingCount());
+        } finally {
+            rpcClient.shutdown();
+        }
+    }
+
+    static RpcResponse echoResponse(RpcRequest request) {
+        RpcResponse response = new RpcResponse(request, SimpleAddr.SERVER);
+        response.setSuccess(request.listParameters().get(0));
+        return response;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.rpc;
+
+import it.unimi.dsi.fastutil.ints.IntSet;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author wjybxx
+ * date - 2024/1/16
+ */
+public class CopyOnWriteRpcRegistryTest {
+
+    private static final RpcMethodProxy proxy = (context, methodSpec) -> null;
+
+    @Test
+    void test() {
+        CopyOnWriteRpcRegistry registry = new CopyOnWriteRpcRegistry();
+        AtomicInteger changedCount = new AtomicInteger();
+        registry.addListener(r -> changedCount.incrementAndGet());
+
+        // 批量注册只发布一次
+        registry.batchUpdate(r -> {
+            r.register(1, 1, proxy);
+            r.register(1, 2, proxy);
+            r.register(2, 1, proxy);
+        });
+        Assertions.assertEquals(1, changedCount.get());
+
+        IntSet snapshot = registry.export();
+        Assertions.assertEquals(IntSet.of(1, 2), snapshot);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> registry.register(1, 1, proxy));
+
+        // 删除服务不影响已导出的快照
+        Assertions.assertTrue(registry.removeService(1));
+        Assertions.assertEquals(IntSet.of(2), registry.export());
+        Assertions.assertEquals(IntSet.of(1, 2), snapshot);
+        Assertions.assertNull(registry.getProxy(1, 1));
+        Assertions.assertFalse(registry.removeService(1));
+        Assertions.assertEquals(2, changedCount.get());
+    }
+}
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * @author wjybxx
@@ -193,6 +194,23 @@ public class RpcExporterGenerator extends AbstractGenerator<RpcServiceProcessor>
         if (customData != null) {
             builder.addStatement("$L.setProxyData($L, $L, $S)", varName_registry, serviceId, methodId, customData);
         }
+        // 注册执行器
+        String executor = processor.getExecutor(method, annoValueMap);
+        if (executor != null) {
+            builder.addStatement("$L.setProxyExecutor($L, $L, $S)", varName_registry, serviceId, methodId, executor);
+        }
+        // 注册串行Key
+        int serialKeyIndex = processor.getSerialKeyIndex(method);
+        if (serialKeyIndex >= 0) {
+            builder.addStatement("$L.setProxySerialKey($L, $L, $L)", varName_registry, serviceId, methodId, serialKeyIndex);
+        }
+        // 注册合并Key
+        if (processor.isConflate(method, annoValueMap)) {
+            String indexes = processor.getConflateKeyIndexes(method).stream()
+                    .map(String::valueOf)
+                    .collect(Collectors.joining(", "));
+            builder.addStatement("$L.setProxyConflateKey($L, $L, new int[]{$L})", varName_registry, serviceId, methodId, indexes);
+        }
         return builder.build();
     }
 
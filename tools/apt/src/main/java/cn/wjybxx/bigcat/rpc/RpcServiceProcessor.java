@@ -53,6 +53,10 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
     private static final String PNAME_RESULT_SHARABLE = "resultSharable";
     private static final String PNAME_MANUAL_RETURN = "manualReturn";
     private static final String PNAME_CUSTOM_DATA = "customData";
+    private static final String PNAME_EXECUTOR = "executor";
+    private static final String CNAME_SERIAL_KEY = "cn.wjybxx.bigcat.rpc.RpcSerialKey";
+    private static final String PNAME_CONFLATE = "conflate";
+    private static final String CNAME_CONFLATE_KEY = "cn.wjybxx.bigcat.rpc.RpcConflateKey";
 
     private static final String CNAME_METHOD_SPEC = "cn.wjybxx.bigcat.rpc.RpcMethodSpec";
     private static final String CNAME_METHOD_REGISTRY = "cn.wjybxx.bigcat.rpc.RpcRegistry";
@@ -64,6 +68,8 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
 
     private TypeElement anno_rpcServiceElement;
     private TypeElement anno_rpcMethodElement;
+    private TypeElement anno_serialKeyElement;
+    private TypeElement anno_conflateKeyElement;
 
     TypeElement methodSpecElement;
     ClassName methodSpecRawTypeName;
@@ -96,6 +102,8 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
         }
         anno_rpcServiceElement = elementUtils.getTypeElement(CNAME_RPC_SERVICE);
         anno_rpcMethodElement = elementUtils.getTypeElement(CNAME_RPC_METHOD);
+        anno_serialKeyElement = elementUtils.getTypeElement(CNAME_SERIAL_KEY);
+        anno_conflateKeyElement = elementUtils.getTypeElement(CNAME_CONFLATE_KEY);
 
         methodSpecElement = elementUtils.getTypeElement(CNAME_METHOD_SPEC);
         methodSpecRawTypeName = ClassName.get(methodSpecElement);
@@ -205,6 +213,32 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
                 continue;
             }
         }
+        // 检查串行Key
+        int serialKeyCount = 0;
+        for (VariableElement variableElement : parameters) {
+            if (!isSerialKey(variableElement)) {
+                continue;
+            }
+            if (isContext(variableElement.asType())) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "context can't be serial key!", variableElement);
+            }
+            if (++serialKeyCount > 1) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "method has more than one serial key!", method);
+            }
+        }
+        // 检查合并Key
+        boolean conflate = isConflate(method, getMethodAnnoValueMap(method));
+        for (VariableElement variableElement : parameters) {
+            if (!isConflateKey(variableElement)) {
+                continue;
+            }
+            if (!conflate) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "conflate key requires conflate method!", variableElement);
+            }
+            if (isContext(variableElement.asType())) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "context can't be conflate key!", variableElement);
+            }
+        }
     }
 
     private void genProxyClass(TypeElement typeElement, List<ExecutableElement> rpcMethodList) {
@@ -248,6 +282,72 @@ public class RpcServiceProcessor extends MyAbstractProcessor {
         return (String) annotationValue.getValue();
     }
 
+    /** 方法绑定的执行器名字 */
+    String getExecutor(ExecutableElement method, Map<String, AnnotationValue> annoValueMap) {
+        AnnotationValue annotationValue = annoValueMap.get(PNAME_EXECUTOR);
+        if (annotationValue == null) {
+            return null;
+        }
+        String executor = (String) annotationValue.getValue();
+        return executor.isBlank() ? null : executor;
+    }
+
+    /**
+     * 方法的串行Key参数索引
+     *
+     * @return Key参数的索引(不含Context)；如果没有串行Key，则返回-1
+     */
+    int getSerialKeyIndex(ExecutableElement method) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        int offset = firstArgType(method).isContext() ? 1 : 0;
+        for (int idx = offset; idx < parameters.size(); idx++) {
+            if (isSerialKey(parameters.get(idx))) {
+                return idx - offset;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isSerialKey(VariableElement parameter) {
+        if (anno_serialKeyElement == null) { // 旧版本的rpc模块
+            return false;
+        }
+        return AptUtils.findAnnotation(typeUtils, parameter, anno_serialKeyElement.asType()).isPresent();
+    }
+
+    /** 是否合并单向消息 */
+    boolean isConflate(ExecutableElement method, Map<String, AnnotationValue> annoValueMap) {
+        AnnotationValue annotationValue = annoValueMap.get(PNAME_CONFLATE);
+        if (annotationValue == null) {
+            return false;
+        }
+        return (boolean) annotationValue.getValue();
+    }
+
+    /**
+     * 方法的合并Key参数索引
+     *
+     * @return Key参数的索引(不含Context)；没有Key参数时返回空数组
+     */
+    List<Integer> getConflateKeyIndexes(ExecutableElement method) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        int offset = firstArgType(method).isContext() ? 1 : 0;
+        List<Integer> result = new ArrayList<>(2);
+        for (int idx = offset; idx < parameters.size(); idx++) {
+            if (isConflateKey(parameters.get(idx))) {
+                result.add(idx - offset);
+            }
+        }
+        return result;
+    }
+
+    private boolean isConflateKey(VariableElement parameter) {
+        if (anno_conflateKeyElement == null) { // 旧版本的rpc模块
+            return false;
+        }
+        return AptUtils.findAnnotation(typeUtils, parameter, anno_conflateKeyElement.asType()).isPresent();
+    }
+
     /** 是否手动返回结果 */
     boolean isManualReturn(ExecutableElement method, Map<String, AnnotationValue> annoValueMap) {
         AnnotationValue annotationValue = annoValueMap.get(PNAME_MANUAL_RETURN);
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.loadgen;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数分桶的延迟直方图
+ * <p>
+ * 1. 每个2的幂区间等分为16个桶，相对误差不超过1/16，内存固定。
+ * 2. 记录的单位为纳秒；支持单线程写多线程读，也可多线程写。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@ThreadSafe
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /** @param nanos 负数视为0 */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(indexOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        if (nanos > max.get()) {
+            max.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    /** 获取当前数据的快照 */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = buckets.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sum.get(), max.get());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /** 桶的下界 */
+    static long lowerBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int exp = index / SUB_COUNT - 1 + SUB_BITS;
+        int sub = index % SUB_COUNT;
+        return (long) (SUB_COUNT + sub) << (exp - SUB_BITS);
+    }
+
+    /** 直方图快照 -- 不可变 */
+    public static final class Snapshot {
+
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * 查询分位数 -- 返回所在桶的上界，不超过最大值
+         *
+         * @param quantile [0, 1]
+         */
+        public long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(quantile * count));
+            long accumulated = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                accumulated += buckets[i];
+                if (accumulated >= target) {
+                    return Math.min(max, lowerBound(i + 1) - 1);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * 计算两个快照之间新增的数据，用于统计一段时间内的分布
+         * 区间内的最大值按所在桶的上界估算。
+         *
+         * @param earlier 同一个直方图更早的快照
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] diff = new long[buckets.length];
+            int highest = -1;
+            for (int i = 0; i < buckets.length; i++) {
+                diff[i] = buckets[i] - earlier.buckets[i];
+                if (diff[i] > 0) {
+                    highest = i;
+                }
+            }
+            long intervalMax = highest < 0 ? 0 : Math.min(max, lowerBound(highest + 1) - 1);
+            return new Snapshot(diff, count - earlier.count, sum - earlier.sum, intervalMax);
+        }
+
+        /** 常用分位数的摘要，单位毫秒 */
+        public String summary() {
+            return "count %d, mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, p999 %.3f, max %.3f".formatted(count,
+                    toMillis(mean()), toMillis(percentile(0.5)), toMillis(percentile(0.9)),
+                    toMillis(percentile(0.99)), toMillis(percentile(0.999)), toMillis(max));
+        }
+
+        private static double toMillis(double nanos) {
+            return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" + summary() + "}";
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.loadgen;
+
+import cn.wjybxx.bigcat.fx.LocalNodeRegistry;
+import cn.wjybxx.bigcat.fx.LocalRpcRouter;
+import cn.wjybxx.bigcat.fx.PlayerAddr;
+import cn.wjybxx.bigcat.rpc.RpcProtocol;
+import cn.wjybxx.bigcat.rpc.RpcRequest;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 压测使用的内存路由
+ * <p>
+ * 1. 发往{@link PlayerAddr}的协议放入队列，由{@link LoadGenerator}的驱动线程消费，不经过网络。
+ * 2. 模拟玩家的请求与网络层解码后的请求一致：参数为protobuf字节，由Node按跨语言协议解码。
+ * 3. 服务器之间的协议仍按{@link LocalRpcRouter}路由，因此可以压测进程内的多个Node。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class LoadGenRouter extends LocalRpcRouter {
+
+    private final ConcurrentLinkedQueue<RpcProtocol> playerQueue = new ConcurrentLinkedQueue<>();
+
+    public LoadGenRouter() {
+        this(new LocalNodeRegistry());
+    }
+
+    public LoadGenRouter(LocalNodeRegistry registry) {
+        super(registry);
+    }
+
+    @Override
+    public boolean send(RpcProtocol protocol) {
+        if (protocol.getDestAddr() instanceof PlayerAddr) {
+            playerQueue.offer(protocol);
+            return true;
+        }
+        return super.send(protocol);
+    }
+
+    /** 驱动线程调用 -- 模拟收到玩家的请求 */
+    void rcvPlayerRequest(RpcRequest request) {
+        rpcSupport.onRcvRequest(request);
+    }
+
+    /** 驱动线程调用 -- 获取发给玩家的协议 */
+    RpcProtocol pollPlayerProtocol() {
+        return playerQueue.poll();
+    }
+}
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.loadgen;
+
+import cn.wjybxx.bigcat.fx.MainModule;
+import cn.wjybxx.bigcat.fx.Node;
+import cn.wjybxx.bigcat.fx.NodeRpcRouter;
+import cn.wjybxx.bigcat.fx.WorkerAddr;
+import cn.wjybxx.bigcat.pb.PBMethodInfoRegistry;
+import cn.wjybxx.bigcat.rpc.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 无界面的玩家压测工具
+ * <p>
+ * 1. 在一个线程内模拟大量的玩家，通过{@link LoadGenRouter}直接与Node通信，不经过网络。
+ * 2. 玩家按{@link Scenario}执行操作，可配置多个脚本的权重；玩家在预热时间内均匀上线。
+ * 3. 统计每个步骤的吞吐量、调用延迟，以及Node的帧耗时({@link ProfiledMainModule})。
+ * 4. 调用延迟从驱动线程发出请求开始计算，包含Node线程和Worker线程的排队时间。
+ * <pre>{@code
+ * LoadReport report = new LoadGenerator(node)
+ *         .addScenario(scenario, 1)
+ *         .setPlayerCount(5000)
+ *         .setDurationMs(60_000)
+ *         .run();
+ * System.out.println(report.format());
+ * }</pre>
+ * Node需要将{@link NodeRpcRouter}绑定为{@link LoadGenRouter}，并绑定{@link PBMethodInfoRegistry}。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@NotThreadSafe
+public class LoadGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+    /** 检查超时的间隔 */
+    private static final long TIMEOUT_CHECK_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+    /** 空闲时的最大等待时间 -- 需要及时处理响应 */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Node node;
+    private final LoadGenRouter router;
+    private final PBMethodInfoRegistry methodInfoRegistry;
+    private final ProfiledMainModule profiledMainModule;
+
+    private final List<WeightedScenario> scenarios = new ArrayList<>();
+    private int playerCount = 1000;
+    private long firstPlayerGuid = 1_000_000;
+    private long rampUpMs = 5000;
+    private long durationMs = 60_000;
+    private long reportIntervalMs = 5000;
+    private long callTimeoutMs = 15_000;
+    private int maxPendingCalls = 32;
+    private long seed = 1024;
+
+    // 运行时数据
+    private final long conId = ThreadLocalRandom.current().nextLong();
+    private final PriorityQueue<Timer> timerQueue = new PriorityQueue<>();
+    /** 按发送顺序排列，以便快速检查超时 */
+    private final LinkedHashMap<Long, PendingCall> pendingCallMap = new LinkedHashMap<>();
+    private final Map<Scenario.Step, StepStats> statsMap = new IdentityHashMap<>();
+    private final LatencyHistogram callLatency = new LatencyHistogram();
+    private final List<SimPlayer> players = new ArrayList<>();
+    private WorkerAddr nodeAddr;
+    private long requestSequencer;
+    private long pushCount;
+    private boolean running;
+
+    public LoadGenerator(Node node) {
+        this.node = Objects.requireNonNull(node, "node");
+        NodeRpcRouter nodeRouter = node.injector().getInstance(NodeRpcRouter.class);
+        if (!(nodeRouter instanceof LoadGenRouter loadGenRouter)) {
+            throw new IllegalArgumentException("node router must be LoadGenRouter, router: " + nodeRouter.getClass());
+        }
+        this.router = loadGenRouter;
+        this.methodInfoRegistry = node.injector().getInstance(PBMethodInfoRegistry.class);
+        MainModule mainModule = node.mainModule();
+        this.profiledMainModule = mainModule instanceof ProfiledMainModule profiled ? profiled : null;
+    }
+
+    // region 设置
+
+    /**
+     * 添加脚本
+     *
+     * @param weight 权重，玩家按权重随机选择脚本
+     */
+    public LoadGenerator addScenario(Scenario scenario, int weight) {
+        ensureMutable();
+        Objects.requireNonNull(scenario, "scenario");
+        if (weight <= 0) throw new IllegalArgumentException("weight: " + weight);
+        scenarios.add(new WeightedScenario(scenario, weight));
+        return this;
+    }
+
+    public int getPlayerCount() {
+        return playerCount;
+    }
+
+    public LoadGenerator setPlayerCount(int playerCount) {
+        ensureMutable();
+        if (playerCount <= 0) throw new IllegalArgumentException("playerCount: " + playerCount);
+        this.playerCount = playerCount;
+        return this;
+    }
+
+    public long getFirstPlayerGuid() {
+        return firstPlayerGuid;
+    }
+
+    /** 第一个玩家的guid，其它玩家依次递增 */
+    public LoadGenerator setFirstPlayerGuid(long firstPlayerGuid) {
+        ensureMutable();
+        this.firstPlayerGuid = firstPlayerGuid;
+        return this;
+    }
+
+    public long getRampUpMs() {
+        return rampUpMs;
+    }
+
+    /** 所有玩家上线的时间，玩家在该时间内均匀上线 */
+    public LoadGenerator setRampUpMs(long rampUpMs) {
+        ensureMutable();
+        this.rampUpMs = Math.max(0, rampUpMs);
+        return this;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /** 压测的总时间，包含预热时间 */
+    public LoadGenerator setDurationMs(long durationMs) {
+        ensureMutable();
+        if (durationMs <= 0) throw new IllegalArgumentException("durationMs: " + durationMs);
+        this.durationMs = durationMs;
+        return this;
+    }
+
+    public long getReportIntervalMs() {
+        return reportIntervalMs;
+    }
+
+    /** 输出阶段统计日志的间隔，0表示不输出 */
+    public LoadGenerator setReportIntervalMs(long reportIntervalMs) {
+        ensureMutable();
+        this.reportIntervalMs = Math.max(0, reportIntervalMs);
+        return this;
+    }
+
+    public long getCallTimeoutMs() {
+        return callTimeoutMs;
+    }
+
+    public LoadGenerator setCallTimeoutMs(long callTimeoutMs) {
+        ensureMutable();
+        if (callTimeoutMs <= 0) throw new IllegalArgumentException("callTimeoutMs: " + callTimeoutMs);
+        this.callTimeoutMs = callTimeoutMs;
+        return this;
+    }
+
+    public int getMaxPendingCalls() {
+        return maxPendingCalls;
+    }
+
+    /** 单个玩家未完成的调用上限，超过时丢弃新的调用 -- 避免服务器过载时内存无限增长 */
+    public LoadGenerator setMaxPendingCalls(int maxPendingCalls) {
+        ensureMutable();
+        if (maxPendingCalls <= 0) throw new IllegalArgumentException("maxPendingCalls: " + maxPendingCalls);
+        this.maxPendingCalls = maxPendingCalls;
+        return this;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /** 随机种子，相同的种子下玩家的脚本选择和思考时间可重现 */
+    public LoadGenerator setSeed(long seed) {
+        ensureMutable();
+        this.seed = seed;
+        return this;
+    }
+
+    private void ensureMutable() {
+        if (running || !players.isEmpty()) {
+            throw new IllegalStateException("load generator is started");
+        }
+    }
+    // endregion
+
+    /**
+     * 执行压测 -- 阻塞到压测结束
+     * 不可以在Node的线程调用。
+     */
+    public LoadReport run() {
+        if (scenarios.isEmpty()) {
+            throw new IllegalStateException("scenarios is empty");
+        }
+        if (node.inEventLoop()) {
+            throw new IllegalStateException("can't run in node thread");
+        }
+        ensureMutable();
+        running = true;
+        nodeAddr = node.nodeAddr();
+        for (WeightedScenario weighted : scenarios) {
+            for (Scenario.Step step : weighted.scenario.getOnceSteps()) {
+                statsMap.put(step, new StepStats(weighted.scenario.getName() + "." + step.name()));
+            }
+            for (Scenario.Step step : weighted.scenario.getRepeatSteps()) {
+                statsMap.put(step, new StepStats(weighted.scenario.getName() + "." + step.name()));
+            }
+        }
+        final LatencyHistogram.Snapshot frameStart = profiledMainModule == null ? null : profiledMainModule.getFrameTimes().snapshot();
+        final LatencyHistogram.Snapshot intervalStart = profiledMainModule == null ? null : profiledMainModule.getFrameIntervals().snapshot();
+
+        final SplittableRandom random = new SplittableRandom(seed);
+        final long startNanos = System.nanoTime();
+        final long endNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        final long rampUpNanos = TimeUnit.MILLISECONDS.toNanos(rampUpMs);
+        final long reportIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reportIntervalMs);
+        long nextTimeoutCheckNanos = startNanos + TIMEOUT_CHECK_INTERVAL;
+        long nextReportNanos = startNanos + reportIntervalNanos;
+        IntervalReporter reporter = new IntervalReporter(startNanos);
+        try {
+            long nowNanos;
+            while ((nowNanos = System.nanoTime()) < endNanos) {
+                // 玩家上线
+                while (players.size() < playerCount
+                        && nowNanos - startNanos >= rampUpNanos * players.size() / playerCount) {
+                    spawnPlayer(random, nowNanos);
+                }
+                drainPlayerQueue();
+                nowNanos = System.nanoTime();
+                Timer timer;
+                while ((timer = timerQueue.peek()) != null && timer.dueNanos <= nowNanos) {
+                    timerQueue.poll();
+                    fire(timer, nowNanos);
+                }
+                if (nowNanos >= nextTimeoutCheckNanos) {
+                    nextTimeoutCheckNanos = nowNanos + TIMEOUT_CHECK_INTERVAL;
+                    checkTimeout(nowNanos);
+                }
+                if (reportIntervalNanos > 0 && nowNanos >= nextReportNanos) {
+                    nextReportNanos = nowNanos + reportIntervalNanos;
+                    reporter.report(nowNanos);
+                }
+                long parkNanos = MAX_PARK_NANOS;
+                if (timer != null) {
+                    parkNanos = Math.min(parkNanos, timer.dueNanos - nowNanos);
+                }
+                if (parkNanos > 0) {
+                    LockSupport.parkNanos(parkNanos);
+                }
+            }
+            // 等待未完成的调用，不再发出新的请求
+            final long graceEndNanos = System.nanoTime() + Math.min(TimeUnit.SECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(callTimeoutMs));
+            while (!pendingCallMap.isEmpty() && System.nanoTime() < graceEndNanos) {
+                drainPlayerQueue();
+                LockSupport.parkNanos(MAX_PARK_NANOS);
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            return buildReport(elapsedMs, frameStart, intervalStart);
+        } finally {
+            timerQueue.clear();
+            pendingCallMap.clear();
+            running = false;
+        }
+    }
+
+    // region 内部实现
+
+    private void spawnPlayer(SplittableRandom random, long nowNanos) {
+        Scenario scenario = selectScenario(random);
+        SimPlayer player = new SimPlayer(firstPlayerGuid + players.size(), scenario, random.nextLong());
+        players.add(player);
+        if (scenario.getOnceSteps().isEmpty()) {
+            startRepeatSteps(player, nowNanos);
+        } else {
+            scheduleOnceStep(player, nowNanos);
+        }
+    }
+
+    private Scenario selectScenario(SplittableRandom random) {
+        if (scenarios.size() == 1) {
+            return scenarios.get(0).scenario;
+        }
+        int totalWeight = 0;
+        for (WeightedScenario weighted : scenarios) {
+            totalWeight += weighted.weight;
+        }
+        int value = random.nextInt(totalWeight);
+        for (WeightedScenario weighted : scenarios) {
+            value -= weighted.weight;
+            if (value < 0) {
+                return weighted.scenario;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    private void scheduleOnceStep(SimPlayer player, long nowNanos) {
+        Scenario.Step step = player.getScenario().getOnceSteps().get(player.onceIndex);
+        timerQueue.add(new Timer(player, step, true, nowNanos + nextDelayNanos(player, step)));
+    }
+
+    private void startRepeatSteps(SimPlayer player, long nowNanos) {
+        // 首次执行的时间随机分布在一个间隔内，避免所有玩家同时操作
+        for (Scenario.Step step : player.getScenario().getRepeatSteps()) {
+            long delayNanos = nextDelayNanos(player, step);
+            long offsetNanos = delayNanos > 0 ? player.random().nextLong(delayNanos) : 0;
+            timerQueue.add(new Timer(player, step, false, nowNanos + offsetNanos));
+        }
+    }
+
+    private void advanceOnceStep(SimPlayer player, long nowNanos) {
+        player.onceIndex++;
+        if (player.isReady()) {
+            startRepeatSteps(player, nowNanos);
+        } else {
+            scheduleOnceStep(player, nowNanos);
+        }
+    }
+
+    private static long nextDelayNanos(SimPlayer player, Scenario.Step step) {
+        return TimeUnit.MILLISECONDS.toNanos(step.thinkTime().nextDelay(player.random()));
+    }
+
+    private void fire(Timer timer, long nowNanos) {
+        final SimPlayer player = timer.player;
+        final Scenario.Step step = timer.step;
+        boolean waitResponse = false;
+        RpcMethodSpec<?> methodSpec = step.action().apply(player);
+        if (methodSpec != null) {
+            waitResponse = sendRequest(player, step, methodSpec, timer.once, nowNanos);
+        }
+        if (timer.once) {
+            if (!waitResponse) {
+                advanceOnceStep(player, nowNanos);
+            }
+            return;
+        }
+        // 按计划时间推进，以保持固定频率；落后时从当前时间重新开始
+        long dueNanos = timer.dueNanos + nextDelayNanos(player, step);
+        timer.dueNanos = Math.max(dueNanos, nowNanos);
+        timerQueue.add(timer);
+    }
+
+    /** @return 是否需要等待响应 */
+    private boolean sendRequest(SimPlayer player, Scenario.Step step, RpcMethodSpec<?> methodSpec, boolean once, long nowNanos) {
+        StepStats stats = statsMap.get(step);
+        if (!step.oneway() && player.pendingCalls >= maxPendingCalls) {
+            stats.dropped++;
+            return false;
+        }
+        // 与网络层解码后的请求一致：参数为protobuf字节，未反序列化，不可共享
+        int invokeType = step.oneway() ? RpcInvokeType.ONEWAY : RpcInvokeType.CALL;
+        RpcRequest request = new RpcRequest(conId, player.getPlayerAddr(), nodeAddr, invokeType, ++requestSequencer, methodSpec);
+        request.setSharable(false);
+        methodInfoRegistry.encodeParameters(request);
+
+        stats.sent++;
+        if (!step.oneway()) {
+            pendingCallMap.put(request.getRequestId(), new PendingCall(player, stats, once, nowNanos));
+            player.pendingCalls++;
+        }
+        router.rcvPlayerRequest(request);
+        return !step.oneway();
+    }
+
+    private void drainPlayerQueue() {
+        RpcProtocol protocol;
+        while ((protocol = router.pollPlayerProtocol()) != null) {
+            if (protocol instanceof RpcResponse response) {
+                onRcvResponse(response);
+            } else {
+                pushCount++;
+            }
+        }
+    }
+
+    private void onRcvResponse(RpcResponse response) {
+        PendingCall pendingCall = pendingCallMap.remove(response.getRequestId());
+        if (pendingCall == null) {
+            return; // 已超时
+        }
+        long nowNanos = System.nanoTime();
+        long latency = nowNanos - pendingCall.sendNanos;
+        pendingCall.stats.latency.record(latency);
+        callLatency.record(latency);
+        if (response.getErrorCode() == RpcErrorCodes.SUCCESS) {
+            pendingCall.stats.succeeded++;
+        } else {
+            pendingCall.stats.failed++;
+        }
+        pendingCall.player.pendingCalls--;
+        if (pendingCall.once && running) {
+            advanceOnceStep(pendingCall.player, nowNanos);
+        }
+    }
+
+    private void checkTimeout(long nowNanos) {
+        final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(callTimeoutMs);
+        Iterator<PendingCall> itr = pendingCallMap.values().iterator();
+        while (itr.hasNext()) {
+            PendingCall pendingCall = itr.next();
+            if (nowNanos - pendingCall.sendNanos < timeoutNanos) {
+                break; // 按发送顺序排列
+            }
+            itr.remove();
+            pendingCall.stats.timeouts++;
+            pendingCall.player.pendingCalls--;
+            if (pendingCall.once) {
+                advanceOnceStep(pendingCall.player, nowNanos);
+            }
+        }
+    }
+
+    private LoadReport buildReport(long elapsedMs, LatencyHistogram.Snapshot frameStart, LatencyHistogram.Snapshot intervalStart) {
+        List<LoadReport.StepReport> steps = new ArrayList<>(statsMap.size());
+        for (WeightedScenario weighted : scenarios) {
+            for (Scenario.Step step : weighted.scenario.getOnceSteps()) {
+                steps.add(statsMap.get(step).toReport());
+            }
+            for (Scenario.Step step : weighted.scenario.getRepeatSteps()) {
+                steps.add(statsMap.get(step).toReport());
+            }
+        }
+        int readyCount = 0;
+        for (SimPlayer player : players) {
+            if (player.isReady()) {
+                readyCount++;
+            }
+        }
+        LatencyHistogram.Snapshot frameTimes = null;
+        LatencyHistogram.Snapshot frameIntervals = null;
+        if (profiledMainModule != null) {
+            frameTimes = profiledMainModule.getFrameTimes().snapshot().since(frameStart);
+            frameIntervals = profiledMainModule.getFrameIntervals().snapshot().since(intervalStart);
+        }
+        return new LoadReport(elapsedMs, players.size(), readyCount, List.copyOf(steps), callLatency.snapshot(),
+                pushCount, frameTimes, frameIntervals);
+    }
+
+    // endregion
+
+    private record WeightedScenario(Scenario scenario, int weight) {
+
+    }
+
+    private record PendingCall(SimPlayer player, StepStats stats, boolean once, long sendNanos) {
+
+    }
+
+    private static class Timer implements Comparable<Timer> {
+
+        final SimPlayer player;
+        final Scenario.Step step;
+        final boolean once;
+        long dueNanos;
+
+        Timer(SimPlayer player, Scenario.Step step, boolean once, long dueNanos) {
+            this.player = player;
+            this.step = step;
+            this.once = once;
+            this.dueNanos = dueNanos;
+        }
+
+        @Override
+        public int compareTo(Timer that) {
+            return Long.compare(dueNanos, that.dueNanos);
+        }
+    }
+
+    private static class StepStats {
+
+        final String name;
+        final LatencyHistogram latency = new LatencyHistogram();
+        long sent;
+        long succeeded;
+        long failed;
+        long timeouts;
+        long dropped;
+
+        StepStats(String name) {
+            this.name = name;
+        }
+
+        LoadReport.StepReport toReport() {
+            return new LoadReport.StepReport(name, sent, succeeded, failed, timeouts, dropped, latency.snapshot());
+        }
+    }
+
+    /** 输出阶段统计 */
+    private class IntervalReporter {
+
+        long lastNanos;
+        long lastSent;
+        long lastPush;
+        LatencyHistogram.Snapshot lastLatency = callLatency.snapshot();
+        LatencyHistogram.Snapshot lastFrame = profiledMainModule == null ? null : profiledMainModule.getFrameTimes().snapshot();
+
+        IntervalReporter(long startNanos) {
+            this.lastNanos = startNanos;
+        }
+
+        void report(long nowNanos) {
+            long sent = 0;
+            for (StepStats stats : statsMap.values()) {
+                sent += stats.sent;
+            }
+            double seconds = (nowNanos - lastNanos) / 1e9;
+            LatencyHistogram.Snapshot latency = callLatency.snapshot();
+            String frameSummary = "-";
+            if (profiledMainModule != null) {
+                LatencyHistogram.Snapshot frame = profiledMainModule.getFrameTimes().snapshot();
+                frameSummary = frame.since(lastFrame).summary();
+                lastFrame = frame;
+            }
+            logger.info("loadgen players {}, pending {}, sent {}/s, push {}/s, latency [{}], frame [{}]",
+                    players.size(), pendingCallMap.size(),
+                    Math.round((sent - lastSent) / seconds), Math.round((pushCount - lastPush) / seconds),
+                    latency.since(lastLatency).summary(), frameSummary);
+            lastNanos = nowNanos;
+            lastSent = sent;
+            lastPush = pushCount;
+            lastLatency = latency;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.loadgen;
+
+import java.util.List;
+
+/**
+ * 压测报告
+ *
+ * @param elapsedMs      压测耗时
+ * @param playerCount    模拟的玩家数
+ * @param readyCount     完成一次性步骤(如登录)的玩家数
+ * @param steps          每个步骤的统计
+ * @param callLatency    所有调用的延迟(纳秒)
+ * @param pushCount      服务器主动推送给玩家的消息数
+ * @param frameTimes     Node的主循环耗时(纳秒)，未使用{@link ProfiledMainModule}时为null
+ * @param frameIntervals Node的帧间隔(纳秒)，未使用{@link ProfiledMainModule}时为null
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public record LoadReport(long elapsedMs, int playerCount, int readyCount,
+                         List<StepReport> steps,
+                         LatencyHistogram.Snapshot callLatency,
+                         long pushCount,
+                         LatencyHistogram.Snapshot frameTimes,
+                         LatencyHistogram.Snapshot frameIntervals) {
+
+    /**
+     * 单个步骤的统计
+     *
+     * @param name      脚本名.步骤名
+     * @param sent      发送的请求数
+     * @param succeeded 成功的调用数
+     * @param failed    返回错误码的调用数
+     * @param timeouts  超时的调用数
+     * @param dropped   由于未完成的调用过多而未发送的请求数
+     * @param latency   调用延迟(纳秒)，单向消息为空
+     */
+    public record StepReport(String name, long sent, long succeeded, long failed, long timeouts, long dropped,
+                             LatencyHistogram.Snapshot latency) {
+
+    }
+
+    /** 发送的请求总数 */
+    public long totalSent() {
+        long sum = 0;
+        for (StepReport step : steps) {
+            sum += step.sent;
+        }
+        return sum;
+    }
+
+    /** 每秒发送的请求数 */
+    public double throughput() {
+        return elapsedMs == 0 ? 0 : totalSent() * 1000d / elapsedMs;
+    }
+
+    /** 格式化为多行文本，时间单位为毫秒 */
+    public String format() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("elapsed %d ms, players %d, ready %d, sent %d, throughput %.1f/s, push %d%n".formatted(
+                elapsedMs, playerCount, readyCount, totalSent(), throughput(), pushCount));
+        for (StepReport step : steps) {
+            sb.append("  %s: sent %d, succeeded %d, failed %d, timeouts %d, dropped %d%n".formatted(
+                    step.name, step.sent, step.succeeded, step.failed, step.timeouts, step.dropped));
+            if (step.latency.count() > 0) {
+                sb.append("    latency ").append(step.latency.summary()).append(System.lineSeparator());
+            }
+        }
+        sb.append("  call latency ").append(callLatency.summary()).append(System.lineSeparator());
+        if (frameTimes != null) {
+            sb.append("  frame time ").append(frameTimes.summary()).append(System.lineSeparator());
+            sb.append("  frame interval ").append(frameIntervals.summary()).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.loadgen;
+
+import cn.wjybxx.bigcat.fx.DefaultMainModule;
+
+/**
+ * 统计帧耗时的主模块
+ * <p>
+ * 1. 帧耗时为一次主循环的耗时，即所有模块update的耗时。
+ * 2. 帧间隔为两次主循环开始的间隔，包含处理rpc等事件的时间；负载过高时会明显超过帧间隔的配置。
+ * 3. 压测时将Node的{@link cn.wjybxx.bigcat.fx.MainModule}绑定为该类型，{@link LoadGenerator}会自动采集。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class ProfiledMainModule extends DefaultMainModule {
+
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private final LatencyHistogram frameIntervals = new LatencyHistogram();
+    private long frameStartNanos;
+
+    /** 主循环耗时(纳秒) */
+    public LatencyHistogram getFrameTimes() {
+        return frameTimes;
+    }
+
+    /** 两次主循环开始的间隔(纳秒) */
+    public LatencyHistogram getFrameIntervals() {
+        return frameIntervals;
+    }
+
+    @Override
+    public void beforeMainLoop() {
+        super.beforeMainLoop();
+        long nanoTime = System.nanoTime();
+        if (frameStartNanos != 0) {
+            frameIntervals.record(nanoTime - frameStartNanos);
+        }
+        frameStartNanos = nanoTime;
+    }
+
+    @Override
+    public void afterMainLoop() {
+        frameTimes.record(System.nanoTime() - frameStartNanos);
+        super.afterMainLoop();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.loadgen;
+
+import cn.wjybxx.bigcat.rpc.RpcMethodSpec;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 模拟玩家的行为脚本
+ * <p>
+ * 1. 一次性步骤按顺序执行，call需要等待响应后才执行下一步 -- 比如登录、进入场景。
+ * 2. 一次性步骤全部完成后，重复步骤按各自的间隔并发执行 -- 比如移动、聊天、交易。
+ * 3. 步骤返回null时表示本次跳过，可用于实现带状态的脚本。
+ * <pre>{@code
+ * Scenario scenario = Scenario.newBuilder("combat")
+ *         .once("login", player -> LoginServiceProxy.login(...))
+ *         .sendEvery("move", ThinkTime.rate(10), player -> SceneServiceProxy.move(...))
+ *         .every("chat", ThinkTime.exponential(10_000), player -> ChatServiceProxy.chat(...))
+ *         .build();
+ * }</pre>
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public final class Scenario {
+
+    private final String name;
+    private final List<Step> onceSteps;
+    private final List<Step> repeatSteps;
+
+    private Scenario(Builder builder) {
+        this.name = builder.name;
+        this.onceSteps = List.copyOf(builder.onceSteps);
+        this.repeatSteps = List.copyOf(builder.repeatSteps);
+    }
+
+    public static Builder newBuilder(String name) {
+        return new Builder(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Step> getOnceSteps() {
+        return onceSteps;
+    }
+
+    public List<Step> getRepeatSteps() {
+        return repeatSteps;
+    }
+
+    @Override
+    public String toString() {
+        return "Scenario{" +
+                "name='" + name + '\'' +
+                ", onceSteps=" + onceSteps.stream().map(Step::name).toList() +
+                ", repeatSteps=" + repeatSteps.stream().map(Step::name).toList() +
+                '}';
+    }
+
+    /**
+     * 脚本中的一个步骤
+     *
+     * @param name      步骤名，在脚本内唯一，用于统计
+     * @param thinkTime 执行前的等待时间；对于重复步骤，也是两次执行的间隔
+     * @param oneway    是否是单向消息
+     * @param action    生成请求
+     */
+    public record Step(String name, ThinkTime thinkTime, boolean oneway,
+                       Function<? super SimPlayer, ? extends RpcMethodSpec<?>> action) {
+
+        public Step {
+            Objects.requireNonNull(name, "name");
+            Objects.requireNonNull(thinkTime, "thinkTime");
+            Objects.requireNonNull(action, "action");
+        }
+    }
+
+    public static class Builder {
+
+        private final String name;
+        private final List<Step> onceSteps = new ArrayList<>();
+        private final List<Step> repeatSteps = new ArrayList<>();
+        private final Set<String> stepNames = new HashSet<>();
+
+        private Builder(String name) {
+            this.name = Objects.requireNonNull(name, "name");
+        }
+
+        /** 添加一个立即执行的一次性调用 */
+        public Builder once(String name, Function<? super SimPlayer, ? extends RpcMethodSpec<?>> action) {
+            return once(name, ThinkTime.fixed(0), action);
+        }
+
+        /** 添加一个一次性调用，在上一步完成后等待指定时间执行 */
+        public Builder once(String name, ThinkTime thinkTime, Function<? super SimPlayer, ? extends RpcMethodSpec<?>> action) {
+            onceSteps.add(newStep(name, thinkTime, false, action));
+            return this;
+        }
+
+        /** 添加一个一次性的单向消息 */
+        public Builder sendOnce(String name, ThinkTime thinkTime, Function<? super SimPlayer, ? extends RpcMethodSpec<?>> action) {
+            onceSteps.add(newStep(name, thinkTime, true, action));
+            return this;
+        }
+
+        /** 添加一个重复执行的调用 */
+        public Builder every(String name, ThinkTime thinkTime, Function<? super SimPlayer, ? extends RpcMethodSpec<?>> action) {
+            repeatSteps.add(newStep(name, thinkTime, false, action));
+            return this;
+        }
+
+        /** 添加一个重复执行的单向消息 */
+        public Builder sendEvery(String name, ThinkTime thinkTime, Function<? super SimPlayer, ? extends RpcMethodSpec<?>> action) {
+            repeatSteps.add(newStep(name, thinkTime, true, action));
+            return this;
+        }
+
+        private Step newStep(String name, ThinkTime thinkTime, boolean oneway,
+                             Function<? super SimPlayer, ? extends RpcMethodSpec<?>> action) {
+            if (!stepNames.add(name)) {
+                throw new IllegalArgumentException("step is duplicate, name: " + name);
+            }
+            return new Step(name, thinkTime, oneway, action);
+        }
+
+        public Scenario build() {
+            if (onceSteps.isEmpty() && repeatSteps.isEmpty()) {
+                throw new IllegalStateException("scenario is empty, name: " + name);
+            }
+            return new Scenario(this);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.loadgen;
+
+import cn.wjybxx.bigcat.fx.PlayerAddr;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * 模拟的玩家
+ * 只在压测的驱动线程访问；脚本可通过{@link #setUserData(Object)}保存自己的状态，比如坐标。
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@NotThreadSafe
+public final class SimPlayer {
+
+    private final long playerGuid;
+    private final PlayerAddr playerAddr;
+    private final Scenario scenario;
+    private final SplittableRandom random;
+    private Object userData;
+
+    /** 下一个要执行的一次性步骤 */
+    int onceIndex;
+    /** 未完成的调用数 */
+    int pendingCalls;
+
+    SimPlayer(long playerGuid, Scenario scenario, long seed) {
+        this.playerGuid = playerGuid;
+        this.playerAddr = new PlayerAddr(playerGuid);
+        this.scenario = scenario;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public long getPlayerGuid() {
+        return playerGuid;
+    }
+
+    public PlayerAddr getPlayerAddr() {
+        return playerAddr;
+    }
+
+    public Scenario getScenario() {
+        return scenario;
+    }
+
+    /** 玩家私有的随机数，种子固定时可重现 */
+    public RandomGenerator random() {
+        return random;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getUserData() {
+        return (T) userData;
+    }
+
+    public void setUserData(Object userData) {
+        this.userData = userData;
+    }
+
+    /** 是否已执行完所有的一次性步骤 */
+    public boolean isReady() {
+        return onceIndex >= scenario.getOnceSteps().size();
+    }
+
+    @Override
+    public String toString() {
+        return "SimPlayer{" +
+                "playerGuid=" + playerGuid +
+                ", scenario=" + scenario.getName() +
+                ", onceIndex=" + onceIndex +
+                ", pendingCalls=" + pendingCalls +
+                '}';
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.loadgen;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * 模拟玩家两次操作之间的间隔
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+@FunctionalInterface
+public interface ThinkTime {
+
+    /**
+     * 计算下一次操作的延迟
+     *
+     * @param random 玩家私有的随机数
+     * @return 延迟毫秒数
+     */
+    long nextDelay(RandomGenerator random);
+
+    /** 固定间隔 */
+    static ThinkTime fixed(long delayMs) {
+        if (delayMs < 0) throw new IllegalArgumentException("delayMs: " + delayMs);
+        return random -> delayMs;
+    }
+
+    /** 固定频率 -- 比如每秒移动10次 */
+    static ThinkTime rate(double hz) {
+        if (hz <= 0) throw new IllegalArgumentException("hz: " + hz);
+        long delayMs = Math.max(1, Math.round(1000 / hz));
+        return random -> delayMs;
+    }
+
+    /** 在[minMs, maxMs]之间均匀分布 */
+    static ThinkTime uniform(long minMs, long maxMs) {
+        if (minMs < 0 || maxMs < minMs) {
+            throw new IllegalArgumentException("minMs: %d, maxMs: %d".formatted(minMs, maxMs));
+        }
+        return random -> minMs == maxMs ? minMs : random.nextLong(minMs, maxMs + 1);
+    }
+
+    /** 指数分布 -- 模拟随机到达的操作，比如聊天 */
+    static ThinkTime exponential(long meanMs) {
+        if (meanMs <= 0) throw new IllegalArgumentException("meanMs: " + meanMs);
+        return random -> Math.round(random.nextExponential() * meanMs);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.loadgen;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    void testBucket() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            Assertions.assertTrue(LatencyHistogram.lowerBound(index) <= value);
+            if (value < Long.MAX_VALUE / 2) {
+                Assertions.assertTrue(LatencyHistogram.lowerBound(index + 1) > value);
+            }
+        }
+    }
+
+    @Test
+    void testPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(10000, snapshot.count());
+        Assertions.assertEquals(10_000_000, snapshot.max());
+        assertNear(5_000_000, snapshot.percentile(0.5));
+        assertNear(9_900_000, snapshot.percentile(0.99));
+
+        // 区间统计
+        for (int i = 0; i < 100; i++) {
+            histogram.record(100);
+        }
+        LatencyHistogram.Snapshot interval = histogram.snapshot().since(snapshot);
+        Assertions.assertEquals(100, interval.count());
+        assertNear(100, interval.percentile(0.99));
+        Assertions.assertTrue(interval.max() < 200);
+    }
+
+    /** 相对误差不超过1/16 */
+    private static void assertNear(long expected, long actual) {
+        Assertions.assertTrue(Math.abs(expected - actual) <= expected / 16, "expected " + expected + ", actual " + actual);
+    }
+}
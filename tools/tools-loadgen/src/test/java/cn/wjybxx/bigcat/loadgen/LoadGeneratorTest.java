@@ -0,0 +1,186 @@
+/*
+ * Copyright 2023-2024 wjybxx(845740757@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cn.wjybxx.bigcat.loadgen;
+
+import cn.wjybxx.base.time.TimeProvider;
+import cn.wjybxx.bigcat.fx.*;
+import cn.wjybxx.bigcat.pb.PBMethodInfo;
+import cn.wjybxx.bigcat.pb.PBMethodInfoRegistry;
+import cn.wjybxx.bigcat.rpc.*;
+import com.google.inject.*;
+import com.google.protobuf.StringValue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * 模拟少量玩家压测一个Node
+ *
+ * @author wjybxx
+ * date - 2024/1/22
+ */
+public class LoadGeneratorTest {
+
+    private static final int SERVICE_ID = 1;
+    private static final int METHOD_ECHO = 1;
+    private static final int METHOD_MOVE = 2;
+
+    @Test
+    void testRun() {
+        Node node = newNode();
+        node.start().join();
+        try {
+            Scenario scenario = Scenario.newBuilder("test")
+                    .once("login", player -> echo("login-" + player.getPlayerGuid()))
+                    .sendEvery("move", ThinkTime.rate(20), player -> move())
+                    .every("chat", ThinkTime.uniform(50, 150), player -> echo("chat"))
+                    .build();
+            LoadReport report = new LoadGenerator(node)
+                    .addScenario(scenario, 1)
+                    .setPlayerCount(200)
+                    .setRampUpMs(200)
+                    .setDurationMs(2000)
+                    .setReportIntervalMs(1000)
+                    .run();
+            System.out.println(report.format());
+
+            Assertions.assertEquals(200, report.playerCount());
+            Assertions.assertEquals(200, report.readyCount());
+            LoadReport.StepReport login = report.steps().get(0);
+            Assertions.assertEquals(200, login.sent());
+            Assertions.assertEquals(200, login.succeeded());
+            Assertions.assertTrue(report.steps().get(1).sent() > 0);
+            Assertions.assertTrue(report.steps().get(2).succeeded() > 0);
+            // 每次echo都会推送一条消息给玩家
+            Assertions.assertTrue(report.pushCount() > 0);
+            Assertions.assertNotNull(report.frameTimes());
+            Assertions.assertTrue(report.frameTimes().count() > 0);
+        } finally {
+            node.shutdownNow();
+            node.terminationFuture().join();
+        }
+    }
+
+    private static RpcMethodSpec<StringValue> echo(String msg) {
+        return new RpcMethodSpec<>(SERVICE_ID, METHOD_ECHO, List.of(StringValue.of(msg)));
+    }
+
+    private static RpcMethodSpec<Object> move() {
+        return new RpcMethodSpec<>(SERVICE_ID, METHOD_MOVE, List.of(StringValue.of("move")));
+    }
+
+    private static Node newNode() {
+        return NodeBuilder.newDefaultNodeBuilder()
+                .setNodeAddr(new WorkerAddr(1, 1))
+                .setWorkerId("Node")
+                .setInjector(createNodeInjector())
+                .addModule(WorkerRpcClient.class)
+                .addModule(NodeRpcSupport.class)
+                .addModule(LoadGenRouter.class)
+                .setWorkerFactory((parent, index, workerCtx) -> WorkerBuilder.newDisruptorWorkerBuilder()
+                        .setWorkerId("Worker-" + index)
+                        .setParent(parent)
+                        .setWorkerCtx(workerCtx)
+                        .setInjector(createWorkerInjector())
+                        .addModule(WorkerRpcClient.class)
+                        .addModule(SceneModule.class)
+                        .build())
+                .build();
+    }
+
+    private static Injector createNodeInjector() {
+        PBMethodInfoRegistry methodInfoRegistry = new PBMethodInfoRegistry();
+        methodInfoRegistry.register(new PBMethodInfo<>(SERVICE_ID, METHOD_ECHO, StringValue.class, StringValue.class));
+        methodInfoRegistry.register(new PBMethodInfo<>(SERVICE_ID, METHOD_MOVE, StringValue.class, StringValue.class));
+        methodInfoRegistry.makeImmutable();
+        return Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                super.configure();
+                binder().requireExplicitBindings();
+
+                bind(MainModule.class).to(ProfiledMainModule.class).in(Singleton.class);
+                bind(ProfiledMainModule.class).in(Singleton.class);
+                bind(RpcClient.class).to(WorkerRpcClient.class).in(Singleton.class);
+                bind(WorkerRpcClient.class).in(Singleton.class);
+                bind(RpcRegistry.class).to(DefaultRpcRegistry.class).in(Singleton.class);
+                bind(TimeProvider.class).to(TimeModule.class).in(Singleton.class);
+                bind(TimeModule.class).in(Singleton.class);
+
+                bind(NodeRpcRouter.class).to(LoadGenRouter.class).in(Singleton.class);
+                bind(LoadGenRouter.class).in(Singleton.class);
+                bind(NodeRpcSupport.class).in(Singleton.class);
+                bind(RpcSerializer.class).to(UnsupportedSerializer.class).in(Singleton.class);
+                bind(PBMethodInfoRegistry.class).toInstance(methodInfoRegistry);
+            }
+        });
+    }
+
+    private static Injector createWorkerInjector() {
+        return Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                super.configure();
+                binder().requireExplicitBindings();
+
+                bind(MainModule.class).to(DefaultMainModule.class).in(Singleton.class);
+                bind(DefaultMainModule.class).in(Singleton.class);
+                bind(RpcClient.class).to(WorkerRpcClient.class).in(Singleton.class);
+                bind(WorkerRpcClient.class).in(Singleton.class);
+                bind(RpcRegistry.class).to(DefaultRpcRegistry.class).in(Singleton.class);
+                bind(TimeProvider.class).to(TimeModule.class).in(Singleton.class);
+                bind(TimeModule.class).in(Singleton.class);
+
+                bind(SceneModule.class).in(Singleton.class);
+            }
+        });
+    }
+
+    /** echo时推送一条消息给玩家 */
+    private static class SceneModule implements WorkerModule {
+
+        @Inject
+        RpcRegistry registry;
+        @Inject
+        RpcClient rpcClient;
+
+        @Override
+        public void start() {
+            registry.register(SERVICE_ID, METHOD_ECHO, (context, methodSpec) -> {
+                rpcClient.send(context.request().getSrcAddr(), move());
+                return methodSpec.getObject(0);
+            });
+            registry.register(SERVICE_ID, METHOD_MOVE, (context, methodSpec) -> null);
+        }
+    }
+
+    /** 玩家的协议都是protobuf，不需要序列化 */
+    private static class UnsupportedSerializer implements RpcSerializer {
+
+        @Override
+        public byte[] write(@Nonnull Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object read(@Nonnull byte[] source) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}